@@ -0,0 +1,157 @@
+package minesweeper;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+
+import minesweeper.benchmark.Harness;
+import minesweeper.benchmark.Harness.Benchmark;
+
+/**
+ * Benchmarks of Board: construction, flood fills, flag churn, rendering and contended digs.
+ */
+public class BoardBenchmarks {
+    /** Number of precomputed random blocks cycled through by the benchmarks of single operations. */
+    private static final int BLOCKS = 1 << 16;
+    private static final int CONTENDED_SIZE = 512, CONTENDED_THREADS = 4;
+
+    private BoardBenchmarks() {
+    }
+
+    /**
+     * Register the benchmarks with a harness.
+     * 
+     * @param harness harness to run the benchmarks
+     */
+    public static void register(Harness harness) {
+        for (int size : new int[] { 100, 1000, 4000 }) {
+            harness.add("board.construct." + size, 1, () -> () -> new Board(size, size).getWidth());
+        }
+
+        // The worst case of a flood fill: a board without bombs, every block of which is revealed by one dig.
+        harness.addPrepared("board.floodFill.1024", 1, () -> new Benchmark() {
+            private Board board;
+
+            @Override
+            public void prepare() {
+                this.board = BoardGenerator.withMines(1024, 1024, 1, 0);
+            }
+
+            @Override
+            public long run() {
+                return this.board.dig(0, 0) ? 1 : 0;
+            }
+        });
+
+        harness.add("board.flagDeflag", 2, () -> new Benchmark() {
+            private final Board board = BoardGenerator.withDensity(1024, 1024, 2, BoardGenerator.DEFAULT_DENSITY);
+            private final int[] blocks = randomBlocks(1024, 3);
+            private int next = 0;
+
+            @Override
+            public long run() {
+                int x = this.blocks[this.next], y = this.blocks[this.next + 1];
+                this.next = (this.next + 2) & (this.blocks.length - 1);
+                this.board.flag(x, y);
+                this.board.deflag(x, y);
+                return this.board.version();
+            }
+        });
+
+        harness.add("board.render.cached.256", 1, () -> {
+            Board board = BoardGenerator.withDensity(256, 256, 4, BoardGenerator.DEFAULT_DENSITY);
+            return () -> board.boardMessage().length;
+        });
+
+        // A changed block makes the renderer encode its row again and copy the whole message.
+        harness.add("board.render.changed.256", 1, () -> new Benchmark() {
+            private final Board board = BoardGenerator.withDensity(256, 256, 5, BoardGenerator.DEFAULT_DENSITY);
+            private final int[] blocks = randomBlocks(256, 6);
+            private int next = 0;
+
+            @Override
+            public long run() {
+                int x = this.blocks[this.next], y = this.blocks[this.next + 1];
+                this.next = (this.next + 2) & (this.blocks.length - 1);
+                this.board.flag(x, y);
+                this.board.deflag(x, y);
+                return this.board.boardMessage().length;
+            }
+        });
+
+        // A view of all but one column encodes every other block afresh.
+        harness.add("board.render.full.256", 1, () -> {
+            Board board = BoardGenerator.withDensity(256, 256, 7, BoardGenerator.DEFAULT_DENSITY);
+            return () -> board.viewMessage(0, 0, 256, 255).length;
+        });
+
+        harness.add("board.render.view.40x20", 1, () -> {
+            Board board = BoardGenerator.withDensity(4000, 4000, 8, BoardGenerator.DEFAULT_DENSITY);
+            return () -> board.viewMessage(2000, 2000, 20, 40).length;
+        });
+
+        harness.addPrepared("board.contendedDigs." + CONTENDED_THREADS + "threads",
+                CONTENDED_THREADS * CONTENDED_SIZE * CONTENDED_SIZE, () -> new Benchmark() {
+                    private Board board;
+
+                    @Override
+                    public void prepare() {
+                        this.board = BoardGenerator.withDensity(CONTENDED_SIZE, CONTENDED_SIZE, 9,
+                                BoardGenerator.DEFAULT_DENSITY);
+                    }
+
+                    @Override
+                    public long run() throws Exception {
+                        return contendedDigs(this.board);
+                    }
+                });
+    }
+
+    /**
+     * Dig every block of a board from several threads at once, each in its own order.
+     * 
+     * @return number of bombs dug
+     */
+    private static long contendedDigs(Board board) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(CONTENDED_THREADS);
+        long[] bombs = new long[CONTENDED_THREADS];
+        Thread[] threads = new Thread[CONTENDED_THREADS];
+        for (int t = 0; t < CONTENDED_THREADS; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                int step = 2 * thread + 1;
+                for (int k = 0; k < CONTENDED_SIZE * CONTENDED_SIZE; k++) {
+                    int block = (int) ((long) k * step * 7919 % (CONTENDED_SIZE * CONTENDED_SIZE));
+                    if (board.dig(block / CONTENDED_SIZE, block % CONTENDED_SIZE)) {
+                        bombs[thread]++;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        long res = 0;
+        for (int t = 0; t < CONTENDED_THREADS; t++) {
+            threads[t].join();
+            res += bombs[t];
+        }
+        return res;
+    }
+
+    /**
+     * Draw random blocks of a square board.
+     * 
+     * @return BLOCKS / 2 pairs of x and y
+     */
+    private static int[] randomBlocks(int size, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] blocks = new int[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            blocks[i] = random.nextInt(size);
+        }
+        return blocks;
+    }
+}
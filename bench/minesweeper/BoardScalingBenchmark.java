@@ -0,0 +1,89 @@
+package minesweeper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Measures how Board operations scale with the number of threads when each thread plays in its own band of rows.
+ * Run as a Java application with src and bench compiled:
+ * <pre>
+ *   java minesweeper.BoardScalingBenchmark [SIZE [MAX_THREADS]]
+ * </pre>
+ * Every round digs every block of a fresh SIZE x SIZE board, then flags and deflags random blocks, and reports the
+ * throughput and the speedup over a single thread.
+ */
+public class BoardScalingBenchmark {
+
+    private static final int TOGGLES_PER_THREAD = 2_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%d x %d board, %d processors%n", size, size, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %14s %14s %9s%n", "threads", "digs/s", "toggles/s", "speedup");
+        run(size, 1); // warm up
+        double single = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double[] rates = run(size, threads);
+            if (threads == 1) {
+                single = rates[1];
+            }
+            System.out.printf("%8d %14.0f %14.0f %8.2fx%n", threads, rates[0], rates[1], rates[1] / single);
+        }
+    }
+
+    /**
+     * Run one round with the given number of threads.
+     * @return digs per second and flag/deflag toggles per second over all threads
+     */
+    private static double[] run(int size, int threads) throws Exception {
+        Board board = new Board(size, size);
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        CyclicBarrier dug = new CyclicBarrier(threads + 1);
+        CyclicBarrier done = new CyclicBarrier(threads + 1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int firstRow = t * size / threads, lastRow = (t + 1) * size / threads;
+            SplittableRandom random = new SplittableRandom(t);
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = firstRow; i < lastRow; i++) {
+                        for (int j = 0; j < size; j++) {
+                            board.dig(i, (j * 7919) % size);
+                        }
+                    }
+                    dug.await();
+                    for (int k = 0; k < TOGGLES_PER_THREAD; k++) {
+                        int x = random.nextInt(firstRow, lastRow), y = random.nextInt(size);
+                        board.flag(x, y);
+                        board.deflag(x, y);
+                    }
+                    done.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.await();
+        long begin = System.nanoTime();
+        dug.await();
+        long middle = System.nanoTime();
+        done.await();
+        long end = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        return new double[] {
+                (double) size * size / ((middle - begin) / 1e9),
+                2.0 * TOGGLES_PER_THREAD * threads / ((end - middle) / 1e9)
+        };
+    }
+}
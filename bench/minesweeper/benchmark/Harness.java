@@ -0,0 +1,308 @@
+package minesweeper.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import minesweeper.BoardBenchmarks;
+import minesweeper.server.ProtocolBenchmarks;
+
+/**
+ * Microbenchmark harness for the hot paths of the board and the server, measuring in the manner of JMH: every
+ * benchmark runs warmup iterations, then measured iterations of a fixed duration, and reports the mean time per
+ * operation with its 99.9% confidence interval. Results are written in a plain text format which can be checked in
+ * as a baseline and compared against later runs. Run as a Java application with src and bench compiled:
+ * <pre>
+ *   java minesweeper.benchmark.Harness [-f REGEX] [-wi N] [-i N] [-t SECONDS] [-o FILE] [-c BASELINE] [-l]
+ * </pre>
+ * -f runs only the benchmarks whose names match REGEX, -wi and -i set the number of warmup and measured
+ * iterations, -t the seconds per iteration, -o writes the results to FILE, -c compares them against the results in
+ * BASELINE and exits with status 1 if any benchmark regressed, and -l lists the benchmarks. The checked in baseline
+ * is bench/baseline.txt.
+ */
+public class Harness {
+    /** Slowdown over the baseline, as a fraction, reported as a regression if beyond the measurement error. */
+    private static final double REGRESSION_THRESHOLD = 0.10;
+    /** Two-sided 99.9% quantiles of Student's t distribution, indexed by degrees of freedom. */
+    private static final double[] T_999 = { Double.NaN, 636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78,
+            4.59 };
+    /** Sink of benchmark results, so the JIT can't drop the work producing them. */
+    private static volatile long sink;
+
+    private final Map<String, Entry> benchmarks = new LinkedHashMap<>();
+
+    /**
+     * A single benchmark: one invocation of run() performs a fixed number of operations.
+     */
+    public interface Benchmark {
+        /**
+         * Prepare the state of the next invocation, outside of the measured time. Only called for benchmarks
+         * registered as preparing every invocation.
+         * 
+         * @throws Exception if preparing fails
+         */
+        default void prepare() throws Exception {
+        }
+
+        /**
+         * Run one invocation.
+         * 
+         * @return a value depending on the work done, consumed by the harness
+         * @throws Exception if the benchmark fails
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * A registered benchmark.
+     */
+    private static class Entry {
+        private final String name;
+        private final int operations;
+        private final boolean prepareEach;
+        private final Supplier<Benchmark> factory;
+
+        private Entry(String name, int operations, boolean prepareEach, Supplier<Benchmark> factory) {
+            this.name = name;
+            this.operations = operations;
+            this.prepareEach = prepareEach;
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * Result of a benchmark, in nanoseconds per operation.
+     */
+    private static class Result {
+        private final double score, error;
+
+        private Result(double score, double error) {
+            this.score = score;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Register a benchmark whose invocations are timed in batches.
+     * 
+     * @param name unique name of the benchmark
+     * @param operations number of operations performed by one invocation, requires operations > 0
+     * @param factory creates the state of the benchmark once per iteration
+     */
+    public void add(String name, int operations, Supplier<Benchmark> factory) {
+        this.benchmarks.put(name, new Entry(name, operations, false, factory));
+    }
+
+    /**
+     * Register a benchmark which prepares every invocation, outside of the measured time. Meant for invocations
+     * long enough to be timed one by one, such as digging a whole board.
+     * 
+     * @param name unique name of the benchmark
+     * @param operations number of operations performed by one invocation, requires operations > 0
+     * @param factory creates the state of the benchmark once per iteration
+     */
+    public void addPrepared(String name, int operations, Supplier<Benchmark> factory) {
+        this.benchmarks.put(name, new Entry(name, operations, true, factory));
+    }
+
+    /**
+     * Run the benchmarks given on the command line as described above.
+     * 
+     * @param args arguments as described
+     * @throws Exception if a benchmark fails or a results file can't be read or written
+     */
+    public static void main(String[] args) throws Exception {
+        Pattern filter = Pattern.compile(".*");
+        int warmups = 5, iterations = 5;
+        double seconds = 1;
+        File output = null, baseline = null;
+        boolean list = false;
+        Queue<String> arguments = new LinkedList<>(List.of(args));
+        try {
+            while (!arguments.isEmpty()) {
+                String flag = arguments.remove();
+                if (flag.equals("-f")) {
+                    filter = Pattern.compile(arguments.remove());
+                } else if (flag.equals("-wi")) {
+                    warmups = Integer.parseInt(arguments.remove());
+                } else if (flag.equals("-i")) {
+                    iterations = Integer.parseInt(arguments.remove());
+                } else if (flag.equals("-t")) {
+                    seconds = Double.parseDouble(arguments.remove());
+                } else if (flag.equals("-o")) {
+                    output = new File(arguments.remove());
+                } else if (flag.equals("-c")) {
+                    baseline = new File(arguments.remove());
+                } else if (flag.equals("-l")) {
+                    list = true;
+                } else {
+                    throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                }
+            }
+            if (iterations < 2) {
+                throw new IllegalArgumentException("at least 2 iterations are needed");
+            }
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            System.err.println(e instanceof NoSuchElementException ? "missing argument" : e.getMessage());
+            System.err.println("usage: Harness [-f REGEX] [-wi N] [-i N] [-t SECONDS] [-o FILE] [-c BASELINE] [-l]");
+            System.exit(2);
+            return;
+        }
+
+        Harness harness = new Harness();
+        BoardBenchmarks.register(harness);
+        ProtocolBenchmarks.register(harness);
+
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (Entry entry : harness.benchmarks.values()) {
+            if (!filter.matcher(entry.name).find()) {
+                continue;
+            }
+            if (list) {
+                System.out.println(entry.name);
+                continue;
+            }
+            Result result = harness.measure(entry, warmups, iterations, (long) (seconds * 1e9));
+            results.put(entry.name, result);
+            System.out.println(format(entry.name, result));
+        }
+        if (output != null) {
+            write(results, output, warmups, iterations, seconds);
+        }
+        if (baseline != null && !compare(results, read(baseline))) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Measure a benchmark.
+     * 
+     * @return mean time per operation over the measured iterations, with its error
+     */
+    private Result measure(Entry entry, int warmups, int iterations, long nanos) throws Exception {
+        double[] scores = new double[iterations];
+        for (int i = -warmups; i < iterations; i++) {
+            double score = iteration(entry, nanos);
+            if (i >= 0) {
+                scores[i] = score;
+            }
+        }
+        double mean = 0;
+        for (double score : scores) {
+            mean += score / iterations;
+        }
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean) / (iterations - 1);
+        }
+        double t = iterations - 1 < T_999.length ? T_999[iterations - 1] : 3.29;
+        return new Result(mean, t * Math.sqrt(variance / iterations));
+    }
+
+    /**
+     * Run one iteration of a benchmark for about the given time.
+     * 
+     * @return time per operation in nanoseconds
+     */
+    private double iteration(Entry entry, long nanos) throws Exception {
+        Benchmark benchmark = entry.factory.get();
+        long result = 0, invocations = 0, measured = 0;
+        if (entry.prepareEach) {
+            long end = System.nanoTime() + nanos;
+            do {
+                benchmark.prepare();
+                long start = System.nanoTime();
+                result += benchmark.run();
+                measured += System.nanoTime() - start;
+                invocations++;
+            } while (System.nanoTime() < end);
+        } else {
+            long start = System.nanoTime(), now = start;
+            for (long batch = 1; now - start < nanos; batch = Math.min(2 * batch, 1 << 20)) {
+                for (long i = 0; i < batch; i++) {
+                    result += benchmark.run();
+                }
+                invocations += batch;
+                now = System.nanoTime();
+            }
+            measured = now - start;
+        }
+        sink += result;
+        return (double) measured / (invocations * entry.operations);
+    }
+
+    private static String format(String name, Result result) {
+        return String.format(Locale.ROOT, "%-40s %14.3f %12.3f  ns/op", name, result.score, result.error);
+    }
+
+    /**
+     * Write results in the format read by read(): one line per benchmark with its name, score and error, after
+     * comment lines starting with '#'.
+     */
+    private static void write(Map<String, Result> results, File file, int warmups, int iterations, double seconds)
+            throws IOException {
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8)) {
+            out.printf(Locale.ROOT, "# %s %s, %d processors, %d warmup and %d measured iterations of %.1f s%n",
+                    System.getProperty("java.vm.name"), System.getProperty("java.version"),
+                    Runtime.getRuntime().availableProcessors(), warmups, iterations, seconds);
+            out.println("# benchmark score error units");
+            for (Map.Entry<String, Result> result : results.entrySet()) {
+                out.println(format(result.getKey(), result.getValue()));
+            }
+        }
+    }
+
+    private static Map<String, Result> read(File file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.trim().split("\\s+");
+            results.put(fields[0], new Result(Double.parseDouble(fields[1]), Double.parseDouble(fields[2])));
+        }
+        return results;
+    }
+
+    /**
+     * Print the results next to the baseline. A benchmark regressed if it is slower than the baseline by more than
+     * REGRESSION_THRESHOLD and by more than the errors of both measurements.
+     * 
+     * @return true if no benchmark regressed
+     */
+    private static boolean compare(Map<String, Result> results, Map<String, Result> baseline) {
+        List<String> regressions = new ArrayList<>();
+        System.out.printf("%n%-40s %14s %14s %8s%n", "benchmark", "baseline", "current", "ratio");
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            Result before = baseline.get(entry.getKey()), after = entry.getValue();
+            if (before == null) {
+                System.out.printf(Locale.ROOT, "%-40s %14s %14.3f %8s%n", entry.getKey(), "-", after.score, "new");
+                continue;
+            }
+            double slowdown = after.score - before.score;
+            boolean regressed = slowdown > REGRESSION_THRESHOLD * before.score
+                    && slowdown > before.error + after.error;
+            if (regressed) {
+                regressions.add(entry.getKey());
+            }
+            System.out.printf(Locale.ROOT, "%-40s %14.3f %14.3f %7.2fx%s%n", entry.getKey(), before.score,
+                    after.score, after.score / before.score, regressed ? "  REGRESSION" : "");
+        }
+        if (!regressions.isEmpty()) {
+            System.out.println("Regressed: " + String.join(", ", regressions));
+        }
+        return regressions.isEmpty();
+    }
+}
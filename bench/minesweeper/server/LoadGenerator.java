@@ -0,0 +1,554 @@
+package minesweeper.server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import minesweeper.Histogram;
+import minesweeper.Minefield;
+import minesweeper.TiledBoard;
+
+/**
+ * Load generator and latency soak harness for the server. Opens many simulated telnet clients speaking the text
+ * protocol, each playing a random mix of look, dig, flag and deflag requests on the default room, and reports the
+ * throughput and the latency percentiles of the responses. Run as a Java application with src and bench compiled:
+ * <pre>
+ *   java minesweeper.server.LoadGenerator [--host HOST --port PORT [--debug] | [--size SIZE_X,SIZE_Y] [--seed SEED]
+ *       [--nio | --virtual]] [--clients N] [--mix look:L,dig:D,flag:F,deflag:G] [--rate RATE [--open]]
+ *       [--binary] [--warmup SECONDS] [--duration SECONDS] [--rows ROWS] [--output FILE]
+ * </pre>
+ * With --port the clients connect to a server already running on HOST, localhost by default, and --debug tells
+ * them the server runs in debug mode; otherwise a client reconnects after every BOOM. Without --port a server is
+ * started in-process in debug mode on a random board of SIZE_X*SIZE_Y blocks, 100*100 by default, served as by
+ * MinesweeperServer with --nio or --virtual.
+ * 
+ * <br> N clients, 16 by default, each keep one connection and wait for every response before sending the next
+ * request. The mix gives the relative weights of the requests, 70:10:10:10 by default, each about a random block.
+ * 
+ * <br> Without --rate every client sends its next request as soon as it has the response: a closed loop measuring
+ * the largest throughput. With --rate the clients together send RATE requests per second, each at its own pace;
+ * a client whose response comes late sends its next request late, so its latency leaves out the time requests
+ * would have waited behind the slow one. With --open the clients instead keep to a fixed schedule and catch up
+ * after a slow response, and latency is measured from when each request should have been sent, which corrects this
+ * coordinated omission as wrk2 does; the time from sending to the response is reported as service time.
+ * 
+ * <br> With --binary the clients switch to the binary protocol of BinaryProtocol after the welcome message, and
+ * read responses by their frame lengths. The bytes received are reported either way.
+ * 
+ * <br> Requests sent during the first SECONDS of --warmup, 5 by default, are not measured; the measurement runs
+ * for the SECONDS of --duration, 30 by default. ROWS is the number of lines of a board response, derived from the
+ * board size in the welcome message unless given. --output writes the latency distribution in milliseconds to
+ * FILE in the .hgrm format of HdrHistogram.
+ */
+public class LoadGenerator {
+    private static final Pattern WELCOME = Pattern.compile("Board: (\\d+) columns by (\\d+) rows");
+    private static final String[] REQUESTS = { "look", "dig", "flag", "deflag" };
+    private static final String BOOM = "BOOM!";
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Percentiles printed in the summary. */
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+    private final String host;
+    private final int port;
+    /** True if the server keeps a connection open after a BOOM message. */
+    private final boolean debug;
+    private final int clients;
+    /** Cumulative weights of the requests, in the order of REQUESTS. */
+    private final int[] mix;
+    /** Requests per second sent by all clients together, or 0 to send requests back to back. */
+    private final double rate;
+    /** True if requests are sent on a fixed schedule, and latency measured from it. */
+    private final boolean open;
+    private final long warmupNanos, durationNanos;
+    /** Number of lines of a board response, or 0 to derive it from the welcome message. */
+    private final int rows;
+    /** True if the clients speak the binary protocol. */
+    private final boolean binary;
+
+    /** Latency of every measured request, from when it was or should have been sent until the response. */
+    private final Histogram latency = new Histogram();
+    /** Time from sending every measured request until the response. */
+    private final Histogram service = new Histogram();
+    private final LongAdder booms = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    /** Bytes of the responses to measured requests. */
+    private final LongAdder received = new LongAdder();
+
+    private LoadGenerator(String host, int port, boolean debug, int clients, int[] mix, double rate, boolean open,
+            double warmup, double duration, int rows, boolean binary) {
+        this.host = host;
+        this.port = port;
+        this.debug = debug;
+        this.clients = clients;
+        this.mix = mix;
+        this.rate = rate;
+        this.open = open;
+        this.warmupNanos = (long) (warmup * 1e9);
+        this.durationNanos = (long) (duration * 1e9);
+        this.rows = rows;
+        this.binary = binary;
+    }
+
+    /**
+     * Run the load described on the command line as described above.
+     * 
+     * @param args arguments as described
+     * @throws Exception if the server can't be started or reached, or the output file can't be written
+     */
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = -1;
+        boolean debug = false;
+        int sizeX = 100, sizeY = 100;
+        long seed = new SplittableRandom().nextLong();
+        MinesweeperServer.Mode mode = MinesweeperServer.Mode.THREADS;
+        int clients = 16;
+        int[] mix = { 70, 80, 90, 100 };
+        double rate = 0, warmup = 5, duration = 30;
+        boolean open = false, binary = false;
+        int rows = 0;
+        File output = null;
+
+        Queue<String> arguments = new LinkedList<>(List.of(args));
+        try {
+            while (!arguments.isEmpty()) {
+                String flag = arguments.remove();
+                try {
+                    if (flag.equals("--host")) {
+                        host = arguments.remove();
+                    } else if (flag.equals("--port")) {
+                        port = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--debug")) {
+                        debug = true;
+                    } else if (flag.equals("--size")) {
+                        String[] sizes = arguments.remove().split(",");
+                        sizeX = Integer.parseInt(sizes[0]);
+                        sizeY = Integer.parseInt(sizes[1]);
+                    } else if (flag.equals("--seed")) {
+                        seed = Long.parseLong(arguments.remove());
+                    } else if (flag.equals("--nio")) {
+                        mode = MinesweeperServer.Mode.NIO;
+                    } else if (flag.equals("--virtual")) {
+                        mode = MinesweeperServer.Mode.VIRTUAL_THREADS;
+                    } else if (flag.equals("--clients")) {
+                        clients = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--mix")) {
+                        mix = parseMix(arguments.remove());
+                    } else if (flag.equals("--rate")) {
+                        rate = Double.parseDouble(arguments.remove());
+                    } else if (flag.equals("--open")) {
+                        open = true;
+                    } else if (flag.equals("--binary")) {
+                        binary = true;
+                    } else if (flag.equals("--warmup")) {
+                        warmup = Double.parseDouble(arguments.remove());
+                    } else if (flag.equals("--duration")) {
+                        duration = Double.parseDouble(arguments.remove());
+                    } else if (flag.equals("--rows")) {
+                        rows = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--output")) {
+                        output = new File(arguments.remove());
+                    } else {
+                        throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                    }
+                } catch (NoSuchElementException | ArrayIndexOutOfBoundsException e) {
+                    throw new IllegalArgumentException("missing argument for " + flag);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("unable to parse number for " + flag);
+                }
+            }
+            if (clients < 1 || sizeX < 1 || sizeY < 1 || rate < 0 || warmup < 0 || duration <= 0 || rows < 0) {
+                throw new IllegalArgumentException("numbers out of range");
+            }
+            if (open && rate == 0) {
+                throw new IllegalArgumentException("--open requires --rate");
+            }
+            if (mode == MinesweeperServer.Mode.VIRTUAL_THREADS && !MinesweeperServer.virtualThreadsSupported()) {
+                throw new IllegalArgumentException("virtual threads require Java 21 or later");
+            }
+        } catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.err.println("usage: LoadGenerator [--host HOST --port PORT [--debug] | [--size SIZE_X,SIZE_Y] "
+                    + "[--seed SEED] [--nio | --virtual]] [--clients N] [--mix look:L,dig:D,flag:F,deflag:G] "
+                    + "[--rate RATE [--open]] [--binary] [--warmup SECONDS] [--duration SECONDS] [--rows ROWS] "
+                    + "[--output FILE]");
+            System.exit(2);
+            return;
+        }
+
+        if (port < 0) {
+            System.err.println("Board seed: " + seed);
+            port = startServer(MinesweeperServer.randomBoard(sizeX, sizeY, seed, -1), mode);
+            debug = true;
+        }
+        LoadGenerator generator = new LoadGenerator(host, port, debug, clients, mix, rate, open, warmup, duration,
+                rows, binary);
+        generator.run();
+        generator.report(System.out);
+        if (output != null) {
+            try (PrintWriter out = new PrintWriter(output, StandardCharsets.UTF_8)) {
+                generator.latency.writePercentiles(out, 1e6);
+            }
+        }
+        // The event loops of an in-process server never end.
+        System.exit(0);
+    }
+
+    /**
+     * Parse a mix of requests such as "look:70,dig:10".
+     * 
+     * @return cumulative weights of the requests in the order of REQUESTS
+     */
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[REQUESTS.length];
+        for (String part : mix.split(",")) {
+            String[] request = part.split(":");
+            int i = List.of(REQUESTS).indexOf(request[0]);
+            if (i < 0 || request.length != 2) {
+                throw new IllegalArgumentException("unknown request in mix: \"" + part + "\"");
+            }
+            weights[i] = Integer.parseInt(request[1]);
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("negative weight in mix: \"" + part + "\"");
+            }
+        }
+        for (int i = 1; i < weights.length; i++) {
+            weights[i] += weights[i - 1];
+        }
+        if (weights[weights.length - 1] == 0) {
+            throw new IllegalArgumentException("empty mix");
+        }
+        return weights;
+    }
+
+    /**
+     * Start a server in debug mode on a port chosen by the system, serving its clients on background threads.
+     * 
+     * @return port of the server
+     */
+    private static int startServer(Minefield board, MinesweeperServer.Mode mode) throws IOException {
+        Thread serving;
+        int port;
+        if (mode == MinesweeperServer.Mode.NIO) {
+            MinesweeperNioServer server = new MinesweeperNioServer(0, board, true,
+                    Runtime.getRuntime().availableProcessors());
+            port = server.port();
+            serving = new Thread(() -> serve(server::serve), "minesweeper-server");
+        } else {
+            MinesweeperServer server = mode == MinesweeperServer.Mode.VIRTUAL_THREADS
+                    ? new MinesweeperServer(0, board, true, MinesweeperServer.virtualThreadExecutor())
+                    : new MinesweeperServer(0, board, true);
+            port = server.port();
+            serving = new Thread(() -> serve(server::serve), "minesweeper-server");
+        }
+        serving.setDaemon(true);
+        serving.start();
+        return port;
+    }
+
+    /**
+     * Body of a thread running a server.
+     */
+    private interface Serving {
+        void serve() throws IOException;
+    }
+
+    private static void serve(Serving server) {
+        try {
+            server.serve();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Run the clients through the warmup and the measurement, and wait for them to finish.
+     */
+    private void run() throws InterruptedException {
+        long start = System.nanoTime() + 100_000_000;
+        Thread[] threads = new Thread[this.clients];
+        for (int i = 0; i < this.clients; i++) {
+            int client = i;
+            threads[i] = new Thread(() -> runClient(client, start), "load-client-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Body of the thread of a client.
+     * 
+     * @param client number of the client
+     * @param start time the clients start sending requests, in System.nanoTime()
+     */
+    private void runClient(int client, long start) {
+        SplittableRandom random = new SplittableRandom(client);
+        long measured = start + this.warmupNanos, end = measured + this.durationNanos;
+        long interval = this.rate == 0 ? 0 : (long) (1e9 * this.clients / this.rate);
+        // Spread the clients over the first interval, so they don't all send at once.
+        long scheduled = start + interval * client / this.clients;
+        Client connection = null;
+        try {
+            while (true) {
+                if (connection == null) {
+                    connection = new Client(this.host, this.port);
+                }
+                for (long now = System.nanoTime(); now < scheduled; now = System.nanoTime()) {
+                    LockSupport.parkNanos(scheduled - now);
+                }
+                long sent = System.nanoTime();
+                if (sent >= end) {
+                    break;
+                }
+                byte[] request = nextRequest(random, connection);
+                long bytes = connection.received;
+                boolean boom;
+                try {
+                    boom = connection.exchange(request);
+                } catch (IOException ioe) {
+                    this.errors.increment();
+                    connection.close();
+                    connection = null;
+                    continue;
+                }
+                long received = System.nanoTime();
+                long intended = this.open ? scheduled : sent;
+                if (intended >= measured && received < end) {
+                    this.latency.record(received - intended);
+                    this.service.record(received - sent);
+                    this.received.add(connection.received - bytes);
+                    if (boom) {
+                        this.booms.increment();
+                    }
+                }
+                if (boom && !this.debug) {
+                    connection.close();
+                    connection = null;
+                }
+                scheduled = this.open ? scheduled + interval : Math.max(scheduled + interval, received);
+            }
+        } catch (IOException ioe) {
+            System.err.println("client " + client + ": " + ioe.getMessage());
+            this.errors.increment();
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Draw the next request of a client.
+     * 
+     * @return request line to send, or the request as a frame in the binary protocol
+     */
+    private byte[] nextRequest(SplittableRandom random, Client connection) {
+        int weight = random.nextInt(this.mix[this.mix.length - 1]);
+        int request = 0;
+        while (weight >= this.mix[request]) {
+            request++;
+        }
+        String line = request == 0 ? REQUESTS[request]
+                : REQUESTS[request] + " " + random.nextInt(connection.width) + " " + random.nextInt(connection.height);
+        if (!this.binary) {
+            return (line + "%n".formatted()).getBytes(StandardCharsets.US_ASCII);
+        }
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        byte[] frame = new byte[Short.BYTES + bytes.length];
+        frame[1] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, frame, Short.BYTES, bytes.length);
+        return frame;
+    }
+
+    /**
+     * Print the throughput and the latency percentiles.
+     */
+    private void report(PrintStream out) {
+        long count = this.latency.count();
+        double seconds = this.durationNanos / 1e9;
+        out.printf(Locale.ROOT, "%s, %d clients, %.1f s measured after %.1f s warmup%n",
+                this.rate == 0 ? "Closed loop" : this.open ? "Open loop at %.1f requests/s".formatted(this.rate)
+                        : "Closed loop paced at %.1f requests/s".formatted(this.rate),
+                this.clients, seconds, this.warmupNanos / 1e9);
+        out.printf(Locale.ROOT, "Requests: %d (%.1f/s), booms: %d, errors: %d%n", count, count / seconds,
+                this.booms.sum(), this.errors.sum());
+        out.printf(Locale.ROOT, "Received: %.1f bytes/request (%.2f MB/s) over the %s protocol%n",
+                count == 0 ? 0 : (double) this.received.sum() / count, this.received.sum() / seconds / 1e6,
+                this.binary ? "binary" : "text");
+        printPercentiles(out, "Latency", this.latency);
+        if (this.open) {
+            printPercentiles(out, "Service time", this.service);
+        }
+    }
+
+    private static void printPercentiles(PrintStream out, String name, Histogram histogram) {
+        StringBuilder line = new StringBuilder(name + " (ms):");
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(Locale.ROOT, " p%s %.3f", percentile == (int) percentile
+                    ? Integer.toString((int) percentile) : Double.toString(percentile),
+                    histogram.valueAtPercentile(percentile) / 1e6));
+        }
+        line.append(String.format(Locale.ROOT, " max %.3f mean %.3f", histogram.max() / 1e6,
+                histogram.mean() / 1e6));
+        out.println(line);
+    }
+
+    /**
+     * Connection of a simulated client, which reads responses by counting their lines, or by their frame lengths in
+     * the binary protocol.
+     */
+    private class Client {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0, limit = 0;
+        /** Number of bytes received. */
+        private long received = 0;
+        /** Size of the board of the default room, and the number of lines of a board response. */
+        private final int width, height, boardLines;
+
+        /**
+         * Connect to the server and read its welcome message.
+         */
+        private Client(String host, int port) throws IOException {
+            this.socket = new Socket(host, port);
+            this.socket.setTcpNoDelay(true);
+            this.in = this.socket.getInputStream();
+            this.out = this.socket.getOutputStream();
+            String welcome = readLine();
+            Matcher size = WELCOME.matcher(welcome);
+            if (!size.find()) {
+                close();
+                throw new IOException("unexpected welcome message: " + welcome);
+            }
+            this.width = Integer.parseInt(size.group(1));
+            this.height = Integer.parseInt(size.group(2));
+            if (LoadGenerator.this.rows > 0) {
+                this.boardLines = LoadGenerator.this.rows;
+            } else if ((long) this.width * this.height > MinesweeperServer.MAX_IN_MEMORY_BLOCKS) {
+                this.boardLines = Math.min(this.height, TiledBoard.MESSAGE_SIZE);
+            } else {
+                this.boardLines = this.height;
+            }
+            if (LoadGenerator.this.binary) {
+                this.out.write(("binary" + "%n".formatted()).getBytes(StandardCharsets.US_ASCII));
+                this.out.flush();
+                readLine();
+            }
+        }
+
+        /**
+         * Send a request and read its response, a board message or a single BOOM line, or a single frame in the
+         * binary protocol.
+         * 
+         * @param request request line or frame
+         * @return true if the response is a BOOM message
+         */
+        private boolean exchange(byte[] request) throws IOException {
+            this.out.write(request);
+            this.out.flush();
+            if (LoadGenerator.this.binary) {
+                int length = 0;
+                for (int i = 0; i < Integer.BYTES; i++) {
+                    length = length << 8 | readByte() & 0xff;
+                }
+                boolean boom = readByte() == BinaryProtocol.BOOM;
+                skip(length - 1);
+                return boom;
+            }
+            if (this.position == this.limit) {
+                fill();
+            }
+            // No line of a board starts with the B of BOOM.
+            boolean boom = this.buffer[this.position] == BOOM.charAt(0);
+            skipLines(boom ? 1 : this.boardLines);
+            return boom;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                if (this.position == this.limit) {
+                    fill();
+                }
+                byte b = this.buffer[this.position++];
+                if (b == '\n') {
+                    return line.toString().strip();
+                }
+                line.append((char) b);
+            }
+        }
+
+        private void skipLines(int lines) throws IOException {
+            while (lines > 0) {
+                if (this.position == this.limit) {
+                    fill();
+                }
+                int i = this.position;
+                while (i < this.limit && this.buffer[i] != '\n') {
+                    i++;
+                }
+                if (i < this.limit) {
+                    lines--;
+                    i++;
+                }
+                this.position = i;
+            }
+        }
+
+        private byte readByte() throws IOException {
+            if (this.position == this.limit) {
+                fill();
+            }
+            return this.buffer[this.position++];
+        }
+
+        private void skip(int bytes) throws IOException {
+            while (bytes > 0) {
+                if (this.position == this.limit) {
+                    fill();
+                }
+                int skipped = Math.min(bytes, this.limit - this.position);
+                this.position += skipped;
+                bytes -= skipped;
+            }
+        }
+
+        private void fill() throws IOException {
+            int count = this.in.read(this.buffer);
+            if (count < 0) {
+                throw new EOFException("connection closed by the server");
+            }
+            this.position = 0;
+            this.limit = count;
+            this.received += count;
+        }
+
+        private void close() {
+            try {
+                this.socket.close();
+            } catch (IOException ioe) {
+                // nothing left to release
+            }
+        }
+    }
+}
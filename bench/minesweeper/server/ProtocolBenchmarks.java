@@ -0,0 +1,75 @@
+package minesweeper.server;
+
+import minesweeper.BoardGenerator;
+import minesweeper.Minefield;
+import minesweeper.benchmark.Harness;
+import minesweeper.benchmark.Harness.Benchmark;
+
+/**
+ * Benchmarks of request handling: parsing, and the answers to look, flag and deflag, in text and binary, and batches.
+ */
+public class ProtocolBenchmarks {
+    private static final String[] REQUESTS = { "dig 12 34", "flag -5 123456", "deflag 7 7", "look",
+            "create room-1 30 40", "view 10 20 30 40", "dig 1 2 3" };
+
+    private ProtocolBenchmarks() {
+    }
+
+    /**
+     * Register the benchmarks with a harness.
+     * 
+     * @param harness harness to run the benchmarks
+     */
+    public static void register(Harness harness) {
+        harness.add("protocol.parse", REQUESTS.length, () -> {
+            RequestParser parser = new RequestParser();
+            return () -> {
+                long res = 0;
+                for (String request : REQUESTS) {
+                    if (parser.parse(request, 0, request.length())) {
+                        res += parser.command + parser.numbers[0];
+                    }
+                }
+                return res;
+            };
+        });
+
+        harness.add("protocol.look.100", 1, () -> {
+            MinesweeperProtocol protocol = protocol(100);
+            return () -> protocol.handleRequest("look").length;
+        });
+
+        // Every flag and deflag changes one block, so the board message is brought up to date every time.
+        harness.add("protocol.flagDeflag.100", 2, () -> {
+            MinesweeperProtocol protocol = protocol(100);
+            return () -> protocol.handleRequest("flag 50 50").length + protocol.handleRequest("deflag 50 50").length;
+        });
+
+        // In the binary protocol the changed board message is encoded again as a BOARD frame.
+        harness.add("protocol.binary.flagDeflag.100", 2, () -> {
+            MinesweeperProtocol protocol = protocol(100);
+            protocol.handleRequest("binary");
+            return () -> protocol.handleRequest("flag 50 50").length + protocol.handleRequest("deflag 50 50").length;
+        });
+
+        harness.add("protocol.view.flagDeflag.1000", 2, () -> {
+            MinesweeperProtocol protocol = protocol(1000);
+            protocol.handleRequest("view 480 480 40 20");
+            return () -> protocol.handleRequest("flag 500 490").length
+                    + protocol.handleRequest("deflag 500 490").length;
+        });
+
+        harness.add("protocol.batch.100", 4, () -> {
+            MinesweeperProtocol protocol = protocol(100);
+            return () -> protocol.handleRequest("flag 1 2;flag 3 4;deflag 1 2;deflag 3 4").length;
+        });
+    }
+
+    /**
+     * Create the protocol of a player on a fresh square board.
+     */
+    private static MinesweeperProtocol protocol(int size) {
+        Minefield board = BoardGenerator.withDensity(size, size, size, BoardGenerator.DEFAULT_DENSITY);
+        return new MinesweeperProtocol(new RoomRegistry(board), true);
+    }
+}
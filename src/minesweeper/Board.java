@@ -1,83 +1,245 @@
 package minesweeper;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
 
 /**
- * Actual board of the game representing the internal state.
+ * Actual board of the game representing the internal state. Thread safe: the blocks are guarded by the
+ * ReentrantLocks of square tiles rather than the monitor of the board, so operations on distant blocks run in
+ * parallel. Board messages are read without locking, validated against the stamps of the tiles.
+ * 
+ * <br> The numbers of covered blocks without bombs, of flags and of bombs are counted as the blocks change, so the
+ * state of the game is known without scanning the board: the game is played until the last covered block without
+ * a bomb is dug, when the board is cleared, and starts again once a new board is dealt by resetIfCleared().
  */
-public class Board {
+public final class Board implements Minefield {
     final private static String boomMessage = "BOOM!";
-    final private List<String[]> visualBoard;
-    final private boolean[][] bombBoard;
-    final private int width, height;
+
+    /*
+     * Every block is packed into one byte of cells, stored row by row at index (x + 1) * stride + (y + 1):
+     *   bits 0-3  number of neighbours containing bombs, computed once when the board is built
+     *   bit 4     the block contains a bomb, which went off if the block is dug
+     *   bit 5     the block is flagged
+     *   bit 6     the block is dug
+     *   bit 7     the block is dug, and left to spread from by a flood fill which released its tiles meanwhile
+     * A block with neither FLAGGED nor DUG set is untouched.
+     * 
+     * The board is surrounded by a one block border which is marked as dug, so the eight neighbours of any
+     * block can be visited by index offset without checking the boundary.
+     */
+    final private static byte COUNT_MASK = 0x0f;
+    final private static byte BOMB = 0x10;
+    final private static byte FLAGGED = 0x20;
+    final private static byte DUG = 0x40;
+    final private static byte PENDING = (byte) 0x80;
+    final private static byte STATE_MASK = FLAGGED | DUG;
+    final private static byte BORDER = DUG;
+    /** Smallest number of cells for which a board is built by parallel streams. */
+    final private static int PARALLEL_CELLS = 1 << 16;
+
+    final private byte[] cells;
+    final private int width, height, stride;
+    /** Index offsets of the eight neighbours of a block. */
+    final private int[] neighbours;
+    /** Value of version when each row was last changed. */
+    final private AtomicLongArray rowVersions;
+    final private BoardRenderer renderer;
+    final private TileLocks locks;
+    /**
+     * Incremented by every dig, flag and deflag which changes the board, while holding the changed tiles, and again
+     * when a dig is done.
+     */
+    final private AtomicLong version = new AtomicLong();
+    /** Number of covered blocks without a bomb, of flagged blocks, and of covered blocks containing a bomb. */
+    final private AtomicLong coveredSafe = new AtomicLong(), flags = new AtomicLong(), mines = new AtomicLong();
+    /** Number of bombs dug, which went off. */
+    final private AtomicLong booms = new AtomicLong();
+    /** Number of times a new board was dealt, changed while holding every tile. */
+    private volatile long resets;
+    /** Work buffers of finished digs, reused by later digs. */
+    final private Queue<Dig> digs = new ConcurrentLinkedQueue<>();
+    /** Journal of the changes to the board, or null. */
+    private volatile BoardJournal journal;
+    /** True if the blocks the board was built from may hold fills to finish, until finishFills() is called. */
+    private boolean pendingFills = false;
+    /** True if the operations on the board are recorded in BoardMetrics, which only the boards of servers are. */
+    private boolean metered = true;
+
+    /**
+     * Work buffers of a single dig: the tiles it holds and the stack of blocks left to reveal.
+     */
+    private class Dig {
+        final private TileLocks.Holder tiles = locks.new Holder();
+        private int[] stack = new int[64];
+        /** Number of digs done with these buffers, to sample the time they hold their tiles. */
+        private int count = 0;
+    }
     
     /**
-     * Construct a new Board class with size width x height and randomized bomb distribution.
+     * Construct a new Board class with size width x height and randomized bomb distribution. Use BoardGenerator
+     * for a board which can be generated again from its seed.
      * 
      * @param width width of the Board.
      * @param height height of the Board
      */
     public Board(int width, int height) {
-        this.width = width;
-        this.height = height;
-        this.visualBoard = new ArrayList<>();
-        this.bombBoard = new boolean[height][width];
-        
-        for (int i = 0; i < this.height; i++) {
-            String[] row = new String[this.width];
-            for (int j = 0; j < this.width; j++) {
-                row[j] = "-";
-            }
-            this.visualBoard.add(row);
-        }
-        
-        for (var row : this.bombBoard) {
-            for (int i = 0; i < row.length; i++) {
-                if (new Random().nextFloat() <= 0.25) {
-                    row[i] = true;
-                }
-            }
-        }
+        this(BoardGenerator.bombs(width, height, new SplittableRandom().nextLong(), BoardGenerator.DEFAULT_DENSITY,
+                -1));
     }
-    
+
     /**
-     * Construct a Board class with size and bomb distribution specified by File object file.
+     * Construct a Board class with size and bomb distribution specified by File object file, in the text or the
+     * binary format of BoardFiles.
      * 
      * @param file File object specify the size and bomb distribution of the board.
      * @throws FileNotFoundException if invalid file is provided.
      * @throws IOException if the format of the file is wrong.
      */
     public Board(File file) throws FileNotFoundException, IOException {
-        BufferedReader input = new BufferedReader(new FileReader(file));
-        String[] size = input.readLine().split(" ");
-        this.height = Integer.parseInt(size[1]);
-        this.width = Integer.parseInt(size[0]);
-        this.visualBoard = new ArrayList<>();
-        this.bombBoard = new boolean[height][width];
+        this(BoardFiles.read(file));
+    }
 
-        for (int i = 0; i < this.height; i++) {
-            String[] row = new String[this.width];
-            for (int j = 0; j < this.width; j++) {
-                row[j] = "-";
-            }
-            this.visualBoard.add(row);
+    /**
+     * Construct a Board class with the given bombs.
+     * 
+     * @param bombs size and bomb distribution of the board
+     */
+    Board(BoardFiles.Bombs bombs) {
+        this(bombs.width, bombs.height, new byte[(bombs.height + 2) * (bombs.width + 2)], bombs);
+    }
+
+    /**
+     * Construct a Board class from the packed blocks of a board, as returned by copyCells().
+     * 
+     * @param width width of the board
+     * @param height height of the board
+     * @param cells packed blocks, border included, owned by the board from now on
+     */
+    Board(int width, int height, byte[] cells) {
+        this(width, height, cells, null);
+    }
+
+    /**
+     * Construct a Board class from packed blocks, or from bombs placed into blank blocks.
+     * 
+     * @param width width of the board
+     * @param height height of the board
+     * @param cells packed blocks, border included, owned by the board from now on; blank if bombs are given
+     * @param bombs bombs to place, or null if cells are packed blocks already
+     */
+    private Board(int width, int height, byte[] cells, BoardFiles.Bombs bombs) {
+        this.height = height;
+        this.width = width;
+        this.stride = width + 2;
+        this.cells = cells;
+        this.neighbours = neighbourOffsets(this.stride);
+        this.rowVersions = new AtomicLongArray(height);
+        this.locks = new TileLocks(width, height);
+        this.renderer = new BoardRenderer(this);
+        if (bombs != null) {
+            placeBombs(bombs);
+        } else {
+            countBlocks();
         }
+    }
 
-        for (int i = 0; i < this.height; i++) {
-            String[] row = input.readLine().split(" ");
-            for (int j = 0; j < this.width; j++) {
-                this.bombBoard[i][j] = Integer.parseInt(row[j]) == 0 ? false : true;
+    /**
+     * Compute the index offsets of the eight neighbours of a block.
+     * 
+     * @param stride length of a padded row in cells
+     * @return offsets to add to the index of a block to get the indices of its neighbours
+     */
+    private static int[] neighbourOffsets(int stride) {
+        return new int[] { -stride - 1, -stride, -stride + 1, -1, 1, stride - 1, stride, stride + 1 };
+    }
+
+    /**
+     * Get a stream of the rows in [first, last), parallel if the board is large enough to gain from it. Tasks on
+     * the stream may write the cells of their own row only.
+     * 
+     * @param first first row
+     * @param last row after the last row
+     * @return stream of the rows
+     */
+    private IntStream rows(int first, int last) {
+        IntStream rows = IntStream.range(first, last);
+        return this.cells.length >= PARALLEL_CELLS ? rows.parallel() : rows;
+    }
+
+    /**
+     * Place bombs into blank blocks, and count the blocks.
+     * 
+     * @param bombs bombs of a board of the same size
+     */
+    private void placeBombs(BoardFiles.Bombs bombs) {
+        rows(0, this.height).forEach(i -> bombs.unpackRow(i, this.cells, index(i, 0), BOMB));
+        countNeighbours();
+        long mines = bombs.count();
+        this.mines.set(mines);
+        this.booms.set(0);
+        this.flags.set(0);
+        this.coveredSafe.set((long) this.width * this.height - mines);
+    }
+
+    /**
+     * Count the covered blocks without bombs, the flags, the covered bombs and the bombs which went off of packed
+     * blocks. Called once by the constructor of a board whose blocks were copied from another board.
+     */
+    private void countBlocks() {
+        long coveredSafe = 0, flags = 0, mines = 0, booms = 0;
+        for (int x = 0; x < this.height; x++) {
+            for (int index = index(x, 0), end = index + this.width; index < end; index++) {
+                byte cell = this.cells[index];
+                flags += (cell & FLAGGED) >> 5;
+                mines += (cell & (BOMB | DUG)) == BOMB ? 1 : 0;
+                booms += (cell & (BOMB | DUG)) == (BOMB | DUG) ? 1 : 0;
+                coveredSafe += (cell & (DUG | BOMB)) == 0 ? 1 : 0;
+                this.pendingFills |= (cell & PENDING) != 0;
             }
         }
+        this.coveredSafe.set(coveredSafe);
+        this.flags.set(flags);
+        this.mines.set(mines);
+        this.booms.set(booms);
+    }
+
+    /**
+     * Mark the border and fill in the number of neighbours containing bombs of every block, border included.
+     * Called after the bombs are placed into blank blocks.
+     */
+    private void countNeighbours() {
+        for (int j = 0; j < this.stride; j++) {
+            this.cells[j] = BORDER;
+            this.cells[this.cells.length - this.stride + j] = BORDER;
+        }
+        for (int i = 1; i <= this.height; i++) {
+            this.cells[i * this.stride] = BORDER;
+            this.cells[i * this.stride + this.width + 1] = BORDER;
+        }
 
-        input.close();
+        // Each padded row sums the bombs of every column over the rows around it, then adds up three sums per cell.
+        rows(0, this.height + 2).forEach(row -> {
+            int[] columnBombs = new int[this.stride + 2];
+            for (int i = Math.max(row - 1, 1); i <= Math.min(row + 1, this.height); i++) {
+                for (int j = 1; j <= this.width; j++) {
+                    columnBombs[j + 1] += (this.cells[i * this.stride + j] & BOMB) >> 4;
+                }
+            }
+            for (int j = 0; j < this.stride; j++) {
+                int index = row * this.stride + j;
+                int own = (this.cells[index] & BOMB) >> 4;
+                this.cells[index] = (byte) (this.cells[index] + columnBombs[j] + columnBombs[j + 1] + columnBombs[j + 2]
+                        - own);
+            }
+        });
     }
 
     /**
@@ -85,6 +247,7 @@ public class Board {
      * 
      * @return width of the board
      */
+    @Override
     public int getWidth() {
         return this.width;
     }
@@ -94,17 +257,410 @@ public class Board {
      * 
      * @return height of the board
      */
+    @Override
     public int getHeight() {
         return this.height;
     }
 
     /**
-     * Get the current state of the board.
+     * Get the version of the board, which changes whenever a dig, flag or deflag changes any block.
+     * 
+     * @return current version of the board
+     */
+    @Override
+    public long version() {
+        return this.version.get();
+    }
+
+    /**
+     * Get the number of covered blocks without a bomb, which are left to dig before the board is cleared.
+     * 
+     * @return number of untouched or flagged blocks without a bomb
+     */
+    public long coveredSafe() {
+        return this.coveredSafe.get();
+    }
+
+    /**
+     * Get the number of flagged blocks.
+     * 
+     * @return number of flags placed
+     */
+    public long flags() {
+        return this.flags.get();
+    }
+
+    /**
+     * Get the number of bombs on the board. A bomb dug goes off, so this counts the bombs still covered.
+     * 
+     * @return number of covered blocks containing a bomb
+     */
+    public long mines() {
+        return this.mines.get();
+    }
+
+    /**
+     * Get the number of bombs which went off. A board with no bombs on it and none gone off was made without any.
+     * 
+     * @return number of bombs dug
+     */
+    public long booms() {
+        return this.booms.get();
+    }
+
+    /**
+     * Check if the game on the board is over: every block without a bomb is dug.
+     * 
+     * @return true if the board is cleared
+     */
+    public boolean cleared() {
+        return this.coveredSafe.get() == 0;
+    }
+
+    /**
+     * Deal a new board of the same size if the board is cleared, with bombs placed with probability
+     * BoardGenerator.DEFAULT_DENSITY. Exactly one of the callers finding the board cleared deals the new board.
+     * 
+     * @param seed seed of the new board
+     * @return true if the board was cleared and a new board was dealt, else false
+     */
+    public boolean resetIfCleared(long seed) {
+        if (!cleared()) {
+            return false;
+        }
+        return resetIfCleared(new Board(BoardGenerator.bombs(this.width, this.height, seed,
+                BoardGenerator.DEFAULT_DENSITY, -1)), seed);
+    }
+
+    /**
+     * Deal a new board of the same size from pool if the board is cleared, as resetIfCleared(long) does. Costs no
+     * wait for the new board to be generated when the pool has one ready.
+     * 
+     * @param pool pool of boards the new board is taken from
+     * @return true if the board was cleared and a new board was dealt, else false
+     */
+    public boolean resetIfCleared(BoardPool pool) {
+        if (!cleared()) {
+            return false;
+        }
+        BoardPool.Deal deal = pool.deal(this.width, this.height);
+        return resetIfCleared(deal.board, deal.seed);
+    }
+
+    /**
+     * Copy the blocks of a new board if the board is cleared.
+     * 
+     * @param fresh board of the same size nobody played
+     * @param seed seed fresh was generated from
+     * @return true if the board was cleared and a new board was dealt, else false
+     */
+    private boolean resetIfCleared(Board fresh, long seed) {
+        long waited = this.locks.lockAll();
+        long lockedAt = System.nanoTime();
+        try {
+            if (!cleared()) {
+                return false;
+            }
+            reset(fresh, seed);
+            return true;
+        } finally {
+            this.locks.unlockAll();
+            recordReleased(waited, lockedAt);
+        }
+    }
+
+    /**
+     * Deal a new board of the same size from seed, as resetIfCleared() does whether the board is cleared or not.
+     * Used to replay a journal.
+     * 
+     * @param seed seed of the new board
+     */
+    void reset(long seed) {
+        Board fresh = new Board(BoardGenerator.bombs(this.width, this.height, seed,
+                BoardGenerator.DEFAULT_DENSITY, -1));
+        atomically(() -> reset(fresh, seed));
+    }
+
+    /**
+     * Replace every block with the blocks of a new board. Requires every tile to be locked.
+     * 
+     * @param fresh board of the same size nobody played, whose blocks are copied
+     * @param seed seed fresh was generated from, journaled to deal the same board again
+     */
+    private void reset(Board fresh, long seed) {
+        System.arraycopy(fresh.cells, 0, this.cells, 0, this.cells.length);
+        this.coveredSafe.set(fresh.coveredSafe.get());
+        this.flags.set(fresh.flags.get());
+        this.mines.set(fresh.mines.get());
+        this.booms.set(fresh.booms.get());
+        this.resets++;
+        long version = this.version.incrementAndGet();
+        for (int i = 0; i < this.height; i++) {
+            this.rowVersions.set(i, version);
+        }
+        BoardJournal journal = this.journal;
+        if (journal != null) {
+            journal.append(BoardJournal.RESET, (int) (seed >>> 32), (int) seed);
+        }
+    }
+
+    /**
+     * Get the number of times a new board was dealt. Changes only while every tile is locked, so it is read
+     * consistently with the blocks.
+     * 
+     * @return number of resets of the board
+     */
+    long resets() {
+        return this.resets;
+    }
+
+    /**
+     * Get the version of the board when the xth row was last changed. Only meaningful while every tile is locked, or
+     * while reading every tile optimistically.
+     * 
+     * @param x xth row
+     * @return version of the last change to the row
+     */
+    long rowVersion(int x) {
+        return this.rowVersions.get(x);
+    }
+
+    /**
+     * Lock every tile of the board, in order, to see all of it in a consistent state.
+     * 
+     * @return nanoseconds waited for tiles held by others
+     */
+    long lockAll() {
+        return this.locks.lockAll();
+    }
+
+    /**
+     * Unlock every tile locked by lockAll().
+     */
+    void unlockAll() {
+        this.locks.unlockAll();
+    }
+
+    /**
+     * Lock the tiles containing the blocks in rows firstRow to lastRow and columns firstColumn to lastColumn.
+     * 
+     * @param firstRow first row, requires 0 <= firstRow <= lastRow < height
+     * @param firstColumn first column, requires 0 <= firstColumn <= lastColumn < width
+     * @param lastRow last row
+     * @param lastColumn last column
+     * @return nanoseconds waited for tiles held by others
+     */
+    long lockRegion(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+        return this.locks.lockRegion(firstRow, firstColumn, lastRow, lastColumn);
+    }
+
+    /**
+     * Unlock the tiles locked by lockRegion() with the same arguments.
+     * 
+     * @param firstRow first row
+     * @param firstColumn first column
+     * @param lastRow last row
+     * @param lastColumn last column
+     */
+    void unlockRegion(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+        this.locks.unlockRegion(firstRow, firstColumn, lastRow, lastColumn);
+    }
+
+    /**
+     * Start reading the blocks in rows firstRow to lastRow and columns firstColumn to lastColumn without locking.
+     * What is read is consistent only if validate() then succeeds.
+     * 
+     * @param firstRow first row, requires 0 <= firstRow <= lastRow < height
+     * @param firstColumn first column, requires 0 <= firstColumn <= lastColumn < width
+     * @param lastRow last row
+     * @param lastColumn last column
+     * @return stamps to pass to validate() with the same arguments, or null if an operation holds the blocks
+     */
+    long[] tryOptimisticRead(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+        return this.locks.tryOptimisticRead(firstRow, firstColumn, lastRow, lastColumn);
+    }
+
+    /**
+     * Check that no operation held the blocks read since tryOptimisticRead() with the same arguments.
+     * 
+     * @param firstRow first row
+     * @param firstColumn first column
+     * @param lastRow last row
+     * @param lastColumn last column
+     * @param stamps stamps returned by tryOptimisticRead()
+     * @return true if the blocks read since are as they were at a single moment
+     */
+    boolean validate(int firstRow, int firstColumn, int lastRow, int lastColumn, long[] stamps) {
+        return this.locks.validate(firstRow, firstColumn, lastRow, lastColumn, stamps);
+    }
+
+    /**
+     * Get the stamps of every tile of TileLocks.TILE_SIZE by TileLocks.TILE_SIZE blocks, numbered row by row. A
+     * stamp changes whenever the tile is locked, so a tile whose stamp is unchanged hasn't changed either.
+     * 
+     * @return stamps of the tiles, odd for the tiles locked
+     */
+    long[] tileStamps() {
+        return this.locks.stamps();
+    }
+
+    /**
+     * Copy the packed blocks of the board, border included, for a Board constructed from them to start in the same
+     * state. Requires every tile to be locked.
+     * 
+     * @return copy of the packed blocks
+     */
+    byte[] copyCells() {
+        return this.cells.clone();
+    }
+
+    /**
+     * Record every later change to the board in journal. Changes are appended while the changed blocks are still
+     * locked, so changes to the same blocks are appended in the order they were made.
+     * 
+     * @param journal journal of the board
+     */
+    void journal(BoardJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Stop recording the operations on the board in BoardMetrics, for a board played by no server, such as the
+     * boards of the Simulator. Called before the board is shared with other threads.
+     */
+    void unmetered() {
+        this.metered = false;
+    }
+
+    /**
+     * Record in BoardMetrics an operation on the board which released the tiles it held, unless the board is
+     * unmetered.
+     * 
+     * @param waited nanoseconds the operation waited for its tiles
+     * @param lockedAt System.nanoTime() when the operation had taken its tiles
+     */
+    void recordReleased(long waited, long lockedAt) {
+        if (this.metered) {
+            BoardMetrics.released(waited, lockedAt);
+        }
+    }
+
+    /**
+     * Record in BoardMetrics an operation on the board which released its tiles without being timed, unless the
+     * board is unmetered.
+     * 
+     * @param waited nanoseconds the operation waited for its tiles
+     */
+    private void recordWaited(long waited) {
+        if (this.metered) {
+            BoardMetrics.waited(waited);
+        }
+    }
+
+    /**
+     * Run several operations on the board while holding every tile, so no other operation is interleaved with
+     * them. The operations may dig, flag and deflag the board; other boards must not be locked meanwhile.
+     * 
+     * @param operations operations to run
+     */
+    @Override
+    public void atomically(Runnable operations) {
+        long waited = this.locks.lockAll();
+        long lockedAt = System.nanoTime();
+        try {
+            operations.run();
+        } finally {
+            this.locks.unlockAll();
+            recordReleased(waited, lockedAt);
+        }
+    }
+
+    /**
+     * Get the current state of the board as shown to the players: one line per row with the symbols of the blocks
+     * separated by spaces, and no line separator after the last row. The returned array is cached and shared, and
+     * must not be modified. Doesn't wait for operations in progress: rows held by one throughout, such as those of a
+     * long flood fill, are shown as they were before it.
+     * 
+     * @return current state of the board encoded in US-ASCII
+     */
+    @Override
+    public byte[] boardMessage() {
+        return this.renderer.render();
+    }
+
+    /**
+     * Get the current state of a rectangle of the board. A rectangle covering the whole board is served from the
+     * cached board message; any other rectangle is rendered afresh, locking only the tiles it overlaps.
+     * 
+     * @param x first row of the rectangle
+     * @param y first column of the rectangle
+     * @param rows number of rows of the rectangle, requires rows >= 0
+     * @param columns number of columns of the rectangle, requires columns >= 0
+     * @return current state of the rectangle encoded in US-ASCII, empty if it lies outside the board
+     */
+    @Override
+    public byte[] viewMessage(int x, int y, int rows, int columns) {
+        int firstRow = Math.max(x, 0), lastRow = (int) Math.min((long) x + rows, this.height);
+        int firstColumn = Math.max(y, 0), lastColumn = (int) Math.min((long) y + columns, this.width);
+        if (firstRow >= lastRow || firstColumn >= lastColumn) {
+            return new byte[0];
+        }
+        if (firstRow == 0 && firstColumn == 0 && lastRow == this.height && lastColumn == this.width) {
+            return boardMessage();
+        }
+        return this.renderer.renderView(firstRow, firstColumn, lastRow - firstRow, lastColumn - firstColumn);
+    }
+
+    /**
+     * Get the symbol of the block at location (x, y) as shown to the players: "-" if untouched, "F" if flagged,
+     * " " if dug with no neighbouring bombs, else the number of neighbouring bombs.
+     * 
+     * @param x xth row
+     * @param y yth column
+     * @return symbol of the block
+     */
+    public char cellSymbol(int x, int y) {
+        return symbol(cell(x, y));
+    }
+
+    /**
+     * Get the symbol of the block at location (x, y) without locking. Requires the tile of the block to be locked,
+     * or the read to be validated.
+     * 
+     * @param x xth row
+     * @param y yth column
+     * @return symbol of the block
+     */
+    char lockedCellSymbol(int x, int y) {
+        return symbol(this.cells[index(x, y)]);
+    }
+
+    /**
+     * Get the symbol shown to the players for a packed block.
+     * 
+     * @param cell packed state of the block
+     * @return symbol of the block
+     */
+    private static char symbol(byte cell) {
+        if ((cell & FLAGGED) != 0) {
+            return 'F';
+        } else if ((cell & DUG) == 0) {
+            return '-';
+        }
+        int count = cell & COUNT_MASK;
+        return count == 0 ? ' ' : (char) ('0' + count);
+    }
+
+    /**
+     * Get the number of neighbours containing bombs around the dug block at location (x, y).
      * 
-     * @return current state of the board
+     * @param x xth row
+     * @param y yth column
+     * @return number of neighbours containing bombs, or -1 if the block hasn't been dug
      */
-    public synchronized List<String[]> boardMessage() {
-        return this.visualBoard;
+    public int neighbourCount(int x, int y) {
+        byte cell = cell(x, y);
+        return (cell & DUG) == 0 ? -1 : cell & COUNT_MASK;
     }
 
     /**
@@ -112,46 +668,186 @@ public class Board {
      * 
      * @return boomMessage
      */
-    public synchronized String boomMessage() {
+    @Override
+    public String boomMessage() {
         return Board.boomMessage;
     }
 
     /**
-     * Dig the block at location (x, y) and update the neighbour blocks. If the block and the neighbour blocks contains no bombs, then dig neighbour blocks recursively.
+     * Dig the block at location (x, y) and update the neighbour blocks. If the block and the neighbour blocks contains no bombs, then dig neighbour blocks repeatedly.
      * 
      * @param x xth row
      * @param y yth column
-     * @return boomMessage if the block contains a bomb else boardMessage.
+     * @return true if the block contains a bomb else false.
      */
-    public synchronized boolean dig(int x, int y) {
-        if (!isUntouched(x, y) || !insideBoundry(x, y)) {
-            return false;
+    @Override
+    public boolean dig(int x, int y) {
+        int revealed = digCounting(x, y);
+        if (revealed != 0 && this.metered) {
+            BoardMetrics.revealed(Math.abs(revealed));
         }
+        return revealed < 0;
+    }
 
-        if (this.bombBoard[x][y]) {
-            this.bombBoard[x][y] = false;
-            updateNeighbour(x, y);
-            dig(x, y);
-            return true;
+    /**
+     * Dig the block at location (x, y) as dig() does, without recording the number of blocks revealed in
+     * BoardMetrics, so callers digging many boards at once keep their own counts.
+     * 
+     * @param x xth row
+     * @param y yth column
+     * @return number of blocks revealed, negated if the block contained a bomb, or 0 if the block is outside the
+     *         board or wasn't untouched
+     */
+    int digCounting(int x, int y) {
+        if (!insideBoundry(x, y)) {
+            return 0;
+        }
+
+        Dig dig = this.digs.poll();
+        if (dig == null) {
+            dig = new Dig();
+        }
+        dig.tiles.lockAround(x, y);
+        boolean timed = this.metered && BoardMetrics.sampled(++dig.count);
+        long lockedAt = timed ? System.nanoTime() : 0;
+        try {
+            int index = index(x, y);
+            if ((this.cells[index] & STATE_MASK) != 0) {
+                return 0;
+            }
+
+            boolean bomb = (this.cells[index] & BOMB) != 0;
+            long version = this.version.incrementAndGet();
+            if (bomb) {
+                this.mines.decrementAndGet();
+                this.booms.incrementAndGet();
+                updateNeighbour(index);
+                for (int i = Math.max(x - 1, 0); i <= Math.min(x + 1, this.height - 1); i++) {
+                    this.rowVersions.set(i, version);
+                }
+            }
+            int revealed = reveal(dig, index, version);
+            // Tiles taken during the fill may have been read after the version above, so readers caching by
+            // version need another one once every block is dug.
+            this.version.incrementAndGet();
+            // The dug bomb was not a covered block without a bomb.
+            this.coveredSafe.addAndGet(bomb ? 1 - revealed : -revealed);
+            BoardJournal journal = this.journal;
+            if (journal != null) {
+                journal.append(BoardJournal.DIG, x, y);
+            }
+
+            return bomb ? -revealed : revealed;
+        } finally {
+            long waited = dig.tiles.release();
+            if (timed) {
+                recordReleased(waited, lockedAt);
+            } else {
+                recordWaited(waited);
+            }
+            this.digs.add(dig);
         }
+    }
+
+    /**
+     * Dig the untouched block at index start, then keep digging every untouched neighbour of a dug block which has
+     * no neighbouring bombs. Blocks are marked as dug when pushed to the stack of dig, so each block is pushed at
+     * most once and the work done is proportional to the number of blocks revealed.
+     * 
+     * @param dig work buffers of the dig, holding the tiles around the block at index start
+     * @param start index of the block in cells
+     * @param version version of the board after the dig
+     * @return number of blocks dug
+     */
+    private int reveal(Dig dig, int start, long version) {
+        dig.stack[0] = start;
+        this.cells[start] |= DUG;
+        this.rowVersions.set(start / this.stride - 1, version);
+        return 1 + spread(dig, 1, version);
+    }
+
+    /**
+     * Keep digging every untouched neighbour of the dug blocks on the stack of dig which have no neighbouring bombs.
+     * The tiles around a block are taken before its neighbours are inspected; blocks already on the stack are dug,
+     * so no other operation changes them if tiles have to be released while waiting for another one. They are
+     * marked as PENDING meanwhile, so a copy of the blocks taken while the tiles are released tells which blocks
+     * the fill still spreads from.
+     * 
+     * @param dig work buffers of the dig, whose stack holds top dug blocks
+     * @param top number of blocks on the stack
+     * @param version version of the board after the dig
+     * @return number of blocks dug
+     */
+    private int spread(Dig dig, int top, long version) {
+        int[] stack = dig.stack;
+        int revealed = 0;
+        while (top > 0) {
+            int index = stack[--top];
+            int x = index / this.stride - 1;
+            if (!dig.tiles.tryLockAround(x, index % this.stride - 1)) {
+                for (int i = 0; i <= top; i++) {
+                    this.cells[stack[i]] |= PENDING;
+                }
+                dig.tiles.relock();
+                for (int i = 0; i <= top; i++) {
+                    this.cells[stack[i]] &= ~PENDING;
+                }
+                // Readers may have seen the board since the tiles were released, so later changes need a new version.
+                version = this.version.incrementAndGet();
+            }
+            if ((this.cells[index] & COUNT_MASK) != 0) {
+                continue;
+            }
 
-        int count = checkNeighbour(x, y);
-        this.visualBoard.get(x)[y] = (count == 0) ? " " : String.valueOf(count);
-
-        if (count == 0) {
-            for (int i = -1; i < 2; i++) {
-                for (int j = -1; j < 2; j++) {
-                    int newX = x + i, newY = y + j;
-                    if ((i == 0 && j == 0) || !insideBoundry(newX, newY) || !isUntouched(newX, newY)
-                            || bombBoard[newX][newY]) {
-                        continue;
-                    }
-                    dig(newX, newY);
+            if (stack.length - top < 8) {
+                stack = dig.stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            for (int offset : this.neighbours) {
+                int newIndex = index + offset;
+                if ((this.cells[newIndex] & STATE_MASK) == 0) {
+                    this.cells[newIndex] |= DUG;
+                    this.rowVersions.set(newIndex / this.stride - 1, version);
+                    stack[top++] = newIndex;
+                    revealed++;
                 }
             }
         }
+        return revealed;
+    }
 
-        return false;
+    /**
+     * Finish the fills which had released their tiles when the blocks the board was built from were copied, by
+     * spreading from every block marked as PENDING. Called by BoardJournal when it replays a dig which changes
+     * nothing, as that dig started such a fill, and once every move is replayed. Fills suspended at the same time
+     * are all finished by the first of their digs replayed, so a move made meanwhile on a block which the other
+     * fills reveal takes effect after them rather than before.
+     */
+    void finishFills() {
+        if (!this.pendingFills) {
+            return;
+        }
+        this.pendingFills = false;
+        Dig dig = new Dig();
+        int top = 0;
+        for (int index = this.stride; index < this.cells.length - this.stride; index++) {
+            if ((this.cells[index] & PENDING) != 0) {
+                this.cells[index] &= ~PENDING;
+                if (top == dig.stack.length) {
+                    dig.stack = Arrays.copyOf(dig.stack, 2 * top);
+                }
+                dig.stack[top++] = index;
+            }
+        }
+        if (top == 0) {
+            return;
+        }
+        try {
+            int revealed = spread(dig, top, this.version.incrementAndGet());
+            this.coveredSafe.addAndGet(-revealed);
+            this.version.incrementAndGet();
+        } finally {
+            dig.tiles.release();
+        }
     }
 
     /**
@@ -160,9 +856,27 @@ public class Board {
      * @param x xth row
      * @param y yth column
      */
-    public synchronized void flag(int x, int y) {
-        if (insideBoundry(x, y) && isUntouched(x, y)) {
-            this.visualBoard.get(x)[y] = "F";
+    @Override
+    public void flag(int x, int y) {
+        if (!insideBoundry(x, y)) {
+            return;
+        }
+
+        long waited = this.locks.lock(x, y);
+        try {
+            int index = index(x, y);
+            if ((this.cells[index] & STATE_MASK) == 0) {
+                this.cells[index] |= FLAGGED;
+                this.flags.incrementAndGet();
+                this.rowVersions.set(x, this.version.incrementAndGet());
+                BoardJournal journal = this.journal;
+                if (journal != null) {
+                    journal.append(BoardJournal.FLAG, x, y);
+                }
+            }
+        } finally {
+            this.locks.unlock(x, y);
+            recordWaited(waited);
         }
     }
 
@@ -172,21 +886,28 @@ public class Board {
      * @param x
      * @param y
      */
-    public synchronized void deflag(int x, int y) {
-        if (insideBoundry(x, y) && isFlagged(x, y)) {
-            this.visualBoard.get(x)[y] = "-";
+    @Override
+    public void deflag(int x, int y) {
+        if (!insideBoundry(x, y)) {
+            return;
         }
-    }
 
-    /**
-     * Check if the location (x, y) is within board or not.
-     * 
-     * @param x xth row
-     * @param y yth column
-     * @return true if the location is within board else false
-     */
-    private synchronized boolean insideBoundry(int x, int y) {
-        return x >= 0 && y >= 0 && x < this.height && y < this.width;
+        long waited = this.locks.lock(x, y);
+        try {
+            int index = index(x, y);
+            if ((this.cells[index] & FLAGGED) != 0) {
+                this.cells[index] &= ~FLAGGED;
+                this.flags.decrementAndGet();
+                this.rowVersions.set(x, this.version.incrementAndGet());
+                BoardJournal journal = this.journal;
+                if (journal != null) {
+                    journal.append(BoardJournal.DEFLAG, x, y);
+                }
+            }
+        } finally {
+            this.locks.unlock(x, y);
+            recordWaited(waited);
+        }
     }
 
     /**
@@ -196,8 +917,8 @@ public class Board {
      * @param y yth column
      * @return true if the block hasn't been dug or flagged else false
      */
-    private synchronized boolean isUntouched(int x, int y) {
-        return this.visualBoard.get(x)[y] == "-";
+    public boolean isUntouched(int x, int y) {
+        return (cell(x, y) & STATE_MASK) == 0;
     }
 
     /**
@@ -207,8 +928,8 @@ public class Board {
      * @param y yth column
      * @return true if the block is flagged else false
      */
-    private synchronized boolean isFlagged(int x, int y) {
-        return this.visualBoard.get(x)[y] == "F";
+    public boolean isFlagged(int x, int y) {
+        return (cell(x, y) & FLAGGED) != 0;
     }
 
     /**
@@ -218,55 +939,58 @@ public class Board {
      * @param y yth column
      * @return true if the block is dug else false
      */
-    private synchronized boolean isDug(int x, int y) {
-        return this.visualBoard.get(x)[y] != "-" && this.visualBoard.get(x)[y] != "F";
+    public boolean isDug(int x, int y) {
+        return (cell(x, y) & DUG) != 0;
     }
 
     /**
-     * Calculate how many neighbours contain bombs around location (x, y).
+     * Read the packed byte of the block at location (x, y) under the lock of its tile.
      * 
      * @param x xth row
      * @param y yth column
-     * @return number of neighbours contain bombs, " " if there is none.
-     */
-    private synchronized int checkNeighbour(int x, int y) {
-        int res = 0;
-
-        for (int i = -1; i < 2; i++) {
-            for (int j = -1; j < 2; j++) {
-                if (!insideBoundry(x + i, y + j) || (i == 0 && j == 0)) {
-                    continue;
-                } else {
-                    if (this.bombBoard[x + i][y + j]) {
-                        res++;
-                    }
-                }
-            }
+     * @return packed state of the block
+     */
+    private byte cell(int x, int y) {
+        long waited = this.locks.lock(x, y);
+        try {
+            return this.cells[index(x, y)];
+        } finally {
+            this.locks.unlock(x, y);
+            recordWaited(waited);
         }
+    }
 
-        return res;
+    /**
+     * Check if the location (x, y) is within board or not.
+     * 
+     * @param x xth row
+     * @param y yth column
+     * @return true if the location is within board else false
+     */
+    private boolean insideBoundry(int x, int y) {
+        return x >= 0 && y >= 0 && x < this.height && y < this.width;
     }
 
     /**
-     * Update neighbour blocks if it's dug.
+     * Get the index of location (x, y) in cells.
      * 
      * @param x xth row
      * @param y yth column
+     * @return index of the block in cells
      */
-    private synchronized void updateNeighbour(int x, int y) {
-        for (int i = -1; i < 2; i++) {
-            for (int j = -1; j < 2; j++) {
-                int newX = x + i, newY = y + j;
-                if (!insideBoundry(newX, newY) || !isDug(newX, newY) || (i == 0 && j == 0)) {
-                    continue;
-                }
-                int count = Integer.parseInt(this.visualBoard.get(newX)[newY]) - 1;
-                if (count == 0) {
-                    this.visualBoard.get(newX)[newY] = " ";
-                } else {
-                    this.visualBoard.get(newX)[newY] = String.valueOf(count);
-                }
-            }
+    private int index(int x, int y) {
+        return (x + 1) * this.stride + y + 1;
+    }
+
+    /**
+     * Update the number of neighbours containing bombs of the blocks around the block at index after its bomb went
+     * off, which no longer counts.
+     * 
+     * @param index index of the block in cells
+     */
+    private void updateNeighbour(int index) {
+        for (int offset : this.neighbours) {
+            this.cells[index + offset]--;
         }
     }
 }
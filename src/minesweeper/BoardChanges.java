@@ -0,0 +1,290 @@
+package minesweeper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Changes to a Board between successive polls, for pushing them to the players watching the board. Keeps the
+ * symbol of every block as of the last poll, and the stamps of the tiles of TileLocks as they were read, and compares
+ * only the tiles locked since, so a poll costs time in proportion to the tiles moves changed rather than to the
+ * board. Tiles are read without locking, each validated against its stamp, so polling never holds up a move nor
+ * changes a stamp; a tile held throughout a poll is read at a later poll. Not thread safe: meant to be polled by a
+ * single thread.
+ */
+public class BoardChanges {
+    final private static byte[] NEWLINE = "%n".formatted().getBytes(StandardCharsets.US_ASCII);
+    /** Number of attempts at reading a tile without locking before leaving it for later. */
+    final private static int OPTIMISTIC_ATTEMPTS = 8;
+
+    final private Board board;
+    final private int tilesAcross;
+    /** Rows of the board message as of version, each one the symbols of the blocks separated by spaces. */
+    final private byte[][] rows;
+    /** Stamps of the tiles when they were last read. */
+    final private long[] stamps;
+    /** Version of the board at the last poll. */
+    private long version;
+    /** True if a changed tile was held throughout the last poll, so it is still to be read. */
+    private boolean behind = false;
+    /** Blocks of a tile being read whose symbol changed, as row * width + column, and their new symbols. */
+    final private int[] tileChanged = new int[TileLocks.TILE_SIZE * TileLocks.TILE_SIZE];
+    final private byte[] tileSymbols = new byte[TileLocks.TILE_SIZE * TileLocks.TILE_SIZE];
+    private int tileChangedCount;
+
+    /**
+     * Changed blocks of the board between two versions, ordered by row then column.
+     */
+    public static class Delta {
+        final private long from, to;
+        final private int size;
+        final private int[] rows, columns;
+        final private byte[] symbols;
+
+        private Delta(long from, long to, int size, int[] rows, int[] columns, byte[] symbols) {
+            this.from = from;
+            this.to = to;
+            this.size = size;
+            this.rows = rows;
+            this.columns = columns;
+            this.symbols = symbols;
+        }
+
+        /**
+         * Get the version of the board the changes apply to.
+         * 
+         * @return version before the changes
+         */
+        public long from() {
+            return this.from;
+        }
+
+        /**
+         * Get the version of the board after the changes.
+         * 
+         * @return version after the changes
+         */
+        public long to() {
+            return this.to;
+        }
+
+        /**
+         * Get the number of changed blocks.
+         * 
+         * @return number of changed blocks
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Get the row of the ith changed block.
+         * 
+         * @param i index of the change, requires 0 <= i < size()
+         * @return row of the block
+         */
+        public int row(int i) {
+            return this.rows[i];
+        }
+
+        /**
+         * Get the column of the ith changed block.
+         * 
+         * @param i index of the change, requires 0 <= i < size()
+         * @return column of the block
+         */
+        public int column(int i) {
+            return this.columns[i];
+        }
+
+        /**
+         * Get the new symbol of the ith changed block, as in the board message.
+         * 
+         * @param i index of the change, requires 0 <= i < size()
+         * @return symbol of the block
+         */
+        public char symbol(int i) {
+            return (char) this.symbols[i];
+        }
+    }
+
+    /**
+     * Start following the changes of board from its current state. Each tile is read without locking if possible,
+     * and otherwise while holding that tile only.
+     * 
+     * @param board board to follow
+     */
+    public BoardChanges(Board board) {
+        this.board = board;
+        this.tilesAcross = (board.getWidth() + TileLocks.TILE_SIZE - 1) / TileLocks.TILE_SIZE;
+        this.rows = new byte[board.getHeight()][2 * board.getWidth() - 1];
+        for (byte[] row : this.rows) {
+            Arrays.fill(row, (byte) ' ');
+        }
+        this.version = board.version();
+        this.stamps = board.tileStamps();
+        for (int tile = 0; tile < this.stamps.length; tile++) {
+            if (!readTile(tile)) {
+                lockAndReadTile(tile);
+            }
+        }
+    }
+
+    /**
+     * Get the version of the board at the last poll.
+     * 
+     * @return version of the board the last poll brought this up to
+     */
+    public long version() {
+        return this.version;
+    }
+
+    /**
+     * Collect the blocks changed since the last poll. A block changed and changed back is left out. Every change
+     * made before the poll started is collected, unless its tile is held throughout the poll, in which case it is
+     * collected by a later poll.
+     * 
+     * @return changes since the last poll, or null if the board hasn't changed
+     */
+    public Delta poll() {
+        long current = this.board.version();
+        if (current == this.version && !this.behind) {
+            return null;
+        }
+
+        int size = 0;
+        long[] changes = new long[16];
+        long[] stamps = this.board.tileStamps();
+        boolean behind = false;
+        for (int tile = 0; tile < stamps.length; tile++) {
+            if (stamps[tile] == this.stamps[tile]) {
+                continue;
+            }
+            if (!readTile(tile)) {
+                behind = true;
+                continue;
+            }
+            for (int i = 0; i < this.tileChangedCount; i++) {
+                if (size == changes.length) {
+                    changes = Arrays.copyOf(changes, 2 * size);
+                }
+                // orders the changes by row then column
+                changes[size++] = (long) this.tileChanged[i] << 8 | this.tileSymbols[i] & 0xff;
+            }
+        }
+        this.behind = behind;
+        if (size == 0 && current == this.version) {
+            return null;
+        }
+
+        Arrays.sort(changes, 0, size);
+        int width = this.board.getWidth();
+        int[] rows = new int[size], columns = new int[size];
+        byte[] symbols = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int block = (int) (changes[i] >>> 8);
+            rows[i] = block / width;
+            columns[i] = block % width;
+            symbols[i] = (byte) changes[i];
+        }
+        Delta res = new Delta(this.version, current, size, rows, columns, symbols);
+        this.version = current;
+        return res;
+    }
+
+    /**
+     * Read the blocks of a tile without locking, keeping their symbols and listing those which changed if the
+     * read is validated.
+     * 
+     * @param tile number of the tile
+     * @return true if the tile was read, false if it was held by others every time
+     */
+    private boolean readTile(int tile) {
+        int firstRow = tile / this.tilesAcross * TileLocks.TILE_SIZE;
+        int firstColumn = tile % this.tilesAcross * TileLocks.TILE_SIZE;
+        int lastRow = Math.min(firstRow + TileLocks.TILE_SIZE, this.rows.length) - 1;
+        int lastColumn = Math.min(firstColumn + TileLocks.TILE_SIZE, this.board.getWidth()) - 1;
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long[] stamps = this.board.tryOptimisticRead(firstRow, firstColumn, lastRow, lastColumn);
+            if (stamps != null) {
+                collectTile(firstRow, firstColumn, lastRow, lastColumn);
+                if (this.board.validate(firstRow, firstColumn, lastRow, lastColumn, stamps)) {
+                    applyTile();
+                    this.stamps[tile] = stamps[0];
+                    return true;
+                }
+            }
+            Thread.yield();
+        }
+        return false;
+    }
+
+    /**
+     * Read the blocks of a tile while holding it, keeping their symbols and listing those which changed.
+     * 
+     * @param tile number of the tile
+     */
+    private void lockAndReadTile(int tile) {
+        int firstRow = tile / this.tilesAcross * TileLocks.TILE_SIZE;
+        int firstColumn = tile % this.tilesAcross * TileLocks.TILE_SIZE;
+        int lastRow = Math.min(firstRow + TileLocks.TILE_SIZE, this.rows.length) - 1;
+        int lastColumn = Math.min(firstColumn + TileLocks.TILE_SIZE, this.board.getWidth()) - 1;
+        long waited = this.board.lockRegion(firstRow, firstColumn, lastRow, lastColumn);
+        long lockedAt = System.nanoTime();
+        try {
+            collectTile(firstRow, firstColumn, lastRow, lastColumn);
+            // as this thread unlocks it
+            this.stamps[tile] = this.board.tileStamps()[tile] + 1;
+        } finally {
+            this.board.unlockRegion(firstRow, firstColumn, lastRow, lastColumn);
+            this.board.recordReleased(waited, lockedAt);
+        }
+        applyTile();
+    }
+
+    /**
+     * List the blocks of a tile whose symbol differs from the kept one. Requires the tile to be locked or read
+     * optimistically.
+     */
+    private void collectTile(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+        this.tileChangedCount = 0;
+        for (int i = firstRow; i <= lastRow; i++) {
+            byte[] row = this.rows[i];
+            for (int j = firstColumn; j <= lastColumn; j++) {
+                byte symbol = (byte) this.board.lockedCellSymbol(i, j);
+                if (row[2 * j] != symbol) {
+                    this.tileChanged[this.tileChangedCount] = i * this.board.getWidth() + j;
+                    this.tileSymbols[this.tileChangedCount++] = symbol;
+                }
+            }
+        }
+    }
+
+    /**
+     * Keep the symbols of the blocks listed by collectTile().
+     */
+    private void applyTile() {
+        int width = this.board.getWidth();
+        for (int i = 0; i < this.tileChangedCount; i++) {
+            this.rows[this.tileChanged[i] / width][2 * (this.tileChanged[i] % width)] = this.tileSymbols[i];
+        }
+    }
+
+    /**
+     * Get the board message as of the last poll, in the format of Board.boardMessage().
+     * 
+     * @return board message at version(), owned by the caller
+     */
+    public byte[] boardMessage() {
+        int height = this.rows.length, length = this.rows[0].length;
+        byte[] message = new byte[height * length + (height - 1) * NEWLINE.length];
+        for (int i = 0, position = 0; i < height; i++) {
+            if (i > 0) {
+                System.arraycopy(NEWLINE, 0, message, position, NEWLINE.length);
+                position += NEWLINE.length;
+            }
+            System.arraycopy(this.rows[i], 0, message, position, length);
+            position += length;
+        }
+        return message;
+    }
+}
@@ -0,0 +1,359 @@
+package minesweeper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes board files. Two formats are supported, and told apart by their first bytes:
+ * <ul>
+ * <li>the text format described in MinesweeperServer, one 0 or 1 per block, and</li>
+ * <li>a compact binary format: the bytes "MSWB", a version byte 1, the width and the height as big-endian 32 bit
+ * integers, then one bit per block row by row, least significant bit first, set if the block contains a bomb.</li>
+ * </ul>
+ * Files are memory mapped and parsed in place, so loading creates no String per row or value. Run as a Java
+ * application to convert a board file of either format into the binary format:
+ * <pre>
+ *   java minesweeper.BoardFiles IN_FILE OUT_FILE
+ * </pre>
+ */
+public class BoardFiles {
+    final private static byte[] MAGIC = { 'M', 'S', 'W', 'B' };
+    final private static byte VERSION = 1;
+    final private static int HEADER_SIZE = MAGIC.length + 1 + 2 * Integer.BYTES;
+    /** Largest number of bytes of a file mapped at once. */
+    final private static long WINDOW_SIZE = 64L << 20;
+    /** Largest number of blocks of a board, so the padded cells of the board fit into an array. */
+    final private static long MAX_BLOCKS = Integer.MAX_VALUE - 1024;
+
+    /**
+     * Bombs of a board, one bit per block row by row, as stored in the binary format.
+     */
+    static class Bombs {
+        final int width, height;
+        final byte[] bits;
+
+        /**
+         * Construct a board without bombs.
+         * 
+         * @param width width of the board
+         * @param height height of the board
+         */
+        Bombs(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.bits = new byte[(int) ((width * (long) height + 7) / 8)];
+        }
+
+        /**
+         * Check if the block at location (x, y) contains a bomb.
+         * 
+         * @param x xth row
+         * @param y yth column
+         * @return true if the block contains a bomb
+         */
+        boolean bomb(int x, int y) {
+            long index = x * (long) this.width + y;
+            return (this.bits[(int) (index >>> 3)] & (1 << (index & 7))) != 0;
+        }
+
+        /**
+         * Copy the xth row into bytes, one byte per block.
+         * 
+         * @param x xth row
+         * @param target bytes to write
+         * @param offset index in target of the byte of the first block of the row
+         * @param bomb byte written for a block containing a bomb; 0 is written for the other blocks
+         */
+        void unpackRow(int x, byte[] target, int offset, byte bomb) {
+            long index = x * (long) this.width;
+            for (int y = 0; y < this.width; y++, index++) {
+                target[offset + y] = (byte) (((this.bits[(int) (index >>> 3)] >> (index & 7)) & 1) * bomb);
+            }
+        }
+
+        /**
+         * Count the bombs of the board.
+         * 
+         * @return number of blocks containing a bomb
+         */
+        long count() {
+            long res = 0;
+            for (byte b : this.bits) {
+                res += Integer.bitCount(b & 0xff);
+            }
+            return res;
+        }
+
+        /**
+         * Place a bomb in the block at the given index, counted row by row.
+         * 
+         * @param index x * width + y for the block at location (x, y)
+         */
+        void set(long index) {
+            this.bits[(int) (index >>> 3)] |= (byte) (1 << (index & 7));
+        }
+
+        /**
+         * Place bombs in the 64 blocks starting at the given index, counted row by row.
+         * 
+         * @param index index of the first block, requires index % 8 == 0
+         * @param word bit i set if the block at index + i contains a bomb, requires no bit set for blocks outside
+         *             the board
+         */
+        void setWord(long index, long word) {
+            for (int i = (int) (index >>> 3); word != 0; i++, word >>>= 8) {
+                this.bits[i] |= (byte) word;
+            }
+        }
+    }
+
+    private BoardFiles() {
+    }
+
+    /**
+     * Read the bombs of a board file in either format.
+     * 
+     * @param file board file
+     * @return the bombs of the board
+     * @throws IOException if the file can't be read or its format is wrong
+     */
+    static Bombs read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedInput input = new MappedInput(channel);
+            return isBinary(input) ? readBinary(input) : readText(input);
+        }
+    }
+
+    /**
+     * Write the bombs of a board in the binary format.
+     * 
+     * @param bombs the bombs of the board
+     * @param file file to write
+     * @throws IOException if the file can't be written
+     */
+    static void writeBinary(Bombs bombs, File file) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                1 << 16))) {
+            output.write(MAGIC);
+            output.writeByte(VERSION);
+            output.writeInt(bombs.width);
+            output.writeInt(bombs.height);
+            output.write(bombs.bits);
+        }
+    }
+
+    /**
+     * Convert a board file of either format into the binary format.
+     * 
+     * @param args input file and output file
+     * @throws IOException if a file can't be read or written, or the input format is wrong
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: BoardFiles IN_FILE OUT_FILE");
+            System.exit(1);
+        }
+        writeBinary(read(new File(args[0])), new File(args[1]));
+    }
+
+    private static boolean isBinary(MappedInput input) {
+        if (input.size < HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (input.byteAt(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Bombs readBinary(MappedInput input) throws IOException {
+        input.skip(MAGIC.length);
+        if (input.read() != VERSION) {
+            throw new IOException("unsupported binary board version");
+        }
+        int width = input.readInt(), height = input.readInt();
+        Bombs bombs = new Bombs(checkSize(width, height), height);
+        if (input.size != HEADER_SIZE + bombs.bits.length) {
+            throw new IOException("binary board file has the wrong length for a %d x %d board"
+                    .formatted(width, height));
+        }
+        input.readFully(bombs.bits);
+        return bombs;
+    }
+
+    /**
+     * Parse the text format, FILE ::= BOARD LINE+ as described in MinesweeperServer. Like the original loader, any
+     * nonzero value is a bomb and values after the first width values of a line are ignored.
+     */
+    private static Bombs readText(MappedInput input) throws IOException {
+        long width = readInt(input);
+        expect(input, ' ');
+        long height = readInt(input);
+        endLine(input);
+        Bombs bombs = new Bombs(checkSize(width, height), (int) height);
+
+        long index = 0;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                if (j > 0) {
+                    expect(input, ' ');
+                }
+                if (readInt(input) != 0) {
+                    bombs.set(index);
+                }
+                index++;
+            }
+            int c;
+            while ((c = input.read()) != '\n' && c != '\r' && c != -1) {
+                // skip values beyond the width
+            }
+            if (c == '\r' && input.peek() == '\n') {
+                input.read();
+            }
+            if (c == -1 && i < height - 1) {
+                throw new IOException("board file has fewer than %d rows".formatted(height));
+            }
+        }
+        return bombs;
+    }
+
+    private static int checkSize(long width, long height) throws IOException {
+        if (width < 0 || height < 0 || (width + 2) * (height + 2) > MAX_BLOCKS) {
+            throw new IOException("unsupported board size %d x %d".formatted(width, height));
+        }
+        return (int) width;
+    }
+
+    /**
+     * Parse a nonnegative decimal integer, saturating at Integer.MAX_VALUE.
+     */
+    private static long readInt(MappedInput input) throws IOException {
+        long value = 0;
+        int digits = 0;
+        for (int c = input.peek(); c >= '0' && c <= '9'; c = input.peek()) {
+            value = Math.min(10 * value + (c - '0'), Integer.MAX_VALUE);
+            digits++;
+            input.read();
+        }
+        if (digits == 0) {
+            throw new IOException("expected a number at byte %d of the board file".formatted(input.position()));
+        }
+        return value;
+    }
+
+    private static void expect(MappedInput input, char expected) throws IOException {
+        if (input.read() != expected) {
+            throw new IOException("expected '%c' at byte %d of the board file".formatted(expected,
+                    input.position() - 1));
+        }
+    }
+
+    private static void endLine(MappedInput input) throws IOException {
+        int c = input.read();
+        if (c == '\r' && input.peek() == '\n') {
+            input.read();
+        } else if (c != '\n' && c != '\r') {
+            throw new IOException("expected a line separator at byte %d of the board file"
+                    .formatted(input.position() - 1));
+        }
+    }
+
+    /**
+     * Sequential reader of a file, mapping it into memory one window at a time so files larger than the address
+     * range of a single buffer can be read.
+     */
+    private static class MappedInput {
+        final private FileChannel channel;
+        final long size;
+        private MappedByteBuffer window;
+        /** Position in the file of the first byte of window. */
+        private long windowStart = 0;
+
+        MappedInput(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+        }
+
+        private void map(long start) throws IOException {
+            this.windowStart = start;
+            this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE,
+                    this.size - start));
+            this.window.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        long position() {
+            return this.windowStart + this.window.position();
+        }
+
+        /**
+         * Get the byte at an absolute position within the first window, without moving.
+         */
+        byte byteAt(int position) {
+            return this.window.get(position);
+        }
+
+        /**
+         * Get the next byte without consuming it.
+         * 
+         * @return the next byte, or -1 at the end of the file
+         */
+        int peek() throws IOException {
+            if (!this.window.hasRemaining()) {
+                if (position() >= this.size) {
+                    return -1;
+                }
+                map(position());
+            }
+            return this.window.get(this.window.position()) & 0xff;
+        }
+
+        /**
+         * Consume the next byte.
+         * 
+         * @return the next byte, or -1 at the end of the file
+         */
+        int read() throws IOException {
+            int c = peek();
+            if (c >= 0) {
+                this.window.position(this.window.position() + 1);
+            }
+            return c;
+        }
+
+        int readInt() throws IOException {
+            int value = 0;
+            for (int i = 0; i < Integer.BYTES; i++) {
+                value = value << 8 | read();
+            }
+            return value;
+        }
+
+        void skip(int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                read();
+            }
+        }
+
+        void readFully(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!this.window.hasRemaining()) {
+                    map(position());
+                }
+                int length = Math.min(this.window.remaining(), bytes.length - offset);
+                this.window.get(bytes, offset, length);
+                offset += length;
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package minesweeper;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Generates random boards from a seed, filling the blocks in parallel with fork/join. The blocks are split into
+ * ranges by a fixed tree and each range draws from its own SplittableRandom split off in tree order, so a seed
+ * always generates the same board however the ranges are scheduled.
+ */
+public class BoardGenerator {
+    /** Probability of a block containing a bomb on a board generated with the default density. */
+    public final static double DEFAULT_DENSITY = 0.25;
+    /** Largest number of blocks filled by a single task; a multiple of 64 so tasks never share a byte of bits. */
+    final private static int LEAF_SIZE = 1 << 16;
+    /** Largest number of bombs, or blocks without one, split between two tasks by simulating them one by one. */
+    final private static int EXACT_SPLIT_COUNT = 1 << 12;
+    /** Number of binary digits of the density honoured by generated boards. */
+    final private static int DENSITY_BITS = 32;
+
+    private BoardGenerator() {
+    }
+
+    /**
+     * Generate a board on which every block contains a bomb independently with probability density.
+     * 
+     * @param width width of the board, requires width >= 0
+     * @param height height of the board, requires height >= 0
+     * @param seed seed of the board; the same arguments always generate the same board
+     * @param density probability of a block containing a bomb, requires 0 <= density <= 1
+     * @return the generated board
+     */
+    public static Board withDensity(int width, int height, long seed, double density) {
+        return new Board(bombs(width, height, seed, density, -1));
+    }
+
+    /**
+     * Generate a board with exactly the given number of bombs, every placement of which is about equally likely.
+     * 
+     * @param width width of the board, requires width >= 0
+     * @param height height of the board, requires height >= 0
+     * @param seed seed of the board; the same arguments always generate the same board
+     * @param mines number of bombs, requires 0 <= mines <= width * height
+     * @return the generated board
+     */
+    public static Board withMines(int width, int height, long seed, long mines) {
+        return new Board(bombs(width, height, seed, 0, mines));
+    }
+
+    /**
+     * Generate the bombs of a board.
+     * 
+     * @param mines exact number of bombs, or -1 to place bombs with probability density
+     */
+    static BoardFiles.Bombs bombs(int width, int height, long seed, double density, long mines) {
+        BoardFiles.Bombs bombs = new BoardFiles.Bombs(width, height);
+        new Fill(bombs, 0, width * (long) height, density, mines, new SplittableRandom(seed)).invoke();
+        return bombs;
+    }
+
+    /**
+     * Task placing the bombs of the blocks in [start, end), counted row by row.
+     */
+    private static class Fill extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final private transient BoardFiles.Bombs bombs;
+        final private long start, end;
+        final private double density;
+        /** Exact number of bombs in the range, or -1 to place bombs with probability density. */
+        final private long mines;
+        final private transient SplittableRandom random;
+
+        Fill(BoardFiles.Bombs bombs, long start, long end, double density, long mines, SplittableRandom random) {
+            this.bombs = bombs;
+            this.start = start;
+            this.end = end;
+            this.density = density;
+            this.mines = mines;
+            this.random = random;
+        }
+
+        @Override
+        protected void compute() {
+            long size = this.end - this.start;
+            if (size <= LEAF_SIZE) {
+                fill();
+                return;
+            }
+            long middle = this.start + (size / 2 & ~63L);
+            long leftMines = this.mines < 0 ? -1 : split(this.random, size, this.mines, middle - this.start);
+            Fill left = new Fill(this.bombs, this.start, middle, this.density, leftMines, this.random.split());
+            Fill right = new Fill(this.bombs, middle, this.end, this.density,
+                    this.mines < 0 ? -1 : this.mines - leftMines, this.random);
+            invokeAll(left, right);
+        }
+
+        /**
+         * Place the bombs of the range, 64 blocks at a time.
+         */
+        private void fill() {
+            long[] words = this.mines < 0 ? densityWords(this.random, this.end - this.start, this.density)
+                    : exactWords(this.random, (int) (this.end - this.start), (int) this.mines);
+            for (int i = 0; i < words.length; i++) {
+                this.bombs.setWord(this.start + i * (long) Long.SIZE, words[i]);
+            }
+        }
+    }
+
+    /**
+     * Draw blocks which contain a bomb with probability density, as bits of 64 blocks at a time. A random word has
+     * every bit set with probability 1/2; combining words bit by bit with and and or, driven by the binary digits of
+     * density from the last to the first, sets every bit with probability density rounded to DENSITY_BITS digits.
+     * A density of 0.25 takes two random words per 64 blocks.
+     * 
+     * @param random source of randomness
+     * @param size number of blocks
+     * @param density probability of a block containing a bomb
+     * @return bits of the blocks, set for the blocks containing a bomb
+     */
+    static long[] densityWords(SplittableRandom random, long size, double density) {
+        long digits = Math.round(density * (1L << DENSITY_BITS));
+        long[] words = new long[(int) ((size + Long.SIZE - 1) / Long.SIZE)];
+        if (digits == 0) {
+            return words;
+        }
+        int last = Long.numberOfTrailingZeros(digits);
+        for (int i = 0; i < words.length; i++) {
+            long word = 0;
+            if (digits >= 1L << DENSITY_BITS) {
+                word = -1L;
+            } else {
+                for (int digit = last; digit < DENSITY_BITS; digit++) {
+                    word = (digits & 1L << digit) != 0 ? word | random.nextLong() : word & random.nextLong();
+                }
+            }
+            words[i] = word;
+        }
+        int tail = (int) (size % Long.SIZE);
+        if (tail != 0) {
+            words[words.length - 1] &= (1L << tail) - 1;
+        }
+        return words;
+    }
+
+    /**
+     * Draw exactly the given number of blocks containing a bomb, every set of them equally likely, as bits of 64
+     * blocks at a time. Draws random blocks until enough distinct ones are found, drawing the blocks without a bomb
+     * instead if there are fewer of them.
+     * 
+     * @param random source of randomness
+     * @param size number of blocks
+     * @param mines number of blocks containing a bomb, requires 0 <= mines <= size
+     * @return bits of the blocks, set for the blocks containing a bomb
+     */
+    private static long[] exactWords(SplittableRandom random, int size, int mines) {
+        long[] words = new long[(size + Long.SIZE - 1) / Long.SIZE];
+        boolean inverted = mines > size / 2;
+        for (int drawn = 0, wanted = inverted ? size - mines : mines; drawn < wanted;) {
+            int block = random.nextInt(size);
+            if ((words[block >>> 6] & 1L << block) == 0) {
+                words[block >>> 6] |= 1L << block;
+                drawn++;
+            }
+        }
+        if (inverted) {
+            for (int i = 0; i < words.length; i++) {
+                words[i] = ~words[i];
+            }
+            if (size % Long.SIZE != 0) {
+                words[words.length - 1] &= (1L << size % Long.SIZE) - 1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Draw the number of bombs falling into the first part of a range: a hypergeometric variate, simulated bomb by
+     * bomb if there are few bombs or few blocks without one, else approximated by a normal variate. Either way the
+     * two parts add up to exactly the bombs of the range.
+     * 
+     * @param random source of randomness
+     * @param size number of blocks in the range
+     * @param mines number of bombs in the range
+     * @param draws number of blocks in the first part
+     * @return number of bombs in the first part
+     */
+    private static long split(SplittableRandom random, long size, long mines, long draws) {
+        long low = Math.max(0, mines - (size - draws)), high = Math.min(mines, draws);
+        if (low == high) {
+            return low;
+        }
+        long rare = Math.min(mines, size - mines);
+        if (rare <= EXACT_SPLIT_COUNT) {
+            // Each rare block in turn falls into the first part with probability free blocks there / free blocks.
+            long first = 0;
+            for (long i = 0; i < rare; i++) {
+                if (random.nextLong(size - i) < draws - first) {
+                    first++;
+                }
+            }
+            return rare == mines ? first : draws - first;
+        }
+        double p = (double) mines / size;
+        double variance = draws * p * (1 - p) * (size - draws) / (size - 1);
+        long drawn = Math.round(draws * p + Math.sqrt(variance) * random.nextGaussian());
+        return Math.min(Math.max(drawn, low), high);
+    }
+}
@@ -0,0 +1,519 @@
+package minesweeper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Journal of the moves which changed a Board, kept in a directory so the board survives a crash of the server.
+ * The directory holds
+ * <ul>
+ * <li>snapshots "snapshot-N.bin": the bytes "MSWS", a version byte 1, the width and the height as big-endian 32
+ * bit integers and N as a big-endian 64 bit integer, then the packed blocks of the board after its first N moves,
+ * and</li>
+ * <li>journal segments "journal-N.log": the bytes "MSWJ" and a version byte 1, then the moves after the first N,
+ * one record of 9 bytes per move: DIG, FLAG or DEFLAG, then x and y as big-endian 32 bit integers, or RESET then
+ * the seed of the new board as a big-endian 64 bit integer.</li>
+ * </ul>
+ * The board is recovered by loading the latest snapshot and replaying the segments which follow it, so only the
+ * tail of the moves is replayed. A record cut short by a crash ends the replay. A dig is recorded once its flood
+ * fill is done, but a snapshot may be taken while the fill waits for a tile: the blocks it still spreads from are
+ * marked in the snapshot, and the fill is finished when its dig is replayed.
+ * 
+ * <br> Moves are appended to a buffer in memory, and a background thread writes the buffer and forces it to disk
+ * in groups: every move appended while the disk is busy is written by the next write. Players never wait for the
+ * disk, so the moves of the last group may be lost in a crash, unless the disk falls so far behind that the buffer
+ * fills up. After SNAPSHOT_MOVES moves the thread takes a new snapshot, starts a new segment, and deletes the
+ * snapshots and segments no longer needed.
+ */
+public class BoardJournal implements Closeable {
+    /** Kinds of records. */
+    final static byte DIG = 1, FLAG = 2, DEFLAG = 3, RESET = 4;
+    final private static byte[] SNAPSHOT_MAGIC = { 'M', 'S', 'W', 'S' };
+    final private static byte[] JOURNAL_MAGIC = { 'M', 'S', 'W', 'J' };
+    final private static byte VERSION = 1;
+    final private static int SNAPSHOT_HEADER_SIZE = SNAPSHOT_MAGIC.length + 1 + 2 * Integer.BYTES + Long.BYTES;
+    final private static int JOURNAL_HEADER_SIZE = JOURNAL_MAGIC.length + 1;
+    final private static int RECORD_SIZE = 1 + 2 * Integer.BYTES;
+    final private static Pattern FILE_NAME = Pattern.compile("(snapshot|journal)-(\\d+)\\.(bin|log)");
+    /** Default number of moves between snapshots. */
+    final private static long SNAPSHOT_MOVES = 1 << 20;
+    /**
+     * Shortest time between the writes of two groups of moves, so a steady trickle of moves is not forced to disk
+     * one by one, each force costing the players far more processor time than the move.
+     */
+    final private static long GROUP_COMMIT_NANOS = 1_000_000;
+    /** Largest number of bytes of moves buffered before players wait for the disk. */
+    final private static int MAX_PENDING = 1 << 24;
+
+    final private Path directory;
+    final private Board board;
+    final private long snapshotMoves;
+    /** Guards pending, moves and closed. */
+    final private ReentrantLock lock = new ReentrantLock();
+    final private Condition appended = this.lock.newCondition();
+    final private Condition drained = this.lock.newCondition();
+    /** Moves appended but not yet taken by the writer thread. */
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    /** Buffer the writer thread writes from, swapped with pending. */
+    private ByteBuffer writing = ByteBuffer.allocate(1 << 16);
+    /** Number of moves appended since the board was built. */
+    private long moves;
+    private boolean closed = false;
+    /**
+     * True while the writer thread takes a snapshot, and so waits for the tiles held by appenders: they must not
+     * wait for it in turn.
+     */
+    private boolean snapshotting = false;
+    /** Segment written by the writer thread, and the number of moves before its first record. */
+    private FileChannel segment;
+    private long segmentStart;
+    /** Number of moves in the latest snapshot. */
+    private long snapshotted;
+    private final Thread writer;
+    /** Failure of the writer thread, after which moves are no longer journaled. */
+    private volatile IOException failure;
+
+    /**
+     * Construct a journal of board in directory, and start its writer thread.
+     * 
+     * @param directory directory of the journal
+     * @param board board after moves moves, not yet played on by other threads
+     * @param moves number of moves of the board so far
+     * @param snapshotMoves number of moves between snapshots
+     * @param snapshot true to take a snapshot before returning, else the writer thread takes it first thing
+     */
+    private BoardJournal(Path directory, Board board, long moves, long snapshotMoves, boolean snapshot)
+            throws IOException {
+        this.directory = directory;
+        this.board = board;
+        this.moves = moves;
+        this.snapshotted = -1;
+        this.snapshotMoves = snapshotMoves;
+        this.segmentStart = moves;
+        this.segment = openSegment(moves);
+        if (snapshot) {
+            snapshot();
+        }
+        board.journal(this);
+        this.writer = new Thread(this::write, "minesweeper-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Start journaling a new board in directory, removing any journal there.
+     * 
+     * @param directory directory of the journal, created if it doesn't exist
+     * @param board new board, not yet played on
+     * @return journal of board
+     * @throws IOException if the directory or the first snapshot can't be written
+     */
+    public static BoardJournal create(File directory, Board board) throws IOException {
+        return create(directory, board, SNAPSHOT_MOVES);
+    }
+
+    static BoardJournal create(File directory, Board board, long snapshotMoves) throws IOException {
+        Path path = directory.toPath();
+        Files.createDirectories(path);
+        for (JournalFile file : list(path)) {
+            Files.delete(file.path);
+        }
+        return new BoardJournal(path, board, 0, snapshotMoves, true);
+    }
+
+    /**
+     * Recover the board journaled in directory, and go on journaling it.
+     * 
+     * @param directory directory of the journal
+     * @return journal of the recovered board, or null if the directory holds no snapshot
+     * @throws IOException if the snapshot or the journal can't be read
+     */
+    public static BoardJournal recover(File directory) throws IOException {
+        return recover(directory, SNAPSHOT_MOVES);
+    }
+
+    static BoardJournal recover(File directory, long snapshotMoves) throws IOException {
+        Path path = directory.toPath();
+        if (!Files.isDirectory(path)) {
+            return null;
+        }
+        List<JournalFile> files = list(path);
+        JournalFile latest = null;
+        for (JournalFile file : files) {
+            if (file.snapshot && (latest == null || file.moves > latest.moves)) {
+                latest = file;
+            }
+        }
+        if (latest == null) {
+            return null;
+        }
+
+        Board board = readSnapshot(latest);
+        long moves = latest.moves;
+        for (JournalFile file : files) {
+            if (!file.snapshot && file.moves == moves) {
+                moves += replay(file, board);
+            }
+        }
+        // A fill half done in the snapshot whose dig was lost in the crash was finished before the crash.
+        board.finishFills();
+        return new BoardJournal(path, board, moves, snapshotMoves, false);
+    }
+
+    /**
+     * Get the journaled board.
+     * 
+     * @return board recorded by this journal
+     */
+    public Board board() {
+        return this.board;
+    }
+
+    /**
+     * Get the number of moves which changed the board since it was built, whether written to disk yet or not.
+     * 
+     * @return number of moves
+     */
+    public long moves() {
+        this.lock.lock();
+        try {
+            return this.moves;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Write every move appended so far to disk, and stop journaling. Later moves are not recorded.
+     * 
+     * @throws IOException if the writer thread failed to write moves
+     */
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.appended.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.writer.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        this.board.journal(null);
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    /**
+     * Append a move which changed the board. Called by the board while the changed blocks are locked; waits only
+     * if the writer thread has fallen MAX_PENDING bytes behind.
+     * 
+     * @param kind DIG, FLAG, DEFLAG or RESET
+     * @param x xth row, or the high 32 bits of the seed of a RESET
+     * @param y yth column, or the low 32 bits of the seed of a RESET
+     */
+    void append(byte kind, int x, int y) {
+        this.lock.lock();
+        try {
+            if (this.closed || this.failure != null) {
+                return;
+            }
+            while (this.pending.position() >= MAX_PENDING && !this.snapshotting && this.failure == null) {
+                this.drained.awaitUninterruptibly();
+            }
+            if (this.pending.remaining() < RECORD_SIZE) {
+                ByteBuffer larger = ByteBuffer.allocate(2 * this.pending.capacity());
+                this.pending.flip();
+                larger.put(this.pending);
+                this.pending = larger;
+            }
+            this.pending.put(kind).putInt(x).putInt(y);
+            if (this.pending.position() == RECORD_SIZE) {
+                this.appended.signal();
+            }
+            this.moves++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Body of the writer thread: take the buffered moves, write them and force them to disk, and repeat until the
+     * journal is closed.
+     */
+    private void write() {
+        try {
+            long written = System.nanoTime() - GROUP_COMMIT_NANOS;
+            while (true) {
+                long moves;
+                boolean last;
+                this.lock.lock();
+                try {
+                    while (this.pending.position() == 0 && !this.closed && this.snapshotted >= 0) {
+                        this.appended.awaitUninterruptibly();
+                    }
+                    for (long wait = written + GROUP_COMMIT_NANOS - System.nanoTime(); wait > 0 && !this.closed
+                            && this.pending.position() < MAX_PENDING / 2; wait = this.appended.awaitNanos(wait)) {
+                    }
+                    ByteBuffer full = this.pending;
+                    this.pending = this.writing;
+                    this.writing = full;
+                    moves = this.moves;
+                    last = this.closed;
+                    this.drained.signalAll();
+                } finally {
+                    this.lock.unlock();
+                }
+
+                written = System.nanoTime();
+                writeMoves();
+                if (this.snapshotted < 0 || moves - this.snapshotted >= this.snapshotMoves) {
+                    snapshot();
+                }
+                if (last) {
+                    this.segment.close();
+                    return;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            this.failure = e instanceof IOException ? (IOException) e
+                    : new InterruptedIOException("journal writer interrupted");
+            e.printStackTrace(); // but keep the server running without a journal
+            this.lock.lock();
+            try {
+                this.drained.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Write the moves in writing to the segment and force them to disk.
+     */
+    private void writeMoves() throws IOException {
+        this.writing.flip();
+        while (this.writing.hasRemaining()) {
+            this.segment.write(this.writing);
+        }
+        this.writing.clear();
+        this.segment.force(false);
+    }
+
+    /**
+     * Take a snapshot of the board, start a new segment after it, and delete the files it makes obsolete.
+     */
+    private void snapshot() throws IOException {
+        byte[][] cells = new byte[1][];
+        long[] moves = new long[1];
+        this.lock.lock();
+        try {
+            this.snapshotting = true;
+            this.drained.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        // No move is appended while every tile is locked, so the copy is the board after exactly moves[0] moves,
+        // except for digs whose fills released their tiles and are marked in the blocks, finished by replay.
+        this.board.atomically(() -> {
+            cells[0] = this.board.copyCells();
+            this.lock.lock();
+            try {
+                moves[0] = this.moves;
+                ByteBuffer rest = this.pending;
+                this.pending = this.writing;
+                this.writing = rest;
+                this.snapshotting = false;
+            } finally {
+                this.lock.unlock();
+            }
+        });
+        writeMoves();
+        if (moves[0] != this.segmentStart) {
+            this.segment.close();
+            this.segmentStart = moves[0];
+            this.segment = openSegment(moves[0]);
+        }
+
+        Path temporary = this.directory.resolve("snapshot.tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+            header.put(SNAPSHOT_MAGIC).put(VERSION).putInt(this.board.getWidth()).putInt(this.board.getHeight())
+                    .putLong(moves[0]).flip();
+            ByteBuffer body = ByteBuffer.wrap(cells[0]);
+            while (header.hasRemaining() || body.hasRemaining()) {
+                out.write(new ByteBuffer[] { header, body });
+            }
+            out.force(false);
+        }
+        Files.move(temporary, this.directory.resolve("snapshot-" + moves[0] + ".bin"),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+        this.snapshotted = moves[0];
+
+        for (JournalFile file : list(this.directory)) {
+            if (file.moves < moves[0]) {
+                Files.delete(file.path);
+            }
+        }
+    }
+
+    /**
+     * Create the segment of the moves after the first start moves.
+     */
+    private FileChannel openSegment(long start) throws IOException {
+        FileChannel channel = FileChannel.open(this.directory.resolve("journal-" + start + ".log"),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE).put(JOURNAL_MAGIC).put(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(false);
+        forceDirectory();
+        return channel;
+    }
+
+    /**
+     * Force the entries of the directory to disk, so created and renamed files survive a crash. Not supported on
+     * every platform, where it is left to the file system.
+     */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ioe) {
+            // directories can't be opened on this platform
+        }
+    }
+
+    /**
+     * Read a snapshot into a board.
+     */
+    private static Board readSnapshot(JournalFile file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+            readFully(in, header);
+            byte[] magic = new byte[SNAPSHOT_MAGIC.length];
+            header.flip().get(magic);
+            int width = 0, height = 0;
+            boolean valid = Arrays.equals(magic, SNAPSHOT_MAGIC) && header.get() == VERSION;
+            if (valid) {
+                width = header.getInt();
+                height = header.getInt();
+                valid = width > 0 && height > 0 && header.getLong() == file.moves
+                        && in.size() == SNAPSHOT_HEADER_SIZE + (width + 2L) * (height + 2L);
+            }
+            if (!valid) {
+                throw new IOException("invalid snapshot " + file.path);
+            }
+            byte[] cells = new byte[(width + 2) * (height + 2)];
+            readFully(in, ByteBuffer.wrap(cells));
+            return new Board(width, height, cells);
+        }
+    }
+
+    /**
+     * Replay the moves of a segment on board.
+     * 
+     * @return number of moves replayed
+     */
+    private static long replay(JournalFile file, Board board) throws IOException {
+        try (FileChannel in = FileChannel.open(file.path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+            readFully(in, header);
+            byte[] magic = new byte[JOURNAL_MAGIC.length];
+            header.flip().get(magic);
+            if (!Arrays.equals(magic, JOURNAL_MAGIC) || header.get() != VERSION) {
+                return 0;
+            }
+
+            long replayed = 0;
+            ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE << 12);
+            while (in.read(records) > 0 || records.position() >= RECORD_SIZE) {
+                records.flip();
+                for (; records.remaining() >= RECORD_SIZE; replayed++) {
+                    byte kind = records.get();
+                    int x = records.getInt(), y = records.getInt();
+                    if (kind == DIG) {
+                        // A dig changing nothing was half done in the snapshot, and is finished from its marks.
+                        if (board.digCounting(x, y) == 0) {
+                            board.finishFills();
+                        }
+                    } else if (kind == FLAG) {
+                        board.flag(x, y);
+                    } else if (kind == DEFLAG) {
+                        board.deflag(x, y);
+                    } else if (kind == RESET) {
+                        board.reset((long) x << 32 | y & 0xffffffffL);
+                    } else {
+                        return replayed;
+                    }
+                }
+                records.compact();
+            }
+            return replayed;
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * List the snapshots and segments in a directory, ordered by the number of moves before them.
+     */
+    private static List<JournalFile> list(Path directory) throws IOException {
+        List<JournalFile> res = new ArrayList<>();
+        File[] files = directory.toFile().listFiles();
+        if (files == null) {
+            throw new IOException("unable to list " + directory);
+        }
+        for (File file : files) {
+            Matcher name = FILE_NAME.matcher(file.getName());
+            if (name.matches() && name.group(1).equals("snapshot") == name.group(3).equals("bin")) {
+                res.add(new JournalFile(file.toPath(), name.group(1).equals("snapshot"),
+                        Long.parseLong(name.group(2))));
+            }
+        }
+        res.sort((a, b) -> Long.compare(a.moves, b.moves));
+        return res;
+    }
+
+    /**
+     * A snapshot or a segment, and the number of moves before it.
+     */
+    private static class JournalFile {
+        final private Path path;
+        final private boolean snapshot;
+        final private long moves;
+
+        private JournalFile(Path path, boolean snapshot, long moves) {
+            this.path = path;
+            this.snapshot = snapshot;
+            this.moves = moves;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package minesweeper;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Metrics of every board of the process: how long operations wait for the locks of a board and hold them, how
+ * many blocks each dig reveals, and how often a BoardPool had a board ready and how long boards took to generate.
+ * Cheap enough to leave on: an uncontended lock is taken without timing the wait, and recording a value costs a few
+ * uncontended atomic updates. Reading the clock costs more than flagging a block, so the hold times of operations
+ * on a single block of a Board are not timed, and those of its digs are sampled.
+ */
+public class BoardMetrics {
+    /** Nanoseconds operations waited for locks held by others, recorded only for operations which waited. */
+    final private static Histogram LOCK_WAIT = new Histogram();
+    /** Nanoseconds operations held the locks of a board, recorded for operations of varying length. */
+    final private static Histogram LOCK_HOLD = new Histogram();
+    /** Number of blocks revealed by each dig of an untouched block. */
+    final private static Histogram FLOOD_FILL = new Histogram();
+    /** Nanoseconds taken to generate each board of a BoardPool. */
+    final private static Histogram GENERATION = new Histogram();
+    /** Number of boards BoardPools had ready, and had to generate on the spot. */
+    final private static LongAdder POOL_HITS = new LongAdder(), POOL_MISSES = new LongAdder();
+    /** One in every DIG_SAMPLING digs of a Board is timed. */
+    final private static int DIG_SAMPLING = 8;
+
+    private BoardMetrics() {
+    }
+
+    /**
+     * Get the time operations waited for the locks of boards held by others.
+     * 
+     * @return histogram of the waits in nanoseconds, one value per operation which had to wait
+     */
+    public static Histogram lockWait() {
+        return LOCK_WAIT;
+    }
+
+    /**
+     * Get the time operations held the locks of boards.
+     * 
+     * @return histogram of the times in nanoseconds, one value per timed operation: renders, views and atomic
+     *         operations of every board, every operation of a TiledBoard, and a sample of the digs of a Board
+     */
+    public static Histogram lockHold() {
+        return LOCK_HOLD;
+    }
+
+    /**
+     * Get the number of blocks revealed by digs.
+     * 
+     * @return histogram of the number of blocks, one value per dig of an untouched block
+     */
+    public static Histogram floodFill() {
+        return FLOOD_FILL;
+    }
+
+    /**
+     * Get the time taken to generate the boards of BoardPools, ahead of time or on the spot.
+     * 
+     * @return histogram of the times in nanoseconds, one value per generated board
+     */
+    public static Histogram boardGeneration() {
+        return GENERATION;
+    }
+
+    /**
+     * Get the number of boards taken from BoardPools which had one ready.
+     * 
+     * @return number of hits
+     */
+    public static long poolHits() {
+        return POOL_HITS.sum();
+    }
+
+    /**
+     * Get the number of boards taken from BoardPools which had none ready, and generated one on the spot.
+     * 
+     * @return number of misses
+     */
+    public static long poolMisses() {
+        return POOL_MISSES.sum();
+    }
+
+    /**
+     * Lock lock, timing the wait only if another thread holds it.
+     * 
+     * @param lock lock to take
+     * @return nanoseconds waited for the lock, 0 if it was free
+     */
+    static long acquire(ReentrantLock lock) {
+        if (lock.tryLock()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Check if an operation is in the sample of the operations timed.
+     * 
+     * @param count number of operations so far, the current one included, of a sequence of operations
+     * @return true if the operation is to be timed
+     */
+    static boolean sampled(int count) {
+        return count % DIG_SAMPLING == 0;
+    }
+
+    /**
+     * Record an operation which released its locks without being timed.
+     * 
+     * @param waited nanoseconds the operation waited for its locks
+     */
+    static void waited(long waited) {
+        if (waited > 0) {
+            LOCK_WAIT.record(waited);
+        }
+    }
+
+    /**
+     * Record an operation which released the locks it held.
+     * 
+     * @param waited nanoseconds the operation waited for its locks
+     * @param lockedAt System.nanoTime() when the operation had taken its locks
+     */
+    static void released(long waited, long lockedAt) {
+        waited(waited);
+        LOCK_HOLD.record(System.nanoTime() - lockedAt);
+    }
+
+    /**
+     * Record a dig which revealed blocks.
+     * 
+     * @param blocks number of blocks revealed
+     */
+    static void revealed(long blocks) {
+        FLOOD_FILL.record(blocks);
+    }
+
+    /**
+     * Record a board taken from a BoardPool.
+     * 
+     * @param hit true if the pool had a board ready, false if it generated one on the spot
+     */
+    static void pooled(boolean hit) {
+        (hit ? POOL_HITS : POOL_MISSES).increment();
+    }
+
+    /**
+     * Record a board generated by a BoardPool.
+     * 
+     * @param nanos nanoseconds taken to generate the board
+     */
+    static void generated(long nanos) {
+        GENERATION.record(nanos);
+    }
+}
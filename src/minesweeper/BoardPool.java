@@ -0,0 +1,225 @@
+package minesweeper;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Boards generated ahead of time by low-priority background threads, so a game starts or starts again without
+ * waiting for its board to be generated. Each size class of boards has up to a fixed number of boards ready, made
+ * with BoardGenerator.DEFAULT_DENSITY from random seeds; taking one costs a poll of a queue, and starts generating
+ * its replacement. A board of a size with none ready is generated on the spot, and its size is stocked from then
+ * on, up to MAX_SIZE_CLASSES sizes. Boards of more than MAX_POOLED_BLOCKS blocks are never stocked, and the ready
+ * boards hold at most MAX_STOCKED_BLOCKS blocks altogether, so the memory of the pool is bounded. Hits, misses and
+ * generation times are recorded in BoardMetrics. The background threads are the workers of a fork/join pool of
+ * their own, so the fork/join tasks of BoardGenerator and the parallel streams of Board which they start stay on
+ * them rather than running on the common pool at normal priority. Thread safe.
+ */
+public class BoardPool implements AutoCloseable {
+    /** Default number of boards kept ready per size class. */
+    public final static int DEFAULT_CAPACITY = 4;
+    /** Largest number of size classes stocked. */
+    final private static int MAX_SIZE_CLASSES = 64;
+    /** Largest number of blocks of a stocked board. */
+    final private static long MAX_POOLED_BLOCKS = 1 << 22;
+    /** Largest number of blocks of the boards ready or being generated, of every size class together. */
+    final private static long MAX_STOCKED_BLOCKS = 1 << 24;
+    /** Seconds a generating thread waits for work before it ends. */
+    final private static long KEEP_ALIVE_SECONDS = 30;
+    /** Largest number of threads a generating thread blocked joining a task may be replaced by. */
+    final private static int MAX_SPARES = 256;
+
+    /**
+     * A generated board, with the seed it was generated from.
+     */
+    static class Deal {
+        final long seed;
+        final Board board;
+
+        private Deal(long seed, Board board) {
+            this.seed = seed;
+            this.board = board;
+        }
+    }
+
+    /**
+     * Boards of a size: those ready, and how many are ready or being generated.
+     */
+    private static class SizeClass {
+        final private int width, height;
+        final private Queue<Deal> ready = new ConcurrentLinkedQueue<>();
+        final private AtomicInteger stocked = new AtomicInteger();
+
+        private SizeClass(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    final private int capacity;
+    final private Map<Long, SizeClass> classes = new ConcurrentHashMap<>();
+    /** Number of blocks of the boards ready or being generated. */
+    final private AtomicLong stockedBlocks = new AtomicLong();
+    final private ForkJoinPool generators;
+
+    /**
+     * Make a pool keeping DEFAULT_CAPACITY boards ready per size class, generated by one background thread.
+     */
+    public BoardPool() {
+        this(DEFAULT_CAPACITY, 1);
+    }
+
+    /**
+     * Make a pool. Its threads are started when boards are to be generated, and end once none are.
+     * 
+     * @param capacity number of boards kept ready per size class, requires capacity >= 0
+     * @param threads number of threads generating boards, requires threads > 0
+     */
+    public BoardPool(int capacity, int threads) {
+        this.capacity = capacity;
+        this.generators = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("minesweeper-board-pool");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, null, false, 0, threads + MAX_SPARES, 1, null, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Start keeping boards of a size ready, unless there are already MAX_SIZE_CLASSES sizes or the boards are too
+     * large to pool.
+     * 
+     * @param width width of the boards, requires width > 0
+     * @param height height of the boards, requires height > 0
+     */
+    public void stock(int width, int height) {
+        SizeClass sizeClass = sizeClass(width, height);
+        if (sizeClass != null) {
+            refill(sizeClass);
+        }
+    }
+
+    /**
+     * Get a new board of a size, ready if the pool has one and generated on the spot otherwise.
+     * 
+     * @param width width of the board, requires width > 0
+     * @param height height of the board, requires height > 0
+     * @return a board nobody played, whose bombs are placed with probability BoardGenerator.DEFAULT_DENSITY
+     */
+    public Board board(int width, int height) {
+        return deal(width, height).board;
+    }
+
+    /**
+     * Get a new board of a size with its seed, ready if the pool has one and generated on the spot otherwise.
+     * 
+     * @param width width of the board, requires width > 0
+     * @param height height of the board, requires height > 0
+     * @return a board nobody played, and the seed BoardGenerator generates it again from
+     */
+    Deal deal(int width, int height) {
+        SizeClass sizeClass = this.classes.get(key(width, height));
+        Deal res = sizeClass == null ? null : sizeClass.ready.poll();
+        BoardMetrics.pooled(res != null);
+        if (res != null) {
+            sizeClass.stocked.decrementAndGet();
+            this.stockedBlocks.addAndGet(-(long) width * height);
+        } else {
+            sizeClass = sizeClass != null ? sizeClass : sizeClass(width, height);
+            res = generate(width, height);
+        }
+        if (sizeClass != null) {
+            refill(sizeClass);
+        }
+        return res;
+    }
+
+    /**
+     * Stop generating boards. The pool still hands out boards, generated on the spot.
+     */
+    @Override
+    public void close() {
+        this.generators.shutdownNow();
+    }
+
+    /**
+     * Find the size class of boards of a size, adding it if there is room.
+     * 
+     * @return the size class, or null if the size is not stocked
+     */
+    private SizeClass sizeClass(int width, int height) {
+        long key = key(width, height);
+        SizeClass res = this.classes.get(key);
+        if (res != null || (long) width * height > MAX_POOLED_BLOCKS || this.classes.size() >= MAX_SIZE_CLASSES) {
+            return res;
+        }
+        return this.classes.computeIfAbsent(key, k -> new SizeClass(width, height));
+    }
+
+    private static long key(int width, int height) {
+        return (long) width << 32 | height;
+    }
+
+    /**
+     * Generate boards of a size class in the background until capacity boards are ready or being generated, or
+     * the pool holds as many blocks as it may.
+     */
+    private void refill(SizeClass sizeClass) {
+        long blocks = (long) sizeClass.width * sizeClass.height;
+        for (int stocked = sizeClass.stocked.get(); stocked < this.capacity; stocked = sizeClass.stocked.get()) {
+            if (!sizeClass.stocked.compareAndSet(stocked, stocked + 1)) {
+                continue;
+            }
+            if (this.stockedBlocks.addAndGet(blocks) > MAX_STOCKED_BLOCKS) {
+                unstock(sizeClass, blocks);
+                return;
+            }
+            try {
+                this.generators.execute(() -> stockOne(sizeClass, blocks));
+            } catch (RejectedExecutionException ree) {
+                unstock(sizeClass, blocks); // closed
+                return;
+            }
+        }
+    }
+
+    /**
+     * Generate a board of a size class and make it ready, unless the pool is closed while generating it, which
+     * cancels the fork/join tasks generating it.
+     */
+    private void stockOne(SizeClass sizeClass, long blocks) {
+        try {
+            sizeClass.ready.add(generate(sizeClass.width, sizeClass.height));
+        } catch (CancellationException ce) {
+            unstock(sizeClass, blocks); // closed
+        }
+    }
+
+    private void unstock(SizeClass sizeClass, long blocks) {
+        sizeClass.stocked.decrementAndGet();
+        this.stockedBlocks.addAndGet(-blocks);
+    }
+
+    /**
+     * Generate a board from a random seed, recording the time taken. Its fork/join tasks and parallel streams run
+     * on the pool of the calling thread if it is a fork/join worker, and on the common pool otherwise.
+     */
+    private static Deal generate(int width, int height) {
+        long start = System.nanoTime();
+        long seed = new SplittableRandom().nextLong();
+        Deal res = new Deal(seed, new Board(BoardGenerator.bombs(width, height, seed,
+                BoardGenerator.DEFAULT_DENSITY, -1)));
+        BoardMetrics.generated(System.nanoTime() - start);
+        return res;
+    }
+}
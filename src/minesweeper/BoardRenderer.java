@@ -0,0 +1,282 @@
+package minesweeper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cache of the board message of a Board. Every row is kept encoded, and only the rows changed since the last
+ * rendering are encoded again. Renderings are immutable and published whole, each sharing the encoded rows it didn't
+ * change with the one before, so readers never see a row while it is encoded. The board is read in bands of
+ * TileLocks.TILE_SIZE rows, each band without locking and validated against the stamps of its own tiles, so only the
+ * bands whose tiles were locked since the last rendering are read again. A band held by an operation, such as a long
+ * flood fill, is shown as it was last rendered and read again by the next rendering, so rendering neither waits for
+ * operations holding tiles nor holds them back. While the board doesn't change, the cached message is returned at
+ * once.
+ */
+class BoardRenderer {
+    final private static byte[] NEWLINE = "%n".formatted().getBytes(StandardCharsets.US_ASCII);
+    /** Number of attempts at reading a band or a view without locking before giving up on it. */
+    final private static int OPTIMISTIC_ATTEMPTS = 8;
+
+    final private Board board;
+    final private int tilesAcross;
+    final private AtomicReference<Rendering> rendering = new AtomicReference<>();
+
+    /**
+     * Board message together with its encoded rows, and the state of the board each band was read in.
+     */
+    private static class Rendering {
+        /** Version of the board when the rendering started. */
+        final private long version;
+        /** True if every band was read at version or later, so the message is the board at version. */
+        final private boolean complete;
+        /** Encoded rows, each one the symbols of the blocks separated by spaces, shared and never modified. */
+        final private byte[][] rows;
+        /** Stamps of the tiles when their band was read, and version of the board when each band was read. */
+        final private long[] stamps, bandVersions;
+        final private byte[] message;
+
+        private Rendering(long version, boolean complete, byte[][] rows, long[] stamps, long[] bandVersions) {
+            this.version = version;
+            this.complete = complete;
+            this.rows = rows;
+            this.stamps = stamps;
+            this.bandVersions = bandVersions;
+            int height = rows.length;
+            this.message = new byte[height * rows[0].length + (height - 1) * NEWLINE.length];
+            for (int i = 0, position = 0; i < height; i++) {
+                if (i > 0) {
+                    System.arraycopy(NEWLINE, 0, this.message, position, NEWLINE.length);
+                    position += NEWLINE.length;
+                }
+                System.arraycopy(rows[i], 0, this.message, position, rows[i].length);
+                position += rows[i].length;
+            }
+        }
+    }
+
+    /**
+     * Construct a new BoardRenderer for board.
+     * 
+     * @param board board to render
+     */
+    BoardRenderer(Board board) {
+        this.board = board;
+        this.tilesAcross = (board.getWidth() + TileLocks.TILE_SIZE - 1) / TileLocks.TILE_SIZE;
+    }
+
+    /**
+     * Get the board message, rendering again the bands whose tiles were locked since it was last rendered. Each band
+     * is as it was at a single moment, and a band held by an operation throughout is as it was last rendered. Waits
+     * only for the bands of the first rendering, which has no earlier rows to show.
+     * 
+     * @return board message, shared between callers
+     */
+    byte[] render() {
+        Rendering current = this.rendering.get();
+        long version = this.board.version();
+        if (current != null && current.complete && current.version == version) {
+            return current.message;
+        }
+
+        long[] stamps = this.board.tileStamps();
+        int bands = (this.board.getHeight() + TileLocks.TILE_SIZE - 1) / TileLocks.TILE_SIZE;
+        byte[][] rows = current == null ? new byte[this.board.getHeight()][] : current.rows.clone();
+        long[] read = current == null ? new long[stamps.length] : current.stamps.clone();
+        long[] bandVersions = current == null ? new long[bands] : current.bandVersions.clone();
+        boolean complete = true;
+        for (int band = 0; band < bands; band++) {
+            if (current != null && Arrays.equals(stamps, band * this.tilesAcross, (band + 1) * this.tilesAcross,
+                    current.stamps, band * this.tilesAcross, (band + 1) * this.tilesAcross)) {
+                continue;
+            }
+            if (readBand(band, current, rows, read, bandVersions)) {
+                continue;
+            }
+            if (current != null) {
+                // shown as last rendered, and read again by the next rendering
+                complete = false;
+            } else {
+                lockAndReadBand(band, rows, read, bandVersions);
+            }
+        }
+        return publish(new Rendering(version, complete, rows, read, bandVersions)).message;
+    }
+
+    /**
+     * Read a band of rows without locking, encoding its rows changed since a rendering if the read is validated.
+     * 
+     * @param band number of the band
+     * @param base last published rendering, or null to encode every row
+     * @param rows encoded rows, whose rows of the band are replaced
+     * @param stamps stamps of the tiles, whose stamps of the band are set to those read
+     * @param bandVersions versions of the board when the bands were read, whose version of the band is set
+     * @return true if the band was read, false if it was held by others every time
+     */
+    private boolean readBand(int band, Rendering base, byte[][] rows, long[] stamps, long[] bandVersions) {
+        int firstRow = band * TileLocks.TILE_SIZE;
+        int lastRow = Math.min(firstRow + TileLocks.TILE_SIZE, this.board.getHeight()) - 1;
+        int lastColumn = this.board.getWidth() - 1;
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long[] read = this.board.tryOptimisticRead(firstRow, 0, lastRow, lastColumn);
+            if (read != null) {
+                long version = this.board.version();
+                byte[][] encoded = encodeChangedRows(base, band, firstRow, lastRow);
+                if (this.board.validate(firstRow, 0, lastRow, lastColumn, read)) {
+                    System.arraycopy(encoded, 0, rows, firstRow, encoded.length);
+                    System.arraycopy(read, 0, stamps, band * this.tilesAcross, read.length);
+                    bandVersions[band] = version;
+                    return true;
+                }
+            }
+            // let the operation holding the tiles finish
+            Thread.yield();
+        }
+        return false;
+    }
+
+    /**
+     * Read every row of a band while holding its tiles.
+     * 
+     * @param band number of the band
+     * @param rows encoded rows, whose rows of the band are replaced
+     * @param stamps stamps of the tiles, whose stamps of the band are set to those once unlocked
+     * @param bandVersions versions of the board when the bands were read, whose version of the band is set
+     */
+    private void lockAndReadBand(int band, byte[][] rows, long[] stamps, long[] bandVersions) {
+        int firstRow = band * TileLocks.TILE_SIZE;
+        int lastRow = Math.min(firstRow + TileLocks.TILE_SIZE, this.board.getHeight()) - 1;
+        int lastColumn = this.board.getWidth() - 1;
+        long waited = this.board.lockRegion(firstRow, 0, lastRow, lastColumn);
+        long lockedAt = System.nanoTime();
+        try {
+            bandVersions[band] = this.board.version();
+            long[] held = this.board.tileStamps();
+            for (int tile = band * this.tilesAcross; tile < (band + 1) * this.tilesAcross; tile++) {
+                // as this thread unlocks them
+                stamps[tile] = held[tile] + 1;
+            }
+            System.arraycopy(encodeChangedRows(null, band, firstRow, lastRow), 0, rows, firstRow,
+                    lastRow - firstRow + 1);
+        } finally {
+            this.board.unlockRegion(firstRow, 0, lastRow, lastColumn);
+            this.board.recordReleased(waited, lockedAt);
+        }
+    }
+
+    /**
+     * Encode the rows of a band changed since a rendering, sharing the others with it. Requires the tiles of the band
+     * to be locked or read optimistically.
+     * 
+     * @param base last published rendering, or null to encode every row
+     * @param band number of the band
+     * @param firstRow first row of the band
+     * @param lastRow last row of the band
+     * @return encoded rows of the band
+     */
+    private byte[][] encodeChangedRows(Rendering base, int band, int firstRow, int lastRow) {
+        byte[][] res = new byte[lastRow - firstRow + 1][];
+        for (int i = firstRow; i <= lastRow; i++) {
+            boolean changed = base == null || this.board.rowVersion(i) > base.bandVersions[band];
+            res[i - firstRow] = changed ? encodeRow(i) : base.rows[i];
+        }
+        return res;
+    }
+
+    /**
+     * Publish a rendering unless a rendering of a later version, or one of the same version with no more bands left
+     * to read, was published meanwhile.
+     * 
+     * @param next new rendering
+     * @return the published rendering, next or a later one
+     */
+    private Rendering publish(Rendering next) {
+        while (true) {
+            Rendering current = this.rendering.get();
+            if (current != null && (current.version > next.version
+                    || current.version == next.version && (current.complete || !next.complete))) {
+                return current;
+            }
+            if (this.rendering.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Render the blocks in rows x to x + rows - 1 and columns y to y + columns - 1, reading or locking only the tiles
+     * containing them, so the cost grows with the rectangle and not with the board.
+     * 
+     * @param x first row, requires 0 <= x and x + rows <= height of the board
+     * @param y first column, requires 0 <= y and y + columns <= width of the board
+     * @param rows number of rows, requires rows > 0
+     * @param columns number of columns, requires columns > 0
+     * @return message of the rectangle, owned by the caller
+     */
+    byte[] renderView(int x, int y, int rows, int columns) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long[] stamps = this.board.tryOptimisticRead(x, y, x + rows - 1, y + columns - 1);
+            if (stamps != null) {
+                byte[] message = encodeView(x, y, rows, columns);
+                if (this.board.validate(x, y, x + rows - 1, y + columns - 1, stamps)) {
+                    return message;
+                }
+            }
+            Thread.yield();
+        }
+
+        long waited = this.board.lockRegion(x, y, x + rows - 1, y + columns - 1);
+        long lockedAt = System.nanoTime();
+        try {
+            return encodeView(x, y, rows, columns);
+        } finally {
+            this.board.unlockRegion(x, y, x + rows - 1, y + columns - 1);
+            this.board.recordReleased(waited, lockedAt);
+        }
+    }
+
+    /**
+     * Encode the blocks of a rectangle. Requires the tiles overlapping it to be locked or read optimistically.
+     * 
+     * @param x first row
+     * @param y first column
+     * @param rows number of rows
+     * @param columns number of columns
+     * @return message of the rectangle
+     */
+    private byte[] encodeView(int x, int y, int rows, int columns) {
+        byte[] message = new byte[rows * (2 * columns - 1) + (rows - 1) * NEWLINE.length];
+        int position = 0;
+        for (int i = x; i < x + rows; i++) {
+            if (i > x) {
+                System.arraycopy(NEWLINE, 0, message, position, NEWLINE.length);
+                position += NEWLINE.length;
+            }
+            for (int j = y; j < y + columns; j++) {
+                if (j > y) {
+                    message[position++] = ' ';
+                }
+                message[position++] = (byte) this.board.lockedCellSymbol(i, j);
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Encode the xth row of the board. Requires the tiles of the row to be locked or read optimistically.
+     * 
+     * @param x xth row
+     * @return encoded row
+     */
+    private byte[] encodeRow(int x) {
+        byte[] row = new byte[2 * this.board.getWidth() - 1];
+        for (int j = 0; j < this.board.getWidth(); j++) {
+            if (j > 0) {
+                row[2 * j - 1] = ' ';
+            }
+            row[2 * j] = (byte) this.board.lockedCellSymbol(x, j);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,322 @@
+package minesweeper;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Histogram of nonnegative values, such as latencies in nanoseconds, with the log-linear layout of HdrHistogram:
+ * every power of two is split into SUB_BUCKETS equal buckets, so any recorded value is known to within 0.1% at
+ * constant memory and recording cost. Values are recorded from any number of threads at once without locking, into
+ * stripes picked by thread so that threads on different processors rarely write the same counters, and the stripes
+ * are merged when the histogram is read. Percentile distributions are written in the .hgrm text format of
+ * HdrHistogram so existing plotters can read them.
+ */
+public class Histogram {
+    /** log2 of the number of buckets per power of two. */
+    private static final int SUB_BUCKET_BITS = 10;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Largest value told apart from larger ones, about 2.4 hours in nanoseconds; larger values are clamped. */
+    private static final long HIGHEST_TRACKABLE_VALUE = (1L << 43) - 1;
+    /** Number of buckets of a stripe. */
+    private static final int BUCKETS = index(HIGHEST_TRACKABLE_VALUE) + 1;
+    /** Number of stripes, a power of two: one per processor, up to 16 as every stripe takes about 270 KB. */
+    private static final int STRIPES = Math.min(16,
+            Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1));
+    /** Number of percentile lines written per halving of the distance to 100%, as by HdrHistogram. */
+    private static final int TICKS_PER_HALF_DISTANCE = 5;
+
+    /**
+     * Values recorded by the threads of one stripe.
+     */
+    private static class Stripe {
+        final private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        final private AtomicLong sum = new AtomicLong(), max = new AtomicLong();
+    }
+
+    /** Stripes of the histogram, each made when a thread first records into it. */
+    private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<>(STRIPES);
+
+    /**
+     * Find the bucket of a value.
+     * 
+     * @param value value, requires 0 <= value <= HIGHEST_TRACKABLE_VALUE
+     * @return index of the bucket counting value
+     */
+    private static int index(long value) {
+        int shift = Math.max(0, Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Find the largest value counted by a bucket.
+     * 
+     * @param index index of the bucket
+     * @return largest value whose bucket is index
+     */
+    private static long highestEquivalentValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a value. Safe to call from any thread.
+     * 
+     * @param value recorded value, such as a latency in nanoseconds; negative values are recorded as 0, and values
+     *              above HIGHEST_TRACKABLE_VALUE, about 2.4 hours in nanoseconds, as that
+     */
+    public void record(long value) {
+        value = Math.min(Math.max(value, 0), HIGHEST_TRACKABLE_VALUE);
+        Stripe stripe = stripe();
+        stripe.counts.incrementAndGet(index(value));
+        stripe.sum.addAndGet(value);
+        long max = stripe.max.get();
+        while (value > max && !stripe.max.compareAndSet(max, value)) {
+            max = stripe.max.get();
+        }
+    }
+
+    /**
+     * Find the stripe of the current thread, making it if no thread recorded into it yet.
+     * 
+     * @return stripe the current thread records into
+     */
+    private Stripe stripe() {
+        // Thread ids are consecutive, so they are scattered over the stripes by a Fibonacci hash.
+        int index = (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 32) & (STRIPES - 1);
+        Stripe res = this.stripes.get(index);
+        if (res == null) {
+            this.stripes.compareAndSet(index, null, new Stripe());
+            res = this.stripes.get(index);
+        }
+        return res;
+    }
+
+    /**
+     * Merge the counts of the stripes.
+     * 
+     * @return number of values recorded so far in each bucket
+     */
+    private long[] counts() {
+        long[] res = new long[BUCKETS];
+        for (int i = 0; i < STRIPES; i++) {
+            Stripe stripe = this.stripes.get(i);
+            if (stripe != null) {
+                for (int j = 0; j < BUCKETS; j++) {
+                    res[j] += stripe.counts.get(j);
+                }
+            }
+        }
+        return res;
+    }
+
+    private static long count(long[] counts) {
+        long res = 0;
+        for (long count : counts) {
+            res += count;
+        }
+        return res;
+    }
+
+    /**
+     * Get the number of recorded values.
+     * 
+     * @return number of values recorded so far
+     */
+    public long count() {
+        return count(counts());
+    }
+
+    /**
+     * Get the mean of the recorded values.
+     * 
+     * @return mean, or 0 if no value was recorded
+     */
+    public double mean() {
+        return mean(count());
+    }
+
+    private double mean(long count) {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            Stripe stripe = this.stripes.get(i);
+            sum += stripe == null ? 0 : stripe.sum.get();
+        }
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Get the largest recorded value.
+     * 
+     * @return largest value, or 0 if no value was recorded
+     */
+    public long max() {
+        long res = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            Stripe stripe = this.stripes.get(i);
+            res = Math.max(res, stripe == null ? 0 : stripe.max.get());
+        }
+        return res;
+    }
+
+    /**
+     * Get the value at a percentile of the recorded values.
+     * 
+     * @param percentile percentile, requires 0 <= percentile <= 100
+     * @return smallest value, to within the precision of the histogram, that at least percentile percent of the
+     *         recorded values don't exceed, or 0 if no value was recorded
+     */
+    public long valueAtPercentile(double percentile) {
+        long[] counts = counts();
+        return valueAtPercentile(counts, percentile, count(counts), max());
+    }
+
+    private static long valueAtPercentile(long[] counts, double percentile, long count, long max) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Write the percentile distribution of the recorded values in the .hgrm format of HdrHistogram.
+     * 
+     * @param out writer of the distribution
+     * @param unit recorded value of one unit of the written values, e.g. 1e6 for milliseconds out of nanoseconds
+     */
+    public void writePercentiles(PrintWriter out, double unit) {
+        long[] counts = counts();
+        long count = count(counts), max = max();
+        out.println("       Value     Percentile TotalCount 1/(1-Percentile)");
+        out.println();
+        if (count > 0) {
+            // The distance to 100% halves every TICKS_PER_HALF_DISTANCE lines, until a single value is left.
+            for (double percentile = 0; percentile < 100 * (1 - 1.0 / count); ) {
+                long value = valueAtPercentile(counts, percentile, count, max);
+                out.printf(Locale.ROOT, "%12.3f %14.12f %10d %14.2f%n", value / unit, percentile / 100,
+                        countAtOrBelow(counts, value), 1 / (1 - percentile / 100));
+                long halvings = (long) (Math.log(100 / (100 - percentile)) / Math.log(2)) + 1;
+                percentile += 100 / (TICKS_PER_HALF_DISTANCE * Math.pow(2, halvings));
+            }
+            out.printf(Locale.ROOT, "%12.3f %14.12f %10d%n", max / unit, 1.0, count);
+        }
+        double mean = mean(count), variance = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                double deviation = highestEquivalentValue(i) - mean;
+                variance += deviation * deviation * counts[i] / count;
+            }
+        }
+        out.printf(Locale.ROOT, "#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", mean / unit,
+                Math.sqrt(variance) / unit);
+        out.printf(Locale.ROOT, "#[Max     = %12.3f, Total count    = %12d]%n", max / unit, count);
+        out.printf(Locale.ROOT, "#[Buckets = %12d, SubBuckets     = %12d]%n",
+                Long.SIZE - Long.numberOfLeadingZeros(HIGHEST_TRACKABLE_VALUE) - SUB_BUCKET_BITS, SUB_BUCKETS);
+    }
+
+    /**
+     * Get a summary of the recorded values: their count, mean, largest value and common percentiles.
+     * 
+     * @param unit recorded value of one unit of the summary, e.g. 1e3 for microseconds out of nanoseconds
+     * @return summary of the values recorded so far, in units of unit
+     */
+    public Summary summary(double unit) {
+        return summary(unit, -1);
+    }
+
+    /**
+     * Get a summary of values of which the recorded ones are a sample: the number of values, and the mean, the
+     * largest value and the common percentiles of the sample.
+     * 
+     * @param unit recorded value of one unit of the summary, e.g. 1e3 for microseconds out of nanoseconds
+     * @param count number of values the recorded ones were sampled from, or -1 if every value was recorded
+     * @return summary of the values recorded so far, in units of unit
+     */
+    public Summary summary(double unit, long count) {
+        long[] counts = counts();
+        long recorded = count(counts), max = max();
+        return new Summary(count < 0 ? recorded : count, mean(recorded) / unit,
+                valueAtPercentile(counts, 50, recorded, max) / unit,
+                valueAtPercentile(counts, 90, recorded, max) / unit,
+                valueAtPercentile(counts, 99, recorded, max) / unit,
+                valueAtPercentile(counts, 99.9, recorded, max) / unit, max / unit);
+    }
+
+    /**
+     * Summary of a histogram at one point in time. Readable through JMX as a composite value.
+     */
+    public static class Summary {
+        final private long count;
+        final private double mean, p50, p90, p99, p999, max;
+
+        private Summary(long count, double mean, double p50, double p90, double p99, double p999, double max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        // Getters in the JavaBeans style, which JMX maps to the items of a composite value.
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public double getMean() {
+            return this.mean;
+        }
+
+        public double getP50() {
+            return this.p50;
+        }
+
+        public double getP90() {
+            return this.p90;
+        }
+
+        public double getP99() {
+            return this.p99;
+        }
+
+        public double getP999() {
+            return this.p999;
+        }
+
+        public double getMax() {
+            return this.max;
+        }
+
+        /**
+         * Format the summary on one line.
+         * 
+         * @return count, mean, percentiles and largest value with three decimals
+         */
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "count %d mean %.3f p50 %.3f p90 %.3f p99 %.3f p99.9 %.3f max %.3f",
+                    this.count, this.mean, this.p50, this.p90, this.p99, this.p999, this.max);
+        }
+    }
+
+    private static long countAtOrBelow(long[] counts, long value) {
+        long res = 0;
+        for (int i = 0; i <= index(Math.min(value, HIGHEST_TRACKABLE_VALUE)); i++) {
+            res += counts[i];
+        }
+        return res;
+    }
+}
@@ -0,0 +1,92 @@
+package minesweeper;
+
+/**
+ * A board the server can play on. Implemented by Board, which holds every block in memory, and by TiledBoard, which
+ * builds its blocks on first access so boards far larger than memory can be played. Implementations are thread
+ * safe. Blocks are located by (x, y), the xth row and the yth column.
+ */
+public interface Minefield {
+
+    /**
+     * Get width of the board.
+     * 
+     * @return number of columns of the board
+     */
+    int getWidth();
+
+    /**
+     * Get height of the board.
+     * 
+     * @return number of rows of the board
+     */
+    int getHeight();
+
+    /**
+     * Get the version of the board, which changes whenever a dig, flag or deflag changes any block.
+     * 
+     * @return current version of the board
+     */
+    long version();
+
+    /**
+     * Dig the block at location (x, y) if it is untouched, and dig the neighbours of every dug block without bombs
+     * around it. A bomb in the dug block is removed. Blocks outside the board are ignored.
+     * 
+     * @param x xth row
+     * @param y yth column
+     * @return true if the block contained a bomb, else false
+     */
+    boolean dig(int x, int y);
+
+    /**
+     * Flag the block at location (x, y) if it is untouched. Blocks outside the board are ignored.
+     * 
+     * @param x xth row
+     * @param y yth column
+     */
+    void flag(int x, int y);
+
+    /**
+     * Unflag the block at location (x, y) if it is flagged. Blocks outside the board are ignored.
+     * 
+     * @param x xth row
+     * @param y yth column
+     */
+    void deflag(int x, int y);
+
+    /**
+     * Run several operations on the board so that no other operation is interleaved with them. The operations may
+     * dig, flag and deflag the board; other boards must not be locked meanwhile.
+     * 
+     * @param operations operations to run
+     */
+    void atomically(Runnable operations);
+
+    /**
+     * Get the current state of the board as shown to the players: one line per row with the symbols of the blocks
+     * separated by spaces, and no line separator after the last row. The returned array may be shared, and must not
+     * be modified.
+     * 
+     * @return current state of the board encoded in US-ASCII
+     */
+    byte[] boardMessage();
+
+    /**
+     * Get the current state of a rectangle of the board, in the format of boardMessage(). Costs time in proportion
+     * to the size of the rectangle, not of the board. Rows and columns outside the board are left out.
+     * 
+     * @param x first row of the rectangle
+     * @param y first column of the rectangle
+     * @param rows number of rows of the rectangle, requires rows >= 0
+     * @param columns number of columns of the rectangle, requires columns >= 0
+     * @return current state of the rectangle encoded in US-ASCII, empty if it lies outside the board
+     */
+    byte[] viewMessage(int x, int y, int rows, int columns);
+
+    /**
+     * Get the message sent to a player who dug a bomb.
+     * 
+     * @return boom message
+     */
+    String boomMessage();
+}
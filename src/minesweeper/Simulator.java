@@ -0,0 +1,535 @@
+package minesweeper;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Headless simulator playing many seeded games on Boards directly, without a server, to measure how hard boards of
+ * a size and density are. Games are split among the threads of a fork/join pool; every task counts the results of
+ * its games by itself and the counts are added up as the tasks join, so the threads share nothing while playing.
+ * The boards are unmetered, so their operations stay out of the BoardMetrics of a server. The same arguments
+ * always give the same results, however many threads play them.
+ * 
+ * <br> A game is won once every block without a bomb is dug, and lost at the first bomb dug. How blocks are chosen
+ * is up to a Strategy, such as RANDOM or SOLVER.
+ */
+public class Simulator {
+    /** Largest number of games played by a single task without splitting them. */
+    final private static int LEAF_GAMES = 16;
+    final private static String CSV_HEADER = "strategy,width,height,density,games,wins,win_rate,moves_mean,moves_p50,"
+            + "moves_p90,moves_max,reveals,reveal_mean,reveal_p50,reveal_p90,reveal_p99,reveal_max,seconds";
+
+    /**
+     * Way of playing a game, such as digging blocks at random. Used by many threads at once, so the state of a game
+     * is kept on the stack of play().
+     */
+    public interface Strategy {
+        /**
+         * Play a game until it is over, or give up.
+         * 
+         * @param game new game to play
+         */
+        void play(Game game);
+    }
+
+    /** Dig untouched blocks uniformly at random. */
+    public static final Strategy RANDOM = game -> {
+        Board board = game.board();
+        int width = board.getWidth(), blocks = width * board.getHeight();
+        int[] order = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            order[i] = i;
+        }
+        // Shuffle as the blocks are drawn, skipping those revealed since.
+        for (int i = 0; i < blocks && !game.over(); i++) {
+            int j = i + game.random().nextInt(blocks - i);
+            int block = order[j];
+            order[j] = order[i];
+            if (board.isUntouched(block / width, block % width)) {
+                game.dig(block / width, block % width);
+            }
+        }
+    };
+
+    /** Follow the hints of a Solver: dig the blocks known to be safe, flag the bombs, and guess the safest block. */
+    public static final Strategy SOLVER = game -> {
+        Solver solver = new Solver(game.board());
+        while (!game.over()) {
+            Solver.Hint hint = solver.hint();
+            if (hint == null) {
+                return;
+            }
+            if (hint.action() == Solver.Hint.FLAG) {
+                game.flag(hint.row(), hint.column());
+            } else if (hint.action() == Solver.Hint.DEFLAG) {
+                game.deflag(hint.row(), hint.column());
+            } else {
+                game.dig(hint.row(), hint.column());
+            }
+        }
+    };
+
+    /**
+     * A single game being played, counting its moves and the blocks revealed by its digs. Used by a single thread.
+     */
+    public static class Game {
+        final private Board board;
+        final private SplittableRandom random;
+        final private Results results;
+        private int moves;
+        private boolean lost;
+
+        private Game(BoardFiles.Bombs bombs, SplittableRandom random, Results results) {
+            this.board = new Board(bombs);
+            this.board.unmetered();
+            this.random = random;
+            this.results = results;
+        }
+
+        /**
+         * Get the board of the game. Moves are to be made through the game rather than the board, so they are
+         * counted.
+         * 
+         * @return board of the game
+         */
+        public Board board() {
+            return this.board;
+        }
+
+        /**
+         * Get the source of randomness of the game, seeded from the seed of the game.
+         * 
+         * @return source of randomness for the strategy
+         */
+        public SplittableRandom random() {
+            return this.random;
+        }
+
+        /**
+         * Check if the game is over.
+         * 
+         * @return true once a bomb was dug or every other block is dug
+         */
+        public boolean over() {
+            return this.lost || this.board.cleared();
+        }
+
+        /**
+         * Dig the block at location (x, y), unless the game is over.
+         * 
+         * @param x xth row
+         * @param y yth column
+         * @return true if the block contained a bomb, which loses the game
+         */
+        public boolean dig(int x, int y) {
+            if (over()) {
+                return false;
+            }
+            this.moves++;
+            int revealed = this.board.digCounting(x, y);
+            if (revealed == 0) {
+                return false;
+            }
+            this.results.reveals.add(Math.abs(revealed));
+            this.lost = revealed < 0;
+            return this.lost;
+        }
+
+        /**
+         * Flag the block at location (x, y), unless the game is over.
+         * 
+         * @param x xth row
+         * @param y yth column
+         */
+        public void flag(int x, int y) {
+            if (!over()) {
+                this.moves++;
+                this.board.flag(x, y);
+            }
+        }
+
+        /**
+         * Deflag the block at location (x, y), unless the game is over.
+         * 
+         * @param x xth row
+         * @param y yth column
+         */
+        public void deflag(int x, int y) {
+            if (!over()) {
+                this.moves++;
+                this.board.deflag(x, y);
+            }
+        }
+    }
+
+    /**
+     * Distribution of small nonnegative integers, counted exactly. Used by a single thread.
+     */
+    private static class Counts {
+        private long[] counts = new long[64];
+        private long total, sum;
+        private int max;
+
+        private void add(int value) {
+            if (value >= this.counts.length) {
+                this.counts = Arrays.copyOf(this.counts, Math.max(value + 1, 2 * this.counts.length));
+            }
+            this.counts[value]++;
+            this.total++;
+            this.sum += value;
+            this.max = Math.max(this.max, value);
+        }
+
+        private void addAll(Counts other) {
+            if (other.max >= this.counts.length) {
+                this.counts = Arrays.copyOf(this.counts, other.max + 1);
+            }
+            for (int i = 0; i <= other.max; i++) {
+                this.counts[i] += other.counts[i];
+            }
+            this.total += other.total;
+            this.sum += other.sum;
+            this.max = Math.max(this.max, other.max);
+        }
+
+        private double mean() {
+            return this.total == 0 ? 0 : (double) this.sum / this.total;
+        }
+
+        private int percentile(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * this.total);
+            long seen = 0;
+            for (int i = 0; i <= this.max; i++) {
+                seen += this.counts[i];
+                if (seen >= Math.max(rank, 1)) {
+                    return i;
+                }
+            }
+            return this.max;
+        }
+    }
+
+    /**
+     * Results of a number of games.
+     */
+    public static class Results {
+        private long games, wins;
+        /** Moves made in each game. */
+        final private Counts moves = new Counts();
+        /** Blocks revealed by each dig which revealed any. */
+        final private Counts reveals = new Counts();
+
+        private Results() {
+        }
+
+        /**
+         * Count the result of a game over or given up.
+         */
+        private void add(Game game) {
+            this.games++;
+            if (!game.lost && game.board.cleared()) {
+                this.wins++;
+            }
+            this.moves.add(game.moves);
+        }
+
+        /**
+         * Add the results of other games to these.
+         */
+        private Results addAll(Results other) {
+            this.games += other.games;
+            this.wins += other.wins;
+            this.moves.addAll(other.moves);
+            this.reveals.addAll(other.reveals);
+            return this;
+        }
+
+        /**
+         * Get the number of games played.
+         * 
+         * @return number of games
+         */
+        public long games() {
+            return this.games;
+        }
+
+        /**
+         * Get the number of games won.
+         * 
+         * @return number of games in which every block without a bomb was dug
+         */
+        public long wins() {
+            return this.wins;
+        }
+
+        /**
+         * Get the fraction of games won.
+         * 
+         * @return wins divided by games, or 0 if no game was played
+         */
+        public double winRate() {
+            return this.games == 0 ? 0 : (double) this.wins / this.games;
+        }
+
+        /**
+         * Get the mean number of moves of a game, counting every dig, flag and deflag.
+         * 
+         * @return mean moves per game
+         */
+        public double meanMoves() {
+            return this.moves.mean();
+        }
+
+        /**
+         * Get a percentile of the number of moves of a game.
+         * 
+         * @param percentile percentile, requires 0 <= percentile <= 100
+         * @return smallest number of moves at least percentile percent of the games took at most
+         */
+        public int movesAtPercentile(double percentile) {
+            return this.moves.percentile(percentile);
+        }
+
+        /**
+         * Get the number of digs which revealed blocks.
+         * 
+         * @return number of digs of untouched blocks
+         */
+        public long reveals() {
+            return this.reveals.total;
+        }
+
+        /**
+         * Get the mean number of blocks revealed by a dig.
+         * 
+         * @return mean blocks revealed per dig of an untouched block
+         */
+        public double meanReveal() {
+            return this.reveals.mean();
+        }
+
+        /**
+         * Get a percentile of the number of blocks revealed by a dig.
+         * 
+         * @param percentile percentile, requires 0 <= percentile <= 100
+         * @return smallest number of blocks at least percentile percent of the digs revealed at most
+         */
+        public int revealAtPercentile(double percentile) {
+            return this.reveals.percentile(percentile);
+        }
+    }
+
+    /**
+     * Task playing the games with seeds in [start, end), splitting them among subtasks.
+     */
+    private static class Play extends RecursiveTask<Results> {
+        private static final long serialVersionUID = 1L;
+
+        final private int width, height;
+        final private double density;
+        final private long seed, start, end;
+        final private transient Strategy strategy;
+
+        private Play(int width, int height, double density, long seed, long start, long end, Strategy strategy) {
+            this.width = width;
+            this.height = height;
+            this.density = density;
+            this.seed = seed;
+            this.start = start;
+            this.end = end;
+            this.strategy = strategy;
+        }
+
+        @Override
+        protected Results compute() {
+            if (this.end - this.start <= LEAF_GAMES) {
+                Results results = new Results();
+                for (long i = this.start; i < this.end; i++) {
+                    SplittableRandom random = new SplittableRandom(this.seed + i);
+                    BoardFiles.Bombs bombs = BoardGenerator.bombs(this.width, this.height, random.nextLong(),
+                            this.density, -1);
+                    Game game = new Game(bombs, random, results);
+                    this.strategy.play(game);
+                    results.add(game);
+                }
+                return results;
+            }
+            long middle = this.start + (this.end - this.start) / 2;
+            Play left = new Play(this.width, this.height, this.density, this.seed, this.start, middle, this.strategy);
+            Play right = new Play(this.width, this.height, this.density, this.seed, middle, this.end, this.strategy);
+            left.fork();
+            return right.compute().addAll(left.join());
+        }
+    }
+
+    private Simulator() {
+    }
+
+    /**
+     * Play games on random boards of a size and density in parallel, on the common fork/join pool.
+     * 
+     * @param width width of the boards, requires width > 0
+     * @param height height of the boards, requires height > 0
+     * @param density probability of a block containing a bomb, requires 0 <= density <= 1
+     * @param games number of games, requires games >= 0
+     * @param seed seed of the games; game i is played on the board and with the randomness seeded from seed + i
+     * @param strategy strategy playing every game
+     * @return results of the games
+     */
+    public static Results simulate(int width, int height, double density, long games, long seed, Strategy strategy) {
+        return ForkJoinPool.commonPool().invoke(new Play(width, height, density, seed, 0, games, strategy));
+    }
+
+    /**
+     * Run simulations and write their results as they finish, one line per simulation.
+     * 
+     * <br> Usage:
+     *      Simulator [--size SIZE_X,SIZE_Y]... [--density D1,D2,...] [--strategy random|solver,...] [--games GAMES] [--seed SEED] [--json] [--output FILE]
+     * 
+     * <br> Every combination of the sizes, densities and strategies is simulated with GAMES games each, 10000 by
+     *      default, seeded from SEED, 0 by default. Without --size, boards are 16 by 16; without --density, blocks
+     *      contain a bomb with probability 0.15; without --strategy, the random strategy is played.
+     * <br> Results are written as CSV with a header line, or with --json as one JSON object per line, to FILE or
+     *      to the standard output. Each line is flushed as soon as its simulation finishes.
+     * <br> E.g. "Simulator --size 9,9 --size 30,16 --density 0.12,0.2 --strategy random,solver --games 100000"
+     *      writes 8 lines of results.
+     * 
+     * @param args arguments as described
+     * @throws IOException if FILE can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        List<int[]> sizes = new ArrayList<>();
+        double[] densities = { 0.15 };
+        List<String> strategies = List.of("random");
+        long games = 10000, seed = 0;
+        boolean json = false;
+        String output = null;
+
+        Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
+        try {
+            while (!arguments.isEmpty()) {
+                String flag = arguments.remove();
+                try {
+                    if (flag.equals("--size")) {
+                        String[] size = arguments.remove().split(",");
+                        int width = Integer.parseInt(size[0]), height = Integer.parseInt(size[1]);
+                        if (width <= 0 || height <= 0) {
+                            throw new IllegalArgumentException("size " + width + "," + height + " out of range");
+                        }
+                        sizes.add(new int[] { width, height });
+                    } else if (flag.equals("--density")) {
+                        densities = Arrays.stream(arguments.remove().split(",")).mapToDouble(Double::parseDouble)
+                                .toArray();
+                        for (double density : densities) {
+                            if (!(density >= 0 && density <= 1)) {
+                                throw new IllegalArgumentException("density " + density + " out of range");
+                            }
+                        }
+                    } else if (flag.equals("--strategy")) {
+                        strategies = Arrays.asList(arguments.remove().split(","));
+                        for (String strategy : strategies) {
+                            strategy(strategy);
+                        }
+                    } else if (flag.equals("--games")) {
+                        games = Long.parseLong(arguments.remove());
+                        if (games < 0) {
+                            throw new IllegalArgumentException("games " + games + " out of range");
+                        }
+                    } else if (flag.equals("--seed")) {
+                        seed = Long.parseLong(arguments.remove());
+                    } else if (flag.equals("--json")) {
+                        json = true;
+                    } else if (flag.equals("--output")) {
+                        output = arguments.remove();
+                    } else {
+                        throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                    }
+                } catch (NoSuchElementException | ArrayIndexOutOfBoundsException e) {
+                    throw new IllegalArgumentException("missing argument for " + flag);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("unable to parse number for " + flag);
+                }
+            }
+        } catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.err.println("usage: Simulator [--size SIZE_X,SIZE_Y]... [--density D1,D2,...] [--strategy random|solver,...] [--games GAMES] [--seed SEED] [--json] [--output FILE]");
+            System.exit(1);
+        }
+        if (sizes.isEmpty()) {
+            sizes.add(new int[] { 16, 16 });
+        }
+
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                output == null ? System.out : new FileOutputStream(output), StandardCharsets.UTF_8));
+        if (!json) {
+            out.println(CSV_HEADER);
+            out.flush();
+        }
+        for (int[] size : sizes) {
+            for (double density : densities) {
+                for (String strategy : strategies) {
+                    long start = System.nanoTime();
+                    Results results = simulate(size[0], size[1], density, games, seed, strategy(strategy));
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    out.println(json ? json(strategy, size, density, results, seconds)
+                            : csv(strategy, size, density, results, seconds));
+                    out.flush();
+                }
+            }
+        }
+        if (output != null) {
+            out.close();
+        }
+    }
+
+    /**
+     * Find a strategy by name.
+     * 
+     * @param name "random" or "solver"
+     * @return strategy of that name
+     * @throws IllegalArgumentException if there is no such strategy
+     */
+    private static Strategy strategy(String name) {
+        switch (name) {
+        case "random":
+            return RANDOM;
+        case "solver":
+            return SOLVER;
+        default:
+            throw new IllegalArgumentException("unknown strategy: \"" + name + "\"");
+        }
+    }
+
+    private static String csv(String strategy, int[] size, double density, Results results, double seconds) {
+        return String.format(Locale.ROOT, "%s,%d,%d,%s,%d,%d,%.6f,%.3f,%d,%d,%d,%d,%.3f,%d,%d,%d,%d,%.3f", strategy,
+                size[0], size[1], density, results.games(), results.wins(), results.winRate(), results.meanMoves(),
+                results.movesAtPercentile(50), results.movesAtPercentile(90), results.movesAtPercentile(100),
+                results.reveals(), results.meanReveal(), results.revealAtPercentile(50),
+                results.revealAtPercentile(90), results.revealAtPercentile(99), results.revealAtPercentile(100),
+                seconds);
+    }
+
+    private static String json(String strategy, int[] size, double density, Results results, double seconds) {
+        String[] names = CSV_HEADER.split(",");
+        String[] values = csv(strategy, size, density, results, seconds).split(",");
+        StringBuilder res = new StringBuilder("{");
+        for (int i = 0; i < names.length; i++) {
+            res.append(i == 0 ? "" : ", ").append('"').append(names[i]).append("\": ");
+            res.append(i == 0 ? "\"" + values[i] + "\"" : values[i]);
+        }
+        return res.append('}').toString();
+    }
+}
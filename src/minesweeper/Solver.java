@@ -0,0 +1,779 @@
+package minesweeper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Solver of a Board working only from what the players see: the dug blocks with their numbers, and the untouched
+ * and flagged blocks. Flags are only a player's guess, so they are never trusted. The solver keeps its own copy of
+ * what it has seen and brings it up to date before every hint by comparing only the tiles locked since, so a move
+ * costs the solver work in proportion to the tiles the move changed rather than to the board.
+ * 
+ * <br> Deductions are incremental. Every dug block is a constraint on its untouched neighbours, and a constraint is
+ * checked again only when a neighbour is dug or deduced. The single constraint rule finds neighbours which are all
+ * safe or all bombs; the subset rule compares the constraint with the constraints around it. When these find no
+ * move, the frontier of unknown blocks next to dug ones is split into independent components, and the assignments
+ * of the small components are enumerated, in parallel, to find the blocks safe or bombs in all of them and the
+ * chance of a bomb in each block. Thread safe.
+ */
+public class Solver {
+    /** Number of attempts at reading the board without locking before locking it. */
+    final private static int OPTIMISTIC_ATTEMPTS = 8;
+    /** Largest number of blocks of a component of the frontier whose assignments are enumerated. */
+    final private static int MAX_ENUMERATED = 20;
+    /** What the solver has seen of a block which isn't dug; a dug block is seen as its number of bombs around. */
+    final private static byte UNTOUCHED = -1, FLAGGED = -2, BORDER = -3;
+    /** What the solver knows of a block which isn't dug. */
+    final private static byte UNKNOWN = 0, SAFE = 1, BOMB = 2;
+    /** Bits of marks. */
+    final private static byte QUEUED = 1, FRONTIER = 2, VISITED = 4;
+
+    final private Board board;
+    final private int width, height, stride, tilesAcross;
+    /** Index offsets of the eight neighbours of a block. */
+    final private int[] neighbours;
+    /** What was seen of each block, stored at index (x + 1) * stride + (y + 1) with a border of BORDER. */
+    final private byte[] seen;
+    /** What is known of each block which isn't dug. */
+    final private byte[] known;
+    final private byte[] marks;
+    /** Stamps of the tiles when the board was last seen, or null before it is first seen. */
+    private long[] stamps;
+    /** Version of the board when it was last seen. */
+    private long version = -1;
+    /** Number of times a new board was dealt when the board was last seen. */
+    private long resets;
+    /** Blocks whose symbol changed since the board was last seen, and their new symbols. */
+    private int[] changed = new int[64];
+    private byte[] symbols = new byte[64];
+    private int changedCount;
+    /** Dug blocks whose constraint has to be checked again. */
+    private int[] queue = new int[64];
+    private int queued;
+    /** Blocks deduced safe or bombs, the latest last, some dug since. */
+    private int[] deduced = new int[64];
+    private int deducedCount;
+    /** Unknown blocks next to dug ones, and possibly blocks dug or deduced since. */
+    private int[] frontier = new int[64];
+    private int frontierCount;
+    /** Untouched block with the lowest chance of a bomb found by the last enumeration, or -1. */
+    private int bestGuess = -1;
+    private double bestRisk;
+    /** Index from which to look for an untouched block away from the frontier. */
+    private int interior;
+    /** Scratch arrays of the unknown neighbours of two constraints. */
+    final private int[] unknownA = new int[8], unknownB = new int[8];
+    /** Held while using the solver. */
+    final private ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Move suggested by the solver.
+     */
+    public static class Hint {
+        /** Actions of a hint. */
+        public static final int DIG = 0, FLAG = 1, DEFLAG = 2;
+
+        final private int action, row, column;
+        final private double risk;
+
+        private Hint(int action, int row, int column, double risk) {
+            this.action = action;
+            this.row = row;
+            this.column = column;
+            this.risk = risk;
+        }
+
+        /**
+         * Get the suggested action.
+         * 
+         * @return DIG, FLAG or DEFLAG
+         */
+        public int action() {
+            return this.action;
+        }
+
+        /**
+         * Get the row of the block to act on.
+         * 
+         * @return xth row
+         */
+        public int row() {
+            return this.row;
+        }
+
+        /**
+         * Get the column of the block to act on.
+         * 
+         * @return yth column
+         */
+        public int column() {
+            return this.column;
+        }
+
+        /**
+         * Get the chance the block contains a bomb.
+         * 
+         * @return 0 if the block is known to be safe, 1 if it is known to be a bomb, else the estimated probability
+         */
+        public double risk() {
+            return this.risk;
+        }
+    }
+
+    /**
+     * Construct a solver of board. The board is read at the first hint.
+     * 
+     * @param board board to solve
+     */
+    public Solver(Board board) {
+        this.board = board;
+        this.width = board.getWidth();
+        this.height = board.getHeight();
+        this.stride = this.width + 2;
+        this.tilesAcross = (this.width + TileLocks.TILE_SIZE - 1) / TileLocks.TILE_SIZE;
+        this.neighbours = new int[] { -this.stride - 1, -this.stride, -this.stride + 1, -1, 1, this.stride - 1,
+                this.stride, this.stride + 1 };
+        int cells = (this.height + 2) * this.stride;
+        this.seen = new byte[cells];
+        this.known = new byte[cells];
+        this.marks = new byte[cells];
+        forget(board.resets());
+    }
+
+    /**
+     * Forget everything seen and deduced, to start again on a new board.
+     * 
+     * @param resets number of times a new board was dealt
+     */
+    private void forget(long resets) {
+        Arrays.fill(this.seen, BORDER);
+        for (int x = 0; x < this.height; x++) {
+            Arrays.fill(this.seen, index(x, 0), index(x, 0) + this.width, UNTOUCHED);
+        }
+        Arrays.fill(this.known, UNKNOWN);
+        Arrays.fill(this.marks, (byte) 0);
+        this.queued = this.deducedCount = this.frontierCount = 0;
+        this.bestGuess = -1;
+        this.interior = index(0, 0);
+        this.stamps = null;
+        this.version = -1;
+        this.resets = resets;
+    }
+
+    /**
+     * Suggest a move on the board as it is now: a block known to be safe or a bomb if there is one, else the
+     * untouched block least likely to be a bomb. Blocks away from the frontier are taken to be bombs with
+     * BoardGenerator.DEFAULT_DENSITY, and every assignment of a component with equal probability.
+     * 
+     * @return suggested move, or null if every block is dug or known
+     */
+    public Hint hint() {
+        this.lock.lock();
+        try {
+            update();
+            propagate();
+            Hint res = knownMove();
+            if (res != null) {
+                return res;
+            }
+            solveFrontier();
+            propagate();
+            res = knownMove();
+            return res != null ? res : guess();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Check if the block at location (x, y) is known to be safe, as of the last hint.
+     * 
+     * @param x xth row
+     * @param y yth column
+     * @return true if the block is dug or deduced to be safe
+     */
+    public boolean knownSafe(int x, int y) {
+        this.lock.lock();
+        try {
+            int index = index(x, y);
+            return this.seen[index] >= 0 || this.known[index] == SAFE;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Check if the block at location (x, y) is known to be a bomb, as of the last hint.
+     * 
+     * @param x xth row
+     * @param y yth column
+     * @return true if the block isn't dug and is deduced to be a bomb
+     */
+    public boolean knownBomb(int x, int y) {
+        this.lock.lock();
+        try {
+            int index = index(x, y);
+            return this.seen[index] < 0 && this.known[index] == BOMB;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Bring what was seen of the board up to date, reading only the tiles locked since it was last seen. The tiles
+     * are read together without locking if possible, so what is seen is the board at a single moment. If a new
+     * board was dealt since, everything is forgotten and the whole board is read again.
+     */
+    private void update() {
+        if (this.stamps != null && this.board.version() == this.version) {
+            return;
+        }
+
+        int lastRow = this.height - 1, lastColumn = this.width - 1;
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long[] stamps = this.board.tryOptimisticRead(0, 0, lastRow, lastColumn);
+            if (stamps != null) {
+                long version = this.board.version(), resets = this.board.resets();
+                collectChanges(stamps, 0);
+                if (this.board.validate(0, 0, lastRow, lastColumn, stamps)) {
+                    if (resets != this.resets) {
+                        forget(resets);
+                        update();
+                    } else {
+                        applyChanges(stamps, version);
+                    }
+                    return;
+                }
+            }
+            Thread.yield();
+        }
+
+        long waited = this.board.lockAll();
+        long lockedAt = System.nanoTime();
+        long[] stamps;
+        long version, resets;
+        try {
+            stamps = this.board.tileStamps();
+            version = this.board.version();
+            resets = this.board.resets();
+            collectChanges(stamps, 1);
+        } finally {
+            this.board.unlockAll();
+            this.board.recordReleased(waited, lockedAt);
+        }
+        for (int i = 0; i < stamps.length; i++) {
+            // as this thread unlocked them
+            stamps[i]++;
+        }
+        if (resets != this.resets) {
+            forget(resets);
+            update();
+        } else {
+            applyChanges(stamps, version);
+        }
+    }
+
+    /**
+     * Collect the blocks whose symbol changed in the tiles whose stamp changed. Requires every tile to be locked or
+     * read optimistically.
+     * 
+     * @param stamps current stamps of the tiles
+     * @param held 1 if this thread holds every tile, so each stamp is one more than once unlocked, else 0
+     */
+    private void collectChanges(long[] stamps, int held) {
+        this.changedCount = 0;
+        for (int tile = 0; tile < stamps.length; tile++) {
+            if (this.stamps != null && stamps[tile] - held == this.stamps[tile]) {
+                continue;
+            }
+            int firstRow = tile / this.tilesAcross * TileLocks.TILE_SIZE;
+            int firstColumn = tile % this.tilesAcross * TileLocks.TILE_SIZE;
+            int lastRow = Math.min(firstRow + TileLocks.TILE_SIZE, this.height);
+            int lastColumn = Math.min(firstColumn + TileLocks.TILE_SIZE, this.width);
+            for (int x = firstRow; x < lastRow; x++) {
+                for (int y = firstColumn; y < lastColumn; y++) {
+                    byte symbol = seenSymbol(this.board.lockedCellSymbol(x, y));
+                    int index = index(x, y);
+                    if (this.seen[index] != symbol) {
+                        if (this.changedCount == this.changed.length) {
+                            this.changed = Arrays.copyOf(this.changed, 2 * this.changedCount);
+                            this.symbols = Arrays.copyOf(this.symbols, 2 * this.changedCount);
+                        }
+                        this.changed[this.changedCount] = index;
+                        this.symbols[this.changedCount++] = symbol;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the changes collected from a consistent reading of the board: every block dug or whose number changed
+     * is checked again, as are the constraints around a newly dug block, whose untouched neighbours join the
+     * frontier.
+     * 
+     * @param stamps stamps of the tiles when the board was read, once unlocked
+     * @param version version of the board when it was read
+     */
+    private void applyChanges(long[] stamps, long version) {
+        for (int i = 0; i < this.changedCount; i++) {
+            int index = this.changed[i];
+            byte old = this.seen[index];
+            this.seen[index] = this.symbols[i];
+            if (this.symbols[i] < 0) {
+                continue;
+            }
+            enqueue(index);
+            if (old >= 0) {
+                continue;
+            }
+            for (int offset : this.neighbours) {
+                int neighbour = index + offset;
+                if (this.seen[neighbour] >= 0) {
+                    enqueue(neighbour);
+                } else if (this.seen[neighbour] != BORDER && (this.marks[neighbour] & FRONTIER) == 0) {
+                    this.marks[neighbour] |= FRONTIER;
+                    this.frontier = push(this.frontier, this.frontierCount++, neighbour);
+                }
+            }
+        }
+        this.stamps = stamps;
+        this.version = version;
+    }
+
+    /**
+     * Check the queued constraints until no more deductions follow.
+     */
+    private void propagate() {
+        while (this.queued > 0) {
+            int constraint = this.queue[--this.queued];
+            this.marks[constraint] &= ~QUEUED;
+            check(constraint);
+        }
+    }
+
+    /**
+     * Apply the single constraint and subset rules to a dug block.
+     * 
+     * @param constraint index of the dug block
+     */
+    private void check(int constraint) {
+        int[] unknown = this.unknownA;
+        int count = unknowns(constraint, unknown);
+        if (count == 0) {
+            return;
+        }
+        int bombs = remaining(constraint);
+        if (bombs == 0 || bombs == count) {
+            for (int i = 0; i < count; i++) {
+                deduce(unknown[i], bombs == 0 ? SAFE : BOMB);
+            }
+            return;
+        }
+
+        int x = constraint / this.stride - 1, y = constraint % this.stride - 1;
+        for (int i = Math.max(x - 2, 0); i <= Math.min(x + 2, this.height - 1); i++) {
+            for (int j = Math.max(y - 2, 0); j <= Math.min(y + 2, this.width - 1); j++) {
+                int other = index(i, j);
+                if (other == constraint || this.seen[other] < 0) {
+                    continue;
+                }
+                int otherCount = unknowns(other, this.unknownB);
+                if (otherCount == 0) {
+                    continue;
+                }
+                int otherBombs = remaining(other);
+                if (subset(unknown, count, bombs, this.unknownB, otherCount, otherBombs)
+                        || subset(this.unknownB, otherCount, otherBombs, unknown, count, bombs)) {
+                    // the constraint is queued again by the deduction if more follows from it
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the subset rule: if the unknown blocks of one constraint are a subset of those of another, the other
+     * blocks of the latter hold the difference of their bombs.
+     * 
+     * @return true if blocks were deduced
+     */
+    private boolean subset(int[] small, int smallCount, int smallBombs, int[] large, int largeCount, int largeBombs) {
+        if (smallCount >= largeCount) {
+            return false;
+        }
+        for (int i = 0; i < smallCount; i++) {
+            if (!contains(large, largeCount, small[i])) {
+                return false;
+            }
+        }
+        int rest = largeCount - smallCount, restBombs = largeBombs - smallBombs;
+        if (restBombs != 0 && restBombs != rest) {
+            return false;
+        }
+        for (int i = 0; i < largeCount; i++) {
+            if (!contains(small, smallCount, large[i])) {
+                deduce(large[i], restBombs == 0 ? SAFE : BOMB);
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(int[] blocks, int count, int block) {
+        for (int i = 0; i < count; i++) {
+            if (blocks[i] == block) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the unknown neighbours of a dug block.
+     * 
+     * @param constraint index of the dug block
+     * @param into array receiving the indices of the unknown neighbours
+     * @return number of unknown neighbours
+     */
+    private int unknowns(int constraint, int[] into) {
+        int count = 0;
+        for (int offset : this.neighbours) {
+            int neighbour = constraint + offset;
+            if (this.seen[neighbour] < 0 && this.seen[neighbour] != BORDER && this.known[neighbour] == UNKNOWN) {
+                into[count++] = neighbour;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of bombs around a dug block not yet deduced.
+     * 
+     * @param constraint index of the dug block
+     * @return number of bombs among the unknown neighbours
+     */
+    private int remaining(int constraint) {
+        int res = this.seen[constraint];
+        for (int offset : this.neighbours) {
+            int neighbour = constraint + offset;
+            if (this.seen[neighbour] < 0 && this.known[neighbour] == BOMB) {
+                res--;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Record what was deduced of an unknown block, and check the constraints around it again.
+     * 
+     * @param block index of the block
+     * @param knowledge SAFE or BOMB
+     */
+    private void deduce(int block, byte knowledge) {
+        if (this.known[block] != UNKNOWN || this.seen[block] >= 0) {
+            return;
+        }
+        this.known[block] = knowledge;
+        this.deduced = push(this.deduced, this.deducedCount++, block);
+        for (int offset : this.neighbours) {
+            if (this.seen[block + offset] >= 0) {
+                enqueue(block + offset);
+            }
+        }
+    }
+
+    private void enqueue(int constraint) {
+        if ((this.marks[constraint] & QUEUED) == 0) {
+            this.marks[constraint] |= QUEUED;
+            this.queue = push(this.queue, this.queued++, constraint);
+        }
+    }
+
+    /**
+     * Get the latest deduced move still to be made.
+     * 
+     * @return hint to dig or deflag a safe block or to flag a bomb, or null if there is none
+     */
+    private Hint knownMove() {
+        while (this.deducedCount > 0) {
+            int block = this.deduced[this.deducedCount - 1];
+            byte seen = this.seen[block];
+            if (seen >= 0 || this.known[block] == BOMB && seen == FLAGGED) {
+                this.deducedCount--;
+                continue;
+            }
+            int x = block / this.stride - 1, y = block % this.stride - 1;
+            if (this.known[block] == BOMB) {
+                return new Hint(Hint.FLAG, x, y, 1);
+            }
+            return new Hint(seen == FLAGGED ? Hint.DEFLAG : Hint.DIG, x, y, 0);
+        }
+        return null;
+    }
+
+    /**
+     * Suggest the untouched block least likely to be a bomb, from the last enumeration or away from the frontier.
+     * 
+     * @return hint to dig the block, or null if every block is dug or known
+     */
+    private Hint guess() {
+        int last = index(this.height - 1, this.width - 1);
+        while (this.interior <= last && (this.seen[this.interior] != UNTOUCHED
+                || this.known[this.interior] != UNKNOWN || (this.marks[this.interior] & FRONTIER) != 0)) {
+            this.interior++;
+        }
+        int block = this.bestGuess;
+        double risk = this.bestRisk;
+        if (this.interior <= last && (block < 0 || BoardGenerator.DEFAULT_DENSITY < risk)) {
+            block = this.interior;
+            risk = BoardGenerator.DEFAULT_DENSITY;
+        }
+        if (block < 0) {
+            return null;
+        }
+        return new Hint(Hint.DIG, block / this.stride - 1, block % this.stride - 1, risk);
+    }
+
+    /**
+     * Split the frontier into components sharing no constraint, and solve them in parallel: deduce the blocks safe
+     * or bombs in every assignment of the small components, and find the untouched block least likely to be a bomb.
+     */
+    private void solveFrontier() {
+        int kept = 0;
+        for (int i = 0; i < this.frontierCount; i++) {
+            int block = this.frontier[i];
+            if (this.seen[block] < 0 && this.known[block] == UNKNOWN) {
+                this.frontier[kept++] = block;
+            } else {
+                this.marks[block] &= ~FRONTIER;
+            }
+        }
+        this.frontierCount = kept;
+
+        List<Component> components = new ArrayList<>();
+        for (int i = 0; i < this.frontierCount; i++) {
+            if ((this.marks[this.frontier[i]] & VISITED) == 0) {
+                components.add(component(this.frontier[i]));
+            }
+        }
+        for (Component component : components) {
+            for (int block : component.blocks) {
+                this.marks[block] &= ~VISITED;
+            }
+        }
+
+        components.parallelStream().forEach(Component::solve);
+
+        this.bestGuess = -1;
+        for (Component component : components) {
+            for (int i = 0; i < component.blocks.length; i++) {
+                int block = component.blocks[i];
+                double risk = component.risks[i];
+                if (component.exact && (risk == 0 || risk == 1)) {
+                    deduce(block, risk == 0 ? SAFE : BOMB);
+                } else if (this.seen[block] == UNTOUCHED && (this.bestGuess < 0 || risk < this.bestRisk)) {
+                    this.bestGuess = block;
+                    this.bestRisk = risk;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect the component of the frontier containing a block: the unknown blocks reached from it through the
+     * constraints they share, with those constraints.
+     * 
+     * @param start unknown block of the frontier not in any component yet
+     * @return component of start, its blocks marked VISITED
+     */
+    private Component component(int start) {
+        int[] blocks = new int[8];
+        int count = 0;
+        blocks[count++] = start;
+        this.marks[start] |= VISITED;
+        List<Integer> constraints = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            for (int offset : this.neighbours) {
+                int constraint = blocks[i] + offset;
+                if (this.seen[constraint] < 0 || (this.marks[constraint] & VISITED) != 0) {
+                    continue;
+                }
+                this.marks[constraint] |= VISITED;
+                constraints.add(constraint);
+                for (int next : this.neighbours) {
+                    int block = constraint + next;
+                    if (this.seen[block] < 0 && this.seen[block] != BORDER && this.known[block] == UNKNOWN
+                            && (this.marks[block] & VISITED) == 0) {
+                        this.marks[block] |= VISITED;
+                        blocks = push(blocks, count++, block);
+                    }
+                }
+            }
+        }
+
+        Component res = new Component(Arrays.copyOf(blocks, count), constraints.size());
+        for (int c = 0; c < constraints.size(); c++) {
+            int constraint = constraints.get(c);
+            this.marks[constraint] &= ~VISITED;
+            res.bombs[c] = remaining(constraint);
+            res.sizes[c] = unknowns(constraint, this.unknownA);
+            for (int i = 0; i < res.sizes[c]; i++) {
+                int position = Arrays.binarySearch(res.sorted, this.unknownA[i]);
+                res.constraintsOf.get(res.order[position]).add(c);
+            }
+        }
+        res.finish();
+        return res;
+    }
+
+    /**
+     * Unknown blocks of the frontier linked by the constraints they share, and those constraints. Solved without
+     * reading the solver, so components are solved in parallel.
+     */
+    private static class Component {
+        final private int[] blocks;
+        /** Blocks in increasing order, and the position in blocks of each. */
+        final private int[] sorted, order;
+        /** Bombs left among the unknown blocks of each constraint, and the number of those blocks. */
+        final private int[] bombs, sizes;
+        final private List<List<Integer>> constraintsOf = new ArrayList<>();
+        private int[][] constraintIds;
+        /** Chance of a bomb in each block. */
+        private double[] risks;
+        /** True if the risks were found by enumerating every assignment. */
+        private boolean exact;
+
+        private Component(int[] blocks, int constraints) {
+            this.blocks = blocks;
+            Integer[] positions = new Integer[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                positions[i] = i;
+                this.constraintsOf.add(new ArrayList<>());
+            }
+            Arrays.sort(positions, (a, b) -> Integer.compare(blocks[a], blocks[b]));
+            this.sorted = new int[blocks.length];
+            this.order = new int[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                this.order[i] = positions[i];
+                this.sorted[i] = blocks[positions[i]];
+            }
+            this.bombs = new int[constraints];
+            this.sizes = new int[constraints];
+        }
+
+        private void finish() {
+            this.constraintIds = new int[this.blocks.length][];
+            for (int i = 0; i < this.blocks.length; i++) {
+                this.constraintIds[i] = this.constraintsOf.get(i).stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+
+        /**
+         * Find the chance of a bomb in each block: exactly by enumerating the assignments consistent with the
+         * constraints if there are few blocks, else estimated by the most demanding constraint of each block.
+         */
+        private void solve() {
+            this.risks = new double[this.blocks.length];
+            if (this.blocks.length <= MAX_ENUMERATED) {
+                long[] bombCounts = new long[this.blocks.length];
+                long solutions = enumerate(0, new int[this.bombs.length], this.sizes.clone(),
+                        new boolean[this.blocks.length], bombCounts);
+                if (solutions > 0) {
+                    for (int i = 0; i < this.blocks.length; i++) {
+                        this.risks[i] = (double) bombCounts[i] / solutions;
+                    }
+                    this.exact = true;
+                    return;
+                }
+            }
+            for (int i = 0; i < this.blocks.length; i++) {
+                for (int c : this.constraintIds[i]) {
+                    this.risks[i] = Math.max(this.risks[i], (double) this.bombs[c] / this.sizes[c]);
+                }
+            }
+        }
+
+        /**
+         * Enumerate the assignments of the blocks from the ith on, given the assignments of the blocks before.
+         * 
+         * @param i index of the next block to assign
+         * @param assigned bombs assigned so far among the blocks of each constraint
+         * @param left blocks of each constraint not assigned yet
+         * @param bomb assignment of the blocks before i
+         * @param bombCounts incremented for each block which is a bomb in a consistent assignment
+         * @return number of consistent assignments
+         */
+        private long enumerate(int i, int[] assigned, int[] left, boolean[] bomb, long[] bombCounts) {
+            if (i == this.blocks.length) {
+                for (int j = 0; j < i; j++) {
+                    if (bomb[j]) {
+                        bombCounts[j]++;
+                    }
+                }
+                return 1;
+            }
+            long res = 0;
+            int[] constraints = this.constraintIds[i];
+            boolean safe = true, mine = true;
+            for (int c : constraints) {
+                left[c]--;
+                safe &= assigned[c] + left[c] >= this.bombs[c];
+                mine &= assigned[c] < this.bombs[c];
+            }
+            if (safe) {
+                bomb[i] = false;
+                res += enumerate(i + 1, assigned, left, bomb, bombCounts);
+            }
+            if (mine) {
+                for (int c : constraints) {
+                    assigned[c]++;
+                }
+                bomb[i] = true;
+                res += enumerate(i + 1, assigned, left, bomb, bombCounts);
+                bomb[i] = false;
+                for (int c : constraints) {
+                    assigned[c]--;
+                }
+            }
+            for (int c : constraints) {
+                left[c]++;
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Get what the solver sees of a block from its symbol.
+     */
+    private static byte seenSymbol(char symbol) {
+        switch (symbol) {
+        case '-':
+            return UNTOUCHED;
+        case 'F':
+            return FLAGGED;
+        case ' ':
+            return 0;
+        default:
+            return (byte) (symbol - '0');
+        }
+    }
+
+    private int index(int x, int y) {
+        return (x + 1) * this.stride + y + 1;
+    }
+
+    /**
+     * Store a value at the end of a growable array.
+     * 
+     * @return array holding the value at index, array itself unless it was full
+     */
+    private static int[] push(int[] array, int index, int value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, 2 * index);
+        }
+        array[index] = value;
+        return array;
+    }
+}
@@ -0,0 +1,351 @@
+package minesweeper;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks guarding the blocks of a board in square tiles, so operations on distant blocks don't contend. Tiles are
+ * numbered row by row, and a thread only ever waits for a tile while every tile it holds has a lower number, which
+ * rules out deadlocks between operations spanning several tiles.
+ * 
+ * <br> Every tile also has a stamp, incremented when a thread locks the tile and again when it unlocks it, so the
+ * stamp is odd exactly while the tile is held. Readers may then read the blocks of tiles without locking, like the
+ * optimistic reads of StampedLock: they take the stamps with tryOptimisticRead(), read, and keep what they read only
+ * if validate() finds the stamps unchanged, in which case no thread held any of the tiles meanwhile.
+ */
+class TileLocks {
+    /** Number of rows and columns of blocks in a tile. */
+    final static int TILE_SIZE = 32;
+
+    final private ReentrantLock[] locks;
+    /** Stamp of each tile, odd while the tile is locked. */
+    final private AtomicLongArray stamps;
+    final private int width, height, tilesAcross;
+
+    /**
+     * Construct the tile locks of a board.
+     * 
+     * @param width width of the board
+     * @param height height of the board
+     */
+    TileLocks(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.locks = new ReentrantLock[this.tilesAcross * ((height + TILE_SIZE - 1) / TILE_SIZE)];
+        for (int i = 0; i < this.locks.length; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+        this.stamps = new AtomicLongArray(this.locks.length);
+    }
+
+    /**
+     * Lock the tile containing the block at location (x, y).
+     * 
+     * @param x xth row
+     * @param y yth column
+     * @return nanoseconds waited for the tile held by others
+     */
+    long lock(int x, int y) {
+        return lockTile(tileOf(x, y));
+    }
+
+    /**
+     * Unlock the tile locked by lock() with the same arguments.
+     * 
+     * @param x xth row
+     * @param y yth column
+     */
+    void unlock(int x, int y) {
+        unlockTile(tileOf(x, y));
+    }
+
+    /**
+     * Lock every tile, in order.
+     * 
+     * @return nanoseconds waited for tiles held by others
+     */
+    long lockAll() {
+        long waited = 0;
+        for (int i = 0; i < this.locks.length; i++) {
+            waited += lockTile(i);
+        }
+        return waited;
+    }
+
+    /**
+     * Unlock every tile locked by lockAll().
+     */
+    void unlockAll() {
+        for (int i = this.locks.length - 1; i >= 0; i--) {
+            unlockTile(i);
+        }
+    }
+
+    /**
+     * Lock the tiles containing the blocks in rows firstRow to lastRow and columns firstColumn to lastColumn, in
+     * order.
+     * 
+     * @param firstRow first row, requires 0 <= firstRow <= lastRow < height
+     * @param firstColumn first column, requires 0 <= firstColumn <= lastColumn < width
+     * @param lastRow last row
+     * @param lastColumn last column
+     * @return nanoseconds waited for tiles held by others
+     */
+    long lockRegion(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+        long waited = 0;
+        for (int i = firstRow / TILE_SIZE; i <= lastRow / TILE_SIZE; i++) {
+            for (int j = firstColumn / TILE_SIZE; j <= lastColumn / TILE_SIZE; j++) {
+                waited += lockTile(i * this.tilesAcross + j);
+            }
+        }
+        return waited;
+    }
+
+    /**
+     * Unlock the tiles locked by lockRegion() with the same arguments.
+     * 
+     * @param firstRow first row
+     * @param firstColumn first column
+     * @param lastRow last row
+     * @param lastColumn last column
+     */
+    void unlockRegion(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+        for (int i = lastRow / TILE_SIZE; i >= firstRow / TILE_SIZE; i--) {
+            for (int j = lastColumn / TILE_SIZE; j >= firstColumn / TILE_SIZE; j--) {
+                unlockTile(i * this.tilesAcross + j);
+            }
+        }
+    }
+
+    /**
+     * Start reading the blocks in rows firstRow to lastRow and columns firstColumn to lastColumn without locking.
+     * 
+     * @param firstRow first row, requires 0 <= firstRow <= lastRow < height
+     * @param firstColumn first column, requires 0 <= firstColumn <= lastColumn < width
+     * @param lastRow last row
+     * @param lastColumn last column
+     * @return stamps of the tiles containing the blocks, to pass to validate() with the same arguments, or null if
+     *         any of the tiles is locked
+     */
+    long[] tryOptimisticRead(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+        int columns = lastColumn / TILE_SIZE - firstColumn / TILE_SIZE + 1;
+        long[] res = new long[(lastRow / TILE_SIZE - firstRow / TILE_SIZE + 1) * columns];
+        for (int i = firstRow / TILE_SIZE, k = 0; i <= lastRow / TILE_SIZE; i++) {
+            for (int j = firstColumn / TILE_SIZE; j <= lastColumn / TILE_SIZE; j++, k++) {
+                res[k] = this.stamps.get(i * this.tilesAcross + j);
+                if ((res[k] & 1) != 0) {
+                    return null;
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Check that no thread locked any of the tiles since tryOptimisticRead() returned stamps, so the blocks read
+     * meanwhile are as they were at a single moment.
+     * 
+     * @param firstRow first row
+     * @param firstColumn first column
+     * @param lastRow last row
+     * @param lastColumn last column
+     * @param stamps stamps returned by tryOptimisticRead() with the same arguments
+     * @return true if the blocks read since are consistent, else false and they must be read again
+     */
+    boolean validate(int firstRow, int firstColumn, int lastRow, int lastColumn, long[] stamps) {
+        // Keeps the reads of the blocks before the reads of the stamps.
+        VarHandle.acquireFence();
+        for (int i = firstRow / TILE_SIZE, k = 0; i <= lastRow / TILE_SIZE; i++) {
+            for (int j = firstColumn / TILE_SIZE; j <= lastColumn / TILE_SIZE; j++, k++) {
+                if (this.stamps.get(i * this.tilesAcross + j) != stamps[k]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the stamps of every tile, numbered row by row, as they are now.
+     * 
+     * @return stamps of the tiles, odd for the tiles locked
+     */
+    long[] stamps() {
+        long[] res = new long[this.locks.length];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = this.stamps.get(i);
+        }
+        return res;
+    }
+
+    /**
+     * Get the tile containing the block at location (x, y).
+     */
+    private int tileOf(int x, int y) {
+        return (x / TILE_SIZE) * this.tilesAcross + y / TILE_SIZE;
+    }
+
+    /**
+     * Lock a tile, making its stamp odd unless the thread already held it. Only the thread holding the tile changes
+     * its stamp, so plain increments suffice, fenced so the changes made under the lock can't be seen before the odd
+     * stamp.
+     * 
+     * @param tile number of the tile
+     * @return nanoseconds waited for the tile held by others
+     */
+    private long lockTile(int tile) {
+        long waited = BoardMetrics.acquire(this.locks[tile]);
+        if (this.locks[tile].getHoldCount() == 1) {
+            this.stamps.setPlain(tile, this.stamps.getPlain(tile) + 1);
+            VarHandle.storeStoreFence();
+        }
+        return waited;
+    }
+
+    /**
+     * Lock a tile if it is free, as lockTile() does.
+     * 
+     * @param tile number of the tile
+     * @return true if the tile is now held
+     */
+    private boolean tryLockTile(int tile) {
+        if (!this.locks[tile].tryLock()) {
+            return false;
+        }
+        if (this.locks[tile].getHoldCount() == 1) {
+            this.stamps.setPlain(tile, this.stamps.getPlain(tile) + 1);
+            VarHandle.storeStoreFence();
+        }
+        return true;
+    }
+
+    /**
+     * Unlock a tile locked by lockTile() or tryLockTile(), making its stamp even again unless the thread still holds
+     * it.
+     * 
+     * @param tile number of the tile
+     */
+    private void unlockTile(int tile) {
+        if (this.locks[tile].getHoldCount() == 1) {
+            // released after the changes made under the lock
+            this.stamps.setRelease(tile, this.stamps.getPlain(tile) + 1);
+        }
+        this.locks[tile].unlock();
+    }
+
+    /**
+     * Set of tiles held by a single operation, such as a flood fill, which grows as the operation spreads over the
+     * board. Reused by one operation after another, but never shared by concurrent operations.
+     */
+    class Holder {
+        final private boolean[] held = new boolean[locks.length];
+        final private int[] order = new int[locks.length];
+        final private int[] missing = new int[4];
+        /** Tiles missing[missingFrom], ..., missing[missingCount - 1] are left for relock() to take. */
+        private int missingFrom = 0, missingCount = 0;
+        private int count = 0;
+        /** Nanoseconds waited for tiles held by others since the last release. */
+        private long waited = 0;
+
+        /**
+         * Make sure the tiles containing the block at location (x, y) and its neighbours are held. Takes missing
+         * tiles without waiting if possible; otherwise releases every held tile and locks all of them again in
+         * order, so the blocks guarded by previously held tiles may have been changed by others on return.
+         * 
+         * @param x xth row
+         * @param y yth column
+         * @return true if the held tiles were released meanwhile, else false
+         */
+        boolean lockAround(int x, int y) {
+            if (tryLockAround(x, y)) {
+                return false;
+            }
+            relock();
+            return true;
+        }
+
+        /**
+         * Take the tiles containing the block at location (x, y) and its neighbours which aren't held yet, without
+         * waiting for tiles held by others unless no tile is held at all. If a tile can't be taken, relock() must
+         * be called before the blocks around (x, y) are read.
+         * 
+         * @param x xth row
+         * @param y yth column
+         * @return true if every tile around the block is held, false if relock() must be called
+         */
+        boolean tryLockAround(int x, int y) {
+            int firstRow = Math.max(x - 1, 0) / TILE_SIZE, lastRow = Math.min(x + 1, height - 1) / TILE_SIZE;
+            int firstColumn = Math.max(y - 1, 0) / TILE_SIZE, lastColumn = Math.min(y + 1, width - 1) / TILE_SIZE;
+            int missingCount = 0;
+            for (int i = firstRow; i <= lastRow; i++) {
+                for (int j = firstColumn; j <= lastColumn; j++) {
+                    int tile = i * tilesAcross + j;
+                    if (!this.held[tile]) {
+                        this.missing[missingCount++] = tile;
+                    }
+                }
+            }
+            if (missingCount == 0) {
+                return true;
+            }
+
+            if (this.count == 0) {
+                for (int i = 0; i < missingCount; i++) {
+                    this.waited += lockTile(this.missing[i]);
+                    add(this.missing[i]);
+                }
+                return true;
+            }
+
+            int locked = 0;
+            while (locked < missingCount && tryLockTile(this.missing[locked])) {
+                add(this.missing[locked++]);
+            }
+            this.missingFrom = locked;
+            this.missingCount = missingCount;
+            return locked == missingCount;
+        }
+
+        /**
+         * Release every held tile and lock all of them again in order, with the tiles tryLockAround() couldn't
+         * take, so the blocks guarded by previously held tiles may have been changed by others on return.
+         */
+        void relock() {
+            for (int i = 0; i < this.count; i++) {
+                unlockTile(this.order[i]);
+            }
+            for (int i = this.missingFrom; i < this.missingCount; i++) {
+                add(this.missing[i]);
+            }
+            this.missingCount = 0;
+            Arrays.sort(this.order, 0, this.count);
+            for (int i = 0; i < this.count; i++) {
+                this.waited += lockTile(this.order[i]);
+            }
+        }
+
+        /**
+         * Unlock every held tile.
+         * 
+         * @return nanoseconds waited for tiles held by others since the last release
+         */
+        long release() {
+            for (int i = 0; i < this.count; i++) {
+                unlockTile(this.order[i]);
+                this.held[this.order[i]] = false;
+            }
+            this.count = 0;
+            long res = this.waited;
+            this.waited = 0;
+            return res;
+        }
+
+        private void add(int tile) {
+            this.held[tile] = true;
+            this.order[this.count++] = tile;
+        }
+    }
+}
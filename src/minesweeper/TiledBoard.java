@@ -0,0 +1,441 @@
+package minesweeper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Board whose blocks are built in square tiles on first access, for boards far larger than memory of which players
+ * only touch a small part. The bombs of a tile are derived from the seed of the board and the coordinates of the
+ * tile, so a tile nobody has touched can be evicted and built again identically when it is needed. Tiles holding a
+ * dug or flagged block, or a removed bomb, are kept for the life of the board.
+ * 
+ * Thread safe: every operation holds a single ReentrantLock, so flood fills may spread over any number of tiles.
+ */
+public class TiledBoard implements Minefield {
+    final private static String boomMessage = "BOOM!";
+    final private static byte[] NEWLINE = "%n".formatted().getBytes(StandardCharsets.US_ASCII);
+    /** Number of rows and columns of blocks in a tile; one bit per block of a row fits into a long. */
+    final private static int TILE_SIZE = Long.SIZE;
+    final private static int TILE_SHIFT = 6;
+    /** Number of untouched tiles held above which they are evicted. */
+    final private static int MAX_UNTOUCHED_TILES = 1 << 14;
+    /** Largest number of rows and columns shown by boardMessage(). */
+    public final static int MESSAGE_SIZE = 64;
+
+    final private static byte FLAGGED = 0x1;
+    final private static byte DUG = 0x2;
+
+    final private int width, height;
+    final private long seed;
+    final private double density;
+    /** Tiles built so far, by tile row in the high and tile column in the low half of the key. */
+    final private Map<Long, Tile> tiles = new HashMap<>();
+    /** Number of tiles in tiles which are untouched. */
+    private int untouchedTiles = 0;
+    final private ReentrantLock lock = new ReentrantLock();
+    /** Nanoseconds the outermost holder of the lock waited for it, and System.nanoTime() when it took it. */
+    private long lockWaited, lockedAt;
+    /** Incremented by every dig, flag and deflag which changes the board, while holding the lock. */
+    final private AtomicLong version = new AtomicLong();
+    /** Blocks left to reveal by the current dig, as x in the high and y in the low half of each entry. */
+    private long[] stack = new long[64];
+    private volatile Rendering rendering;
+
+    /**
+     * The blocks of a tile.
+     */
+    private static class Tile {
+        /** Bit y of word x is set if the block at row x and column y of the tile contains a bomb. */
+        final private long[] bombs;
+        /** FLAGGED and DUG bits of the blocks row by row, or null while the tile is untouched. */
+        private byte[] states;
+
+        private Tile(long[] bombs) {
+            this.bombs = bombs;
+        }
+
+        private boolean touched() {
+            return this.states != null;
+        }
+
+    }
+
+    /**
+     * Board message together with the version of the board it was rendered from.
+     */
+    private static class Rendering {
+        final private long version;
+        final private byte[] message;
+
+        private Rendering(long version, byte[] message) {
+            this.version = version;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Construct a board of size width x height on which every block contains a bomb with probability density.
+     * Allocates nothing per block; tiles are built as they are played.
+     * 
+     * @param width width of the board, requires width > 0
+     * @param height height of the board, requires height > 0
+     * @param seed seed of the board; the same arguments always give the same bombs
+     * @param density probability of a block containing a bomb, requires 0 <= density <= 1
+     */
+    public TiledBoard(int width, int height, long seed, double density) {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+        this.density = density;
+    }
+
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+
+    @Override
+    public long version() {
+        return this.version.get();
+    }
+
+    /**
+     * Get the number of tiles currently held in memory.
+     * 
+     * @return number of built tiles
+     */
+    public int cachedTiles() {
+        lock();
+        try {
+            return this.tiles.size();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void atomically(Runnable operations) {
+        lock();
+        try {
+            operations.run();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public String boomMessage() {
+        return boomMessage;
+    }
+
+    /**
+     * Get the symbol of the block at location (x, y) as shown in the board message.
+     * 
+     * @param x xth row, requires 0 <= x < height
+     * @param y yth column, requires 0 <= y < width
+     * @return '-' if untouched, 'F' if flagged, ' ' if dug with no bombs around it, else '1' to '8'
+     */
+    public char cellSymbol(int x, int y) {
+        lock();
+        try {
+            char symbol = lockedCellSymbol(x, y);
+            evictUntouched();
+            return symbol;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Check if the block at location (x, y) contains a bomb.
+     * 
+     * @param x xth row, requires 0 <= x < height
+     * @param y yth column, requires 0 <= y < width
+     * @return true if the block contains a bomb
+     */
+    boolean bomb(int x, int y) {
+        lock();
+        try {
+            boolean bomb = (tile(x, y).bombs[x & (TILE_SIZE - 1)] & 1L << (y & (TILE_SIZE - 1))) != 0;
+            evictUntouched();
+            return bomb;
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean dig(int x, int y) {
+        lock();
+        try {
+            if (!insideBoundry(x, y) || state(x, y) != 0) {
+                return false;
+            }
+            Tile tile = tile(x, y);
+            boolean bomb = (tile.bombs[x & (TILE_SIZE - 1)] & 1L << (y & (TILE_SIZE - 1))) != 0;
+            if (bomb) {
+                tile.bombs[x & (TILE_SIZE - 1)] &= ~(1L << (y & (TILE_SIZE - 1)));
+            }
+            reveal(x, y);
+            this.version.incrementAndGet();
+            evictUntouched();
+            return bomb;
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void flag(int x, int y) {
+        lock();
+        try {
+            if (insideBoundry(x, y) && state(x, y) == 0) {
+                setState(x, y, FLAGGED);
+                this.version.incrementAndGet();
+            }
+            evictUntouched();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void deflag(int x, int y) {
+        lock();
+        try {
+            if (insideBoundry(x, y) && state(x, y) == FLAGGED) {
+                setState(x, y, (byte) 0);
+                this.version.incrementAndGet();
+            }
+            evictUntouched();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Get the state of the top left MESSAGE_SIZE x MESSAGE_SIZE blocks of the board, in the format of
+     * Minefield.boardMessage(). Rendered again only after the board changes.
+     * 
+     * @return current state of the top left of the board encoded in US-ASCII
+     */
+    @Override
+    public byte[] boardMessage() {
+        Rendering cached = this.rendering;
+        long version = this.version.get();
+        if (cached != null && cached.version == version) {
+            return cached.message;
+        }
+        lock();
+        try {
+            byte[] message = render(0, 0, Math.min(this.height, MESSAGE_SIZE), Math.min(this.width, MESSAGE_SIZE));
+            this.rendering = new Rendering(this.version.get(), message);
+            evictUntouched();
+            return message;
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public byte[] viewMessage(int x, int y, int rows, int columns) {
+        int firstRow = Math.max(x, 0), lastRow = (int) Math.min((long) x + rows, this.height);
+        int firstColumn = Math.max(y, 0), lastColumn = (int) Math.min((long) y + columns, this.width);
+        if (firstRow >= lastRow || firstColumn >= lastColumn) {
+            return new byte[0];
+        }
+        lock();
+        try {
+            byte[] message = render(firstRow, firstColumn, lastRow - firstRow, lastColumn - firstColumn);
+            evictUntouched();
+            return message;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Render the blocks in rows x to x + rows - 1 and columns y to y + columns - 1. Requires the lock, and the
+     * nonempty rectangle to lie within the board.
+     */
+    private byte[] render(int x, int y, int rows, int columns) {
+        byte[] message = new byte[rows * (2 * columns - 1) + (rows - 1) * NEWLINE.length];
+        int length = 0;
+        for (int i = x; i < x + rows; i++) {
+            if (i > x) {
+                System.arraycopy(NEWLINE, 0, message, length, NEWLINE.length);
+                length += NEWLINE.length;
+            }
+            for (int j = y; j < y + columns; j++) {
+                if (j > y) {
+                    message[length++] = ' ';
+                }
+                message[length++] = (byte) lockedCellSymbol(i, j);
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Reveal the block at location (x, y) and spread over the neighbours of every revealed block with no bombs
+     * around it. Requires the lock, and the block to be untouched.
+     */
+    private void reveal(int x, int y) {
+        int size = 0, revealed = 1;
+        setState(x, y, DUG);
+        this.stack[size++] = pack(x, y);
+        while (size > 0) {
+            long block = this.stack[--size];
+            int bx = (int) (block >> 32), by = (int) block;
+            if (bombsAround(bx, by) != 0) {
+                continue;
+            }
+            for (int i = bx - 1; i <= bx + 1; i++) {
+                for (int j = by - 1; j <= by + 1; j++) {
+                    if (insideBoundry(i, j) && state(i, j) == 0) {
+                        setState(i, j, DUG);
+                        if (size == this.stack.length) {
+                            this.stack = Arrays.copyOf(this.stack, 2 * size);
+                        }
+                        this.stack[size++] = pack(i, j);
+                        revealed++;
+                    }
+                }
+            }
+        }
+        BoardMetrics.revealed(revealed);
+    }
+
+    /**
+     * Take the lock, and start timing how long it is held unless it already was.
+     */
+    private void lock() {
+        long waited = BoardMetrics.acquire(this.lock);
+        if (this.lock.getHoldCount() == 1) {
+            this.lockWaited = waited;
+            this.lockedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Release the lock taken by lock(), recording the time it was held once it is released for good.
+     */
+    private void unlock() {
+        boolean outermost = this.lock.getHoldCount() == 1;
+        long waited = this.lockWaited, lockedAt = this.lockedAt;
+        this.lock.unlock();
+        if (outermost) {
+            BoardMetrics.released(waited, lockedAt);
+        }
+    }
+
+    /**
+     * Get the symbol of the block at location (x, y). Requires the lock.
+     */
+    private char lockedCellSymbol(int x, int y) {
+        byte state = state(x, y);
+        if (state == 0) {
+            return '-';
+        } else if (state == FLAGGED) {
+            return 'F';
+        }
+        int count = bombsAround(x, y);
+        return count == 0 ? ' ' : (char) ('0' + count);
+    }
+
+    /**
+     * Count the bombs in the neighbours of the block at location (x, y). Requires the lock.
+     */
+    private int bombsAround(int x, int y) {
+        int count = 0;
+        for (int i = x - 1; i <= x + 1; i++) {
+            for (int j = y - 1; j <= y + 1; j++) {
+                if ((i != x || j != y) && insideBoundry(i, j)
+                        && (tile(i, j).bombs[i & (TILE_SIZE - 1)] & 1L << (j & (TILE_SIZE - 1))) != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private byte state(int x, int y) {
+        byte[] states = tile(x, y).states;
+        return states == null ? 0 : states[(x & (TILE_SIZE - 1)) * TILE_SIZE + (y & (TILE_SIZE - 1))];
+    }
+
+    private void setState(int x, int y, byte state) {
+        Tile tile = tile(x, y);
+        if (!tile.touched()) {
+            tile.states = new byte[TILE_SIZE * TILE_SIZE];
+            this.untouchedTiles--;
+        }
+        tile.states[(x & (TILE_SIZE - 1)) * TILE_SIZE + (y & (TILE_SIZE - 1))] = state;
+    }
+
+    /**
+     * Get the tile containing the block at location (x, y), building it if needed. Requires the lock.
+     */
+    private Tile tile(int x, int y) {
+        long key = pack(x >> TILE_SHIFT, y >> TILE_SHIFT);
+        Tile tile = this.tiles.get(key);
+        if (tile == null) {
+            tile = new Tile(tileBombs(x >> TILE_SHIFT, y >> TILE_SHIFT));
+            this.tiles.put(key, tile);
+            this.untouchedTiles++;
+        }
+        return tile;
+    }
+
+    /**
+     * Derive the bombs of a tile from the seed of the board and the coordinates of the tile.
+     */
+    private long[] tileBombs(int tileRow, int tileColumn) {
+        long tileSeed = mix(this.seed ^ mix(pack(tileRow, tileColumn)));
+        return BoardGenerator.densityWords(new SplittableRandom(tileSeed), TILE_SIZE * TILE_SIZE, this.density);
+    }
+
+    /**
+     * Drop the untouched tiles once too many of them are held. They are built again identically when needed.
+     * Requires the lock, and is called at the end of operations only, so no operation loses a tile it is using.
+     */
+    private void evictUntouched() {
+        if (this.untouchedTiles <= MAX_UNTOUCHED_TILES) {
+            return;
+        }
+        for (Iterator<Tile> it = this.tiles.values().iterator(); it.hasNext();) {
+            if (!it.next().touched()) {
+                it.remove();
+            }
+        }
+        this.untouchedTiles = 0;
+    }
+
+    private boolean insideBoundry(int x, int y) {
+        return x >= 0 && y >= 0 && x < this.height && y < this.width;
+    }
+
+    private static long pack(int high, int low) {
+        return (long) high << 32 | (low & 0xffffffffL);
+    }
+
+    /**
+     * Scramble the bits of a 64 bit value, so nearby values give unrelated seeds.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+}
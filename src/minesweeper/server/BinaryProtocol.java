@@ -0,0 +1,357 @@
+package minesweeper.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import minesweeper.BoardChanges;
+
+/**
+ * Encoding of the binary protocol, which a client switches to by sending the "binary" request. The server answers
+ * the request with a text line, and from then on every message in either direction is length-prefixed:
+ * <ul>
+ * <li>a request is a big-endian 16 bit length followed by that many bytes of a text request, and</li>
+ * <li>a response is one or more frames, each a big-endian 32 bit length followed by that many bytes: a kind, TEXT,
+ * BOARD or BOOM, then the payload.</li>
+ * </ul>
+ * TEXT and BOOM frames carry the text of the messages of the text protocol, encoded in US-ASCII. A BOARD frame carries
+ * the columns and rows of the board as big-endian 32 bit integers, then the blocks row by row as 4 bit codes, two to
+ * a byte with the first in the high half and the last byte padded with 0:
+ * <ul>
+ * <li>0 to 8 for a dug block with that many neighbouring bombs, 0 being empty,</li>
+ * <li>UNTOUCHED and FLAGGED for untouched and flagged blocks, and</li>
+ * <li>RUN for a run of blocks: followed by the code of the blocks and the length of the run, least significant 3
+ * bits first, each group of 3 bits in a code whose bit 3 is set if more groups follow.</li>
+ * </ul>
+ * Runs may span rows, so a board message of a board mostly untouched or dug empty takes a few bytes.
+ * 
+ * <br> A player watching the room is also pushed two more kinds of frames. A SNAPSHOT frame carries the version of
+ * the board as a big-endian 64 bit integer followed by the payload of a BOARD frame. A DELTA frame carries the
+ * versions the changes lead from and to as big-endian 64 bit integers, the number of changed blocks as a big-endian
+ * 32 bit integer, then for each block its column and row as big-endian 32 bit integers and its new code in a byte.
+ */
+class BinaryProtocol {
+    /** Kinds of frames. */
+    static final byte TEXT = 0, BOARD = 1, BOOM = 2, SNAPSHOT = 3, DELTA = 4;
+    /** Codes of blocks other than dug ones. */
+    static final int UNTOUCHED = 9, FLAGGED = 10, RUN = 15;
+    /** Size of the length of a frame and of its kind. */
+    static final int FRAME_HEADER_SIZE = Integer.BYTES + 1;
+    /** Shortest run of equal blocks encoded as a run, which is never longer than the blocks. */
+    private static final int MIN_RUN = 4;
+    /** Code of each symbol of the board message, or -1 for symbols which are not blocks. */
+    private static final byte[] CODES = new byte[128];
+    /** Number of blocks compared at once when looking for the end of a run. */
+    private static final int RUN_CHUNK = 256;
+    /** RUN_CHUNK blocks of each code as in the board message, each followed by a space, indexed by code. */
+    private static final byte[][] RUNS = new byte[FLAGGED + 1][2 * RUN_CHUNK];
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for (int code = 0; code <= FLAGGED; code++) {
+            CODES[symbol(code)] = (byte) code;
+            for (int i = 0; i < RUN_CHUNK; i++) {
+                RUNS[code][2 * i] = (byte) symbol(code);
+                RUNS[code][2 * i + 1] = ' ';
+            }
+        }
+    }
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Encode a message of the text protocol as a frame.
+     * 
+     * @param kind TEXT or BOOM
+     * @param message message encoded in US-ASCII
+     * @return frame of the message
+     */
+    static byte[] frame(byte kind, byte[] message) {
+        return ByteBuffer.allocate(FRAME_HEADER_SIZE + message.length).putInt(1 + message.length).put(kind)
+                .put(message).array();
+    }
+
+    /**
+     * Encode a message of the text protocol as a frame.
+     * 
+     * @param kind TEXT or BOOM
+     * @param message message of printable ASCII characters and line separators
+     * @return frame of the message
+     */
+    static byte[] frame(byte kind, String message) {
+        return frame(kind, message.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Encode a board message of the text protocol, rows of symbols separated by single spaces and the rows by line
+     * separators, as a BOARD frame.
+     * 
+     * @param message board message of at least one block
+     * @return BOARD frame of the same blocks
+     */
+    static byte[] boardFrame(byte[] message) {
+        int lineLength = 0;
+        while (lineLength < message.length && message[lineLength] != MinesweeperProtocol.NEWLINE[0]) {
+            lineLength++;
+        }
+        int columns = (lineLength + 1) / 2;
+        int rows = (message.length + MinesweeperProtocol.NEWLINE.length)
+                / (lineLength + MinesweeperProtocol.NEWLINE.length);
+
+        NibbleWriter out = new NibbleWriter(FRAME_HEADER_SIZE + 2 * Integer.BYTES);
+        int code = -1, run = 0;
+        for (int i = 0; i < rows; i++) {
+            int end = i * (lineLength + MinesweeperProtocol.NEWLINE.length) + lineLength;
+            for (int position = end - lineLength; position < end;) {
+                int next = CODES[message[position]];
+                if (next != code) {
+                    out.writeRun(code, run);
+                    code = next;
+                    run = 0;
+                }
+                int length = runLength(message, position, end);
+                run += length;
+                position += 2 * length;
+            }
+        }
+        out.writeRun(code, run);
+
+        byte[] res = out.toByteArray();
+        ByteBuffer.wrap(res).putInt(res.length - Integer.BYTES).put(BOARD).putInt(columns).putInt(rows);
+        return res;
+    }
+
+    /**
+     * Encode a board message at a version of the board as a SNAPSHOT frame.
+     * 
+     * @param version version of the board the message was rendered at
+     * @param message board message of at least one block
+     * @return SNAPSHOT frame of the same blocks
+     */
+    static byte[] snapshotFrame(long version, byte[] message) {
+        byte[] board = boardFrame(message);
+        return ByteBuffer.allocate(board.length + Long.BYTES).putInt(board.length + Long.BYTES - Integer.BYTES)
+                .put(SNAPSHOT).putLong(version).put(board, FRAME_HEADER_SIZE, board.length - FRAME_HEADER_SIZE)
+                .array();
+    }
+
+    /**
+     * Encode the changes to a board as a DELTA frame.
+     * 
+     * @param delta changed blocks
+     * @return DELTA frame of the changes
+     */
+    static byte[] deltaFrame(BoardChanges.Delta delta) {
+        int length = 1 + 2 * Long.BYTES + Integer.BYTES + delta.size() * (2 * Integer.BYTES + 1);
+        ByteBuffer res = ByteBuffer.allocate(Integer.BYTES + length).putInt(length).put(DELTA).putLong(delta.from())
+                .putLong(delta.to()).putInt(delta.size());
+        for (int i = 0; i < delta.size(); i++) {
+            res.putInt(delta.column(i)).putInt(delta.row(i)).put(CODES[delta.symbol(i)]);
+        }
+        return res.array();
+    }
+
+    /**
+     * Count the blocks equal to the block at position in the rest of its row, comparing many blocks at once.
+     * 
+     * @param message board message
+     * @param position index of the symbol of a block
+     * @param end index after the last symbol of the row
+     * @return number of blocks from position on equal to it, at least 1
+     */
+    private static int runLength(byte[] message, int position, int end) {
+        if (position + 2 >= end || message[position + 2] != message[position]) {
+            return 1;
+        }
+        byte[] run = RUNS[CODES[message[position]]];
+        int start = position;
+        while (position < end) {
+            int length = Math.min(end - position, run.length);
+            int mismatch = Arrays.mismatch(message, position, position + length, run, 0, length);
+            if (mismatch >= 0) {
+                position += mismatch;
+                break;
+            }
+            position += length;
+        }
+        // A mismatch is always at a symbol, as the spaces between them match.
+        return (position - start + 1) / 2;
+    }
+
+    /**
+     * Decode the payload of a BOARD frame back into the board message of the text protocol.
+     * 
+     * @param payload payload of the frame, after its length and kind
+     * @return board message
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    static byte[] boardMessage(ByteBuffer payload) {
+        int columns = payload.getInt(), rows = payload.getInt();
+        if (columns < 1 || rows < 1) {
+            throw new IllegalArgumentException("board of " + columns + " columns by " + rows + " rows");
+        }
+        byte[] newline = MinesweeperProtocol.NEWLINE;
+        byte[] message = new byte[rows * (2 * columns - 1) + (rows - 1) * newline.length];
+        NibbleReader in = new NibbleReader(payload);
+        int code = 0, run = 0;
+        for (int i = 0, position = 0; i < rows; i++) {
+            if (i > 0) {
+                System.arraycopy(newline, 0, message, position, newline.length);
+                position += newline.length;
+            }
+            for (int j = 0; j < columns; j++) {
+                if (run == 0) {
+                    code = in.read();
+                    run = 1;
+                    if (code == RUN) {
+                        code = in.read();
+                        run = 0;
+                        int group, shift = 0;
+                        do {
+                            group = in.read();
+                            run |= (group & 7) << shift;
+                            shift += 3;
+                        } while ((group & 8) != 0 && shift < Integer.SIZE);
+                        if (run <= 0) {
+                            throw new IllegalArgumentException("invalid run of " + run + " blocks");
+                        }
+                    }
+                }
+                if (j > 0) {
+                    message[position++] = ' ';
+                }
+                message[position++] = (byte) symbol(code);
+                run--;
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Get the symbol of the board message for the code of a block.
+     */
+    private static char symbol(int code) {
+        if (code == 0) {
+            return ' ';
+        } else if (code <= 8) {
+            return (char) ('0' + code);
+        } else if (code == UNTOUCHED) {
+            return '-';
+        } else if (code == FLAGGED) {
+            return 'F';
+        }
+        throw new IllegalArgumentException("invalid block code " + code);
+    }
+
+    /**
+     * Cache of the BOARD frame of the last board message encoded, so a board message shared by several players, or
+     * sent again while the board doesn't change, is encoded once. Thread safe.
+     */
+    static class FrameCache {
+        private volatile Encoding last;
+
+        /**
+         * Board message together with its frame.
+         */
+        private static class Encoding {
+            private final byte[] message, frame;
+
+            private Encoding(byte[] message, byte[] frame) {
+                this.message = message;
+                this.frame = frame;
+            }
+        }
+
+        /**
+         * Get the BOARD frame of a board message.
+         * 
+         * @param message board message, never modified once encoded
+         * @return BOARD frame of message, shared between callers
+         */
+        byte[] boardFrame(byte[] message) {
+            Encoding last = this.last;
+            if (last == null || last.message != message) {
+                last = new Encoding(message, BinaryProtocol.boardFrame(message));
+                this.last = last;
+            }
+            return last.frame;
+        }
+    }
+
+    /**
+     * Growable array of 4 bit codes, packed two to a byte.
+     */
+    private static class NibbleWriter {
+        private byte[] bytes = new byte[64];
+        /** Number of codes written, counting the header as two codes a byte. */
+        private int nibbles;
+
+        /**
+         * Start an array after a header of headerSize bytes, which is left for the caller to fill.
+         */
+        private NibbleWriter(int headerSize) {
+            this.nibbles = 2 * headerSize;
+        }
+
+        private void write(int nibble) {
+            int index = this.nibbles >> 1;
+            if (index == this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, 2 * this.bytes.length);
+            }
+            if ((this.nibbles & 1) == 0) {
+                this.bytes[index] = (byte) (nibble << 4);
+            } else {
+                this.bytes[index] |= (byte) nibble;
+            }
+            this.nibbles++;
+        }
+
+        /**
+         * Write run blocks of a code, as a run if that is shorter. Writes nothing if run is 0.
+         */
+        private void writeRun(int code, int run) {
+            if (run < MIN_RUN) {
+                for (int i = 0; i < run; i++) {
+                    write(code);
+                }
+                return;
+            }
+            write(RUN);
+            write(code);
+            for (; run >= 8; run >>>= 3) {
+                write(8 | run & 7);
+            }
+            write(run);
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(this.bytes, (this.nibbles + 1) >> 1);
+        }
+    }
+
+    /**
+     * Reader of the 4 bit codes packed two to a byte by NibbleWriter.
+     */
+    private static class NibbleReader {
+        private final ByteBuffer bytes;
+        private int current;
+        private boolean low = false;
+
+        private NibbleReader(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        private int read() {
+            if (this.low) {
+                this.low = false;
+                return this.current & 0x0f;
+            }
+            if (!this.bytes.hasRemaining()) {
+                throw new IllegalArgumentException("board frame too short");
+            }
+            this.current = this.bytes.get();
+            this.low = true;
+            return (this.current >> 4) & 0x0f;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package minesweeper.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits protecting a server from too many, idle or slow clients: how many connections are served at once, how
+ * many wait to be accepted, and how long a client may keep the server waiting for a request or for reading a
+ * response. Counts the connections it admitted, so a server made with it never serves more than the maximum.
+ * Thread-safe.
+ */
+public class ConnectionLimits {
+    /** Default largest number of connections served at once. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+    /** Default largest number of connections waiting to be accepted. */
+    public static final int DEFAULT_BACKLOG = 128;
+    /** Default milliseconds a client which doesn't watch the room may send no request. */
+    public static final int DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000;
+    /** Default milliseconds a client may leave a response unread. */
+    public static final int DEFAULT_WRITE_TIMEOUT = 30 * 1000;
+    /** Line sent to a client turned away because the server serves as many connections as it may. */
+    static final byte[] SERVER_FULL = "Server full. Try again later.".getBytes(StandardCharsets.US_ASCII);
+
+    final private int maxConnections;
+    final private int backlog;
+    final private int idleTimeout;
+    final private int writeTimeout;
+    /** Number of admitted connections not yet released. */
+    final private AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * Make the default limits.
+     */
+    public ConnectionLimits() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_BACKLOG, DEFAULT_IDLE_TIMEOUT, DEFAULT_WRITE_TIMEOUT);
+    }
+
+    /**
+     * Make limits.
+     * 
+     * @param maxConnections largest number of connections served at once, requires maxConnections > 0
+     * @param backlog largest number of connections waiting to be accepted, requires backlog > 0
+     * @param idleTimeout milliseconds a client which doesn't watch the room may send no request before it is
+     *                    disconnected, or 0 to wait forever, requires idleTimeout >= 0
+     * @param writeTimeout milliseconds a client may leave a response unread before it is disconnected, or 0 to wait
+     *                     forever, requires writeTimeout >= 0
+     */
+    public ConnectionLimits(int maxConnections, int backlog, int idleTimeout, int writeTimeout) {
+        if (maxConnections <= 0 || backlog <= 0 || idleTimeout < 0 || writeTimeout < 0) {
+            throw new IllegalArgumentException("connection limits out of range");
+        }
+        this.maxConnections = maxConnections;
+        this.backlog = backlog;
+        this.idleTimeout = idleTimeout;
+        this.writeTimeout = writeTimeout;
+    }
+
+    /**
+     * Get the largest number of connections waiting to be accepted, the backlog of the server socket.
+     * 
+     * @return backlog of the server socket
+     */
+    public int backlog() {
+        return this.backlog;
+    }
+
+    /**
+     * Get how long a client which doesn't watch the room may send no request.
+     * 
+     * @return idle timeout in milliseconds, or 0 for none
+     */
+    public int idleTimeout() {
+        return this.idleTimeout;
+    }
+
+    /**
+     * Get how long a client may leave a response unread.
+     * 
+     * @return write timeout in milliseconds, or 0 for none
+     */
+    public int writeTimeout() {
+        return this.writeTimeout;
+    }
+
+    /**
+     * Admit a new connection if fewer than the maximum are served, else record its rejection. Every admitted
+     * connection must be released once it is closed.
+     * 
+     * @return true if the connection is admitted, false if it should be turned away
+     */
+    boolean admit() {
+        for (int count = this.connections.get(); count < this.maxConnections; count = this.connections.get()) {
+            if (this.connections.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+        ServerMetrics.METRICS.connectionRejected();
+        return false;
+    }
+
+    /**
+     * Release an admitted connection which is closed, making room for another.
+     */
+    void release() {
+        this.connections.decrementAndGet();
+    }
+}
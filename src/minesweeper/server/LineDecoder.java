@@ -0,0 +1,142 @@
+package minesweeper.server;
+
+import java.util.Arrays;
+
+/**
+ * Splits the bytes received from a client into request lines the way BufferedReader.readLine does: a line ends
+ * with "\n", "\r" or "\r\n", and is decoded with the default charset. Keeps only the partial line read so far, in a
+ * buffer which shrinks back once a long line is taken, so an idle connection costs a few dozen bytes. A line longer
+ * than MAX_REQUEST is not kept at all: the client is misbehaving, and is to be disconnected.
+ * 
+ * <br> Once framed, requests are instead length-prefixed as in BinaryProtocol: a big-endian 16 bit length followed
+ * by that many bytes.
+ */
+class LineDecoder {
+    /**
+     * Most bytes of a request: a few KiB for any single request, plus room for a batch of MAX_BATCH moves with
+     * coordinates of up to ten digits.
+     */
+    static final int MAX_REQUEST = 2048 + 32 * MinesweeperProtocol.MAX_BATCH;
+    /** Size of the line buffer of an idle connection. */
+    private static final int INITIAL_SIZE = 64;
+
+    private byte[] line = new byte[INITIAL_SIZE];
+    private int length = 0;
+    /** True if the last byte was a carriage return, so a following line feed ends no line. */
+    private boolean skipLineFeed = false;
+    /** True if requests are length-prefixed rather than ended by line terminators. */
+    private boolean framed = false;
+    /** Number of bytes of the length of the next framed request still to be received. */
+    private int headerLeft;
+    /** Length of the framed request being received. */
+    private int frameLength;
+    /** True once the client sent a request longer than MAX_REQUEST. */
+    private boolean overlong = false;
+
+    /**
+     * Add the next byte received from the client.
+     * 
+     * @param b byte received
+     * @return true if b ends a line, which must then be taken with takeLine() before adding more bytes, or if the
+     *         line is longer than MAX_REQUEST, which overlong() then tells
+     */
+    boolean accept(byte b) {
+        if (this.framed) {
+            return acceptFramed(b);
+        }
+        if (b == '\n' && this.skipLineFeed) {
+            this.skipLineFeed = false;
+            return false;
+        } else if (b == '\n' || b == '\r') {
+            this.skipLineFeed = b == '\r';
+            return true;
+        }
+
+        this.skipLineFeed = false;
+        if (this.length == MAX_REQUEST) {
+            this.overlong = true;
+            return true;
+        }
+        if (this.length == this.line.length) {
+            this.line = Arrays.copyOf(this.line, Math.min(2 * this.line.length, MAX_REQUEST));
+        }
+        this.line[this.length++] = b;
+        return false;
+    }
+
+    /**
+     * Add the next byte of a length-prefixed request.
+     * 
+     * @param b byte received
+     * @return true if b ends a request, or if the request is longer than MAX_REQUEST
+     */
+    private boolean acceptFramed(byte b) {
+        if (this.skipLineFeed) {
+            // the line feed of the "\r\n" ending the last line
+            this.skipLineFeed = false;
+            if (b == '\n') {
+                return false;
+            }
+        }
+        if (this.headerLeft > 0) {
+            this.frameLength = this.frameLength << 8 | b & 0xff;
+            if (--this.headerLeft > 0) {
+                return false;
+            }
+            this.overlong = this.frameLength > MAX_REQUEST;
+            return this.overlong || this.frameLength == 0;
+        }
+        if (this.length == this.line.length) {
+            this.line = Arrays.copyOf(this.line, Math.min(2 * this.line.length, this.frameLength));
+        }
+        this.line[this.length++] = b;
+        return this.length == this.frameLength;
+    }
+
+    /**
+     * Receive length-prefixed requests from now on. Requires the partial line to be empty, as it is after takeLine().
+     */
+    void frame() {
+        this.framed = true;
+        this.headerLeft = Short.BYTES;
+        this.frameLength = 0;
+    }
+
+    /**
+     * Check if bytes of an unfinished line have been received. BufferedReader.readLine returns such a line when the
+     * client closes the connection.
+     * 
+     * @return true if there is a partial line
+     */
+    boolean hasPartialLine() {
+        return !this.framed && this.length > 0;
+    }
+
+    /**
+     * Check if the client sent a request longer than MAX_REQUEST. Its bytes are dropped rather than kept, and no
+     * more requests are decoded, so the connection must be closed.
+     * 
+     * @return true if a request was too long
+     */
+    boolean overlong() {
+        return this.overlong;
+    }
+
+    /**
+     * Take the line received so far and start a new one.
+     * 
+     * @return line without its line terminator
+     */
+    String takeLine() {
+        String res = new String(this.line, 0, this.length);
+        this.length = 0;
+        if (this.line.length > INITIAL_SIZE) {
+            this.line = new byte[INITIAL_SIZE];
+        }
+        if (this.framed) {
+            this.headerLeft = Short.BYTES;
+            this.frameLength = 0;
+        }
+        return res;
+    }
+}
@@ -0,0 +1,112 @@
+package minesweeper.server;
+
+import java.util.Map;
+
+import minesweeper.Histogram;
+
+/**
+ * Management interface of the metrics of the server, registered with the platform MBean server as
+ * "minesweeper:type=Metrics". Times are in microseconds.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Get the number of clients currently connected.
+     * 
+     * @return number of open connections
+     */
+    long getOpenConnections();
+
+    /**
+     * Get the number of clients connected since the server started.
+     * 
+     * @return number of accepted connections
+     */
+    long getAcceptedConnections();
+
+    /**
+     * Get the number of clients turned away because the server served as many connections as it may.
+     * 
+     * @return number of rejected connections
+     */
+    long getRejectedConnections();
+
+    /**
+     * Get the number of clients disconnected because they sent no request, or read no response, for too long.
+     * 
+     * @return number of timed out connections
+     */
+    long getTimedOutConnections();
+
+    /**
+     * Get the number of clients disconnected because they sent a request longer than the server accepts.
+     * 
+     * @return number of overlong requests
+     */
+    long getOverlongRequests();
+
+    /**
+     * Get the number of times a watching player fell too far behind the changes pushed to it, and was sent a
+     * snapshot of the board instead.
+     * 
+     * @return number of resynchronizations
+     */
+    long getResyncs();
+
+    /**
+     * Get the time taken to answer requests, from receiving a request line to having its response ready to write.
+     * 
+     * @return latency in microseconds by command, with "batch" for lines of several requests and "invalid" for
+     *         lines which are not requests; counting every request, of which a sample is timed
+     */
+    Map<String, Histogram.Summary> getCommandLatency();
+
+    /**
+     * Get the number of bytes written per response, line separator included.
+     * 
+     * @return bytes per response, counting every response, of which a sample is measured
+     */
+    Histogram.Summary getResponseBytes();
+
+    /**
+     * Get the time operations on boards waited for locks held by others.
+     * 
+     * @return wait in microseconds, of the operations which had to wait
+     */
+    Histogram.Summary getLockWait();
+
+    /**
+     * Get the time operations on boards held their locks.
+     * 
+     * @return hold time in microseconds
+     */
+    Histogram.Summary getLockHold();
+
+    /**
+     * Get the number of blocks revealed by each dig.
+     * 
+     * @return blocks per dig of an untouched block
+     */
+    Histogram.Summary getFloodFill();
+
+    /**
+     * Get the number of new boards, of created rooms and of cleared boards, which were ready in the pool.
+     * 
+     * @return number of pool hits
+     */
+    long getPoolHits();
+
+    /**
+     * Get the number of new boards which were not ready in the pool, and were generated while the player waited.
+     * 
+     * @return number of pool misses
+     */
+    long getPoolMisses();
+
+    /**
+     * Get the time taken to generate the boards of the pool, ahead of time or while a player waited.
+     * 
+     * @return generation time in microseconds
+     */
+    Histogram.Summary getBoardGeneration();
+}
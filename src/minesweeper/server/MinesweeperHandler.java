@@ -2,9 +2,9 @@ package minesweeper.server;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.List;
-
-import minesweeper.Board;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Handler to read and handle user input and produce corresponding output to the user.
@@ -12,29 +12,30 @@ import minesweeper.Board;
  * @author Chen Jia-Hui
  */
 public class MinesweeperHandler implements Runnable {
-    private static int currentPlayers = 0;
+    /** Size of the buffers for reading requests and writing responses. Larger responses bypass the buffer. */
+    private static final int BUFFER_SIZE = 512;
     private Socket clientSocket;
-    private Board board;
-    private boolean debug;
-    private String helpMessage = "\"look\": display the current board state." + "%n".formatted()
-                                + "\"dig x y\": dig block at yth row and xth column if the block haven't been dug or flagged. The game ends if the block contains a mine, else displays the current board state." + "%n".formatted()
-                                + "\"flag x y\": flag block at yth row and xth column if the block haven't been dug." + "%n".formatted()
-                                + "\"deflag x y\": unflag blcok at yth row and xth column if it's flagged." + "%n".formatted()
-                                + "\"help\": display user instructions." + "%n".formatted()
-                                + "\"bye\": quit game and termiante connection.";
+    private MinesweeperProtocol protocol;
+    private ConnectionLimits limits;
+    private Executor executor;
 
     /**
      * Construct a new MinesweeperHandler instance.
      * 
      * @param clientSocket the socket to communicate with the specific user.
-     * @param board the board class used the represent the actual game.
+     * @param rooms the rooms hosted by the server.
      * @param debug indicates if the server in the debug state. The game won't terminate if the debug flag is set to true.
+     * @param limits the limits which admitted the connection, released once it is closed. Its idle timeout must be
+     *               set on the socket already.
+     * @param executor the executor running the handler, which also runs the writer of the changes pushed to the
+     *                 player while the player watches the room. Must not queue tasks behind each other.
      */
-    public MinesweeperHandler(Socket clientSocket, Board board, boolean debug) {
+    public MinesweeperHandler(Socket clientSocket, RoomRegistry rooms, boolean debug, ConnectionLimits limits,
+            Executor executor) {
         this.clientSocket = clientSocket;
-        this.board = board;
-        this.debug = debug;
-        MinesweeperHandler.currentPlayers += 1;
+        this.protocol = new MinesweeperProtocol(rooms, debug);
+        this.limits = limits;
+        this.executor = executor;
     }
 
     /**
@@ -43,113 +44,184 @@ public class MinesweeperHandler implements Runnable {
     @Override
     public void run() {
         try {
-            handleConnection(this.clientSocket);
+            OutputStream output = this.clientSocket.getOutputStream();
+            if (this.limits.writeTimeout() > 0) {
+                output = new TimedOutputStream(this.clientSocket, output, this.limits.writeTimeout());
+            }
+            handleConnection(this.protocol, this.clientSocket.getInputStream(), output, this.executor);
+        } catch (SocketTimeoutException ste) {
+            // the client was idle or too slow to read, which is recorded
         } catch (IOException ioe) {
             ioe.printStackTrace(); // but don't terminate serve()
         } finally {
             try {
                 this.clientSocket.close();
-                MinesweeperHandler.currentPlayers -= 1;
             } catch (IOException e) {
                 e.printStackTrace();
+            } finally {
+                this.protocol.close();
+                this.limits.release();
             }
         }
     }
 
     /**
-     * Handle a single client connection. Returns when client disconnects.
+     * Handle a single client connection. Returns when client disconnects, or sends a request longer than
+     * LineDecoder.MAX_REQUEST. While the player watches the room, the
+     * pushed changes are written by a task of their own on executor, and whole messages are written under a lock so
+     * they never interleave with responses.
      * 
-     * @param socket socket where the client is connected
+     * @param protocol protocol of the client
+     * @param input stream of bytes from the client
+     * @param output stream of bytes to the client
+     * @param executor executor running the writer of the pushed changes, which must not queue it behind other tasks
+     * @throws SocketTimeoutException if the client was idle or too slow to read for longer than the timeouts of the
+     *                                socket and the output stream
      * @throws IOException if the connection encounters an error or terminates
      *                     unexpectedly
      */
-    private void handleConnection(Socket socket) throws IOException {
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+    static void handleConnection(MinesweeperProtocol protocol, InputStream input, OutputStream output,
+            Executor executor) throws IOException {
+        LineDecoder lines = new LineDecoder();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        OutputStream out = new BufferedOutputStream(output, BUFFER_SIZE);
+        ReentrantLock writing = new ReentrantLock();
+        Subscription pushing = null;
 
         try {
-            out.println(
-                    "Welcome to Minesweeper. Board: %d columns by %d rows. Players: %d including you. Type 'help' for help."
-                            .formatted(board.getWidth(), board.getHeight(), MinesweeperHandler.currentPlayers));
-            for (String line = in.readLine(); line != null; line = in.readLine()) {
-                String output = handleRequest(line);
-                if (output != "bye") {
-                    out.println(output);
-                } else {
-                    out.println(output);
-                    if (!debug) {
-                        break;
+            writeLine(out, protocol.welcomeMessage());
+            for (int count = read(protocol, input, buffer); count >= 0; count = read(protocol, input, buffer)) {
+                for (int i = 0; i < count; i++) {
+                    if (!lines.accept(buffer[i])) {
+                        continue;
+                    }
+                    if (lines.overlong()) {
+                        ServerMetrics.METRICS.requestTooLong();
+                        return;
+                    }
+                    writing.lock();
+                    try {
+                        if (!handleLine(protocol, lines, out)) {
+                            return;
+                        }
+                    } finally {
+                        writing.unlock();
                     }
+                    if (protocol.subscription() != null && protocol.subscription() != pushing) {
+                        pushing = protocol.subscription();
+                        startPusher(pushing, out, writing, executor);
+                    }
+                }
+            }
+            if (lines.hasPartialLine()) {
+                writing.lock();
+                try {
+                    handleLine(protocol, lines, out);
+                } finally {
+                    writing.unlock();
                 }
             }
         } finally {
-            out.close();
-            in.close();
+            writing.lock();
+            try {
+                out.close();
+            } finally {
+                writing.unlock();
+                input.close();
+            }
         }
     }
 
     /**
-     * Handler for client input, performing requested operations and returning an
-     * output message.
+     * Read bytes of requests from the client. A client which sent nothing for the idle timeout of its socket is
+     * disconnected, unless it watches the room, as a watching player may only read the pushed changes.
      * 
-     * @param input message from client
-     * @return message to client, or null if none
+     * @param protocol protocol of the client
+     * @param input stream of bytes from the client
+     * @param buffer buffer to read into
+     * @return number of bytes read, or -1 at the end of the stream
+     * @throws SocketTimeoutException if the client doesn't watch the room and was idle for too long
+     * @throws IOException if the connection encounters an error
      */
-    private String handleRequest(String input) {
-        String regex = "(look)|(help)|(bye)|"
-                + "(dig -?\\d+ -?\\d+)|(flag -?\\d+ -?\\d+)|(deflag -?\\d+ -?\\d+)";
-        if (!input.matches(regex)) {
-            return this.helpMessage;
-        }
-        String[] tokens = input.split(" ");
-        if (tokens[0].equals("look")) {
-            return handleBoardMessage();
-        } else if (tokens[0].equals("help")) {
-            return this.helpMessage;
-        } else if (tokens[0].equals("bye")) {
-            return "bye";
-        } else {
-            int x = Integer.parseInt(tokens[1]);
-            int y = Integer.parseInt(tokens[2]);
-            if (tokens[0].equals("dig")) {
-                synchronized (board) {
-                    boolean bomb = board.dig(y, x);
-                    if (bomb) {
-                        return board.boomMessage();
-                    } else {
-                        return handleBoardMessage();
-                    }
+    private static int read(MinesweeperProtocol protocol, InputStream input, byte[] buffer) throws IOException {
+        while (true) {
+            try {
+                return input.read(buffer);
+            } catch (SocketTimeoutException ste) {
+                if (protocol.subscription() == null) {
+                    ServerMetrics.METRICS.connectionTimedOut();
+                    throw ste;
                 }
+            }
+        }
+    }
 
-            } else if (tokens[0].equals("flag")) {
-                synchronized (board) {
-                    board.flag(y, x);
-                    return handleBoardMessage();
-                }
-            } else if (tokens[0].equals("deflag")) {
-                synchronized (board) {
-                    board.deflag(y, x);
-                    return handleBoardMessage();
+    /**
+     * Start the task writing the changes pushed to a watching player, until the subscription is closed or the
+     * connection breaks. It runs on the executor of the server like the handlers, so it is a virtual thread if they
+     * are.
+     * 
+     * @param subscription subscription of the player
+     * @param out output stream of the client
+     * @param writing lock held while writing a message to out
+     * @param executor executor running the task
+     */
+    private static void startPusher(Subscription subscription, OutputStream out, ReentrantLock writing,
+            Executor executor) {
+        executor.execute(() -> {
+            try {
+                for (byte[] message = subscription.take(); message != null; message = subscription.take()) {
+                    writing.lock();
+                    try {
+                        out.write(message);
+                        out.flush();
+                    } finally {
+                        writing.unlock();
+                    }
                 }
+            } catch (IOException | InterruptedException e) {
+                // the connection is closed; the protocol releases the subscription
+                subscription.close();
             }
-        }
-        throw new UnsupportedOperationException();
+        });
     }
 
     /**
-     * Process board message and make it ready to be sent to the socket.
+     * Handle a request line and write the response to the client. Switches lines to length-prefixed requests once
+     * the client switched to the binary protocol.
      * 
-     * @return processed board message.
+     * @param protocol protocol of the client
+     * @param lines decoder holding the request line from the client
+     * @param out output stream of the client
+     * @return false if the connection should be closed
+     * @throws IOException if the connection encounters an error
      */
-    private String handleBoardMessage() {
-        synchronized (board) {
-            List<String[]> output = this.board.boardMessage();
-            StringBuffer res = new StringBuffer();
-            for (int i = 0; i < output.size() - 1; i++) {
-                res.append(String.join(" ", output.get(i)) + "%n".formatted());
+    private static boolean handleLine(MinesweeperProtocol protocol, LineDecoder lines, OutputStream out)
+            throws IOException {
+        boolean framed = protocol.binary();
+        byte[] response = protocol.handleRequest(lines.takeLine());
+        if (framed) {
+            out.write(response);
+            out.flush();
+        } else {
+            writeLine(out, response);
+            if (protocol.binary()) {
+                lines.frame();
             }
-            res.append(String.join(" ", output.get(output.size() - 1)));
-            return res.toString();
         }
+        return !protocol.closesConnection(response);
+    }
+
+    /**
+     * Write a message followed by a line separator to the client and flush it.
+     * 
+     * @param out output stream of the client
+     * @param message message to client
+     * @throws IOException if the connection encounters an error
+     */
+    private static void writeLine(OutputStream out, byte[] message) throws IOException {
+        out.write(message);
+        out.write(MinesweeperProtocol.NEWLINE);
+        out.flush();
     }
-}
\ No newline at end of file
+}
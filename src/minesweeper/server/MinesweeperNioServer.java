@@ -0,0 +1,449 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import minesweeper.Minefield;
+
+/**
+ * Multiplayer Minesweeper server serving every client from a small pool of event loops instead of one thread per
+ * connection. Speaks the same protocol as MinesweeperServer, byte for byte.
+ */
+public class MinesweeperNioServer {
+    /** Size of the buffer each event loop reads into. */
+    private static final int READ_BUFFER_SIZE = 8192;
+    /** A connection stops reading requests while more than this many response bytes wait to be written. */
+    private static final int MAX_PENDING_WRITE = 1 << 20;
+    /** Pushed changes are queued to be written only while fewer than this many bytes wait to be written. */
+    private static final int MAX_PENDING_PUSH = 1 << 16;
+    /** Largest number of milliseconds between two checks of the connections for timeouts. */
+    private static final long MAX_SWEEP_INTERVAL = 1000;
+
+    /** Channel for receiving incoming connections. */
+    private final ServerSocketChannel serverChannel;
+    /** True if the server should *not* disconnect a client after a BOOM message. */
+    private final boolean debug;
+    /** Rooms hosted by the server, the default room playing on the board given at construction. */
+    private final RoomRegistry rooms;
+    private final EventLoop[] loops;
+    /** Limits on the clients served at once, and how long they may be idle or slow. */
+    private final ConnectionLimits limits;
+    /** Milliseconds between two checks of the connections for timeouts, or 0 if there are no timeouts. */
+    private final long sweepInterval;
+
+    /**
+     * Make a MinesweeperNioServer that listens for connections on port.
+     * 
+     * @param port port number, requires 0 <= port <= 65535
+     * @param board the board class used the represent the actual game
+     * @param debug debug mode flag
+     * @param threads number of event loop threads, requires threads > 0
+     * @throws IOException if an error occurs opening the server channel or the selectors
+     */
+    public MinesweeperNioServer(int port, Minefield board, boolean debug, int threads) throws IOException {
+        this(port, board, debug, threads, new ConnectionLimits());
+    }
+
+    /**
+     * Make a MinesweeperNioServer that listens for connections on port, within limits.
+     * 
+     * @param port port number, requires 0 <= port <= 65535
+     * @param board the board class used the represent the actual game
+     * @param debug debug mode flag
+     * @param threads number of event loop threads, requires threads > 0
+     * @param limits limits on the clients served at once, and how long they may be idle or slow
+     * @throws IOException if an error occurs opening the server channel or the selectors
+     */
+    public MinesweeperNioServer(int port, Minefield board, boolean debug, int threads, ConnectionLimits limits)
+            throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port), limits.backlog());
+        this.rooms = new RoomRegistry(board);
+        this.debug = debug;
+        this.limits = limits;
+        long timeout = Math.min(limits.idleTimeout() > 0 ? limits.idleTimeout() : Long.MAX_VALUE,
+                limits.writeTimeout() > 0 ? limits.writeTimeout() : Long.MAX_VALUE);
+        this.sweepInterval = timeout == Long.MAX_VALUE ? 0 : Math.max(1, Math.min(MAX_SWEEP_INTERVAL, timeout / 2));
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            this.loops[i] = new EventLoop();
+        }
+        ServerMetrics.METRICS.register();
+    }
+
+    /**
+     * Get the port the server listens on, which is chosen by the system if the server was made with port 0.
+     * 
+     * @return local port of the server channel
+     * @throws IOException if the server channel is closed
+     */
+    int port() throws IOException {
+        return ((InetSocketAddress) this.serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Run the server, accepting client connections and handing them to the event loops in turn. Clients connecting
+     * while the server serves as many connections as it may are told so and disconnected.
+     * Never returns unless an exception is thrown.
+     * 
+     * @throws IOException if the main server channel is broken
+     *                     (IOExceptions from individual clients do *not* terminate serve())
+     */
+    public void serve() throws IOException {
+        for (int i = 0; i < this.loops.length; i++) {
+            new Thread(this.loops[i], "minesweeper-loop-" + i).start();
+        }
+
+        for (int next = 0; ; next = (next + 1) % this.loops.length) {
+            // block until a client connects
+            SocketChannel channel = this.serverChannel.accept();
+            if (!this.limits.admit()) {
+                reject(channel);
+                continue;
+            }
+
+            // handle the client
+            this.loops[next].register(channel);
+        }
+    }
+
+    /**
+     * Tell a client the server is full and disconnect it. The line fits in the send buffer of the channel, which is
+     * still blocking, so this doesn't wait for the client.
+     * 
+     * @param channel connected channel of the client
+     */
+    private static void reject(SocketChannel channel) {
+        try (channel) {
+            channel.write(new ByteBuffer[] { ByteBuffer.wrap(ConnectionLimits.SERVER_FULL),
+                    ByteBuffer.wrap(MinesweeperProtocol.NEWLINE) });
+        } catch (IOException ioe) {
+            // the client is gone already
+        }
+    }
+
+    /**
+     * Selector thread serving the connections registered with it.
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        /** Connections of watching players which were pushed changes, to write them. */
+        private final Queue<Connection> pushed = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        /** System.nanoTime() of the next check of the connections for timeouts. */
+        private long nextSweep = System.nanoTime();
+
+        private EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Hand a newly accepted channel to this event loop. Safe to call from any thread.
+         * 
+         * @param channel connected channel of the client
+         */
+        private void register(SocketChannel channel) {
+            this.registrations.add(channel);
+            this.selector.wakeup();
+        }
+
+        /**
+         * Have the event loop write the changes pushed to a connection. Safe to call from any thread.
+         * 
+         * @param connection connection of this event loop
+         */
+        private void wake(Connection connection) {
+            this.pushed.add(connection);
+            this.selector.wakeup();
+        }
+
+        /**
+         * Driver code of the event loop thread. Required by Runnable interface.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    this.selector.select(sweepInterval);
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                    return;
+                }
+
+                for (SocketChannel channel = this.registrations.poll(); channel != null;
+                        channel = this.registrations.poll()) {
+                    accept(channel);
+                }
+                for (Connection connection = this.pushed.poll(); connection != null;
+                        connection = this.pushed.poll()) {
+                    try {
+                        connection.flush();
+                    } catch (IOException | RuntimeException e) {
+                        e.printStackTrace(); // but don't terminate the event loop
+                        connection.close();
+                    }
+                }
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read(this.readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        e.printStackTrace(); // but don't terminate the event loop
+                        connection.close();
+                    }
+                }
+                if (sweepInterval > 0 && System.nanoTime() - this.nextSweep >= 0) {
+                    sweep();
+                }
+            }
+        }
+
+        /**
+         * Close the connections of clients which were idle or left responses unread for longer than the timeouts.
+         */
+        private void sweep() {
+            long now = System.nanoTime();
+            this.nextSweep = now + sweepInterval * 1_000_000;
+            for (SelectionKey key : this.selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null && connection.timedOut(now)) {
+                    ServerMetrics.METRICS.connectionTimedOut();
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Start serving a newly accepted channel by sending the welcome message.
+         * 
+         * @param channel connected channel of the client
+         */
+        private void accept(SocketChannel channel) {
+            Connection connection = null;
+            try {
+                channel.configureBlocking(false);
+                // A response is written whole, so Nagle's algorithm would only hold back its last segment.
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connection = new Connection(this, channel, channel.register(this.selector, SelectionKey.OP_READ));
+                connection.key.attach(connection);
+                connection.send(connection.protocol.welcomeMessage());
+                connection.flush();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                if (connection != null) {
+                    connection.close();
+                } else {
+                    limits.release();
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * State of a single client connection: the partial request line read so far and the responses waiting to be
+     * written. Only used by the event loop thread the connection is registered with.
+     */
+    private class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final MinesweeperProtocol protocol;
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        private final LineDecoder lines = new LineDecoder();
+        private long pendingWrite = 0;
+        /** True once the connection should be closed as soon as the queued responses are written. */
+        private boolean closing = false;
+        /** Subscription whose pushed changes are written to the client, or null. */
+        private Subscription subscription;
+        /** System.nanoTime() when the client last sent bytes. */
+        private long lastRead = System.nanoTime();
+        /** System.nanoTime() when the client last read queued bytes, or 0 if no bytes are queued. */
+        private long lastWritten = 0;
+
+        private Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            this.protocol = new MinesweeperProtocol(rooms, debug);
+        }
+
+        /**
+         * Read available bytes from the client and handle every complete request line. A client sending a request
+         * longer than LineDecoder.MAX_REQUEST is disconnected.
+         * 
+         * @param buffer buffer of the event loop to read into
+         * @throws IOException if the connection encounters an error
+         */
+        private void read(ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            int count = this.channel.read(buffer);
+            this.lastRead = System.nanoTime();
+            if (count < 0) {
+                if (this.lines.hasPartialLine()) {
+                    handleLine();
+                }
+                this.closing = true;
+                flush();
+                return;
+            }
+
+            buffer.flip();
+            while (buffer.hasRemaining() && !this.closing) {
+                if (!this.lines.accept(buffer.get())) {
+                    continue;
+                }
+                if (this.lines.overlong()) {
+                    ServerMetrics.METRICS.requestTooLong();
+                    this.closing = true;
+                } else {
+                    handleLine();
+                }
+            }
+            flush();
+        }
+
+        /**
+         * Handle the request line read so far and queue the response, as a line or as the frames of the binary
+         * protocol.
+         */
+        private void handleLine() {
+            boolean framed = this.protocol.binary();
+            byte[] output = this.protocol.handleRequest(this.lines.takeLine());
+            if (framed) {
+                this.writeQueue.add(ByteBuffer.wrap(output));
+                this.pendingWrite += output.length;
+            } else {
+                send(output);
+                if (this.protocol.binary()) {
+                    this.lines.frame();
+                }
+            }
+            if (this.protocol.closesConnection(output)) {
+                this.closing = true;
+            }
+            Subscription subscription = this.protocol.subscription();
+            if (subscription != this.subscription) {
+                this.subscription = subscription;
+                if (subscription != null) {
+                    subscription.listen(() -> this.loop.wake(this));
+                }
+            }
+        }
+
+        /**
+         * Queue a message followed by a line separator to be written to the client.
+         * 
+         * @param message message to client, not modified
+         */
+        private void send(byte[] message) {
+            this.writeQueue.add(ByteBuffer.wrap(message));
+            this.writeQueue.add(ByteBuffer.wrap(MinesweeperProtocol.NEWLINE));
+            this.pendingWrite += message.length + MinesweeperProtocol.NEWLINE.length;
+        }
+
+        /**
+         * Write as much of the queued responses as the channel accepts, and wait for the channel to become writable
+         * again if some are left. Changes pushed to a watching player are queued only while few bytes are queued, so
+         * a player too slow to read them falls behind its subscription, which resynchronizes it. Stops reading
+         * requests while too many bytes are queued, and closes the connection once everything is written if it is
+         * closing.
+         * 
+         * @throws IOException if the connection encounters an error
+         */
+        private void flush() throws IOException {
+            if (!this.channel.isOpen()) {
+                return;
+            }
+            while (this.subscription != null && !this.closing && this.pendingWrite < MAX_PENDING_PUSH) {
+                byte[] message = this.subscription.poll();
+                if (message == null) {
+                    break;
+                }
+                this.writeQueue.add(ByteBuffer.wrap(message));
+                this.pendingWrite += message.length;
+            }
+            boolean written = false;
+            while (!this.writeQueue.isEmpty()) {
+                ByteBuffer buffer = this.writeQueue.peek();
+                int count = this.channel.write(buffer);
+                this.pendingWrite -= count;
+                written |= count > 0;
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                this.writeQueue.poll();
+            }
+            if (this.writeQueue.isEmpty()) {
+                this.lastWritten = 0;
+            } else if (written || this.lastWritten == 0) {
+                this.lastWritten = System.nanoTime();
+            }
+
+            if (this.writeQueue.isEmpty() && this.closing) {
+                close();
+                return;
+            }
+            int ops = this.closing || this.pendingWrite > MAX_PENDING_WRITE ? 0 : SelectionKey.OP_READ;
+            if (!this.writeQueue.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            this.key.interestOps(ops);
+        }
+
+        /**
+         * Check if the client sent no request for longer than the idle timeout while not watching the room, or read
+         * none of the queued responses for longer than the write timeout.
+         * 
+         * @param now System.nanoTime() of the check
+         * @return true if the connection should be closed
+         */
+        private boolean timedOut(long now) {
+            long idle = limits.idleTimeout() * 1_000_000L, write = limits.writeTimeout() * 1_000_000L;
+            return idle > 0 && this.subscription == null && now - this.lastRead > idle
+                    || write > 0 && this.lastWritten != 0 && now - this.lastWritten > write;
+        }
+
+        /**
+         * Close the connection and release the player.
+         */
+        private void close() {
+            if (!this.channel.isOpen()) {
+                return;
+            }
+            this.key.cancel();
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                this.protocol.close();
+                limits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package minesweeper.server;
+
+import java.nio.charset.StandardCharsets;
+
+import minesweeper.Board;
+import minesweeper.Minefield;
+import minesweeper.Solver;
+import minesweeper.server.RoomRegistry.Room;
+
+/**
+ * Text protocol spoken with a single client. Turns each line received from the client into the message sent back,
+ * independent of how the connection is served. After the "binary" request, the messages are instead the frames of
+ * BinaryProtocol. After the "watch" request, the changes of the board are also pushed to the player through the
+ * subscription(), between the responses.
+ */
+class MinesweeperProtocol {
+    static final byte[] NEWLINE = "%n".formatted().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BYE = "bye".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BYE_FRAME = BinaryProtocol.frame(BinaryProtocol.TEXT, BYE);
+    private static final byte[] BINARY = "Binary protocol.".getBytes(StandardCharsets.US_ASCII);
+    /** Message telling the player a move cleared the board, after which a new board is dealt. */
+    private static final byte[] CLEARED = "Board cleared! A new board is dealt.".getBytes(StandardCharsets.US_ASCII);
+    /** Width and height of the board of a room created without a size. */
+    private static final int DEFAULT_ROOM_SIZE = 10;
+    /** Separator of the requests of a batch sent on one line. */
+    private static final char BATCH_SEPARATOR = ';';
+    /** Largest number of requests of a batch, which holds the whole board while it is applied. */
+    static final int MAX_BATCH = 64;
+    /** Parser of the requests, reused for every line. */
+    private final RequestParser parser = new RequestParser();
+    /** Command of the line being answered, as recorded in ServerMetrics. */
+    private int command;
+    /** Number of requests answered, to time a sample of them. */
+    private int requests = 0;
+    /** Largest number of rows and columns of a viewport. */
+    static final int MAX_VIEW_SIZE = 1024;
+    private RoomRegistry rooms;
+    /** Room the player is in. */
+    private Room room;
+    private Minefield board;
+    /** True if the player looks at a viewport of the board rather than the whole board. */
+    private boolean viewing = false;
+    /** First row, first column, rows and columns of the viewport. */
+    private int viewX, viewY, viewRows, viewColumns;
+    /** Last message of the viewport and the version of the board it was rendered at, or null. */
+    private byte[] viewMessage;
+    private long viewVersion;
+    private boolean debug;
+    /** True once the player switched to the binary protocol. */
+    private boolean binary = false;
+    /** BOARD frame of the last message of the viewport. */
+    private final BinaryProtocol.FrameCache viewFrames = new BinaryProtocol.FrameCache();
+    /** Changes of the board pushed to the player watching the room, or null if the player isn't watching. */
+    private Subscription subscription;
+    private String helpMessage = "\"look\": display the current board state." + "%n".formatted()
+                                + "\"dig x y\": dig block at yth row and xth column if the block haven't been dug or flagged. The game ends if the block contains a mine, else displays the current board state." + "%n".formatted()
+                                + "\"flag x y\": flag block at yth row and xth column if the block haven't been dug." + "%n".formatted()
+                                + "\"deflag x y\": unflag blcok at yth row and xth column if it's flagged." + "%n".formatted()
+                                + "\"list\": display the rooms, their board sizes and players." + "%n".formatted()
+                                + "\"create name [x y]\": create room name with a random board of x columns by y rows (10 by 10 if omitted) and join it." + "%n".formatted()
+                                + "\"join name\": leave the current room and join room name." + "%n".formatted()
+                                + "\"leave\": leave the current room and join the main room." + "%n".formatted()
+                                + "\"r1;r2;...\": apply up to %d look, dig, flag and deflag requests in a row, with no other player's move between them, and display the board once after the last one.".formatted(MAX_BATCH) + "%n".formatted()
+                                + "\"view x y w h\": from now on display only the w columns by h rows starting at the xth column and yth row, wherever the board is displayed. \"view\" displays the whole board again." + "%n".formatted()
+                                + "\"stats\": display the metrics of the server, if it was started with --stats." + "%n".formatted()
+                                + "\"binary\": switch to the length-prefixed binary protocol, for programs rather than people." + "%n".formatted()
+                                + "\"watch\": from now on also receive the blocks changed by any player, as a line \"changed from to x,y,s ...\" at most every %d milliseconds, after a line \"board version\" and the board to start from.".formatted(RoomRegistry.TICK_MILLIS) + "%n".formatted()
+                                + "\"unwatch\": stop receiving the changed blocks." + "%n".formatted()
+                                + "\"hint\": suggest a move: a block known to be safe or a bomb from the blocks dug so far, else the block least likely to be a bomb." + "%n".formatted()
+                                + "\"help\": display user instructions." + "%n".formatted()
+                                + "\"bye\": quit game and termiante connection.";
+    private byte[] helpBytes = this.helpMessage.getBytes(StandardCharsets.US_ASCII);
+    /** Help message as a TEXT frame, or null until the player asks for help in the binary protocol. */
+    private byte[] helpFrame;
+
+    /**
+     * Construct the protocol for a newly connected player, who starts in the default room.
+     * 
+     * @param rooms the rooms hosted by the server.
+     * @param debug indicates if the server in the debug state. The game won't terminate if the debug flag is set to true.
+     */
+    MinesweeperProtocol(RoomRegistry rooms, boolean debug) {
+        this.rooms = rooms;
+        this.room = rooms.defaultRoom();
+        this.room.enter();
+        this.board = this.room.board();
+        this.debug = debug;
+        ServerMetrics.METRICS.connectionOpened();
+    }
+
+    /**
+     * Get the message greeting the player when the connection is established.
+     * 
+     * @return welcome message encoded in US-ASCII
+     */
+    byte[] welcomeMessage() {
+        return "Welcome to Minesweeper. Board: %d columns by %d rows. Players: %d including you. Type 'help' for help."
+                .formatted(board.getWidth(), board.getHeight(), this.room.players())
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Check if the connection should be closed after sending output to the client.
+     * 
+     * @param output message returned by handleRequest
+     * @return true if the client said bye and the server isn't in debug mode
+     */
+    boolean closesConnection(byte[] output) {
+        return (output == BYE || output == BYE_FRAME) && !this.debug;
+    }
+
+    /**
+     * Check if the player switched to the binary protocol. After the response to the "binary" request, requests are
+     * length-prefixed and responses are frames, sent as they are without a line separator.
+     * 
+     * @return true if the player speaks the binary protocol
+     */
+    boolean binary() {
+        return this.binary;
+    }
+
+    /**
+     * Get the changes of the board pushed to the player, which the transport writes to the client whenever it isn't
+     * writing a response. Changes after requests which start or stop watching.
+     * 
+     * @return subscription of the player, or null if the player isn't watching the room
+     */
+    Subscription subscription() {
+        return this.subscription;
+    }
+
+    /**
+     * Release the player from its room when the connection is closed.
+     */
+    void close() {
+        stopWatching();
+        this.room.leave();
+        ServerMetrics.METRICS.connectionClosed();
+    }
+
+    /**
+     * Handler for client input, performing requested operations and returning an
+     * output message. The request is counted in ServerMetrics, which also records the time taken and the size of
+     * the message of a sample of the requests.
+     * 
+     * @param input message from client
+     * @return message to client encoded in US-ASCII, or frames of the binary protocol if binary() was true
+     */
+    byte[] handleRequest(String input) {
+        if (!ServerMetrics.sampled(this.requests++)) {
+            byte[] response = respond(input);
+            ServerMetrics.METRICS.request(this.command);
+            return response;
+        }
+        long start = System.nanoTime();
+        boolean framed = this.binary;
+        byte[] response = respond(input);
+        ServerMetrics.METRICS.request(this.command, System.nanoTime() - start,
+                response.length + (framed ? 0 : NEWLINE.length));
+        return response;
+    }
+
+    /**
+     * Perform the requests of a line from the client, and set command to the command of the line.
+     * 
+     * @param input message from client
+     * @return message to client encoded in US-ASCII, or frames of the binary protocol
+     */
+    private byte[] respond(String input) {
+        if (input.indexOf(BATCH_SEPARATOR) >= 0) {
+            this.command = ServerMetrics.BATCH;
+            return handleBatch(input);
+        }
+        RequestParser request = this.parser;
+        if (!request.parse(input, 0, input.length())) {
+            this.command = ServerMetrics.INVALID;
+            return help();
+        }
+        this.command = request.command;
+        switch (request.command) {
+        case RequestParser.LOOK:
+            return handleBoardMessage();
+        case RequestParser.HELP:
+            return help();
+        case RequestParser.BYE:
+            return this.binary ? BYE_FRAME : BYE;
+        case RequestParser.LIST:
+            return handleList();
+        case RequestParser.LEAVE:
+            return handleJoin(this.rooms.defaultRoom().name());
+        case RequestParser.JOIN:
+            return handleJoin(request.name());
+        case RequestParser.VIEW:
+            return handleView(request);
+        case RequestParser.STATS:
+            if (!ServerMetrics.METRICS.statsCommandEnabled()) {
+                return help();
+            }
+            return text(ServerMetrics.METRICS.statsMessage());
+        case RequestParser.BINARY:
+            if (this.binary) {
+                return text(BINARY);
+            }
+            // The response is the last text line, and the transport switches to frames after it.
+            stopWatching();
+            this.binary = true;
+            return BINARY;
+        case RequestParser.WATCH:
+            return handleWatch();
+        case RequestParser.UNWATCH:
+            stopWatching();
+            return text("Stopped watching.");
+        case RequestParser.HINT:
+            return handleHint();
+        case RequestParser.CREATE:
+            int width = request.numberCount > 0 ? request.numbers[0] : DEFAULT_ROOM_SIZE;
+            int height = request.numberCount > 0 ? request.numbers[1] : DEFAULT_ROOM_SIZE;
+            return handleCreate(request.name(), width, height);
+        case RequestParser.DIG:
+        case RequestParser.FLAG:
+        case RequestParser.DEFLAG:
+            // A board cleared by a dig which hit a bomb is dealt by the next move, aimed at the old board and dropped.
+            if (dealIfCleared()) {
+                return messagesThenBoard(0, text(CLEARED));
+            }
+            // The board message is rendered after the board lock is released, and always includes the change.
+            if (apply(request)) {
+                return boom();
+            }
+            if (request.command == RequestParser.DIG && dealIfCleared()) {
+                return messagesThenBoard(0, text(CLEARED));
+            }
+            return handleBoardMessage();
+        default:
+            // A command the parser knows but the protocol doesn't answer is reported like an invalid request.
+            this.command = ServerMetrics.INVALID;
+            return help();
+        }
+    }
+
+    /**
+     * Handle a line of look, dig, flag and deflag requests separated by semicolons. The requests are applied in
+     * order while holding the whole board, so no other player's move comes between them, and answered once. A batch
+     * holds the board for every other player, so it may have at most MAX_BATCH requests.
+     * 
+     * @param input message from client
+     * @return a boom message line for every dig which hit a mine, followed by the board state after the last
+     *         request; the cleared message and the new board, with no request applied, if a move finds the board
+     *         cleared by a dig which hit a mine; or the help message if any request is invalid or not about the board,
+     *         or there are more than MAX_BATCH requests
+     */
+    private byte[] handleBatch(String input) {
+        RequestParser request = this.parser;
+        boolean moves = false;
+        for (int start = 0, end, count = 1; start <= input.length(); start = end + 1, count++) {
+            end = batchEnd(input, start);
+            if (count > MAX_BATCH || !request.parse(input, start, end) || request.command != RequestParser.LOOK
+                    && (request.command < RequestParser.DIG || request.command > RequestParser.DEFLAG)) {
+                return help();
+            }
+            moves |= request.command != RequestParser.LOOK;
+        }
+
+        if (moves && dealIfCleared()) {
+            return messagesThenBoard(0, text(CLEARED));
+        }
+        int[] booms = new int[1];
+        this.board.atomically(() -> {
+            for (int start = 0, end; start <= input.length(); start = end + 1) {
+                end = batchEnd(input, start);
+                request.parse(input, start, end);
+                if (apply(request)) {
+                    booms[0]++;
+                }
+            }
+        });
+        // As after a single dig, a board cleared by a bomb is dealt by the next move rather than with the boom.
+        boolean dealt = moves && booms[0] == 0 && dealIfCleared();
+        if (booms[0] == 0 && !dealt) {
+            return handleBoardMessage();
+        }
+        return messagesThenBoard(booms[0], dealt ? text(CLEARED) : null);
+    }
+
+    /**
+     * Put together boom messages, another message and the board state, as the response to a batch or a dig.
+     * 
+     * @param booms number of boom messages to send first
+     * @param message message to send after the boom messages, or null
+     * @return the messages, each followed by a line separator in the text protocol, then the board state
+     */
+    private byte[] messagesThenBoard(int booms, byte[] message) {
+        byte[] boardMessage = handleBoardMessage();
+        // Frames follow each other, while lines are separated.
+        byte[] boom = boom();
+        byte[] separator = this.binary ? new byte[0] : NEWLINE;
+        int messageLength = message == null ? 0 : message.length + separator.length;
+        byte[] res = new byte[booms * (boom.length + separator.length) + messageLength + boardMessage.length];
+        int length = 0;
+        for (int i = 0; i < booms; i++) {
+            System.arraycopy(boom, 0, res, length, boom.length);
+            System.arraycopy(separator, 0, res, length + boom.length, separator.length);
+            length += boom.length + separator.length;
+        }
+        if (message != null) {
+            System.arraycopy(message, 0, res, length, message.length);
+            System.arraycopy(separator, 0, res, length + message.length, separator.length);
+            length += messageLength;
+        }
+        System.arraycopy(boardMessage, 0, res, length, boardMessage.length);
+        return res;
+    }
+
+    /**
+     * Deal a new board in the room if the board is cleared, so the game starts again. Costs no scan of the board:
+     * the board counts its covered blocks as they are dug, and the new board is taken from the pool of the rooms.
+     * A board made without mines has no game to win and is kept. Called after every dig which hit no bomb, and
+     * before every move, which deals the boards cleared by a dig which hit one: the response to that dig is the
+     * boom, and the players may look at the board the bomb cleared until the next move.
+     * 
+     * @return true if this player's move found the board cleared and dealt the new board, else false
+     */
+    private boolean dealIfCleared() {
+        if (!(this.board instanceof Board)) {
+            return false;
+        }
+        Board board = (Board) this.board;
+        if (!board.cleared() || board.mines() == 0 && board.booms() == 0) {
+            return false;
+        }
+        return board.resetIfCleared(this.rooms.pool());
+    }
+
+    /**
+     * Find the end of the request of a batch starting at start.
+     * 
+     * @param input line of requests
+     * @param start index of the first character of the request
+     * @return index of the separator after the request, or the length of input for the last request
+     */
+    private static int batchEnd(String input, int start) {
+        int end = input.indexOf(BATCH_SEPARATOR, start);
+        return end < 0 ? input.length() : end;
+    }
+
+    /**
+     * Apply a parsed look, dig, flag or deflag request to the board.
+     * 
+     * @param request parsed request
+     * @return true if the request dug a mine, else false
+     */
+    private boolean apply(RequestParser request) {
+        int x = request.numbers[0];
+        int y = request.numbers[1];
+        switch (request.command) {
+        case RequestParser.DIG:
+            return board.dig(y, x);
+        case RequestParser.FLAG:
+            board.flag(y, x);
+            return false;
+        case RequestParser.DEFLAG:
+            board.deflag(y, x);
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Create a room and move the player into it.
+     * 
+     * @param name name of the room
+     * @param width width of the board of the room
+     * @param height height of the board of the room
+     * @return message describing the joined room, or why it couldn't be created
+     */
+    private byte[] handleCreate(String name, int width, int height) {
+        if (width < 1 || height < 1 || width > RoomRegistry.MAX_ROOM_SIZE || height > RoomRegistry.MAX_ROOM_SIZE) {
+            return text("Room size must be between 1 and %d.".formatted(RoomRegistry.MAX_ROOM_SIZE));
+        }
+        Room created = this.rooms.create(name, width, height);
+        if (created == null) {
+            return text("Room %s already exists or there are too many rooms.".formatted(name));
+        }
+        return moveTo(created);
+    }
+
+    /**
+     * Move the player into an existing room.
+     * 
+     * @param name name of the room
+     * @return message describing the joined room, or that it doesn't exist
+     */
+    private byte[] handleJoin(String name) {
+        if (name.equals(this.room.name())) {
+            return moveTo(this.room);
+        }
+        Room joined = this.rooms.join(name);
+        if (joined == null) {
+            return text("No room named %s.".formatted(name));
+        }
+        return moveTo(joined);
+    }
+
+    /**
+     * Make the player play in a room it has entered, leaving the room it was in.
+     * 
+     * @param joined room the player entered
+     * @return message describing the room
+     */
+    private byte[] moveTo(Room joined) {
+        if (joined != this.room) {
+            stopWatching();
+            this.room.leave();
+        }
+        this.room = joined;
+        this.board = joined.board();
+        this.viewing = false;
+        this.viewMessage = null;
+        return text("Room %s. Board: %d columns by %d rows. Players: %d including you."
+                .formatted(joined.name(), board.getWidth(), board.getHeight(), joined.players()));
+    }
+
+    /**
+     * Start pushing the changes of the board of the room to the player.
+     * 
+     * @return message confirming the player watches the room, or why it can't
+     */
+    private byte[] handleWatch() {
+        if (this.subscription == null) {
+            Subscription subscription = new Subscription(this.binary);
+            if (!this.rooms.watch(this.room, subscription)) {
+                return text("Room %s can't be watched.".formatted(this.room.name()));
+            }
+            this.subscription = subscription;
+        }
+        return text("Watching room %s.".formatted(this.room.name()));
+    }
+
+    /**
+     * Suggest a move on the board of the room, x being the column and y the row as in the requests.
+     * 
+     * @return message suggesting the move, or why there is none
+     */
+    private byte[] handleHint() {
+        Solver solver = this.room.solver();
+        if (solver == null) {
+            return text("Hints are only available for boards held in memory.");
+        }
+        Solver.Hint hint = solver.hint();
+        if (hint == null) {
+            return text("No hint: every block is dug or known.");
+        }
+        int x = hint.column(), y = hint.row();
+        switch (hint.action()) {
+        case Solver.Hint.FLAG:
+            return text("flag %d %d: a bomb.".formatted(x, y));
+        case Solver.Hint.DEFLAG:
+            return text("deflag %d %d: safe.".formatted(x, y));
+        default:
+            if (hint.risk() == 0) {
+                return text("dig %d %d: safe.".formatted(x, y));
+            }
+            return text("dig %d %d: a guess, %d%% chance of a bomb.".formatted(x, y, Math.round(100 * hint.risk())));
+        }
+    }
+
+    /**
+     * Stop pushing the changes of the board to the player, if they are.
+     */
+    private void stopWatching() {
+        if (this.subscription != null) {
+            this.room.unwatch(this.subscription);
+            this.subscription = null;
+        }
+    }
+
+    /**
+     * Set or clear the viewport of the player.
+     * 
+     * @param request parsed view request, with no numbers to clear the viewport or x y w h to set it
+     * @return the board message through the new viewport, or why the viewport is invalid
+     */
+    private byte[] handleView(RequestParser request) {
+        if (request.numberCount == 0) {
+            this.viewing = false;
+            return handleBoardMessage();
+        }
+        int x = request.numbers[0], y = request.numbers[1], width = request.numbers[2], height = request.numbers[3];
+        if (x < 0 || y < 0 || x >= board.getWidth() || y >= board.getHeight() || width < 1 || height < 1
+                || width > MAX_VIEW_SIZE || height > MAX_VIEW_SIZE) {
+            return text("View must start on the board and be from 1 by 1 to %d by %d blocks."
+                    .formatted(MAX_VIEW_SIZE, MAX_VIEW_SIZE));
+        }
+        this.viewing = true;
+        this.viewX = y;
+        this.viewY = x;
+        this.viewRows = height;
+        this.viewColumns = width;
+        this.viewMessage = null;
+        return handleBoardMessage();
+    }
+
+    /**
+     * List the rooms hosted by the server.
+     * 
+     * @return one line per room with its board size and number of players
+     */
+    private byte[] handleList() {
+        StringBuilder res = new StringBuilder();
+        for (Room listed : this.rooms.rooms()) {
+            if (res.length() > 0) {
+                res.append("%n".formatted());
+            }
+            res.append("%s: %d columns by %d rows, %d players".formatted(listed.name(), listed.board().getWidth(),
+                    listed.board().getHeight(), listed.players()));
+        }
+        return text(res.toString());
+    }
+
+    /**
+     * Process board message and make it ready to be sent to the socket. With a viewport, only the viewport is
+     * rendered, and again only once the board has changed. In the binary protocol, the message is encoded as a BOARD
+     * frame once per rendering, and the frame of the whole board is shared by the players of the room.
+     * 
+     * @return processed board message, shared with other handlers and must not be modified.
+     */
+    private byte[] handleBoardMessage() {
+        if (!this.viewing) {
+            byte[] message = this.board.boardMessage();
+            return this.binary ? this.room.boardFrame(message) : message;
+        }
+        long version = this.board.version();
+        if (this.viewMessage == null || this.viewVersion != version) {
+            this.viewMessage = this.board.viewMessage(this.viewX, this.viewY, this.viewRows, this.viewColumns);
+            this.viewVersion = version;
+        }
+        return this.binary ? this.viewFrames.boardFrame(this.viewMessage) : this.viewMessage;
+    }
+
+    /**
+     * Make a message other than the board ready to be sent to the socket.
+     * 
+     * @param message message of printable ASCII characters and line separators
+     * @return message encoded in US-ASCII, or as a TEXT frame in the binary protocol
+     */
+    private byte[] text(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.US_ASCII);
+        return this.binary ? BinaryProtocol.frame(BinaryProtocol.TEXT, bytes) : bytes;
+    }
+
+    private byte[] text(byte[] message) {
+        return this.binary ? BinaryProtocol.frame(BinaryProtocol.TEXT, message) : message;
+    }
+
+    private byte[] help() {
+        if (!this.binary) {
+            return this.helpBytes;
+        }
+        if (this.helpFrame == null) {
+            this.helpFrame = BinaryProtocol.frame(BinaryProtocol.TEXT, this.helpBytes);
+        }
+        return this.helpFrame;
+    }
+
+    /**
+     * Get the message telling the player a dig hit a mine.
+     * 
+     * @return boom message encoded in US-ASCII, or as a BOOM frame in the binary protocol
+     */
+    private byte[] boom() {
+        byte[] message = this.board.boomMessage().getBytes(StandardCharsets.US_ASCII);
+        return this.binary ? BinaryProtocol.frame(BinaryProtocol.BOOM, message) : message;
+    }
+}
@@ -3,11 +3,23 @@ package minesweeper.server;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import minesweeper.Board;
+import minesweeper.BoardGenerator;
+import minesweeper.BoardJournal;
+import minesweeper.Minefield;
+import minesweeper.TiledBoard;
 
 /**
  * Multiplayer Minesweeper server.
+ * 
+ * <br> The clients may run on virtual threads (Mode.VIRTUAL_THREADS). So that a client waiting for another never
+ * pins the carrier thread of its virtual thread, whatever a client's thread may wait for is guarded by a
+ * ReentrantLock rather than a monitor: the tiles of a Board, the solver and the watchers of a room, and the writing
+ * of a connection's messages. Code run by client threads uses no synchronized blocks.
  */
 public class MinesweeperServer {
     /** Default server port. */
@@ -16,28 +28,118 @@ public class MinesweeperServer {
     private static final int MAXIMUM_PORT = 65535;
     /** Default square board size. */
     private static final int DEFAULT_SIZE = 10;
+    /** Largest number of blocks of a random board held in memory; larger boards are built tile by tile. */
+    static final long MAX_IN_MEMORY_BLOCKS = 1L << 28;
+    /** Executor starting a new platform thread for every client. */
+    private static final Executor THREAD_PER_CONNECTION = handler -> new Thread(handler).start();
+
+    /**
+     * How the server runs the clients.
+     */
+    public enum Mode {
+        /** A new platform thread for every client. */
+        THREADS,
+        /** A new virtual thread for every client, requires Java 21 or later. */
+        VIRTUAL_THREADS,
+        /** A pool of non-blocking event loops, see MinesweeperNioServer. */
+        NIO
+    }
 
     /** Socket for receiving incoming connections. */
     private final ServerSocket serverSocket;
     /** True if the server should *not* disconnect a client after a BOOM message. */
     private final boolean debug;
-    private final Board board;
+    /** Rooms hosted by the server, the default room playing on the board given at construction. */
+    private final RoomRegistry rooms;
+    /** Executor running a MinesweeperHandler for every client, and the writer of the changes pushed to it. */
+    private final Executor executor;
+    /** Limits on the clients served at once, and how long they may be idle or slow. */
+    private final ConnectionLimits limits;
+
+    /**
+     * Make a MinesweeperServer that listens for connections on port and starts a new thread for every client.
+     * 
+     * @param port port number, requires 0 <= port <= 65535
+     * @param debug debug mode flag
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public MinesweeperServer(int port, Minefield board, boolean debug) throws IOException {
+        this(port, board, debug, THREAD_PER_CONNECTION, new ConnectionLimits());
+    }
 
     /**
-     * Make a MinesweeperServer that listens for connections on port.
+     * Make a MinesweeperServer that listens for connections on port and runs the clients on executor.
      * 
      * @param port port number, requires 0 <= port <= 65535
      * @param debug debug mode flag
+     * @param executor executor running the handler of every client, and the writer of the changes pushed to every
+     *                 watching client, must not queue them behind each other
      * @throws IOException if an error occurs opening the server socket
      */
-    public MinesweeperServer(int port, Board board, boolean debug) throws IOException {
-        serverSocket = new ServerSocket(port);
-        this.board = board;
+    public MinesweeperServer(int port, Minefield board, boolean debug, Executor executor) throws IOException {
+        this(port, board, debug, executor, new ConnectionLimits());
+    }
+
+    /**
+     * Make a MinesweeperServer that listens for connections on port and runs the clients on executor, within limits.
+     * 
+     * @param port port number, requires 0 <= port <= 65535
+     * @param debug debug mode flag
+     * @param executor executor running the handler of every client, and the writer of the changes pushed to every
+     *                 watching client, must not queue them behind each other
+     * @param limits limits on the clients served at once, and how long they may be idle or slow
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public MinesweeperServer(int port, Minefield board, boolean debug, Executor executor, ConnectionLimits limits)
+            throws IOException {
+        serverSocket = new ServerSocket(port, limits.backlog());
+        this.rooms = new RoomRegistry(board);
         this.debug = debug;
+        this.executor = executor;
+        this.limits = limits;
+        ServerMetrics.METRICS.register();
+    }
+
+    /**
+     * Get the port the server listens on, which is chosen by the system if the server was made with port 0.
+     * 
+     * @return local port of the server socket
+     */
+    int port() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * Check if the running Java version supports virtual threads, without creating any.
+     * 
+     * @return true if virtualThreadExecutor() makes an executor
+     */
+    static boolean virtualThreadsSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException nsme) {
+            return false;
+        }
+    }
+
+    /**
+     * Create an executor running every task on a new virtual thread. Looked up reflectively so the server still
+     * builds and runs on Java versions without virtual threads.
+     * 
+     * @return the executor, or null if the running Java version doesn't support virtual threads
+     */
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException roe) {
+            return null;
+        }
     }
 
     /**
-     * Run the server, listening for client connections and handling them.
+     * Run the server, listening for client connections and handling them. Clients connecting while the server
+     * serves as many connections as it may are told so and disconnected.
      * Never returns unless an exception is thrown.
      * 
      * @throws IOException if the main server socket is broken
@@ -47,9 +149,39 @@ public class MinesweeperServer {
         while (true) {
             // block until a client connects
             Socket socket = serverSocket.accept();
+            if (!this.limits.admit()) {
+                reject(socket);
+                continue;
+            }
+            try {
+                // A response is written whole, so Nagle's algorithm would only hold back its last segment.
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(this.limits.idleTimeout());
+            } catch (IOException ioe) {
+                this.limits.release();
+                socket.close();
+                continue;
+            }
 
             // handle the client
-            new Thread(new MinesweeperHandler(socket, this.board, this.debug)).start();
+            this.executor.execute(new MinesweeperHandler(socket, this.rooms, this.debug, this.limits,
+                    this.executor));
+        }
+    }
+
+    /**
+     * Tell a client the server is full and disconnect it. The line fits in the send buffer of the socket, so this
+     * doesn't wait for the client.
+     * 
+     * @param socket socket of the client
+     */
+    private static void reject(Socket socket) {
+        try (socket) {
+            OutputStream out = socket.getOutputStream();
+            out.write(ConnectionLimits.SERVER_FULL);
+            out.write(MinesweeperProtocol.NEWLINE);
+        } catch (IOException ioe) {
+            // the client is gone already
         }
     }
 
@@ -57,13 +189,40 @@ public class MinesweeperServer {
      * Start a MinesweeperServer using the given arguments.
      * 
      * <br> Usage:
-     *      MinesweeperServer [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]
+     *      MinesweeperServer [--debug | --no-debug] [--nio | --virtual] [--stats] [--journal DIR] [--max-connections N] [--idle-timeout SECONDS] [--write-timeout SECONDS] [--port PORT] [--size SIZE_X,SIZE_Y [--seed SEED] [--mines MINES] | --file FILE]
      * 
      * <br> The --debug argument means the server should run in debug mode. The server should disconnect a
      *      client after a BOOM message if and only if the --debug flag was NOT given.
      *      Using --no-debug is the same as using no flag at all.
      * <br> E.g. "MinesweeperServer --debug" starts the server in debug mode.
      * 
+     * <br> The --nio argument means the server should serve all clients from a pool of non-blocking event loop
+     *      threads, one per available processor, instead of starting a thread for every client.
+     * <br> E.g. "MinesweeperServer --nio" starts the server with non-blocking event loops.
+     * 
+     * <br> The --virtual argument means the server should start a virtual thread instead of a platform thread for
+     *      every client. Requires Java 21 or later.
+     * <br> E.g. "MinesweeperServer --virtual" starts the server running clients on virtual threads.
+     * 
+     * <br> The --stats argument means clients may read the metrics of the server with the "stats" request. The
+     *      metrics can always be read through JMX as the MBean "minesweeper:type=Metrics".
+     * <br> E.g. "MinesweeperServer --stats" starts the server answering stats requests.
+     * 
+     * <br> DIR is an optional directory where every move changing the board is journaled, so the board survives
+     *      a restart of the server. If DIR holds the journal of an earlier run, its board is recovered instead of
+     *      loading or generating one. Not supported for boards built tile by tile.
+     * <br> E.g. "MinesweeperServer --journal game" starts the server with the board journaled in directory game,
+     *      or recovered from it.
+     * 
+     * <br> N is an optional positive integer, the largest number of clients served at once, 10000 by default.
+     *      Clients connecting while N clients are served are sent "Server full. Try again later." and
+     *      disconnected.
+     * <br> The --idle-timeout argument disconnects a client which sends no request for SECONDS seconds, 600 by
+     *      default, unless it watches the room. The --write-timeout argument disconnects a client which leaves a
+     *      response unread for SECONDS seconds, 30 by default. A timeout of 0 waits forever.
+     * <br> E.g. "MinesweeperServer --max-connections 100 --idle-timeout 60" starts the server serving at most 100
+     *      clients, each disconnected after a minute without a request.
+     * 
      * <br> PORT is an optional integer in the range 0 to 65535 inclusive, specifying the port the server
      *      should be listening on for incoming connections.
      * <br> E.g. "MinesweeperServer --port 1234" starts the server listening on port 1234.
@@ -72,6 +231,15 @@ public class MinesweeperServer {
      *      SIZE_X*SIZE_Y should be generated.
      * <br> E.g. "MinesweeperServer --size 42,58" starts the server initialized with a random board of size
      *      42*58.
+     * <br> Boards of more than MAX_IN_MEMORY_BLOCKS blocks are built tile by tile as they are played, and look
+     *      shows only their top left corner.
+     * 
+     * <br> SEED is an optional integer argument seeding the random board, so the same board can be generated
+     *      again. The seed of a board generated without one is printed when the server starts.
+     * <br> MINES is an optional nonnegative integer argument, the exact number of mines on the random board.
+     *      Without it, every block contains a mine with probability 0.25.
+     * <br> E.g. "MinesweeperServer --size 100,100 --seed 7 --mines 1500" starts the server initialized with the
+     *      100*100 board with exactly 1500 mines generated from seed 7.
      * 
      * <br> FILE is an optional argument specifying a file pathname where a board has been stored. If this
      *      argument is given, the stored board should be loaded as the starting board.
@@ -90,6 +258,8 @@ public class MinesweeperServer {
      *   NEWLINE ::= "\n" | "\r" "\n"?
      *   INT ::= [0-9]+
      * </pre>
+     * Boards may also be stored in the compact binary format of minesweeper.BoardFiles, which converts text files
+     * into it. The format of FILE is detected automatically.
      * 
      * <br> If neither --file nor --size is given, generate a random board of size 10x10.
      * 
@@ -100,10 +270,17 @@ public class MinesweeperServer {
     public static void main(String[] args) {
         // Command-line argument parsing is provided. Do not change this method.
         boolean debug = false;
+        Mode mode = Mode.THREADS;
         int port = DEFAULT_PORT;
         int sizeX = DEFAULT_SIZE;
         int sizeY = DEFAULT_SIZE;
         Optional<File> file  =  Optional.empty();
+        Optional<File> journal = Optional.empty();
+        OptionalLong seed = OptionalLong.empty();
+        long mines = -1;
+        int maxConnections = ConnectionLimits.DEFAULT_MAX_CONNECTIONS;
+        int idleTimeout = ConnectionLimits.DEFAULT_IDLE_TIMEOUT;
+        int writeTimeout = ConnectionLimits.DEFAULT_WRITE_TIMEOUT;
 
         Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
         try {
@@ -114,6 +291,26 @@ public class MinesweeperServer {
                         debug = true;
                     } else if (flag.equals("--no-debug")) {
                         debug = false;
+                    } else if (flag.equals("--nio")) {
+                        mode = Mode.NIO;
+                    } else if (flag.equals("--virtual")) {
+                        mode = Mode.VIRTUAL_THREADS;
+                        if (!virtualThreadsSupported()) {
+                            throw new IllegalArgumentException("virtual threads require Java 21 or later");
+                        }
+                    } else if (flag.equals("--stats")) {
+                        ServerMetrics.METRICS.enableStatsCommand();
+                    } else if (flag.equals("--journal")) {
+                        journal = Optional.of(new File(arguments.remove()));
+                    } else if (flag.equals("--max-connections")) {
+                        maxConnections = Integer.parseInt(arguments.remove());
+                        if (maxConnections <= 0) {
+                            throw new IllegalArgumentException("max connections " + maxConnections + " out of range");
+                        }
+                    } else if (flag.equals("--idle-timeout")) {
+                        idleTimeout = timeoutMillis(flag, arguments.remove());
+                    } else if (flag.equals("--write-timeout")) {
+                        writeTimeout = timeoutMillis(flag, arguments.remove());
                     } else if (flag.equals("--port")) {
                         port = Integer.parseInt(arguments.remove());
                         if (port < 0 || port > MAXIMUM_PORT) {
@@ -124,6 +321,13 @@ public class MinesweeperServer {
                         sizeX = Integer.parseInt(sizes[0]);
                         sizeY = Integer.parseInt(sizes[1]);
                         file = Optional.empty();
+                    } else if (flag.equals("--seed")) {
+                        seed = OptionalLong.of(Long.parseLong(arguments.remove()));
+                    } else if (flag.equals("--mines")) {
+                        mines = Long.parseLong(arguments.remove());
+                        if (mines < 0) {
+                            throw new IllegalArgumentException("mines " + mines + " out of range");
+                        }
                     } else if (flag.equals("--file")) {
                         sizeX = -1;
                         sizeY = -1;
@@ -140,22 +344,74 @@ public class MinesweeperServer {
                     throw new IllegalArgumentException("unable to parse number for " + flag);
                 }
             }
+            if (file.isEmpty() && mines > (long) sizeX * sizeY) {
+                throw new IllegalArgumentException("mines " + mines + " out of range");
+            }
+            if (file.isEmpty() && mines >= 0 && (long) sizeX * sizeY > MAX_IN_MEMORY_BLOCKS) {
+                throw new IllegalArgumentException("--mines is not supported for boards of more than "
+                        + MAX_IN_MEMORY_BLOCKS + " blocks");
+            }
+            if (file.isEmpty() && journal.isPresent() && (long) sizeX * sizeY > MAX_IN_MEMORY_BLOCKS) {
+                throw new IllegalArgumentException("--journal is not supported for boards of more than "
+                        + MAX_IN_MEMORY_BLOCKS + " blocks");
+            }
         } catch (IllegalArgumentException iae) {
             System.err.println(iae.getMessage());
-            System.err.println("usage: MinesweeperServer [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]");
+            System.err.println("usage: MinesweeperServer [--debug | --no-debug] [--nio | --virtual] [--stats] [--journal DIR] [--max-connections N] [--idle-timeout SECONDS] [--write-timeout SECONDS] [--port PORT] [--size SIZE_X,SIZE_Y [--seed SEED] [--mines MINES] | --file FILE]");
             return;
         }
 
         try {
-            runMinesweeperServer(debug, file, sizeX, sizeY, port);
+            ConnectionLimits limits = new ConnectionLimits(maxConnections, ConnectionLimits.DEFAULT_BACKLOG,
+                    idleTimeout, writeTimeout);
+            runMinesweeperServer(debug, mode, file, sizeX, sizeY, seed, mines, journal, limits, port);
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
         }
     }
 
+    /**
+     * Parse a timeout argument given in seconds.
+     * 
+     * @param flag option of the argument
+     * @param seconds the argument, a nonnegative integer number of seconds
+     * @return the timeout in milliseconds
+     * @throws NumberFormatException if seconds is not an integer
+     * @throws IllegalArgumentException if seconds is negative or too large
+     */
+    private static int timeoutMillis(String flag, String seconds) {
+        int res = Integer.parseInt(seconds);
+        if (res < 0 || res > Integer.MAX_VALUE / 1000) {
+            throw new IllegalArgumentException("timeout " + res + " out of range for " + flag);
+        }
+        return res * 1000;
+    }
+
+    /**
+     * Generate a random board the way the server does: boards of more than MAX_IN_MEMORY_BLOCKS blocks are built
+     * tile by tile as they are played.
+     * 
+     * @param sizeX width of the board, requires sizeX > 0
+     * @param sizeY height of the board, requires sizeY > 0
+     * @param seed seed of the board
+     * @param mines exact number of mines on the board, requires mines <= sizeX * sizeY and no mines for boards built
+     *              tile by tile, or -1 to place mines with probability 0.25
+     * @return the random board
+     */
+    static Minefield randomBoard(int sizeX, int sizeY, long seed, long mines) {
+        if ((long) sizeX * sizeY > MAX_IN_MEMORY_BLOCKS) {
+            return new TiledBoard(sizeX, sizeY, seed, BoardGenerator.DEFAULT_DENSITY);
+        } else if (mines < 0) {
+            return BoardGenerator.withDensity(sizeX, sizeY, seed, BoardGenerator.DEFAULT_DENSITY);
+        } else {
+            return BoardGenerator.withMines(sizeX, sizeY, seed, mines);
+        }
+    }
+
     /**
      * Start a MinesweeperServer running on the specified port, with either a random new board or a
-     * board loaded from a file.
+     * board loaded from a file. The server starts a new thread for every client, generates the random board from a
+     * random seed with mines placed with probability 0.25, journals no moves, and has the default ConnectionLimits.
      * 
      * @param debug The server will disconnect a client after a BOOM message if and only if debug is false.
      * @param file If file.isPresent(), start with a board loaded from the specified file,
@@ -168,15 +424,72 @@ public class MinesweeperServer {
      * @throws IOException if a network error occurs
      */
     public static void runMinesweeperServer(boolean debug, Optional<File> file, int sizeX, int sizeY, int port) throws IOException {
-        Board board;
+        runMinesweeperServer(debug, Mode.THREADS, file, sizeX, sizeY, OptionalLong.empty(), -1, Optional.empty(),
+                new ConnectionLimits(), port);
+    }
 
-        if (file.isPresent()) {
+    /**
+     * Start a MinesweeperServer running on the specified port, with either a random new board or a
+     * board loaded from a file.
+     * 
+     * @param debug The server will disconnect a client after a BOOM message if and only if debug is false.
+     * @param mode How the server runs the clients.
+     * @param file If file.isPresent(), start with a board loaded from the specified file,
+     *             according to the input file format defined in the documentation for main(..).
+     * @param sizeX If (!file.isPresent()), start with a random board with width sizeX
+     *              (and require sizeX > 0).
+     * @param sizeY If (!file.isPresent()), start with a random board with height sizeY
+     *              (and require sizeY > 0).
+     * @param seed If (!file.isPresent()), the seed of the random board, or empty for a random seed.
+     * @param mines If (!file.isPresent()), the exact number of mines on the random board
+     *              (and require mines <= sizeX * sizeY), or -1 to place mines with probability 0.25.
+     * @param journal If journal.isPresent(), the directory where the moves changing the board are journaled. If it
+     *                holds a journal, start with the board recovered from it instead. Requires an in-memory board.
+     * @param limits Limits on the clients served at once, and how long they may be idle or slow.
+     * @param port The network port on which the server should listen, requires 0 <= port <= 65535.
+     * @throws IOException if a network error occurs, or the journal can't be read or written
+     */
+    public static void runMinesweeperServer(boolean debug, Mode mode, Optional<File> file, int sizeX, int sizeY,
+            OptionalLong seed, long mines, Optional<File> journal, ConnectionLimits limits, int port)
+            throws IOException {
+        Minefield board;
+        BoardJournal recovered = journal.isPresent() ? BoardJournal.recover(journal.get()) : null;
+
+        if (recovered != null) {
+            board = recovered.board();
+            System.err.println("Board recovered from " + journal.get() + " after " + recovered.moves() + " moves");
+        } else if (file.isPresent()) {
             board = new Board(file.get());
         } else {
-            board = new Board(sizeX, sizeY);
+            long boardSeed = seed.orElseGet(() -> new SplittableRandom().nextLong());
+            System.err.println("Board seed: " + boardSeed);
+            board = randomBoard(sizeX, sizeY, boardSeed, mines);
+        }
+        if (journal.isPresent()) {
+            if (!(board instanceof Board)) {
+                throw new IllegalArgumentException("journals require an in-memory board");
+            }
+            BoardJournal boardJournal = recovered != null ? recovered
+                    : BoardJournal.create(journal.get(), (Board) board);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    boardJournal.close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }));
         }
         
-        MinesweeperServer server = new MinesweeperServer(port, board, debug);
-        server.serve();
+        if (mode == Mode.NIO) {
+            MinesweeperNioServer server = new MinesweeperNioServer(port, board, debug,
+                    Runtime.getRuntime().availableProcessors(), limits);
+            server.serve();
+        } else if (mode == Mode.VIRTUAL_THREADS) {
+            MinesweeperServer server = new MinesweeperServer(port, board, debug, virtualThreadExecutor(), limits);
+            server.serve();
+        } else {
+            MinesweeperServer server = new MinesweeperServer(port, board, debug, THREAD_PER_CONNECTION, limits);
+            server.serve();
+        }
     }
 }
@@ -0,0 +1,153 @@
+package minesweeper.server;
+
+/**
+ * Parser of request lines. A single parser is reused for every request of a connection, and parsing allocates
+ * nothing: the parsed command, its numbers and the position of its name are left in the fields of the parser.
+ * Accepts exactly the requests of the grammar
+ * <pre>
+ *   REQUEST ::= "look" | "help" | "bye" | "list" | "leave" | "stats" | "binary" | "watch" | "unwatch"
+ *             | "hint"
+ *             | ("dig" | "flag" | "deflag") SPACE COORD SPACE COORD
+ *             | "join" SPACE NAME
+ *             | "create" SPACE NAME (SPACE INT SPACE INT)?
+ *             | "view" (SPACE COORD SPACE COORD SPACE INT SPACE INT)?
+ *   COORD ::= "-"? [0-9]+
+ *   INT ::= [0-9]+
+ *   NAME ::= [A-Za-z0-9_-]{1,32}
+ * </pre>
+ * Numbers too large for an int are clamped, which leaves them outside any board.
+ */
+class RequestParser {
+    static final int LOOK = 0, HELP = 1, BYE = 2, LIST = 3, LEAVE = 4, DIG = 5, FLAG = 6, DEFLAG = 7, JOIN = 8,
+            CREATE = 9, VIEW = 10, STATS = 11, BINARY = 12, WATCH = 13, UNWATCH = 14,
+            HINT = 15;
+    /** Keyword of each command, indexed by command. */
+    private static final String[] KEYWORDS = { "look", "help", "bye", "list", "leave", "dig", "flag", "deflag",
+            "join", "create", "view", "stats", "binary", "watch", "unwatch", "hint" };
+    private static final int MAX_NAME_LENGTH = 32;
+
+    /** Command of the last parsed request. */
+    int command;
+    /** Numbers of the last parsed request, in order. */
+    final int[] numbers = new int[4];
+    /** Number of numbers in the last parsed request. */
+    int numberCount;
+    /** Start and end of the name in the last parsed request, if any. */
+    int nameStart, nameEnd;
+
+    private String line;
+    private int position, end;
+
+    /**
+     * Parse the request in line between start and end.
+     * 
+     * @param line line received from the client
+     * @param start index of the first character of the request
+     * @param end index after the last character of the request
+     * @return true if the request is valid, else false and the fields are unspecified
+     */
+    boolean parse(String line, int start, int end) {
+        this.line = line;
+        this.position = start;
+        this.end = end;
+        this.numberCount = 0;
+
+        this.command = keyword();
+        if (this.command < 0) {
+            return false;
+        }
+        switch (this.command) {
+        case DIG:
+        case FLAG:
+        case DEFLAG:
+            return space() && number(true) && space() && number(true) && this.position == end;
+        case JOIN:
+            return space() && scanName() && this.position == end;
+        case CREATE:
+            if (!space() || !scanName()) {
+                return false;
+            }
+            if (this.position == end) {
+                return true;
+            }
+            return space() && number(false) && space() && number(false) && this.position == end;
+        case VIEW:
+            if (this.position == end) {
+                return true;
+            }
+            return space() && number(true) && space() && number(true) && space() && number(false) && space()
+                    && number(false) && this.position == end;
+        default:
+            return this.position == end;
+        }
+    }
+
+    /**
+     * Get the name of the last parsed request. Allocates a String, unlike the rest of the parser.
+     * 
+     * @return name in the request
+     */
+    String name() {
+        return this.line.substring(this.nameStart, this.nameEnd);
+    }
+
+    private int keyword() {
+        int length = 0;
+        while (this.position + length < this.end && this.line.charAt(this.position + length) != ' ') {
+            length++;
+        }
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            if (KEYWORDS[i].length() == length && this.line.startsWith(KEYWORDS[i], this.position)) {
+                this.position += length;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean space() {
+        if (this.position < this.end && this.line.charAt(this.position) == ' ') {
+            this.position++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parse the next number into numbers.
+     */
+    private boolean number(boolean signed) {
+        boolean negative = signed && this.position < this.end && this.line.charAt(this.position) == '-';
+        if (negative) {
+            this.position++;
+        }
+        int start = this.position;
+        long value = 0;
+        for (; this.position < this.end; this.position++) {
+            char c = this.line.charAt(this.position);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = Math.min(10 * value + (c - '0'), Integer.MAX_VALUE);
+        }
+        if (this.position == start) {
+            return false;
+        }
+
+        this.numbers[this.numberCount++] = (int) (negative ? -value : value);
+        return true;
+    }
+
+    private boolean scanName() {
+        this.nameStart = this.position;
+        while (this.position < this.end && this.position - this.nameStart < MAX_NAME_LENGTH + 1) {
+            char c = this.line.charAt(this.position);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '-')) {
+                break;
+            }
+            this.position++;
+        }
+        this.nameEnd = this.position;
+        return this.nameEnd > this.nameStart && this.nameEnd - this.nameStart <= MAX_NAME_LENGTH;
+    }
+}
@@ -0,0 +1,349 @@
+package minesweeper.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import minesweeper.Board;
+import minesweeper.BoardPool;
+import minesweeper.Minefield;
+import minesweeper.Solver;
+
+/**
+ * Rooms hosted by a server, each one an independent game on its own Board. Every board has its own locks, so
+ * players in different rooms never contend. Rooms other than the default room are evicted once they have been
+ * empty for a while. New boards, of created rooms and of cleared boards dealt again, are taken from a BoardPool.
+ */
+public class RoomRegistry {
+    /** Name of the room players are in when they connect. */
+    public static final String DEFAULT_ROOM = "main";
+    /** Largest width and height of the board of a created room. */
+    static final int MAX_ROOM_SIZE = 256;
+    /** Largest number of rooms hosted at once, including the default room. */
+    static final int MAX_ROOMS = 10_000;
+    /** Default time in milliseconds a room may stay empty before it is evicted. */
+    private static final long DEFAULT_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    /** Time in milliseconds between pushes of the changes of the boards to the players watching them. */
+    static final long TICK_MILLIS = 50;
+
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final Room defaultRoom;
+    private final long idleMillis;
+    /** Boards generated ahead of time for created rooms and cleared boards. */
+    private final BoardPool pool = new BoardPool();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final AtomicBoolean ticking = new AtomicBoolean();
+
+    /**
+     * A single game and the players currently in it.
+     */
+    static class Room {
+        private final String name;
+        private final Minefield board;
+        /** Number of players in the room, or -1 once the room has been evicted. */
+        private final AtomicInteger players = new AtomicInteger();
+        /** Time in milliseconds a player last left the room. */
+        private volatile long emptySince = System.currentTimeMillis();
+        /** BOARD frame of the board message, shared by the players of the room speaking the binary protocol. */
+        private final BinaryProtocol.FrameCache frames = new BinaryProtocol.FrameCache();
+        /** Players watching the room, or null if there are none. */
+        private volatile RoomWatchers watchers;
+        /** Guards adding and removing the watchers. */
+        private final ReentrantLock watching = new ReentrantLock();
+        /** Solver of the board, or null until a player asks for a hint. */
+        private volatile Solver solver;
+        /** Guards making the solver. */
+        private final ReentrantLock makingSolver = new ReentrantLock();
+
+        private Room(String name, Minefield board) {
+            this.name = name;
+            this.board = board;
+        }
+
+        String name() {
+            return this.name;
+        }
+
+        Minefield board() {
+            return this.board;
+        }
+
+        /**
+         * Get the BOARD frame of a board message of the board of the room.
+         * 
+         * @param message board message returned by the board
+         * @return BOARD frame of message, shared by the players of the room
+         */
+        byte[] boardFrame(byte[] message) {
+            return this.frames.boardFrame(message);
+        }
+
+        /**
+         * Start pushing the changes of the board of the room to a player in it.
+         * 
+         * @param subscription subscription of the player, not watching any room
+         * @return false if the board of the room can't be watched, else true
+         */
+        boolean watch(Subscription subscription) {
+            if (!(this.board instanceof Board)) {
+                return false;
+            }
+            this.watching.lock();
+            try {
+                if (this.watchers == null) {
+                    this.watchers = new RoomWatchers((Board) this.board);
+                }
+                this.watchers.add(subscription);
+                return true;
+            } finally {
+                this.watching.unlock();
+            }
+        }
+
+        /**
+         * Stop pushing the changes of the board of the room to a player, and close its subscription.
+         * 
+         * @param subscription subscription of the player, watching this room
+         */
+        void unwatch(Subscription subscription) {
+            subscription.close();
+            this.watching.lock();
+            try {
+                if (this.watchers != null && this.watchers.remove(subscription)) {
+                    this.watchers = null;
+                }
+            } finally {
+                this.watching.unlock();
+            }
+        }
+
+        /**
+         * Get the solver of the board of the room, made at the first hint.
+         * 
+         * @return solver of the board, or null if the board isn't held in memory
+         */
+        Solver solver() {
+            Solver res = this.solver;
+            if (res != null || !(this.board instanceof Board)) {
+                return res;
+            }
+            this.makingSolver.lock();
+            try {
+                if (this.solver == null) {
+                    this.solver = new Solver((Board) this.board);
+                }
+                return this.solver;
+            } finally {
+                this.makingSolver.unlock();
+            }
+        }
+
+        /**
+         * Push the changes of the board since the last tick to the players watching the room, if any.
+         */
+        private void tick() {
+            RoomWatchers watchers = this.watchers;
+            if (watchers != null) {
+                watchers.tick();
+            }
+        }
+
+        /**
+         * Get the number of players in the room.
+         * 
+         * @return number of players
+         */
+        int players() {
+            return Math.max(this.players.get(), 0);
+        }
+
+        /**
+         * Add a player to the room.
+         * 
+         * @return false if the room has been evicted, else true
+         */
+        boolean enter() {
+            for (int players = this.players.get(); players >= 0; players = this.players.get()) {
+                if (this.players.compareAndSet(players, players + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Remove a player added by enter(). The time is recorded first, so the room is never seen empty since an
+         * earlier time.
+         */
+        void leave() {
+            this.emptySince = System.currentTimeMillis();
+            this.players.decrementAndGet();
+        }
+    }
+
+    /**
+     * Construct a registry whose default room plays on board, evicting rooms empty for ten minutes.
+     * 
+     * @param board board of the default room
+     */
+    public RoomRegistry(Minefield board) {
+        this(board, DEFAULT_IDLE_MILLIS);
+    }
+
+    /**
+     * Construct a registry whose default room plays on board.
+     * 
+     * @param board board of the default room
+     * @param idleMillis time in milliseconds a room may stay empty before it is evicted, requires idleMillis > 0
+     */
+    public RoomRegistry(Minefield board, long idleMillis) {
+        this.defaultRoom = new Room(DEFAULT_ROOM, board);
+        this.rooms.put(DEFAULT_ROOM, this.defaultRoom);
+        this.idleMillis = idleMillis;
+        if (board instanceof Board) {
+            this.pool.stock(board.getWidth(), board.getHeight());
+        }
+    }
+
+    /**
+     * Get the room players are in when they connect. It is never evicted.
+     * 
+     * @return default room
+     */
+    Room defaultRoom() {
+        return this.defaultRoom;
+    }
+
+    /**
+     * Get the pool new boards of the rooms are taken from.
+     * 
+     * @return pool of boards
+     */
+    BoardPool pool() {
+        return this.pool;
+    }
+
+    /**
+     * Create a room with a random board and enter it.
+     * 
+     * @param name name of the room
+     * @param width width of the board, requires 0 < width <= MAX_ROOM_SIZE
+     * @param height height of the board, requires 0 < height <= MAX_ROOM_SIZE
+     * @return the entered room, or null if a room with the name exists or there are too many rooms
+     */
+    Room create(String name, int width, int height) {
+        if (this.rooms.size() >= MAX_ROOMS || this.rooms.containsKey(name)) {
+            return null;
+        }
+        Room room = new Room(name, this.pool.board(width, height));
+        room.enter();
+        if (this.rooms.putIfAbsent(name, room) != null) {
+            return null;
+        }
+        startEvictor();
+        return room;
+    }
+
+    /**
+     * Enter an existing room.
+     * 
+     * @param name name of the room
+     * @return the entered room, or null if there is no room with the name
+     */
+    Room join(String name) {
+        Room room = this.rooms.get(name);
+        return room != null && room.enter() ? room : null;
+    }
+
+    /**
+     * Get the rooms currently hosted.
+     * 
+     * @return rooms ordered by name
+     */
+    List<Room> rooms() {
+        List<Room> res = new ArrayList<>(this.rooms.values());
+        res.sort(Comparator.comparing(Room::name));
+        return res;
+    }
+
+    /**
+     * Evict every room other than the default room which has been empty for longer than the idle time, so its
+     * board can be garbage collected.
+     */
+    void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Room room : this.rooms.values()) {
+            if (room != this.defaultRoom && now - room.emptySince > this.idleMillis
+                    && room.players.compareAndSet(0, -1)) {
+                this.rooms.remove(room.name, room);
+            }
+        }
+    }
+
+    /**
+     * Watch a room: push the changes of its board to a player every TICK_MILLIS.
+     * 
+     * @param room room the player is in
+     * @param subscription subscription of the player, not watching any room
+     * @return false if the board of the room can't be watched, else true
+     */
+    boolean watch(Room room, Subscription subscription) {
+        if (!room.watch(subscription)) {
+            return false;
+        }
+        startTicker();
+        return true;
+    }
+
+    /**
+     * Push the changes of the boards since the last tick to the players watching them.
+     */
+    void tick() {
+        for (Room room : this.rooms.values()) {
+            try {
+                room.tick();
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // but keep pushing to the other rooms
+            }
+        }
+    }
+
+    /**
+     * Start the background thread pushing the changes of the boards, unless it is already running.
+     */
+    private void startTicker() {
+        if (!this.ticking.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "minesweeper-watch-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start the background thread evicting idle rooms, unless it is already running.
+     */
+    private void startEvictor() {
+        if (!this.evicting.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "minesweeper-room-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(this.idleMillis / 4, 1);
+        evictor.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,139 @@
+package minesweeper.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import minesweeper.Board;
+import minesweeper.BoardChanges;
+
+/**
+ * Players watching a room, and the changes to its board pushed to them. Once a tick, the blocks changed since the
+ * last tick are collected, coalescing every move of the tick into one message, which is encoded once per protocol
+ * and pushed to every watcher. A watcher which is new or fell behind is pushed a snapshot of the board at the same
+ * version instead, so every watcher sees one consistent sequence of versions.
+ * 
+ * <br> In the text protocol the changes are the line "changed FROM TO" followed by " X,Y,S" for each changed block,
+ * S being its symbol in the board message, or 0 for a dug block with no neighbouring bombs. A snapshot is the line
+ * "board VERSION" followed by the lines of the board message. In the binary protocol they are DELTA and SNAPSHOT
+ * frames.
+ */
+class RoomWatchers {
+    /** Changes to more than one block in this many are pushed as a snapshot, which is then no larger. */
+    private static final int SNAPSHOT_RATIO = 8;
+
+    private final Board board;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    /** Changes since the last tick; only used by the thread ticking. */
+    private BoardChanges changes;
+
+    /**
+     * Construct the watchers of a board, with no watcher yet.
+     * 
+     * @param board board of the room
+     */
+    RoomWatchers(Board board) {
+        this.board = board;
+    }
+
+    /**
+     * Start pushing the changes of the board to a player, starting with a snapshot at the next tick.
+     * 
+     * @param subscription subscription of the player
+     */
+    void add(Subscription subscription) {
+        this.subscriptions.add(subscription);
+    }
+
+    /**
+     * Stop pushing the changes of the board to a player.
+     * 
+     * @param subscription subscription of the player
+     * @return true if no player watches the board anymore
+     */
+    boolean remove(Subscription subscription) {
+        this.subscriptions.remove(subscription);
+        return this.subscriptions.isEmpty();
+    }
+
+    /**
+     * Push the changes since the last tick to every watcher. Called periodically by a single thread.
+     */
+    void tick() {
+        if (this.subscriptions.isEmpty()) {
+            this.changes = null;
+            return;
+        }
+        if (this.changes == null) {
+            this.changes = new BoardChanges(this.board);
+        }
+        BoardChanges.Delta delta = this.changes.poll();
+        boolean snapshotAll = delta != null
+                && (long) delta.size() * SNAPSHOT_RATIO > (long) this.board.getWidth() * this.board.getHeight();
+
+        byte[] text = null, frame = null, textSnapshot = null, frameSnapshot = null;
+        for (Subscription subscription : this.subscriptions) {
+            boolean snapshot = subscription.takeResync() || snapshotAll;
+            if (!snapshot && delta == null) {
+                continue;
+            }
+            if (snapshot && subscription.binary()) {
+                if (frameSnapshot == null) {
+                    frameSnapshot = BinaryProtocol.snapshotFrame(this.changes.version(), this.changes.boardMessage());
+                }
+                subscription.push(frameSnapshot);
+            } else if (snapshot) {
+                if (textSnapshot == null) {
+                    textSnapshot = textSnapshot(this.changes.version(), this.changes.boardMessage());
+                }
+                subscription.push(textSnapshot);
+            } else if (subscription.binary()) {
+                if (frame == null) {
+                    frame = BinaryProtocol.deltaFrame(delta);
+                }
+                subscription.push(frame);
+            } else {
+                if (text == null) {
+                    text = textDelta(delta);
+                }
+                subscription.push(text);
+            }
+        }
+    }
+
+    /**
+     * Encode a snapshot of the board for the text protocol.
+     * 
+     * @param version version of the board
+     * @param message board message at version
+     * @return snapshot lines, each ending in a line separator
+     */
+    private static byte[] textSnapshot(long version, byte[] message) {
+        byte[] header = ("board " + version).getBytes(StandardCharsets.US_ASCII);
+        byte[] newline = MinesweeperProtocol.NEWLINE;
+        byte[] res = new byte[header.length + message.length + 2 * newline.length];
+        System.arraycopy(header, 0, res, 0, header.length);
+        System.arraycopy(newline, 0, res, header.length, newline.length);
+        System.arraycopy(message, 0, res, header.length + newline.length, message.length);
+        System.arraycopy(newline, 0, res, res.length - newline.length, newline.length);
+        return res;
+    }
+
+    /**
+     * Encode changes to the board for the text protocol.
+     * 
+     * @param delta changed blocks
+     * @return changes line, ending in a line separator
+     */
+    private static byte[] textDelta(BoardChanges.Delta delta) {
+        StringBuilder res = new StringBuilder(32 + 12 * delta.size());
+        res.append("changed ").append(delta.from()).append(' ').append(delta.to());
+        for (int i = 0; i < delta.size(); i++) {
+            char symbol = delta.symbol(i);
+            res.append(' ').append(delta.column(i)).append(',').append(delta.row(i)).append(',')
+                    .append(symbol == ' ' ? '0' : symbol);
+        }
+        res.append("%n".formatted());
+        return res.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
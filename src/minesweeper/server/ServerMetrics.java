@@ -0,0 +1,271 @@
+package minesweeper.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import minesweeper.BoardMetrics;
+import minesweeper.Histogram;
+
+/**
+ * Metrics of every server of the process: request latency by command, response sizes and connection counts,
+ * together with the lock, flood fill and board pool metrics of the boards in BoardMetrics. Read through JMX as
+ * "minesweeper:type=Metrics", and with the "stats" request on servers started with --stats. A read of the clock
+ * costs more than answering a cached look, so every request is counted but only one in REQUEST_SAMPLING requests
+ * of a connection is timed and has its response size recorded; the histograms are striped by thread, so servers
+ * on many processors don't contend for them.
+ */
+class ServerMetrics implements MetricsMXBean {
+    /** Command recorded for a line of several requests, after the commands of RequestParser. */
+    static final int BATCH = RequestParser.HINT + 1;
+    /** Command recorded for a line which is not a request. */
+    static final int INVALID = BATCH + 1;
+    /** Name of each recorded command, indexed by command. */
+    private static final String[] COMMANDS = { "look", "help", "bye", "list", "leave", "dig", "flag", "deflag",
+            "join", "create", "view", "stats", "binary", "watch", "unwatch", "hint", "batch",
+            "invalid" };
+    private static final double MICROSECOND = 1e3;
+    /** One in every REQUEST_SAMPLING requests of a connection is timed. */
+    private static final int REQUEST_SAMPLING = 16;
+
+    /** The metrics of the process. */
+    static final ServerMetrics METRICS = new ServerMetrics();
+
+    /** Number of requests answered, indexed by command. */
+    private final LongAdder[] requests = new LongAdder[COMMANDS.length];
+    /** Nanoseconds to answer the timed requests, indexed by command. */
+    private final Histogram[] latency = new Histogram[COMMANDS.length];
+    private final Histogram responseBytes = new Histogram();
+    private final LongAdder openConnections = new LongAdder();
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder timedOutConnections = new LongAdder();
+    private final LongAdder overlongRequests = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
+    /** True if clients may read the metrics with the stats request. */
+    private volatile boolean statsCommand = false;
+    private boolean registered = false;
+
+    private ServerMetrics() {
+        for (int i = 0; i < this.latency.length; i++) {
+            this.requests[i] = new LongAdder();
+            this.latency[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Register the metrics with the platform MBean server, unless they already are.
+     */
+    synchronized void register() {
+        if (this.registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("minesweeper:type=Metrics"));
+        } catch (InstanceAlreadyExistsException iaee) {
+            // registered by another class loader; its metrics are as good
+        } catch (JMException jme) {
+            jme.printStackTrace(); // but serve without JMX
+        }
+        this.registered = true;
+    }
+
+    /**
+     * Let clients read the metrics with the stats request.
+     */
+    void enableStatsCommand() {
+        this.statsCommand = true;
+    }
+
+    /**
+     * Check if clients may read the metrics with the stats request.
+     * 
+     * @return true if the stats request is enabled
+     */
+    boolean statsCommandEnabled() {
+        return this.statsCommand;
+    }
+
+    /**
+     * Record a client connecting.
+     */
+    void connectionOpened() {
+        this.acceptedConnections.increment();
+        this.openConnections.increment();
+    }
+
+    /**
+     * Record a client disconnecting.
+     */
+    void connectionClosed() {
+        this.openConnections.decrement();
+    }
+
+    /**
+     * Record a client turned away because the server served as many connections as it may.
+     */
+    void connectionRejected() {
+        this.rejectedConnections.increment();
+    }
+
+    /**
+     * Record a client disconnected because it sent no request, or read no response, for too long.
+     */
+    void connectionTimedOut() {
+        this.timedOutConnections.increment();
+    }
+
+    /**
+     * Record a client disconnected because it sent a request longer than LineDecoder.MAX_REQUEST.
+     */
+    void requestTooLong() {
+        this.overlongRequests.increment();
+    }
+
+    /**
+     * Record a watching player who fell too far behind and is resynchronized with a snapshot of the board.
+     */
+    void resync() {
+        this.resyncs.increment();
+    }
+
+    /**
+     * Check if a request is in the sample of the requests timed.
+     * 
+     * @param count number of requests of the connection before this one
+     * @return true if the request is to be timed, as is the first request of every connection
+     */
+    static boolean sampled(int count) {
+        return count % REQUEST_SAMPLING == 0;
+    }
+
+    /**
+     * Record an answered request which wasn't timed.
+     * 
+     * @param command command of the request, one of RequestParser's, BATCH or INVALID
+     */
+    void request(int command) {
+        this.requests[command].increment();
+    }
+
+    /**
+     * Record an answered request which was timed.
+     * 
+     * @param command command of the request, one of RequestParser's, BATCH or INVALID
+     * @param nanos nanoseconds taken to answer the request
+     * @param bytes number of bytes written in response
+     */
+    void request(int command, long nanos, int bytes) {
+        this.requests[command].increment();
+        this.latency[command].record(nanos);
+        this.responseBytes.record(bytes);
+    }
+
+    @Override
+    public long getOpenConnections() {
+        return this.openConnections.sum();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return this.acceptedConnections.sum();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return this.rejectedConnections.sum();
+    }
+
+    @Override
+    public long getTimedOutConnections() {
+        return this.timedOutConnections.sum();
+    }
+
+    @Override
+    public long getOverlongRequests() {
+        return this.overlongRequests.sum();
+    }
+
+    @Override
+    public long getResyncs() {
+        return this.resyncs.sum();
+    }
+
+    @Override
+    public Map<String, Histogram.Summary> getCommandLatency() {
+        Map<String, Histogram.Summary> res = new LinkedHashMap<>();
+        for (int i = 0; i < COMMANDS.length; i++) {
+            res.put(COMMANDS[i], this.latency[i].summary(MICROSECOND, this.requests[i].sum()));
+        }
+        return res;
+    }
+
+    @Override
+    public Histogram.Summary getResponseBytes() {
+        long requests = 0;
+        for (LongAdder count : this.requests) {
+            requests += count.sum();
+        }
+        return this.responseBytes.summary(1, requests);
+    }
+
+    @Override
+    public Histogram.Summary getLockWait() {
+        return BoardMetrics.lockWait().summary(MICROSECOND);
+    }
+
+    @Override
+    public Histogram.Summary getLockHold() {
+        return BoardMetrics.lockHold().summary(MICROSECOND);
+    }
+
+    @Override
+    public Histogram.Summary getFloodFill() {
+        return BoardMetrics.floodFill().summary(1);
+    }
+
+    @Override
+    public long getPoolHits() {
+        return BoardMetrics.poolHits();
+    }
+
+    @Override
+    public long getPoolMisses() {
+        return BoardMetrics.poolMisses();
+    }
+
+    @Override
+    public Histogram.Summary getBoardGeneration() {
+        return BoardMetrics.boardGeneration().summary(MICROSECOND);
+    }
+
+    /**
+     * Format the metrics for the stats request, leaving out commands never requested.
+     * 
+     * @return one line per metric, without a line separator after the last one
+     */
+    String statsMessage() {
+        StringBuilder res = new StringBuilder();
+        res.append("connections: open %d accepted %d rejected %d timed out %d overlong %d".formatted(
+                getOpenConnections(), getAcceptedConnections(), getRejectedConnections(), getTimedOutConnections(),
+                getOverlongRequests()));
+        for (Map.Entry<String, Histogram.Summary> entry : getCommandLatency().entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                res.append("%n%s latency (us): %s".formatted(entry.getKey(), entry.getValue()));
+            }
+        }
+        res.append("%nwatch resyncs: %d".formatted(getResyncs()));
+        res.append("%nresponse bytes: %s".formatted(getResponseBytes()));
+        res.append("%nlock wait (us): %s".formatted(getLockWait()));
+        res.append("%nlock hold (us): %s".formatted(getLockHold()));
+        res.append("%nflood fill (blocks): %s".formatted(getFloodFill()));
+        res.append("%nboard pool: hits %d misses %d".formatted(getPoolHits(), getPoolMisses()));
+        res.append("%nboard generation (us): %s".formatted(getBoardGeneration()));
+        return res.toString();
+    }
+}
@@ -0,0 +1,159 @@
+package minesweeper.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Messages pushed to a player watching a room, waiting to be written to the connection. The queue is bounded: once
+ * a player falls MAX_QUEUED messages behind, the queued changes are dropped and the player is sent a snapshot of
+ * the board at the next tick instead, so a slow player costs the server a bounded amount of memory and never holds
+ * back the others. Thread safe.
+ */
+class Subscription {
+    /** Largest number of messages waiting to be written. */
+    static final int MAX_QUEUED = 16;
+
+    /** True if the messages are frames of the binary protocol, else lines of the text protocol. */
+    private final boolean binary;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pushed = this.lock.newCondition();
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    /** True if the next message must be a snapshot of the board, as the first one is. */
+    private boolean resync = true;
+    private boolean closed = false;
+    /** Called after a message is pushed, or null. */
+    private volatile Runnable listener;
+
+    /**
+     * Construct a subscription of a player.
+     * 
+     * @param binary true if the player speaks the binary protocol
+     */
+    Subscription(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * Check the format of the messages.
+     * 
+     * @return true if the messages are frames of the binary protocol, else lines of the text protocol
+     */
+    boolean binary() {
+        return this.binary;
+    }
+
+    /**
+     * Call a listener after each message pushed from now on, for transports which can't wait in take().
+     * 
+     * @param listener listener to call from the thread pushing the message; must not block
+     */
+    void listen(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Check if the next message must be a snapshot of the board, and clear the flag.
+     * 
+     * @return true if the subscription is new or fell behind, so it has to be sent a snapshot rather than changes
+     */
+    boolean takeResync() {
+        this.lock.lock();
+        try {
+            boolean res = this.resync;
+            this.resync = false;
+            return res;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Queue a message for the player. If MAX_QUEUED messages are already waiting, they are dropped along with the
+     * message, and the player is resynchronized with a snapshot instead.
+     * 
+     * @param message message to push, pre-terminated: a frame, or lines each ending in a line separator
+     */
+    void push(byte[] message) {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            if (this.queue.size() >= MAX_QUEUED) {
+                this.queue.clear();
+                this.resync = true;
+                ServerMetrics.METRICS.resync();
+                return;
+            }
+            this.queue.add(message);
+            this.pushed.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        Runnable listener = this.listener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Take the oldest message waiting to be written, without waiting.
+     * 
+     * @return oldest message, or null if there is none
+     */
+    byte[] poll() {
+        this.lock.lock();
+        try {
+            return this.queue.poll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Take the oldest message waiting to be written, waiting for one to be pushed.
+     * 
+     * @return oldest message, or null once the subscription is closed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    byte[] take() throws InterruptedException {
+        this.lock.lock();
+        try {
+            while (this.queue.isEmpty() && !this.closed) {
+                this.pushed.await();
+            }
+            return this.queue.poll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Check if the subscription is closed.
+     * 
+     * @return true once close() has been called
+     */
+    boolean closed() {
+        this.lock.lock();
+        try {
+            return this.closed;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stop the subscription, dropping the waiting messages and waking a thread waiting in take().
+     */
+    void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.queue.clear();
+            this.pushed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package minesweeper.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Output stream of a client socket which gives up on a write the client doesn't read within a timeout, since
+ * blocking sockets have no write timeout of their own: the socket is closed, which fails the blocked write, and the
+ * write throws SocketTimeoutException. A write only records when it started; one sweeper thread serves every
+ * connection, checking the open streams every SWEEP_INTERVAL milliseconds as the event loops of
+ * MinesweeperNioServer check their connections, so a late write is given up at most SWEEP_INTERVAL after its
+ * timeout.
+ */
+class TimedOutputStream extends FilterOutputStream {
+    /** Milliseconds between two checks of the streams for late writes. */
+    private static final long SWEEP_INTERVAL = 100;
+    /** Streams which are not closed yet. */
+    private static final Set<TimedOutputStream> STREAMS = ConcurrentHashMap.newKeySet();
+
+    static {
+        Thread sweeper = new Thread(TimedOutputStream::sweepForever, "minesweeper-write-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    private final Socket socket;
+    /** Nanoseconds a write may take. */
+    private final long timeout;
+    /** System.nanoTime() when the write in progress started, or 0 if no write is in progress. */
+    private volatile long writeStart = 0;
+    /** True once a write took longer than the timeout, and the socket was closed. */
+    private volatile boolean expired = false;
+
+    /**
+     * Make a stream writing to a client socket.
+     * 
+     * @param socket socket of the client, closed if a write takes too long
+     * @param out output stream of the socket
+     * @param timeout milliseconds a write may take, requires timeout > 0
+     */
+    TimedOutputStream(Socket socket, OutputStream out, long timeout) {
+        super(out);
+        this.socket = socket;
+        this.timeout = timeout * 1_000_000;
+        STREAMS.add(this);
+    }
+
+    /**
+     * Check the open streams for late writes until the process exits. Runs on the daemon sweeper thread, which
+     * doesn't keep the process running.
+     */
+    private static void sweepForever() {
+        while (true) {
+            try {
+                Thread.sleep(SWEEP_INTERVAL);
+            } catch (InterruptedException ie) {
+                // nothing interrupts the sweeper, but sweep anyway
+            }
+            long now = System.nanoTime();
+            for (TimedOutputStream stream : STREAMS) {
+                long start = stream.writeStart;
+                if (start != 0 && now - start > stream.timeout) {
+                    stream.expire();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.expired) {
+            throw new SocketTimeoutException("write timed out");
+        }
+        this.writeStart = System.nanoTime();
+        try {
+            this.out.write(b, off, len);
+        } catch (IOException ioe) {
+            if (this.expired) {
+                throw new SocketTimeoutException("write timed out");
+            }
+            throw ioe;
+        } finally {
+            this.writeStart = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        STREAMS.remove(this);
+        super.close();
+    }
+
+    /**
+     * Close the socket of a write which took too long, and record the timeout.
+     */
+    private void expire() {
+        STREAMS.remove(this);
+        this.expired = true;
+        ServerMetrics.METRICS.connectionTimedOut();
+        try {
+            this.socket.close();
+        } catch (IOException ioe) {
+            // closing anyway
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package minesweeper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+/**
+ * Tests that the changes collected by BoardChanges lead from one board message to the next.
+ */
+public class BoardChangesTest {
+
+    /**
+     * Apply the changes of a delta to a board message.
+     */
+    private static byte[] apply(byte[] message, int width, BoardChanges.Delta delta) {
+        int lineLength = 2 * width - 1 + "%n".formatted().length();
+        for (int i = 0; i < delta.size(); i++) {
+            message[delta.row(i) * lineLength + 2 * delta.column(i)] = (byte) delta.symbol(i);
+        }
+        return message;
+    }
+
+    @Test
+    public void deltasFollowTheBoard() {
+        SplittableRandom random = new SplittableRandom(3);
+        Board board = BoardGenerator.withDensity(30, 20, 3, 0.15);
+        BoardChanges changes = new BoardChanges(board);
+        byte[] message = changes.boardMessage();
+        assertEquals(new String(board.boardMessage(), StandardCharsets.US_ASCII),
+                new String(message, StandardCharsets.US_ASCII));
+        assertNull(changes.poll());
+
+        long version = changes.version();
+        for (int tick = 0; tick < 50; tick++) {
+            for (int move = random.nextInt(5); move > 0; move--) {
+                int x = random.nextInt(board.getHeight()), y = random.nextInt(board.getWidth());
+                switch (random.nextInt(3)) {
+                case 0:
+                    board.dig(x, y);
+                    break;
+                case 1:
+                    board.flag(x, y);
+                    break;
+                default:
+                    board.deflag(x, y);
+                }
+            }
+            BoardChanges.Delta delta = changes.poll();
+            if (delta == null) {
+                assertEquals(version, board.version());
+                continue;
+            }
+            assertEquals(version, delta.from());
+            assertEquals(board.version(), delta.to());
+            version = delta.to();
+            message = apply(message, board.getWidth(), delta);
+            assertEquals(new String(board.boardMessage(), StandardCharsets.US_ASCII),
+                    new String(message, StandardCharsets.US_ASCII));
+            assertEquals(new String(changes.boardMessage(), StandardCharsets.US_ASCII),
+                    new String(message, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void changesUndoneAreLeftOut() {
+        Board board = BoardGenerator.withMines(5, 5, 1, 0);
+        BoardChanges changes = new BoardChanges(board);
+        board.flag(1, 2);
+        board.deflag(1, 2);
+        board.flag(3, 4);
+        BoardChanges.Delta delta = changes.poll();
+        assertEquals(1, delta.size());
+        assertEquals(3, delta.row(0));
+        assertEquals(4, delta.column(0));
+        assertEquals('F', delta.symbol(0));
+    }
+
+    @Test
+    public void heldTileIsReadByALaterPoll() {
+        Board board = BoardGenerator.withMines(64, 64, 1, 0);
+        BoardChanges changes = new BoardChanges(board);
+        board.flag(0, 1);
+        board.flag(40, 50);
+        long[] stamps = board.tileStamps();
+
+        board.lockRegion(0, 0, 0, 0);
+        BoardChanges.Delta delta;
+        try {
+            // doesn't wait for the held tile, nor lock any other
+            delta = changes.poll();
+            assertArrayEquals(board.tileStamps(), new long[] { stamps[0] + 1, stamps[1], stamps[2], stamps[3] });
+        } finally {
+            board.unlockRegion(0, 0, 0, 0);
+        }
+        assertEquals(board.version(), delta.to());
+        assertEquals(1, delta.size());
+        assertEquals(40, delta.row(0));
+        assertEquals(50, delta.column(0));
+
+        delta = changes.poll();
+        assertEquals(board.version(), delta.to());
+        assertEquals(1, delta.size());
+        assertEquals(0, delta.row(0));
+        assertEquals(1, delta.column(0));
+        assertNull(changes.poll());
+        assertEquals(new String(board.boardMessage(), StandardCharsets.US_ASCII),
+                new String(changes.boardMessage(), StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,73 @@
+package minesweeper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests loading board files in the text and the binary format.
+ */
+public class BoardFilesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String content) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    @Test
+    public void readTextWithAnyLineSeparator() throws IOException {
+        for (String separator : new String[] { "\n", "\r\n", "\r" }) {
+            BoardFiles.Bombs bombs = BoardFiles.read(write("3 2" + separator + "0 1 0" + separator + "1 0 0"));
+            assertEquals(3, bombs.width);
+            assertEquals(2, bombs.height);
+            assertEquals(true, bombs.bomb(0, 1));
+            assertEquals(true, bombs.bomb(1, 0));
+            assertEquals(false, bombs.bomb(1, 2));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectMissingRows() throws IOException {
+        BoardFiles.read(write("2 3\n0 0\n0 0\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectMalformedValues() throws IOException {
+        BoardFiles.read(write("2 1\n0 x\n"));
+    }
+
+    @Test
+    public void binaryRoundTripMatchesText() throws IOException {
+        Random random = new Random(5);
+        int width = 37, height = 23;
+        StringBuilder text = new StringBuilder(width + " " + height + "\n");
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                text.append(j > 0 ? " " : "").append(random.nextInt(4) == 0 ? 1 : 0);
+            }
+            text.append("\n");
+        }
+        File textFile = write(text.toString());
+        File binaryFile = folder.newFile();
+        BoardFiles.main(new String[] { textFile.getPath(), binaryFile.getPath() });
+
+        BoardFiles.Bombs fromText = BoardFiles.read(textFile), fromBinary = BoardFiles.read(binaryFile);
+        assertEquals(fromText.width, fromBinary.width);
+        assertEquals(fromText.height, fromBinary.height);
+        assertArrayEquals(fromText.bits, fromBinary.bits);
+        assertArrayEquals(new Board(textFile).boardMessage(), new Board(binaryFile).boardMessage());
+    }
+}
@@ -0,0 +1,47 @@
+package minesweeper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests that generated boards are reproducible from their seed and have the requested bombs.
+ */
+public class BoardGeneratorTest {
+
+    private static long count(BoardFiles.Bombs bombs) {
+        long count = 0;
+        for (byte bits : bombs.bits) {
+            count += Integer.bitCount(bits & 0xff);
+        }
+        return count;
+    }
+
+    @Test
+    public void sameSeedSameBoard() {
+        BoardFiles.Bombs first = BoardGenerator.bombs(700, 500, 42, 0.25, -1);
+        assertArrayEquals(first.bits, BoardGenerator.bombs(700, 500, 42, 0.25, -1).bits);
+        assertFalse(Arrays.equals(first.bits, BoardGenerator.bombs(700, 500, 43, 0.25, -1).bits));
+        assertArrayEquals(BoardGenerator.withMines(300, 300, 7, 9000).boardMessage(),
+                BoardGenerator.withMines(300, 300, 7, 9000).boardMessage());
+    }
+
+    @Test
+    public void densityIsAboutRight() {
+        double density = count(BoardGenerator.bombs(1000, 1000, 1, 0.25, -1)) / 1e6;
+        assertTrue(String.valueOf(density), Math.abs(density - 0.25) < 0.005);
+    }
+
+    @Test
+    public void exactMineCount() {
+        for (long mines : new long[] { 0, 1, 12345, 999_999, 1_000_000 }) {
+            assertEquals(mines, count(BoardGenerator.bombs(1000, 1000, mines, 0, mines)));
+        }
+        assertEquals(10, count(BoardGenerator.bombs(7, 3, 5, 0, 10)));
+    }
+}
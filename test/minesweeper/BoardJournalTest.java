@@ -0,0 +1,157 @@
+package minesweeper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that boards recovered from a BoardJournal are the boards journaled.
+ */
+public class BoardJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Play random moves on the board.
+     */
+    private static void play(Board board, int moves, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < moves; i++) {
+            int x = random.nextInt(board.getHeight()), y = random.nextInt(board.getWidth());
+            switch (random.nextInt(3)) {
+            case 0:
+                board.dig(x, y);
+                break;
+            case 1:
+                board.flag(x, y);
+                break;
+            default:
+                board.deflag(x, y);
+            }
+        }
+    }
+
+    @Test
+    public void recoversPlayedBoard() throws IOException {
+        File directory = this.folder.newFolder();
+        assertNull(BoardJournal.recover(directory));
+
+        Board board = BoardGenerator.withDensity(40, 30, 1, 0.1);
+        BoardJournal journal = BoardJournal.create(directory, board);
+        play(board, 500, 2);
+        journal.close();
+
+        BoardJournal recovered = BoardJournal.recover(directory);
+        assertEquals(journal.moves(), recovered.moves());
+        assertEquals(40, recovered.board().getWidth());
+        assertEquals(30, recovered.board().getHeight());
+        assertArrayEquals(board.copyCells(), recovered.board().copyCells());
+
+        // the recovered board goes on being journaled
+        play(recovered.board(), 500, 3);
+        recovered.close();
+        BoardJournal again = BoardJournal.recover(directory);
+        assertArrayEquals(recovered.board().copyCells(), again.board().copyCells());
+        again.close();
+    }
+
+    @Test
+    public void ignoresTornRecord() throws IOException {
+        File directory = this.folder.newFolder();
+        Board board = BoardGenerator.withDensity(20, 20, 4, 0.1);
+        BoardJournal journal = BoardJournal.create(directory, board);
+        play(board, 100, 5);
+        journal.close();
+
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith("journal-"));
+        assertEquals(1, segments.length);
+        Files.write(segments[0].toPath(), new byte[] { BoardJournal.DIG, 0, 0, 0 }, StandardOpenOption.APPEND);
+
+        BoardJournal recovered = BoardJournal.recover(directory);
+        assertEquals(journal.moves(), recovered.moves());
+        assertArrayEquals(board.copyCells(), recovered.board().copyCells());
+        recovered.close();
+    }
+
+    @Test
+    public void snapshotsReplaceOldSegments() throws IOException {
+        File directory = this.folder.newFolder();
+        Board board = BoardGenerator.withDensity(50, 50, 6, 0.1);
+        BoardJournal journal = BoardJournal.create(directory, board, 64);
+        play(board, 2000, 7);
+        journal.close();
+
+        File[] snapshots = directory.listFiles((dir, name) -> name.startsWith("snapshot-"));
+        assertEquals(1, snapshots.length);
+        assertTrue(snapshots[0].getName(), !snapshots[0].getName().equals("snapshot-0.bin"));
+        BoardJournal recovered = BoardJournal.recover(directory, 64);
+        assertEquals(journal.moves(), recovered.moves());
+        assertArrayEquals(board.copyCells(), recovered.board().copyCells());
+        recovered.close();
+    }
+
+    @Test
+    public void recoversResetBoard() throws IOException {
+        File directory = this.folder.newFolder();
+        Board board = BoardGenerator.withDensity(20, 20, 8, 0);
+        BoardJournal journal = BoardJournal.create(directory, board);
+        board.dig(0, 0);
+        assertTrue(board.resetIfCleared(9));
+        play(board, 200, 10);
+        try (BoardPool pool = new BoardPool()) {
+            for (int x = 0; x < 20; x++) {
+                for (int y = 0; y < 20; y++) {
+                    board.deflag(x, y);
+                    board.dig(x, y);
+                }
+            }
+            assertTrue(board.resetIfCleared(pool));
+        }
+        play(board, 200, 11);
+        journal.close();
+
+        BoardJournal recovered = BoardJournal.recover(directory);
+        assertEquals(journal.moves(), recovered.moves());
+        assertArrayEquals(board.copyCells(), recovered.board().copyCells());
+        assertEquals(board.coveredSafe(), recovered.board().coveredSafe());
+        recovered.close();
+    }
+
+    @Test
+    public void finishesFillHalfDoneInSnapshot() throws IOException {
+        File directory = this.folder.newFolder();
+        Board expected = BoardGenerator.withMines(40, 30, 12, 0);
+        byte[] cells = expected.copyCells();
+
+        // A snapshot taken while the fill of a dig at (0, 0) waited for a tile: only the block is dug, and marked
+        // as one the fill spreads from. A flag was placed before the fill was done, and the dig recorded after it.
+        cells[40 + 2 + 1] |= 0x40 | 0x80;
+        ByteBuffer snapshot = ByteBuffer.allocate(21 + cells.length);
+        snapshot.put(new byte[] { 'M', 'S', 'W', 'S', 1 }).putInt(40).putInt(30).putLong(0).put(cells);
+        Files.write(directory.toPath().resolve("snapshot-0.bin"), snapshot.array());
+        ByteBuffer segment = ByteBuffer.allocate(5 + 2 * 9);
+        segment.put(new byte[] { 'M', 'S', 'W', 'J', 1 });
+        segment.put(BoardJournal.FLAG).putInt(29).putInt(39).put(BoardJournal.DIG).putInt(0).putInt(0);
+        Files.write(directory.toPath().resolve("journal-0.log"), segment.array());
+
+        expected.flag(29, 39);
+        expected.dig(0, 0);
+        BoardJournal recovered = BoardJournal.recover(directory);
+        assertEquals(2, recovered.moves());
+        assertArrayEquals(expected.copyCells(), recovered.board().copyCells());
+        assertEquals(1, recovered.board().coveredSafe());
+        recovered.close();
+    }
+}
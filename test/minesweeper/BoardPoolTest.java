@@ -0,0 +1,65 @@
+package minesweeper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests that a BoardPool hands out boards it generated ahead of time, and that they can be generated again from
+ * their seeds.
+ */
+public class BoardPoolTest {
+
+    /**
+     * Take boards from the pool until one was ready, waiting for the pool to generate them.
+     */
+    private static Board takeReady(BoardPool pool, int width, int height) throws InterruptedException {
+        for (int attempt = 0; attempt < 500; attempt++) {
+            long hits = BoardMetrics.poolHits();
+            Board board = pool.board(width, height);
+            if (BoardMetrics.poolHits() > hits) {
+                return board;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("no board was ever ready");
+    }
+
+    @Test(timeout = 30000)
+    public void handsOutReadyBoards() throws InterruptedException {
+        try (BoardPool pool = new BoardPool(2, 1)) {
+            pool.stock(30, 20);
+            Board first = takeReady(pool, 30, 20);
+            Board second = takeReady(pool, 30, 20);
+            assertNotSame(first, second);
+            assertEquals(30, first.getWidth());
+            assertEquals(20, first.getHeight());
+            assertEquals(0, first.version());
+            assertEquals(30 * 20, first.coveredSafe() + first.mines());
+            assertTrue(BoardMetrics.boardGeneration().count() >= 2);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void stocksSizesTakenOnce() throws InterruptedException {
+        try (BoardPool pool = new BoardPool(1, 1)) {
+            long misses = BoardMetrics.poolMisses();
+            Board board = pool.board(7, 9);
+            assertEquals(misses + 1, BoardMetrics.poolMisses());
+            assertEquals(7, board.getWidth());
+            assertEquals(9, takeReady(pool, 7, 9).getHeight());
+        }
+    }
+
+    @Test
+    public void dealsBoardsGeneratedFromTheirSeeds() {
+        try (BoardPool pool = new BoardPool(0, 1)) {
+            BoardPool.Deal deal = pool.deal(40, 25);
+            Board again = new Board(BoardGenerator.bombs(40, 25, deal.seed, BoardGenerator.DEFAULT_DENSITY, -1));
+            assertArrayEquals(again.copyCells(), deal.board.copyCells());
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package minesweeper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests Board against a straightforward recursive reference implementation of the game rules.
+ */
+public class BoardTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Write a board file for the given bombs and load it.
+     * @param bombs bombs[x][y] is true if the block at xth row and yth column contains a bomb
+     * @return board loaded from the file
+     * @throws IOException if the board file cannot be written or read
+     */
+    private Board loadBoard(boolean[][] bombs) throws IOException {
+        File file = folder.newFile();
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println(bombs[0].length + " " + bombs.length);
+            for (boolean[] row : bombs) {
+                StringBuilder line = new StringBuilder();
+                for (int j = 0; j < row.length; j++) {
+                    line.append(j > 0 ? " " : "").append(row[j] ? 1 : 0);
+                }
+                out.println(line);
+            }
+        }
+        return new Board(file);
+    }
+
+    /**
+     * Recursive dig as originally implemented by Board, used as the reference for reveal semantics.
+     */
+    private static boolean referenceDig(char[][] visual, boolean[][] bombs, int x, int y) {
+        if (!inside(bombs, x, y) || visual[x][y] != '-') {
+            return false;
+        }
+        if (bombs[x][y]) {
+            bombs[x][y] = false;
+            for (int i = -1; i < 2; i++) {
+                for (int j = -1; j < 2; j++) {
+                    if ((i != 0 || j != 0) && inside(bombs, x + i, y + j) && visual[x + i][y + j] >= '1'
+                            && visual[x + i][y + j] <= '8') {
+                        visual[x + i][y + j] = visual[x + i][y + j] == '1' ? ' ' : (char) (visual[x + i][y + j] - 1);
+                    }
+                }
+            }
+            referenceDig(visual, bombs, x, y);
+            return true;
+        }
+        int count = 0;
+        for (int i = -1; i < 2; i++) {
+            for (int j = -1; j < 2; j++) {
+                if ((i != 0 || j != 0) && inside(bombs, x + i, y + j) && bombs[x + i][y + j]) {
+                    count++;
+                }
+            }
+        }
+        visual[x][y] = count == 0 ? ' ' : (char) ('0' + count);
+        if (count == 0) {
+            for (int i = -1; i < 2; i++) {
+                for (int j = -1; j < 2; j++) {
+                    if ((i != 0 || j != 0) && inside(bombs, x + i, y + j)) {
+                        referenceDig(visual, bombs, x + i, y + j);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean inside(boolean[][] bombs, int x, int y) {
+        return x >= 0 && y >= 0 && x < bombs.length && y < bombs[0].length;
+    }
+
+    private static void assertSameBoard(char[][] visual, Board board) {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < visual.length; i++) {
+            for (int j = 0; j < visual[i].length; j++) {
+                assertEquals("block " + i + "," + j, visual[i][j], board.cellSymbol(i, j));
+                message.append(j > 0 ? " " : i > 0 ? "%n".formatted() : "").append(visual[i][j]);
+            }
+        }
+        assertEquals(message.toString(), new String(board.boardMessage(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void digMatchesRecursiveReferenceOnRandomBoards() throws IOException {
+        Random random = new Random(6031);
+        for (int round = 0; round < 200; round++) {
+            int height = 1 + random.nextInt(20), width = 1 + random.nextInt(20);
+            double density = random.nextDouble() * 0.4;
+            boolean[][] bombs = new boolean[height][width];
+            char[][] visual = new char[height][width];
+            for (int i = 0; i < height; i++) {
+                for (int j = 0; j < width; j++) {
+                    bombs[i][j] = random.nextDouble() < density;
+                    visual[i][j] = '-';
+                }
+            }
+            Board board = loadBoard(bombs);
+
+            for (int move = 0; move < 30; move++) {
+                int x = random.nextInt(height + 2) - 1, y = random.nextInt(width + 2) - 1;
+                int kind = random.nextInt(5);
+                if (kind == 0) {
+                    board.flag(x, y);
+                    if (inside(bombs, x, y) && visual[x][y] == '-') {
+                        visual[x][y] = 'F';
+                    }
+                } else if (kind == 1) {
+                    board.deflag(x, y);
+                    if (inside(bombs, x, y) && visual[x][y] == 'F') {
+                        visual[x][y] = '-';
+                    }
+                } else {
+                    assertEquals(referenceDig(visual, bombs, x, y), board.dig(x, y));
+                }
+                assertSameBoard(visual, board);
+            }
+        }
+    }
+
+    @Test
+    public void digLargeEmptyBoardWithoutStackOverflow() throws IOException {
+        boolean[][] bombs = new boolean[1000][1000];
+        bombs[999][999] = true;
+        Board board = loadBoard(bombs);
+
+        assertFalse(board.dig(0, 0));
+        assertEquals(' ', board.cellSymbol(500, 500));
+        assertEquals('1', board.cellSymbol(998, 998));
+        assertEquals('-', board.cellSymbol(999, 999));
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentDigsAcrossTiles() throws InterruptedException {
+        Board board = new Board(200, 150);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            Random random = new Random(t);
+            threads[t] = new Thread(() -> {
+                for (int k = 0; k < 20000; k++) {
+                    int x = random.nextInt(150), y = random.nextInt(200);
+                    board.flag(x, y);
+                    board.deflag(x, y);
+                    board.dig(random.nextInt(150), random.nextInt(200));
+                }
+                for (int i = 0; i < 150; i++) {
+                    for (int j = 0; j < 200; j++) {
+                        board.dig(i, j);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < 150; i++) {
+            for (int j = 0; j < 200; j++) {
+                assertEquals(' ', board.cellSymbol(i, j));
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void boardMessagesAreConsistentWhileWritersRun() throws InterruptedException {
+        Board board = BoardGenerator.withMines(101, 100, 5, 0);
+        // a rendering reads each band of rows at a single moment
+        int last = 2 * 99, lastInView = 2 * 99;
+        Thread writer = new Thread(() -> {
+            for (int k = 0; k < 20000; k++) {
+                // the two blocks lie in distant tiles of one band, and are always flagged and deflagged together
+                board.atomically(() -> {
+                    board.flag(0, 0);
+                    board.flag(0, 99);
+                });
+                board.atomically(() -> {
+                    board.deflag(0, 99);
+                    board.deflag(0, 0);
+                });
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            byte[] message = board.boardMessage();
+            assertEquals(message[0], message[last]);
+            byte[] view = board.viewMessage(0, 0, 100, 100);
+            assertEquals(view[0], view[lastInView]);
+        }
+        writer.join();
+        assertEquals('-', board.boardMessage()[0]);
+        assertEquals('-', board.boardMessage()[last]);
+    }
+
+    @Test
+    public void viewMatchesPartOfBoardMessage() {
+        Board board = new Board(70, 90);
+        Random random = new Random(17);
+        for (int k = 0; k < 40; k++) {
+            board.dig(random.nextInt(90), random.nextInt(70));
+            board.flag(random.nextInt(90), random.nextInt(70));
+        }
+        String[] lines = new String(board.boardMessage(), StandardCharsets.US_ASCII).split("%n".formatted());
+        for (int k = 0; k < 200; k++) {
+            int x = random.nextInt(100) - 5, y = random.nextInt(80) - 5;
+            int rows = random.nextInt(40), columns = random.nextInt(40);
+            StringBuilder expected = new StringBuilder();
+            for (int i = Math.max(x, 0); i < Math.min(x + rows, 90); i++) {
+                int first = Math.max(y, 0), last = Math.min(y + columns, 70);
+                if (first < last) {
+                    expected.append(expected.length() > 0 ? "%n".formatted() : "")
+                            .append(lines[i], 2 * first, 2 * last - 1);
+                }
+            }
+            assertEquals(expected.toString(),
+                    new String(board.viewMessage(x, y, rows, columns), StandardCharsets.US_ASCII));
+        }
+        assertEquals(String.join("%n".formatted(), lines),
+                new String(board.viewMessage(-1, -1, 100, 100), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void countersFollowMoves() throws IOException {
+        Random random = new Random(23);
+        boolean[][] bombs = new boolean[30][40];
+        for (boolean[] row : bombs) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = random.nextInt(6) == 0;
+            }
+        }
+        Board board = loadBoard(bombs);
+        for (int k = 0; k < 400; k++) {
+            int x = random.nextInt(30), y = random.nextInt(40);
+            switch (random.nextInt(3)) {
+            case 0:
+                if (board.dig(x, y)) {
+                    bombs[x][y] = false;
+                }
+                break;
+            case 1:
+                board.flag(x, y);
+                break;
+            default:
+                board.deflag(x, y);
+            }
+            long coveredSafe = 0, flags = 0, mines = 0;
+            for (int i = 0; i < 30; i++) {
+                for (int j = 0; j < 40; j++) {
+                    char symbol = board.lockedCellSymbol(i, j);
+                    flags += symbol == 'F' ? 1 : 0;
+                    mines += bombs[i][j] ? 1 : 0;
+                    coveredSafe += (symbol == '-' || symbol == 'F') && !bombs[i][j] ? 1 : 0;
+                }
+            }
+            assertEquals(coveredSafe, board.coveredSafe());
+            assertEquals(flags, board.flags());
+            assertEquals(mines, board.mines());
+            assertEquals(coveredSafe == 0, board.cleared());
+        }
+    }
+
+    @Test
+    public void clearedBoardIsResetOnce() throws IOException {
+        Board board = loadBoard(new boolean[][] { { false, false, false }, { false, false, true } });
+        assertFalse(board.resetIfCleared(1));
+        board.flag(1, 2);
+        board.dig(0, 0);
+        board.dig(0, 2);
+        assertTrue(board.cleared());
+        assertEquals(1, board.flags());
+        long version = board.version();
+
+        assertTrue(board.resetIfCleared(1));
+        assertFalse(board.resetIfCleared(2));
+        assertTrue(board.version() > version);
+        assertEquals(0, board.flags());
+        assertEquals(6, board.coveredSafe() + board.mines());
+        for (int x = 0; x < 2; x++) {
+            for (int y = 0; y < 3; y++) {
+                assertEquals('-', board.lockedCellSymbol(x, y));
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void boardMessageDoesNotWaitForHeldTiles() throws InterruptedException {
+        Board board = BoardGenerator.withMines(40, 70, 5, 0);
+        board.boardMessage();
+        board.flag(0, 1);
+        board.flag(40, 5);
+
+        CountDownLatch held = new CountDownLatch(1), done = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            board.lockRegion(0, 0, 0, 0);
+            try {
+                held.countDown();
+                done.await();
+            } catch (InterruptedException ie) {
+                // released
+            } finally {
+                board.unlockRegion(0, 0, 0, 0);
+            }
+        });
+        holder.start();
+        held.await();
+        String[] lines;
+        long[] stamps = board.tileStamps();
+        try {
+            lines = new String(board.boardMessage(), StandardCharsets.US_ASCII).split("%n".formatted());
+            // no tile was locked by the rendering
+            assertArrayEquals(stamps, board.tileStamps());
+        } finally {
+            done.countDown();
+            holder.join();
+        }
+        // the held band is shown as it was, the others as they are
+        assertEquals('-', lines[0].charAt(2));
+        assertEquals('F', lines[40].charAt(10));
+
+        lines = new String(board.boardMessage(), StandardCharsets.US_ASCII).split("%n".formatted());
+        assertEquals('F', lines[0].charAt(2));
+        assertEquals('F', lines[40].charAt(10));
+    }
+}
@@ -0,0 +1,68 @@
+package minesweeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+/**
+ * Tests the precision of the percentiles of Histogram, and recording from many threads.
+ */
+public class HistogramTest {
+
+    @Test
+    public void percentilesWithinPrecision() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(100_000, histogram.count());
+        assertEquals(100_000_000, histogram.max());
+        assertEquals(50_000_500, histogram.mean(), 1);
+        for (double percentile : new double[] { 1, 50, 90, 99, 99.9 }) {
+            double expected = percentile * 1_000_000;
+            long value = histogram.valueAtPercentile(percentile);
+            assertTrue(percentile + ": " + value, value >= expected && value <= expected * 1.001);
+        }
+        assertEquals(100_000_000, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    public void mergesValuesOfManyThreads() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            long offset = i * 10_000L;
+            threads[i] = new Thread(() -> {
+                for (long value = 1; value <= 10_000; value++) {
+                    histogram.record(offset + value);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, histogram.count());
+        assertEquals(80_000, histogram.max());
+        assertEquals(40_000.5, histogram.mean(), 1e-9);
+        long median = histogram.valueAtPercentile(50);
+        assertTrue("median " + median, median >= 40_000 && median <= 40_040);
+    }
+
+    @Test
+    public void smallValuesExact() {
+        Histogram histogram = new Histogram();
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(random.nextInt(2048));
+        }
+        histogram.record(-5);
+        assertEquals(0, histogram.valueAtPercentile(0));
+        Histogram.Summary summary = histogram.summary(1);
+        assertEquals(1001, summary.getCount());
+        assertEquals(histogram.max(), summary.getMax(), 0);
+    }
+}
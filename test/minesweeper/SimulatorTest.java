@@ -0,0 +1,63 @@
+package minesweeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the results of Simulator on boards whose outcome is known, its determinism, and that it is not metered.
+ */
+public class SimulatorTest {
+
+    @Test
+    public void boardsWithoutBombsAreWonInOneDig() {
+        Simulator.Results results = Simulator.simulate(12, 7, 0, 100, 1, Simulator.RANDOM);
+        assertEquals(100, results.games());
+        assertEquals(100, results.wins());
+        assertEquals(1, results.meanMoves(), 0);
+        assertEquals(100, results.reveals());
+        assertEquals(12 * 7, results.revealAtPercentile(50));
+    }
+
+    @Test
+    public void boardsFullOfBombsAreOverBeforeAnyMove() {
+        Simulator.Results results = Simulator.simulate(5, 5, 1, 50, 1, Simulator.SOLVER);
+        assertEquals(50, results.wins());
+        assertEquals(0, results.movesAtPercentile(100));
+        assertEquals(0, results.reveals());
+    }
+
+    @Test
+    public void gamesEndAtTheFirstBomb() {
+        Simulator.Results results = Simulator.simulate(20, 20, 0.9, 50, 1, Simulator.RANDOM);
+        assertEquals(0, results.wins());
+        assertTrue(results.movesAtPercentile(50) <= 2);
+    }
+
+    @Test
+    public void resultsDependOnlyOnTheArguments() {
+        Simulator.Results first = Simulator.simulate(9, 9, 0.12, 300, 42, Simulator.RANDOM);
+        Simulator.Results second = Simulator.simulate(9, 9, 0.12, 300, 42, Simulator.RANDOM);
+        assertEquals(first.wins(), second.wins());
+        assertEquals(first.meanMoves(), second.meanMoves(), 0);
+        assertEquals(first.reveals(), second.reveals());
+        assertEquals(first.revealAtPercentile(90), second.revealAtPercentile(90));
+    }
+
+    @Test
+    public void solverWinsMoreOftenThanRandomClicks() {
+        Simulator.Results random = Simulator.simulate(9, 9, 0.12, 200, 7, Simulator.RANDOM);
+        Simulator.Results solver = Simulator.simulate(9, 9, 0.12, 200, 7, Simulator.SOLVER);
+        assertTrue(solver.winRate() > random.winRate());
+        assertTrue(solver.winRate() > 0.5);
+    }
+
+    @Test
+    public void simulatedBoardsAreNotMetered() {
+        long holds = BoardMetrics.lockHold().count(), fills = BoardMetrics.floodFill().count();
+        Simulator.simulate(9, 9, 0.12, 100, 3, Simulator.SOLVER);
+        assertEquals(holds, BoardMetrics.lockHold().count());
+        assertEquals(fills, BoardMetrics.floodFill().count());
+    }
+}
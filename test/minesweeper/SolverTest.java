@@ -0,0 +1,136 @@
+package minesweeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests that the hints of Solver are sound, and follow the moves of other players.
+ */
+public class SolverTest {
+
+    /**
+     * Make a board with bombs at the given locations.
+     * @param bombs bombs[x][y] is true if the block at xth row and yth column contains a bomb
+     */
+    private static Board board(boolean[][] bombs) {
+        BoardFiles.Bombs res = new BoardFiles.Bombs(bombs[0].length, bombs.length);
+        for (int x = 0; x < bombs.length; x++) {
+            for (int y = 0; y < bombs[x].length; y++) {
+                if (bombs[x][y]) {
+                    int index = x * bombs[x].length + y;
+                    res.bits[index >>> 3] |= (byte) (1 << (index & 7));
+                }
+            }
+        }
+        return new Board(res);
+    }
+
+    @Test
+    public void hintsAreSound() {
+        for (long seed = 0; seed < 20; seed++) {
+            BoardFiles.Bombs bombs = BoardGenerator.bombs(40, 30, seed, 0.15, -1);
+            Board board = new Board(bombs);
+            Solver solver = new Solver(board);
+            int known = 0;
+            for (Solver.Hint hint = solver.hint(); hint != null; hint = solver.hint()) {
+                int x = hint.row(), y = hint.column();
+                switch (hint.action()) {
+                case Solver.Hint.FLAG:
+                    assertEquals(1, hint.risk(), 0);
+                    assertTrue("flagged a safe block", bombs.bomb(x, y));
+                    board.flag(x, y);
+                    known++;
+                    break;
+                case Solver.Hint.DEFLAG:
+                    board.deflag(x, y);
+                    break;
+                default:
+                    boolean boom = board.dig(x, y);
+                    if (hint.risk() == 0) {
+                        assertFalse("dug a bomb said to be safe", boom);
+                        known++;
+                    }
+                }
+            }
+            assertTrue(known > 0);
+            for (int x = 0; x < board.getHeight(); x++) {
+                for (int y = 0; y < board.getWidth(); y++) {
+                    char symbol = board.lockedCellSymbol(x, y);
+                    assertTrue(symbol != '-');
+                    assertTrue(symbol != 'F' || bombs.bomb(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void subsetRuleFindsSafeBlock() {
+        // 1 2 1 over a bomb, a safe block and a bomb.
+        Board board = board(new boolean[][] { { false, false, false }, { true, false, true } });
+        for (int y = 0; y < 3; y++) {
+            board.dig(0, y);
+        }
+        Solver solver = new Solver(board);
+        Solver.Hint hint = solver.hint();
+        assertNotNull(hint);
+        assertTrue(solver.knownBomb(1, 0));
+        assertTrue(solver.knownSafe(1, 1));
+        assertTrue(solver.knownBomb(1, 2));
+    }
+
+    @Test
+    public void hintsFollowOtherPlayers() {
+        // A bomb in the corner of a 5 by 5 board, every other block safe.
+        boolean[][] bombs = new boolean[5][5];
+        bombs[4][4] = true;
+        Board board = board(bombs);
+        Solver solver = new Solver(board);
+        Solver.Hint hint = solver.hint();
+        assertEquals(Solver.Hint.DIG, hint.action());
+        assertTrue(hint.risk() > 0);
+
+        // Other players flag a safe block next to the bomb, then dig the safe corner, revealing the rest.
+        board.flag(3, 3);
+        board.dig(0, 0);
+        assertEquals('F', board.lockedCellSymbol(3, 3));
+        hint = solver.hint();
+        assertTrue(solver.knownSafe(3, 3));
+        assertTrue(solver.knownBomb(4, 4));
+        if (hint.action() == Solver.Hint.FLAG) {
+            assertEquals(4, hint.row());
+            assertEquals(4, hint.column());
+            board.flag(4, 4);
+            hint = solver.hint();
+        }
+        assertEquals(Solver.Hint.DEFLAG, hint.action());
+        assertEquals(3, hint.row());
+        assertEquals(3, hint.column());
+
+        board.deflag(3, 3);
+        board.dig(3, 3);
+        board.flag(4, 4);
+        assertNull(solver.hint());
+        assertTrue(solver.knownBomb(4, 4));
+    }
+
+    @Test
+    public void hintsFollowNewBoard() {
+        Board board = board(new boolean[][] { { false, false, false }, { false, false, true } });
+        Solver solver = new Solver(board);
+        board.dig(0, 0);
+        board.dig(0, 2);
+        board.flag(1, 2);
+        assertNull(solver.hint());
+        assertTrue(solver.knownBomb(1, 2));
+
+        assertTrue(board.resetIfCleared(3));
+        Solver.Hint hint = solver.hint();
+        assertNotNull(hint);
+        assertFalse(solver.knownBomb(1, 2));
+    }
+}
@@ -0,0 +1,69 @@
+package minesweeper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests TiledBoard against a Board holding the same bombs.
+ */
+public class TiledBoardTest {
+
+    @Test
+    public void playsLikeBoard() {
+        Random random = new Random(3);
+        for (double density : new double[] { 0.05, 0.25 }) {
+            TiledBoard tiled = new TiledBoard(150, 130, random.nextLong(), density);
+            BoardFiles.Bombs bombs = new BoardFiles.Bombs(150, 130);
+            for (int i = 0; i < 130; i++) {
+                for (int j = 0; j < 150; j++) {
+                    if (tiled.bomb(i, j)) {
+                        bombs.set(i * 150L + j);
+                    }
+                }
+            }
+            Board board = new Board(bombs);
+
+            for (int move = 0; move < 2000; move++) {
+                int x = random.nextInt(134) - 2, y = random.nextInt(154) - 2;
+                switch (random.nextInt(4)) {
+                case 0:
+                    tiled.flag(x, y);
+                    board.flag(x, y);
+                    break;
+                case 1:
+                    tiled.deflag(x, y);
+                    board.deflag(x, y);
+                    break;
+                default:
+                    assertEquals(board.dig(x, y), tiled.dig(x, y));
+                }
+            }
+            for (int i = 0; i < 130; i++) {
+                for (int j = 0; j < 150; j++) {
+                    assertEquals("block " + i + "," + j, board.cellSymbol(i, j), tiled.cellSymbol(i, j));
+                }
+            }
+            assertArrayEquals(board.viewMessage(60, 50, 70, 90), tiled.viewMessage(60, 50, 70, 90));
+        }
+    }
+
+    @Test
+    public void hugeBoardBuildsAndEvictsTiles() {
+        TiledBoard board = new TiledBoard(5_000_000, 5_000_000, 11, 0.25);
+        boolean far = board.bomb(4_999_999, 4_999_999);
+        byte[] corner = board.boardMessage();
+        Random random = new Random(4);
+        for (int i = 0; i < 40_000; i++) {
+            board.flag(random.nextInt(5_000_000), random.nextInt(5_000_000));
+            board.bomb(random.nextInt(5_000_000), random.nextInt(5_000_000));
+        }
+        assertTrue(board.cachedTiles() < 40_000 + 20_000);
+        assertEquals(far, board.bomb(4_999_999, 4_999_999));
+        assertArrayEquals(corner, board.boardMessage());
+    }
+}
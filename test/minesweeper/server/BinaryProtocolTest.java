@@ -0,0 +1,112 @@
+package minesweeper.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+import minesweeper.BoardGenerator;
+
+/**
+ * Tests the frames of the binary protocol, and switching a connection to it.
+ */
+public class BinaryProtocolTest {
+
+    /**
+     * Decode a BOARD frame into the board message it encodes.
+     */
+    private static String decode(byte[] frame) {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        assertEquals(frame.length - Integer.BYTES, buffer.getInt());
+        assertEquals(BinaryProtocol.BOARD, buffer.get());
+        return new String(BinaryProtocol.boardMessage(buffer), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void boardFramesRoundTrip() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int size : new int[] { 1, 2, 7, 40, 100 }) {
+            Board board = BoardGenerator.withDensity(size, size + 3, size, 0.1);
+            for (int move = 0; move < 3 * size; move++) {
+                int x = random.nextInt(size + 3), y = random.nextInt(size);
+                if (random.nextInt(4) == 0) {
+                    board.flag(x, y);
+                } else {
+                    board.dig(x, y);
+                }
+                byte[] message = board.boardMessage();
+                assertEquals(new String(message, StandardCharsets.US_ASCII),
+                        decode(BinaryProtocol.boardFrame(message)));
+            }
+        }
+    }
+
+    @Test
+    public void runsOfBlocksAreCompact() {
+        byte[] untouched = BoardGenerator.withDensity(1000, 1000, 2, 0.25).boardMessage();
+        byte[] frame = BinaryProtocol.boardFrame(untouched);
+        assertTrue(frame.length + " bytes", frame.length <= 20);
+        assertEquals(new String(untouched, StandardCharsets.US_ASCII), decode(frame));
+
+        Board empty = BoardGenerator.withMines(300, 200, 3, 0);
+        empty.dig(0, 0);
+        frame = BinaryProtocol.boardFrame(empty.boardMessage());
+        assertTrue(frame.length + " bytes", frame.length <= 20);
+    }
+
+    @Test
+    public void protocolSwitchesToFrames() {
+        MinesweeperProtocol protocol = new MinesweeperProtocol(
+                new RoomRegistry(BoardGenerator.withMines(10, 10, 4, 10)), true);
+        byte[] look = protocol.handleRequest("look");
+        assertEquals("Binary protocol.", new String(protocol.handleRequest("binary"), StandardCharsets.US_ASCII));
+        assertTrue(protocol.binary());
+        assertEquals(new String(look, StandardCharsets.US_ASCII), decode(protocol.handleRequest("look")));
+
+        ByteBuffer help = ByteBuffer.wrap(protocol.handleRequest("nonsense"));
+        assertEquals(help.capacity() - Integer.BYTES, help.getInt());
+        assertEquals(BinaryProtocol.TEXT, help.get());
+        protocol.close();
+    }
+
+    @Test
+    public void connectionSwitchesToLengthPrefixedRequests() throws IOException {
+        MinesweeperProtocol protocol = new MinesweeperProtocol(
+                new RoomRegistry(BoardGenerator.withMines(3, 2, 5, 0)), false);
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        requests.writeBytes("binary\r\n".getBytes(StandardCharsets.US_ASCII));
+        for (String request : new String[] { "dig 0 0", "bye" }) {
+            requests.write(0);
+            requests.write(request.length());
+            requests.writeBytes(request.getBytes(StandardCharsets.US_ASCII));
+        }
+        ByteArrayOutputStream responses = new ByteArrayOutputStream();
+        MinesweeperHandler.handleConnection(protocol, new ByteArrayInputStream(requests.toByteArray()), responses,
+                task -> new Thread(task).start());
+
+        String text = new String(responses.toByteArray(), StandardCharsets.US_ASCII);
+        String lines = "Binary protocol." + "%n".formatted();
+        int framesStart = text.indexOf(lines) + lines.length();
+        assertTrue(text, text.startsWith("Welcome to Minesweeper.") && framesStart > lines.length());
+
+        ByteBuffer frames = ByteBuffer.wrap(responses.toByteArray(), framesStart, responses.size() - framesStart);
+        int length = frames.getInt();
+        assertEquals(BinaryProtocol.BOARD, frames.get());
+        byte[] board = new byte[length - 1];
+        frames.get(board);
+        assertArrayEquals(("     " + "%n".formatted() + "     ").getBytes(StandardCharsets.US_ASCII),
+                BinaryProtocol.boardMessage(ByteBuffer.wrap(board)));
+        assertEquals(4, frames.getInt());
+        assertEquals(BinaryProtocol.TEXT, frames.get());
+        assertEquals("bye", StandardCharsets.US_ASCII.decode(frames).toString());
+    }
+}
@@ -0,0 +1,149 @@
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+
+/**
+ * Tests that both servers turn away clients beyond the connection limit, and disconnect idle, slow and flooding
+ * clients.
+ */
+public class ConnectionLimitsTest {
+
+    /** Limits of the servers under test: one client at a time, idle for at most 300 milliseconds. */
+    private static ConnectionLimits limits() {
+        return new ConnectionLimits(1, 4, 300, 1000);
+    }
+
+    /**
+     * Run serve on a daemon thread.
+     */
+    private static void start(Runnable serve) {
+        Thread thread = new Thread(serve, "server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Connect to the server until it admits the client, as the last client may not be released yet.
+     */
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            Socket socket = new Socket("localhost", port);
+            if (reader(socket).readLine().startsWith("Welcome")) {
+                return socket;
+            }
+            socket.close();
+            Thread.sleep(20);
+        }
+        fail("never admitted");
+        return null;
+    }
+
+    private static void limitsConnections(int port) throws IOException, InterruptedException {
+        ServerMetrics metrics = ServerMetrics.METRICS;
+        long rejected = metrics.getRejectedConnections(), timedOut = metrics.getTimedOutConnections();
+
+        try (Socket first = connect(port); Socket second = new Socket("localhost", port)) {
+            BufferedReader lines = reader(second);
+            assertEquals("Server full. Try again later.", lines.readLine());
+            assertNull(lines.readLine());
+            assertEquals(rejected + 1, metrics.getRejectedConnections());
+
+            // the idle client is disconnected
+            assertNull(reader(first).readLine());
+            assertEquals(timedOut + 1, metrics.getTimedOutConnections());
+        }
+
+        // a watching client may stay idle
+        try (Socket watcher = connect(port)) {
+            OutputStream out = watcher.getOutputStream();
+            out.write("watch\n".getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(800);
+            out.write("bye\n".getBytes(StandardCharsets.US_ASCII));
+            BufferedReader lines = reader(watcher);
+            String last = null;
+            for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+                last = line;
+            }
+            assertEquals("bye", last);
+        }
+
+        // a client sending a request longer than the server keeps is answered up to it, then disconnected
+        long overlong = metrics.getOverlongRequests();
+        try (Socket flooder = connect(port)) {
+            OutputStream out = flooder.getOutputStream();
+            out.write("look\n%s".formatted("x".repeat(LineDecoder.MAX_REQUEST + 1))
+                    .getBytes(StandardCharsets.US_ASCII));
+            BufferedReader lines = reader(flooder);
+            for (int i = 0; i < 4; i++) {
+                assertEquals("- - - -", lines.readLine());
+            }
+            assertNull(lines.readLine());
+            assertEquals(overlong + 1, metrics.getOverlongRequests());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void threadServerLimitsConnections() throws Exception {
+        MinesweeperServer server = new MinesweeperServer(0, new Board(4, 4), false, task -> new Thread(task).start(),
+                limits());
+        start(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        });
+        limitsConnections(server.port());
+    }
+
+    @Test(timeout = 30000)
+    public void nioServerLimitsConnections() throws Exception {
+        MinesweeperNioServer server = new MinesweeperNioServer(0, new Board(4, 4), false, 1, limits());
+        start(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        });
+        limitsConnections(server.port());
+    }
+
+    @Test(timeout = 30000)
+    public void unreadWritesTimeOut() throws Exception {
+        try (ServerSocket listening = new ServerSocket(0);
+                Socket client = new Socket("localhost", listening.getLocalPort());
+                Socket socket = listening.accept()) {
+            assertTrue(client.isConnected());
+            TimedOutputStream out = new TimedOutputStream(socket, socket.getOutputStream(), 200);
+            long timedOut = ServerMetrics.METRICS.getTimedOutConnections();
+            try {
+                out.write(new byte[64 << 20]);
+                fail("the client reads nothing");
+            } catch (SocketTimeoutException ste) {
+                assertTrue(socket.isClosed());
+                assertEquals(timedOut + 1, ServerMetrics.METRICS.getTimedOutConnections());
+            }
+        }
+    }
+}
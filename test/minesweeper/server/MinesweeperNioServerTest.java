@@ -0,0 +1,103 @@
+package minesweeper.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import minesweeper.BoardGenerator;
+import minesweeper.Minefield;
+
+/**
+ * Tests that MinesweeperNioServer answers a client with the same bytes as MinesweeperServer.
+ */
+public class MinesweeperNioServerTest {
+
+    /** Board of the servers under test, the same for every server. */
+    private static Minefield board() {
+        return BoardGenerator.withMines(7, 5, 11, 6);
+    }
+
+    /**
+     * Run serve on a daemon thread.
+     */
+    private static void start(Runnable serve) {
+        Thread thread = new Thread(serve, "server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static int threadServer() throws IOException {
+        MinesweeperServer server = new MinesweeperServer(0, board(), true, task -> new Thread(task).start());
+        start(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        });
+        return server.port();
+    }
+
+    private static int nioServer() throws IOException {
+        MinesweeperNioServer server = new MinesweeperNioServer(0, board(), true, 1);
+        start(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        });
+        return server.port();
+    }
+
+    /**
+     * Send the parts of a script to a server one write at a time, then stop sending, and read everything the server
+     * writes until it closes the connection.
+     * 
+     * @param port port of the server
+     * @param parts parts of the script, a line terminator may be split between two parts
+     * @return bytes written by the server
+     */
+    private static byte[] play(int port, String... parts) throws IOException, InterruptedException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            for (String part : parts) {
+                out.write(part.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                // so the parts arrive in reads of their own
+                Thread.sleep(50);
+            }
+            socket.shutdownOutput();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream res = new ByteArrayOutputStream();
+            in.transferTo(res);
+            return res.toByteArray();
+        }
+    }
+
+    private static void assertSameBytes(String... parts) throws IOException, InterruptedException {
+        byte[] expected = play(threadServer(), parts);
+        byte[] actual = play(nioServer(), parts);
+        assertTrue(new String(expected, StandardCharsets.US_ASCII), expected.length > 0);
+        assertArrayEquals(new String(actual, StandardCharsets.US_ASCII), expected, actual);
+    }
+
+    @Test(timeout = 30000)
+    public void scriptEndingWithByeGetsTheSameBytes() throws Exception {
+        assertSameBytes("look\n", "dig 1 1\r\n", "flag 2 2\r", "\nflag 3 3\rdeflag 3 3\r", "\n", "di", "g 0 4\n",
+                "help\r\nlook\n", "bye\n", "look\n");
+    }
+
+    @Test(timeout = 30000)
+    public void scriptEndingWithPartialLineGetsTheSameBytes() throws Exception {
+        assertSameBytes("look\r\n", "\r\n", "dig 6 4\n", "flag 0 0\r", "look");
+    }
+}
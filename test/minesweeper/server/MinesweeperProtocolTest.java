@@ -0,0 +1,147 @@
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import minesweeper.Board;
+
+/**
+ * Tests batches of requests sent on one line, and that a board cleared by a dig which hit its last bomb is dealt
+ * again, whether the dig came alone or in a batch.
+ */
+public class MinesweeperProtocolTest {
+    private static final String CLEARED = "Board cleared! A new board is dealt.";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Make a board of one row of ten blocks with a bomb in the first, so digging the bomb clears the board and
+     * leaves no bomb on it.
+     */
+    private Board board() throws IOException {
+        return board("10 1\n1 0 0 0 0 0 0 0 0 0\n");
+    }
+
+    /**
+     * Make a board of five rows of five blocks, with bombs at column 0 of row 2 and column 4 of row 4.
+     */
+    private Board fiveByFive() throws IOException {
+        return board("5 5\n0 0 0 0 0\n0 0 0 0 0\n1 0 0 0 0\n0 0 0 0 0\n0 0 0 0 1\n");
+    }
+
+    private Board board(String contents) throws IOException {
+        File file = this.folder.newFile();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+        return new Board(file);
+    }
+
+    /**
+     * Put together the rows of a board message.
+     */
+    private static String rows(String... rows) {
+        return String.join("%n".formatted(), rows);
+    }
+
+    private static String request(MinesweeperProtocol protocol, String input) {
+        return new String(protocol.handleRequest(input), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void boardClearedByBoomIsDealtByTheNextMove() throws IOException {
+        Board board = board();
+        MinesweeperProtocol protocol = new MinesweeperProtocol(new RoomRegistry(board), true);
+        assertEquals("BOOM!", request(protocol, "dig 0 0"));
+        assertTrue(board.cleared());
+        assertEquals(0, board.mines());
+
+        // the board the bomb cleared can still be looked at
+        assertEquals(" ".repeat(19), request(protocol, "look"));
+        assertTrue(board.cleared());
+
+        assertTrue(request(protocol, "flag 3 0").startsWith(CLEARED));
+        assertFalse(board.cleared());
+        assertEquals(0, board.flags());
+        assertEquals(10, board.coveredSafe() + board.mines());
+        protocol.close();
+    }
+
+    @Test
+    public void boardClearedByBoomInBatchIsDealtByTheNextMove() throws IOException {
+        Board board = board();
+        MinesweeperProtocol protocol = new MinesweeperProtocol(new RoomRegistry(board), true);
+        String boom = request(protocol, "look;dig 0 0");
+        assertTrue(boom, boom.startsWith("BOOM!") && !boom.contains(CLEARED));
+        assertTrue(board.cleared());
+        assertFalse(request(protocol, "look;look").contains(CLEARED));
+        assertTrue(board.cleared());
+
+        assertTrue(request(protocol, "flag 3 0;look").startsWith(CLEARED));
+        assertFalse(board.cleared());
+        assertEquals(0, board.flags());
+        protocol.close();
+    }
+
+    @Test
+    public void batchIsAnsweredOnceAfterItsLastRequest() throws IOException {
+        MinesweeperProtocol protocol = new MinesweeperProtocol(new RoomRegistry(fiveByFive()), true);
+        String board = rows("- - - - -", "- - - - -", "- 1 - - -", "- - - - -", "- - - F -");
+        assertEquals(board, request(protocol, "dig 1 2;flag 3 4;look"));
+        assertEquals(board, request(protocol, "look"));
+        protocol.close();
+    }
+
+    @Test
+    public void batchAppliesRequestsInOrder() throws IOException {
+        MinesweeperProtocol protocol = new MinesweeperProtocol(new RoomRegistry(fiveByFive()), true);
+        // a flagged block isn't dug, and a dug block isn't flagged
+        assertEquals(rows("- - - - -", "- - - - -", "- F - - -", "- 1 - - -", "- - - - -"),
+                request(protocol, "flag 1 2;dig 1 2;dig 1 3;flag 1 3"));
+        protocol.close();
+    }
+
+    @Test
+    public void boomInBatchComesBeforeTheBoard() throws IOException {
+        MinesweeperProtocol protocol = new MinesweeperProtocol(new RoomRegistry(fiveByFive()), true);
+        String boom = request(protocol, "flag 3 4;dig 0 2");
+        // the bomb went off and the flood fill around it left the flag
+        assertEquals(rows("BOOM!", request(protocol, "look")), boom);
+        assertTrue(boom, boom.endsWith("F -"));
+        protocol.close();
+    }
+
+    @Test
+    public void invalidRequestRejectsWholeBatch() throws IOException {
+        Board board = fiveByFive();
+        MinesweeperProtocol protocol = new MinesweeperProtocol(new RoomRegistry(board), true);
+        String help = request(protocol, "help");
+        assertEquals(help, request(protocol, "flag 3 4;dig x y;look"));
+        assertEquals(help, request(protocol, "flag 3 4;bye"));
+        assertEquals(0, board.flags());
+        protocol.close();
+    }
+
+    @Test
+    public void longBatchIsRejected() throws IOException {
+        Board board = fiveByFive();
+        MinesweeperProtocol protocol = new MinesweeperProtocol(new RoomRegistry(board), true);
+        String help = request(protocol, "help");
+        String batch = "flag 3 4" + ";look".repeat(MinesweeperProtocol.MAX_BATCH - 1);
+        assertEquals(help, request(protocol, batch + ";look"));
+        assertEquals(0, board.flags());
+        String response = request(protocol, batch);
+        assertEquals(request(protocol, "look"), response);
+        assertEquals(1, board.flags());
+        protocol.close();
+    }
+}
@@ -0,0 +1,64 @@
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the requests accepted by RequestParser against the grammar of the protocol.
+ */
+public class RequestParserTest {
+
+    private final RequestParser parser = new RequestParser();
+
+    private boolean parse(String line) {
+        return this.parser.parse(line, 0, line.length());
+    }
+
+    @Test
+    public void acceptsValidRequests() {
+        assertTrue(parse("look"));
+        assertEquals(RequestParser.LOOK, this.parser.command);
+        assertTrue(parse("dig -3 12"));
+        assertEquals(RequestParser.DIG, this.parser.command);
+        assertEquals(-3, this.parser.numbers[0]);
+        assertEquals(12, this.parser.numbers[1]);
+        assertTrue(parse("create room_1-a"));
+        assertEquals(0, this.parser.numberCount);
+        assertEquals("room_1-a", this.parser.name());
+        assertTrue(parse("create r 4 5"));
+        assertEquals(4, this.parser.numbers[0]);
+        assertEquals(5, this.parser.numbers[1]);
+        assertTrue(parse("view -1 2 30 40"));
+        assertEquals(RequestParser.VIEW, this.parser.command);
+        assertEquals(4, this.parser.numberCount);
+        assertEquals(40, this.parser.numbers[3]);
+    }
+
+    @Test
+    public void rejectsInvalidRequests() {
+        for (String line : new String[] { "", "loo", "looks", "look ", " look", "dig 1", "dig 1 2 3", "dig  1 2",
+                "dig a 1", "flag 1 -", "create", "create r -1 2", "create r 1", "join a.b",
+                "join 012345678901234567890123456789012", "view 1 2 3", "view 1 2 3 -4" }) {
+            assertFalse(line, parse(line));
+        }
+    }
+
+    @Test
+    public void clampsNumbersOutsideInt() {
+        assertTrue(parse("flag 99999999999999 -99999999999999"));
+        assertEquals(Integer.MAX_VALUE, this.parser.numbers[0]);
+        assertEquals(-Integer.MAX_VALUE, this.parser.numbers[1]);
+    }
+
+    @Test
+    public void parsesPartOfLine() {
+        String line = "flag 1 2;dig 3 4";
+        assertTrue(this.parser.parse(line, 9, line.length()));
+        assertEquals(RequestParser.DIG, this.parser.command);
+        assertEquals(3, this.parser.numbers[0]);
+        assertFalse(this.parser.parse(line, 0, line.length()));
+    }
+}
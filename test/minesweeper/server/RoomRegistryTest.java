@@ -0,0 +1,45 @@
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+import minesweeper.server.RoomRegistry.Room;
+
+/**
+ * Tests creating, joining and evicting rooms.
+ */
+public class RoomRegistryTest {
+
+    @Test
+    public void createAndJoinRooms() {
+        RoomRegistry rooms = new RoomRegistry(new Board(3, 3));
+        Room created = rooms.create("r1", 4, 5);
+        assertNotNull(created);
+        assertNull(rooms.create("r1", 4, 5));
+        assertSame(created, rooms.join("r1"));
+        assertEquals(2, created.players());
+        assertNull(rooms.join("r2"));
+        assertEquals(2, rooms.rooms().size());
+    }
+
+    @Test
+    public void evictOnlyEmptyIdleRooms() throws InterruptedException {
+        RoomRegistry rooms = new RoomRegistry(new Board(3, 3), 20);
+        Room empty = rooms.create("empty", 4, 4);
+        Room busy = rooms.create("busy", 4, 4);
+        empty.leave();
+        Thread.sleep(50);
+        rooms.evictIdle();
+
+        assertNull(rooms.join("empty"));
+        assertFalse(empty.enter());
+        assertSame(busy, rooms.join("busy"));
+        assertNotNull(rooms.join(RoomRegistry.DEFAULT_ROOM));
+    }
+}
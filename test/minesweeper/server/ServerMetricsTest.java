@@ -0,0 +1,57 @@
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+import minesweeper.BoardGenerator;
+
+/**
+ * Tests the metrics recorded while answering requests, and reading them through JMX and the stats request.
+ */
+public class ServerMetricsTest {
+
+    @Test
+    public void recordsRequestsAndConnections() throws Exception {
+        ServerMetrics metrics = ServerMetrics.METRICS;
+        long opened = metrics.getAcceptedConnections(), open = metrics.getOpenConnections();
+        long digs = metrics.getCommandLatency().get("dig").getCount();
+        long fills = metrics.getFloodFill().getCount();
+
+        MinesweeperProtocol protocol = new MinesweeperProtocol(
+                new RoomRegistry(BoardGenerator.withMines(20, 20, 1, 0)), true);
+        assertEquals(opened + 1, metrics.getAcceptedConnections());
+        assertEquals(open + 1, metrics.getOpenConnections());
+        protocol.handleRequest("dig 3 4");
+        protocol.handleRequest("dig 3 4");
+        assertEquals(digs + 2, metrics.getCommandLatency().get("dig").getCount());
+        assertEquals(fills + 1, metrics.getFloodFill().getCount());
+        protocol.close();
+        assertEquals(open, metrics.getOpenConnections());
+
+        metrics.register();
+        CompositeData look = (CompositeData) ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName("minesweeper:type=Metrics"), "ResponseBytes");
+        assertTrue((Long) look.get("count") >= 2);
+    }
+
+    @Test
+    public void statsRequestOnlyWhenEnabled() {
+        MinesweeperProtocol protocol = new MinesweeperProtocol(new RoomRegistry(BoardGenerator.withMines(5, 5, 1, 0)),
+                true);
+        String help = new String(protocol.handleRequest("help"), StandardCharsets.US_ASCII);
+        assertEquals(help, new String(protocol.handleRequest("stats"), StandardCharsets.US_ASCII));
+        ServerMetrics.METRICS.enableStatsCommand();
+        String stats = new String(protocol.handleRequest("stats"), StandardCharsets.US_ASCII);
+        assertTrue(stats, stats.startsWith("connections: open "));
+        assertTrue(stats, stats.contains("help latency (us): count "));
+        protocol.close();
+    }
+}
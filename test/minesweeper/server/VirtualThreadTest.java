@@ -0,0 +1,117 @@
+package minesweeper.server;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import minesweeper.BoardGenerator;
+
+/**
+ * Tests many telnet clients connected at once to a server over sockets, each handled on its own virtual thread, or
+ * on its own thread of a bounded pool of platform threads on Java versions without virtual threads.
+ */
+public class VirtualThreadTest {
+    /** Number of clients connected at once in every run. */
+    private static final int CLIENTS = 500;
+    /** Number of clients connected at once in the run requiring virtual threads. */
+    private static final int MANY_CLIENTS = 50_000;
+    /** Number of clients connecting from each local address, fewer than the ephemeral ports of an address. */
+    private static final int CLIENTS_PER_ADDRESS = 20_000;
+
+    /**
+     * Read a line from the client socket, one byte at a time so no later byte is read.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder res = new StringBuilder();
+        for (int b = in.read(); b >= 0 && b != '\n'; b = in.read()) {
+            if (b != '\r') {
+                res.append((char) b);
+            }
+        }
+        return res.toString();
+    }
+
+    /**
+     * Connect clients to a server running its handlers on executor, keep them all connected until each was
+     * welcomed, then have every client play a few moves and leave.
+     * 
+     * @param clients number of clients
+     * @param executor executor of the server, running at least clients handlers at once
+     */
+    private static void serveConcurrentClients(int clients, ExecutorService executor) throws Exception {
+        // no mines, so no dig disconnects a client
+        MinesweeperServer server = new MinesweeperServer(0, BoardGenerator.withMines(8, 8, 1, 0), false, executor,
+                new ConnectionLimits(clients, 1024, 0, 0));
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }, "server");
+        serving.setDaemon(true);
+        serving.start();
+
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < clients; i++) {
+                InetAddress local = InetAddress.getByAddress(
+                        new byte[] { 127, 0, 0, (byte) (1 + i / CLIENTS_PER_ADDRESS) });
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port(), local, 0);
+                sockets.add(socket);
+                String welcome = readLine(socket.getInputStream());
+                assertTrue(welcome, welcome.startsWith("Welcome to Minesweeper. Board: 8 columns by 8 rows."));
+            }
+
+            for (int i = 0; i < clients; i++) {
+                int x = i % 8, y = (i / 8) % 8;
+                OutputStream out = sockets.get(i).getOutputStream();
+                out.write("look\nflag %d %d\ndeflag %d %d\ndig %d %d\nbye\n".formatted(x, y, x, y, x, y)
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+            for (Socket socket : sockets) {
+                String output = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+                assertTrue(output, output.endsWith("%nbye%n".formatted()));
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void concurrentClients() throws Exception {
+        ExecutorService executor = MinesweeperServer.virtualThreadsSupported()
+                ? MinesweeperServer.virtualThreadExecutor() : Executors.newFixedThreadPool(CLIENTS);
+        serveConcurrentClients(CLIENTS, executor);
+    }
+
+    @Test(timeout = 600000)
+    public void fiftyThousandConcurrentClients() throws Exception {
+        assumeTrue("virtual threads require Java 21 or later", MinesweeperServer.virtualThreadsSupported());
+        // both ends of every connection are open in this process
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        assumeTrue("too few file descriptors", !(os instanceof UnixOperatingSystemMXBean)
+                || ((UnixOperatingSystemMXBean) os).getMaxFileDescriptorCount() > 2L * MANY_CLIENTS + 1000);
+        serveConcurrentClients(MANY_CLIENTS, MinesweeperServer.virtualThreadExecutor());
+    }
+}
@@ -0,0 +1,108 @@
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+import minesweeper.BoardGenerator;
+
+/**
+ * Tests the changes pushed to players watching a room.
+ */
+public class WatchTest {
+
+    private static String text(byte[] message) {
+        return new String(message, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void watchersGetASnapshotThenCoalescedChanges() {
+        Board board = BoardGenerator.withMines(10, 6, 2, 0);
+        RoomWatchers watchers = new RoomWatchers(board);
+        Subscription subscription = new Subscription(false);
+        watchers.add(subscription);
+
+        watchers.tick();
+        String newline = "%n".formatted();
+        assertEquals("board 0" + newline + text(board.boardMessage()) + newline, text(subscription.poll()));
+        watchers.tick();
+        assertNull(subscription.poll());
+
+        board.flag(0, 1);
+        board.flag(2, 3);
+        board.flag(1, 1);
+        board.deflag(1, 1);
+        watchers.tick();
+        assertEquals("changed 0 4 1,0,F 3,2,F" + newline, text(subscription.poll()));
+        assertNull(subscription.poll());
+
+        Subscription binary = new Subscription(true);
+        watchers.add(binary);
+        board.deflag(0, 1);
+        watchers.tick();
+        assertEquals("changed 4 5 1,0,-" + newline, text(subscription.poll()));
+        ByteBuffer frame = ByteBuffer.wrap(binary.poll());
+        assertEquals(frame.capacity() - Integer.BYTES, frame.getInt());
+        assertEquals(BinaryProtocol.SNAPSHOT, frame.get());
+        assertEquals(5, frame.getLong());
+        assertEquals(text(board.boardMessage()), text(BinaryProtocol.boardMessage(frame)));
+
+        board.flag(5, 7);
+        watchers.tick();
+        subscription.poll();
+        frame = ByteBuffer.wrap(binary.poll());
+        frame.getInt();
+        assertEquals(BinaryProtocol.DELTA, frame.get());
+        assertEquals(5, frame.getLong());
+        assertEquals(6, frame.getLong());
+        assertEquals(1, frame.getInt());
+        assertEquals(7, frame.getInt());
+        assertEquals(5, frame.getInt());
+        assertEquals(BinaryProtocol.FLAGGED, frame.get());
+        assertFalse(frame.hasRemaining());
+        assertFalse(watchers.remove(subscription));
+        assertTrue(watchers.remove(binary));
+    }
+
+    @Test
+    public void slowWatchersAreResynchronized() {
+        Board board = BoardGenerator.withMines(100, 100, 2, 0);
+        RoomWatchers watchers = new RoomWatchers(board);
+        Subscription subscription = new Subscription(false);
+        watchers.add(subscription);
+        for (int tick = 0; tick <= Subscription.MAX_QUEUED; tick++) {
+            board.flag(tick, tick);
+            watchers.tick();
+        }
+        // the snapshot and the changes of MAX_QUEUED - 1 ticks fill the queue, and the last changes overflow it
+        assertNull(subscription.poll());
+        board.flag(50, 50);
+        watchers.tick();
+        assertTrue(text(subscription.poll()).startsWith("board %d%n".formatted(board.version())));
+        board.deflag(50, 50);
+        watchers.tick();
+        assertTrue(text(subscription.poll()).startsWith("changed "));
+    }
+
+    @Test
+    public void protocolWatchesAndUnwatches() {
+        MinesweeperProtocol protocol = new MinesweeperProtocol(
+                new RoomRegistry(BoardGenerator.withMines(10, 10, 4, 10)), true);
+        assertEquals("Watching room main.", text(protocol.handleRequest("watch")));
+        Subscription subscription = protocol.subscription();
+        assertEquals("Stopped watching.", text(protocol.handleRequest("unwatch")));
+        assertNull(protocol.subscription());
+        assertTrue(subscription.closed());
+        protocol.handleRequest("watch");
+        protocol.handleRequest("create other");
+        assertNull(protocol.subscription());
+        protocol.close();
+    }
+}